@@ -0,0 +1,137 @@
+/*
+ * Copyright 2016 Datawire. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.datawire.keystoreknife;
+
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.File;
+import java.io.IOException;
+import java.security.Key;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures how loading, listing, decrypting, replacing and saving scale with the number of entries in a JCEKS key store.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@Fork(1)
+public class KeyStoreKnifeBenchmark {
+
+  @Param({"10", "1000", "100000"})
+  public int entries;
+
+  @Param({"32", "64"})
+  public int keySize;
+
+  private File keyStoreFile;
+  private File outputFile;
+  private String alias;
+
+  private KeyStoreKnife created;
+  private KeyStoreKnife opened;
+  private KeyStoreKnife cached;
+  private DerivedKeyCache keyCache;
+
+  @Setup
+  public void setup() throws Exception {
+    keyStoreFile = SyntheticKeyStores.createTempFile("JCEKS");
+    outputFile = SyntheticKeyStores.createTempFile("JCEKS");
+    SyntheticKeyStores.writeJceks(keyStoreFile, entries, keySize);
+
+    alias = SyntheticKeyStores.alias(entries / 2);
+    created = KeyStoreKnife.create(keyStoreFile, "JCEKS", SyntheticKeyStores.KEY_STORE_PASSWORD);
+    opened = KeyStoreKnife.open(keyStoreFile, "JCEKS", SyntheticKeyStores.KEY_STORE_PASSWORD);
+
+    keyCache = new DerivedKeyCache(1024);
+    cached = KeyStoreKnife.open(keyStoreFile, "JCEKS", SyntheticKeyStores.KEY_STORE_PASSWORD);
+    cached.setKeyCache(keyCache);
+  }
+
+  @TearDown
+  public void tearDown() throws IOException {
+    keyCache.close();
+    keyStoreFile.delete();
+    outputFile.delete();
+  }
+
+  @Benchmark
+  public KeyStoreKnife create() {
+    return KeyStoreKnife.create(keyStoreFile, "JCEKS", SyntheticKeyStores.KEY_STORE_PASSWORD);
+  }
+
+  @Benchmark
+  public KeyStoreKnife open() {
+    return KeyStoreKnife.open(keyStoreFile, "JCEKS", SyntheticKeyStores.KEY_STORE_PASSWORD);
+  }
+
+  @Benchmark
+  public List<EntryMetadata> openAndListWithoutPassword() {
+    return KeyStoreKnife.open(keyStoreFile, "JCEKS", null).getMetadata((String) null);
+  }
+
+  @Benchmark
+  public List<EntryMetadata> listIndexedKeyStore() {
+    return opened.getMetadata((String) null);
+  }
+
+  @Benchmark
+  public Key getKeyFromLoadedKeyStore() {
+    return created.getKey(alias, SyntheticKeyStores.KEY_PASSWORD);
+  }
+
+  @Benchmark
+  public Key getKeyFromIndexedKeyStore() {
+    return opened.getKey(alias, SyntheticKeyStores.KEY_PASSWORD);
+  }
+
+  @Benchmark
+  public Key getKeyFromIndexedKeyStoreWithDerivedKeyCache() {
+    return cached.getKey(alias, SyntheticKeyStores.KEY_PASSWORD);
+  }
+
+  @Benchmark
+  public void replaceSecret() {
+    created.replaceSecret(alias, SyntheticKeyStores.KEY_PASSWORD, "YXBwbGVzYXVjZQ==", "base64");
+  }
+
+  @Benchmark
+  public void saveLoadedKeyStore() throws IOException {
+    created.save(outputFile, SyntheticKeyStores.KEY_STORE_PASSWORD, Durability.NONE);
+  }
+
+  @Benchmark
+  public void replaceAndSaveIndexedKeyStore() throws IOException {
+    KeyStoreKnife knife = KeyStoreKnife.open(keyStoreFile, "JCEKS", SyntheticKeyStores.KEY_STORE_PASSWORD);
+    knife.replaceSecret(alias, SyntheticKeyStores.KEY_PASSWORD, "YXBwbGVzYXVjZQ==", "base64");
+    knife.save(outputFile, SyntheticKeyStores.KEY_STORE_PASSWORD, Durability.NONE);
+  }
+}
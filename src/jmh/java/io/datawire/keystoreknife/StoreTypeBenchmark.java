@@ -0,0 +1,109 @@
+/*
+ * Copyright 2016 Datawire. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.datawire.keystoreknife;
+
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.File;
+import java.io.IOException;
+import java.security.Key;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Compares the key store types that can hold secret keys. JKS cannot, so it is not part of the comparison. Every
+ * entry is protected separately during setup, which keeps the entry counts lower than in
+ * {@link KeyStoreKnifeBenchmark}.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@Fork(1)
+public class StoreTypeBenchmark {
+
+  @Param({"JCEKS", "PKCS12"})
+  public String type;
+
+  @Param({"10", "100", "1000"})
+  public int entries;
+
+  private File keyStoreFile;
+  private File outputFile;
+  private String alias;
+
+  private KeyStoreKnife knife;
+  private KeyStoreKnife cachedKnife;
+  private DerivedKeyCache keyCache;
+
+  @Setup
+  public void setup() throws Exception {
+    keyStoreFile = SyntheticKeyStores.createTempFile(type);
+    outputFile = SyntheticKeyStores.createTempFile(type);
+    SyntheticKeyStores.write(keyStoreFile, type, entries, 32);
+
+    alias = SyntheticKeyStores.alias(entries / 2);
+    knife = KeyStoreKnife.create(keyStoreFile, type, SyntheticKeyStores.KEY_STORE_PASSWORD);
+
+    keyCache = new DerivedKeyCache(entries);
+    cachedKnife = KeyStoreKnife.create(keyStoreFile, type, SyntheticKeyStores.KEY_STORE_PASSWORD);
+    cachedKnife.setKeyCache(keyCache);
+  }
+
+  @TearDown
+  public void tearDown() throws IOException {
+    keyCache.close();
+    keyStoreFile.delete();
+    outputFile.delete();
+  }
+
+  @Benchmark
+  public KeyStoreKnife create() {
+    return KeyStoreKnife.create(keyStoreFile, type, SyntheticKeyStores.KEY_STORE_PASSWORD);
+  }
+
+  @Benchmark
+  public Key getKey() {
+    return knife.getKey(alias, SyntheticKeyStores.KEY_PASSWORD);
+  }
+
+  @Benchmark
+  public Key getKeyWithDerivedKeyCache() {
+    return cachedKnife.getKey(alias, SyntheticKeyStores.KEY_PASSWORD);
+  }
+
+  @Benchmark
+  public void replaceSecret() {
+    knife.replaceSecret(alias, SyntheticKeyStores.KEY_PASSWORD, "YXBwbGVzYXVjZQ==", "base64");
+  }
+
+  @Benchmark
+  public void save() throws IOException {
+    knife.save(outputFile, SyntheticKeyStores.KEY_STORE_PASSWORD, Durability.NONE);
+  }
+}
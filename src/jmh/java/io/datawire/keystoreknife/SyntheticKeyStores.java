@@ -0,0 +1,113 @@
+/*
+ * Copyright 2016 Datawire. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.datawire.keystoreknife;
+
+
+import javax.crypto.spec.SecretKeySpec;
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.security.DigestOutputStream;
+import java.security.KeyStore;
+import java.security.MessageDigest;
+import java.util.Random;
+
+/**
+ * Builds key stores with many secret key entries for the benchmarks.
+ */
+final class SyntheticKeyStores {
+
+  static final String KEY_STORE_PASSWORD = "notasecret";
+  static final String KEY_PASSWORD = "notasecret";
+
+  private SyntheticKeyStores() {
+  }
+
+  static String alias(int entry) {
+    return "entry-" + entry;
+  }
+
+  /**
+   * Writes a key store of the given type through the {@link KeyStore} API, protecting every entry separately.
+   */
+  static void write(File file, String type, int entries, int keySize) throws Exception {
+    KeyStore keyStore = KeyStore.getInstance(type);
+    keyStore.load(null, null);
+
+    Random random = new Random(entries);
+    KeyStore.PasswordProtection protection = new KeyStore.PasswordProtection(KEY_PASSWORD.toCharArray());
+    for (int i = 0; i < entries; i++) {
+      byte[] secret = new byte[keySize];
+      random.nextBytes(secret);
+      keyStore.setEntry(alias(i), new KeyStore.SecretKeyEntry(new SecretKeySpec(secret, "HmacSHA256")), protection);
+    }
+
+    try (FileOutputStream output = new FileOutputStream(file)) {
+      keyStore.store(output, KEY_STORE_PASSWORD.toCharArray());
+    }
+  }
+
+  /**
+   * Writes a JCEKS key store by protecting a single entry and repeating its sealed bytes under every alias. This
+   * makes stores with 100k entries practical to set up; every entry decrypts to the same secret.
+   */
+  static void writeJceks(File file, int entries, int keySize) throws Exception {
+    File template = File.createTempFile("template", ".jceks");
+    try {
+      write(template, "JCEKS", 1, keySize);
+
+      KeyStoreIndex index = KeyStoreIndex.read(template, null);
+      KeyStoreIndex.Entry entry = index.getEntry(alias(0));
+      ByteBuffer entryBytes = index.getEntryBytes(entry);
+
+      // tag, alias and creation date come before the sealed key
+      entryBytes.position(4 + 2 + alias(0).length() + 8);
+      byte[] sealed = new byte[entryBytes.remaining()];
+      entryBytes.get(sealed);
+
+      MessageDigest digest = KeyStoreIndex.getPreKeyedHash(KEY_STORE_PASSWORD.toCharArray());
+      try (DataOutputStream output = new DataOutputStream(new DigestOutputStream(new FileOutputStream(file), digest))) {
+        output.writeInt(KeyStoreIndex.JCEKS_MAGIC);
+        output.writeInt(2);
+        output.writeInt(entries);
+
+        long creationDate = entry.getCreationDate().getTime();
+        for (int i = 0; i < entries; i++) {
+          output.writeInt(3); // secret key entry
+          output.writeUTF(alias(i));
+          output.writeLong(creationDate);
+          output.write(sealed);
+        }
+
+        output.flush();
+        output.write(digest.digest());
+      }
+    } finally {
+      if (!template.delete()) {
+        template.deleteOnExit();
+      }
+    }
+  }
+
+  static File createTempFile(String type) throws IOException {
+    File result = File.createTempFile("benchmark", "." + type.toLowerCase());
+    result.deleteOnExit();
+    return result;
+  }
+}
@@ -0,0 +1,93 @@
+/*
+ * Copyright 2016 Datawire. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.datawire.keystoreknife.codec;
+
+
+import com.google.common.io.BaseEncoding;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.nio.ByteBuffer;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Compares the built-in secret codecs with the Guava encodings they replace.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class SecretCodecBenchmark {
+
+  @Param({"base16", "base32", "base64"})
+  public String encoding;
+
+  @Param({"32", "1024"})
+  public int keySize;
+
+  private SecretCodec codec;
+  private BaseEncoding guava;
+  private byte[] key;
+  private String encoded;
+  private ByteBuffer decoded;
+
+  @Setup
+  public void setup() {
+    codec = SecretCodecs.get(encoding);
+    guava = "base16".equals(encoding) ? BaseEncoding.base16()
+        : "base32".equals(encoding) ? BaseEncoding.base32() : BaseEncoding.base64();
+
+    key = new byte[keySize];
+    new Random(keySize).nextBytes(key);
+    encoded = codec.encode(key);
+    decoded = ByteBuffer.allocate(codec.maxDecodedLength(encoded.length()));
+  }
+
+  @Benchmark
+  public String encodeCodec() {
+    return codec.encode(key);
+  }
+
+  @Benchmark
+  public String encodeGuava() {
+    return guava.encode(key);
+  }
+
+  @Benchmark
+  public ByteBuffer decodeCodec() {
+    decoded.clear();
+    codec.decode(encoded, decoded);
+    return decoded;
+  }
+
+  @Benchmark
+  public byte[] decodeGuava() {
+    return guava.decode(encoded);
+  }
+}
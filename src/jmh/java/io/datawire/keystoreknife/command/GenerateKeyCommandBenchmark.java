@@ -0,0 +1,97 @@
+/*
+ * Copyright 2016 Datawire. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.datawire.keystoreknife.command;
+
+
+import com.google.common.io.BaseEncoding;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures the secret encodings used by replace-secret and the output builders of generate-mac-secret.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class GenerateKeyCommandBenchmark {
+
+  @Param({"32", "64", "1024"})
+  public int keySize;
+
+  private final GenerateKeyCommand command = new GenerateKeyCommand();
+
+  private byte[] key;
+  private String base16;
+  private String base32;
+  private String base64;
+  private String base64Url;
+
+  @Setup
+  public void setup() {
+    key = new byte[keySize];
+    new Random(keySize).nextBytes(key);
+
+    base16 = BaseEncoding.base16().encode(key);
+    base32 = BaseEncoding.base32().encode(key);
+    base64 = BaseEncoding.base64().encode(key);
+    base64Url = BaseEncoding.base64Url().encode(key);
+  }
+
+  @Benchmark
+  public byte[] decodeBase16() {
+    return BaseEncoding.base16().decode(base16);
+  }
+
+  @Benchmark
+  public byte[] decodeBase32() {
+    return BaseEncoding.base32().decode(base32);
+  }
+
+  @Benchmark
+  public byte[] decodeBase64() {
+    return BaseEncoding.base64().decode(base64);
+  }
+
+  @Benchmark
+  public byte[] decodeBase64Url() {
+    return BaseEncoding.base64Url().decode(base64Url);
+  }
+
+  @Benchmark
+  public String buildJsonFormat() {
+    return command.buildJsonFormat(key);
+  }
+
+  @Benchmark
+  public String buildLineFormat() {
+    return command.buildLineFormat(key);
+  }
+}
@@ -0,0 +1,229 @@
+/*
+ * Copyright 2016 Datawire. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.datawire.keystoreknife;
+
+
+import com.google.common.util.concurrent.Striped;
+
+import javax.crypto.SecretKey;
+import java.io.File;
+import java.io.IOException;
+import java.security.Key;
+import java.security.KeyStore;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+/**
+ * A {@link KeyStoreKnife} that can be shared between threads, for services that embed the knife rather than run it as
+ * a command. Every alias hashes to one of a fixed number of read/write locks: reads of an alias share its lock and
+ * writes to it take the lock exclusively, so a read always sees the last write to the alias that completed before it
+ * started, and writes to aliases on other stripes run side by side.
+ *
+ * <p>Writes that swap the knife's entries wholesale (setting many keys at once, copying entries in) and saves take a
+ * key store wide lock exclusively, which single alias writes share. Reads never take that lock, so a save waits for,
+ * and holds off, writers only. Readers may still wait on the key store provider's own lock while the entries that
+ * have to be encoded are written into memory, but never while the saved file is written and forced to disk.</p>
+ */
+public final class ConcurrentKeyStoreKnife {
+
+  public static final int DEFAULT_STRIPES = 64;
+
+  private final KeyStoreKnife knife;
+  private final Striped<ReadWriteLock> aliasLocks;
+
+  // shared by single alias writes, held exclusively by saves and by writes that replace the knife's entries
+  private final ReadWriteLock storeLock = new ReentrantReadWriteLock();
+
+  public ConcurrentKeyStoreKnife(KeyStoreKnife knife) {
+    this(knife, DEFAULT_STRIPES);
+  }
+
+  public ConcurrentKeyStoreKnife(KeyStoreKnife knife, int stripes) {
+    this.knife = knife;
+    this.aliasLocks = Striped.readWriteLock(stripes);
+  }
+
+  public static ConcurrentKeyStoreKnife open(File keyStoreFile, String type, String password) {
+    return new ConcurrentKeyStoreKnife(KeyStoreKnife.open(keyStoreFile, type, password));
+  }
+
+  public Key getKey(String alias, char[] password) {
+    Lock lock = readLock(alias);
+    lock.lock();
+    try {
+      return knife.getKey(alias, password);
+    } finally {
+      lock.unlock();
+    }
+  }
+
+  public SecretKey getSecretKey(String alias, char[] password) {
+    Lock lock = readLock(alias);
+    lock.lock();
+    try {
+      return knife.getSecretKey(alias, password);
+    } finally {
+      lock.unlock();
+    }
+  }
+
+  /**
+   * Returns the decrypted entry for an alias or {@code null} if there is none; see
+   * {@link KeyStoreKnife#getEntry(String, char[])}.
+   */
+  public KeyStore.Entry getEntry(String alias, char[] password) {
+    Lock lock = readLock(alias);
+    lock.lock();
+    try {
+      return knife.getEntry(alias, password);
+    } finally {
+      lock.unlock();
+    }
+  }
+
+  /**
+   * Returns the aliases matching a glob pattern. The list is not taken under any lock, so aliases being added while it
+   * is built may or may not be in it.
+   */
+  public List<String> getAliases(String pattern) {
+    return knife.getAliases(pattern);
+  }
+
+  /**
+   * Replaces the secret of an alias, keeping its algorithm. Reading the current key and writing the new one happen
+   * under the alias's lock, so no other write to the alias can come in between.
+   */
+  public void replaceSecret(String alias, String password, String newSecret, String encoding) {
+    storeLock.readLock().lock();
+    Lock lock = writeLock(alias);
+    lock.lock();
+    try {
+      knife.replaceSecret(alias, password, newSecret, encoding);
+    } finally {
+      lock.unlock();
+      storeLock.readLock().unlock();
+    }
+  }
+
+  public void setSecretKey(String alias, KeyStore.SecretKeyEntry entry, char[] password) {
+    storeLock.readLock().lock();
+    Lock lock = writeLock(alias);
+    lock.lock();
+    try {
+      knife.setSecretKey(alias, entry, password);
+    } finally {
+      lock.unlock();
+      storeLock.readLock().unlock();
+    }
+  }
+
+  /**
+   * Sets many secret keys at once; see {@link KeyStoreKnife#setSecretKeys(Map, char[], ForkJoinPool)}. Readers of
+   * the aliases being set wait until every key is in.
+   */
+  public void setSecretKeys(Map<String, KeyStore.SecretKeyEntry> entries, char[] password, ForkJoinPool pool) {
+    List<Lock> locks = lockExclusively(entries.keySet());
+    try {
+      knife.setSecretKeys(entries, password, pool);
+    } finally {
+      unlock(locks);
+    }
+  }
+
+  /**
+   * Copies entries, still encrypted, from another key store; see
+   * {@link KeyStoreKnife#copyEntries(KeyStoreIndex, Collection)}.
+   */
+  public void copyEntries(KeyStoreIndex source, Collection<String> aliases) {
+    List<Lock> locks = lockExclusively(aliases);
+    try {
+      knife.copyEntries(source, aliases);
+    } finally {
+      unlock(locks);
+    }
+  }
+
+  public void setKeyCache(DerivedKeyCache keyCache) {
+    knife.setKeyCache(keyCache);
+  }
+
+  /**
+   * Saves every write that completed before the save started. Writes wait for the save to finish; reads wait at most
+   * for the changed entries to be encoded, not for the file to be written.
+   */
+  public void save(File outputFile, String password, Durability durability) throws IOException {
+    storeLock.writeLock().lock();
+    try {
+      knife.save(outputFile, password, durability);
+    } finally {
+      storeLock.writeLock().unlock();
+    }
+  }
+
+  // the store lock is always taken before any alias lock, and bulk gets return the alias locks in a fixed order, so
+  // writers cannot deadlock one another
+  private List<Lock> lockExclusively(Collection<String> aliases) {
+    List<String> normalized = new ArrayList<>(aliases.size());
+    for (String alias : aliases) {
+      normalized.add(normalize(alias));
+    }
+
+    List<Lock> locks = new ArrayList<>();
+    locks.add(storeLock.writeLock());
+    for (ReadWriteLock aliasLock : aliasLocks.bulkGet(normalized)) {
+      locks.add(aliasLock.writeLock());
+    }
+
+    List<Lock> held = new ArrayList<>(locks.size());
+    try {
+      for (Lock lock : locks) {
+        lock.lock();
+        held.add(lock);
+      }
+    } catch (RuntimeException ex) {
+      unlock(held);
+      throw ex;
+    }
+    return held;
+  }
+
+  private static void unlock(List<Lock> locks) {
+    for (int i = locks.size() - 1; i >= 0; i--) {
+      locks.get(i).unlock();
+    }
+  }
+
+  private Lock readLock(String alias) {
+    return aliasLocks.get(normalize(alias)).readLock();
+  }
+
+  private Lock writeLock(String alias) {
+    return aliasLocks.get(normalize(alias)).writeLock();
+  }
+
+  // JKS and JCEKS aliases are case insensitive, so "Key" and "key" must share a lock
+  private static String normalize(String alias) {
+    return alias.toLowerCase(Locale.ENGLISH);
+  }
+}
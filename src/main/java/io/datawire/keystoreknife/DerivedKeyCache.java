@@ -0,0 +1,188 @@
+/*
+ * Copyright 2016 Datawire. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.datawire.keystoreknife;
+
+
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.cache.RemovalListener;
+import com.google.common.hash.HashCode;
+import com.google.common.hash.Hashing;
+
+import javax.crypto.SecretKey;
+import javax.crypto.spec.SecretKeySpec;
+import java.io.Closeable;
+import java.nio.CharBuffer;
+import java.nio.charset.StandardCharsets;
+import java.security.SecureRandom;
+import java.util.Arrays;
+import java.util.Locale;
+import java.util.Objects;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * A bounded, process-local cache of the secret keys decrypted by one or more knives. The JDK providers derive the key
+ * that protects an entry from its password, salt and iteration count inside every {@code getKey}, and that derivation
+ * is what makes reading an entry slow; the salt and iteration count are fixed for as long as the entry is not
+ * written, so caching the decrypted key for an alias and password skips the derivation on every read after the first.
+ *
+ * <p>Entries are keyed by the knife, the alias and a salted fingerprint of the password, never the password itself.
+ * Knives drop an alias from the cache when they write it. The key material is held in arrays this cache owns; they are
+ * zeroed when an entry is evicted or invalidated and when the cache is closed. Callers get their own copy. Only secret
+ * keys are cached.</p>
+ */
+public final class DerivedKeyCache implements Closeable {
+
+  private final Cache<CacheKey, CachedKey> cache;
+
+  // salted so that the password fingerprints mean nothing outside this cache
+  private final byte[] fingerprintSalt = new byte[32];
+
+  private final AtomicLong hits = new AtomicLong();
+  private final AtomicLong misses = new AtomicLong();
+
+  public DerivedKeyCache(int maxEntries) {
+    RemovalListener<CacheKey, CachedKey> zeroOnRemoval = notification -> notification.getValue().zero();
+    this.cache = CacheBuilder.newBuilder()
+        .maximumSize(maxEntries)
+        .removalListener(zeroOnRemoval)
+        .build();
+
+    new SecureRandom().nextBytes(fingerprintSalt);
+  }
+
+  /**
+   * Returns a copy of the cached key or {@code null}. The generation is the knife's count of writes; keys cached under
+   * an earlier generation are never returned, so a read that raced a write cannot bring back the old key.
+   */
+  SecretKey get(Object owner, long generation, String alias, char[] password) {
+    CachedKey cached = cache.getIfPresent(new CacheKey(owner, generation, alias, fingerprint(password)));
+    SecretKey result = cached != null ? cached.toSecretKey() : null;
+    if (result == null) {
+      misses.incrementAndGet();
+    } else {
+      hits.incrementAndGet();
+    }
+    return result;
+  }
+
+  void put(Object owner, long generation, String alias, char[] password, SecretKey key) {
+    byte[] encoded = key.getEncoded();
+    if (encoded != null) {
+      CacheKey cacheKey = new CacheKey(owner, generation, alias, fingerprint(password));
+      cache.put(cacheKey, new CachedKey(encoded, key.getAlgorithm()));
+    }
+  }
+
+  /**
+   * Drops, and zeroes, every cached key for an alias of a knife, whatever the generation or password.
+   */
+  void invalidate(Object owner, String alias) {
+    String normalized = alias.toLowerCase(Locale.ENGLISH);
+    for (CacheKey key : cache.asMap().keySet()) {
+      if (key.owner == owner && key.alias.equals(normalized)) {
+        cache.invalidate(key);
+      }
+    }
+  }
+
+  public long size() {
+    cache.cleanUp();
+    return cache.size();
+  }
+
+  public long getHitCount() {
+    return hits.get();
+  }
+
+  public long getMissCount() {
+    return misses.get();
+  }
+
+  /**
+   * Zeroes and drops every cached key.
+   */
+  @Override
+  public void close() {
+    cache.invalidateAll();
+    cache.cleanUp();
+  }
+
+  private HashCode fingerprint(char[] password) {
+    return Hashing.sha256().newHasher()
+        .putBytes(fingerprintSalt)
+        .putString(CharBuffer.wrap(password), StandardCharsets.UTF_8)
+        .hash();
+  }
+
+  private static final class CacheKey {
+
+    private final Object owner;
+    private final long generation;
+    private final String alias;
+    private final HashCode passwordFingerprint;
+
+    CacheKey(Object owner, long generation, String alias, HashCode passwordFingerprint) {
+      this.owner = owner;
+      this.generation = generation;
+      this.alias = alias.toLowerCase(Locale.ENGLISH);
+      this.passwordFingerprint = passwordFingerprint;
+    }
+
+    @Override
+    public boolean equals(Object other) {
+      if (this == other) {
+        return true;
+      }
+      if (!(other instanceof CacheKey)) {
+        return false;
+      }
+      CacheKey that = (CacheKey) other;
+      return owner == that.owner
+          && generation == that.generation
+          && alias.equals(that.alias)
+          && passwordFingerprint.equals(that.passwordFingerprint);
+    }
+
+    @Override
+    public int hashCode() {
+      return Objects.hash(System.identityHashCode(owner), generation, alias, passwordFingerprint);
+    }
+  }
+
+  private static final class CachedKey {
+
+    private final byte[] encoded;
+    private final String algorithm;
+    private boolean zeroed;
+
+    CachedKey(byte[] encoded, String algorithm) {
+      this.encoded = encoded;
+      this.algorithm = algorithm;
+    }
+
+    // returns null once zeroed, as an entry can be evicted between being looked up and being copied
+    synchronized SecretKey toSecretKey() {
+      return zeroed ? null : new SecretKeySpec(encoded, algorithm);
+    }
+
+    synchronized void zero() {
+      Arrays.fill(encoded, (byte) 0);
+      zeroed = true;
+    }
+  }
+}
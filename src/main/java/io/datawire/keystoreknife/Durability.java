@@ -0,0 +1,33 @@
+/*
+ * Copyright 2016 Datawire. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.datawire.keystoreknife;
+
+
+/**
+ * How hard a save works to make sure the written key store survives a crash or power loss.
+ */
+public enum Durability {
+
+  /** Leave flushing to the operating system. */
+  NONE,
+
+  /** Force the key store contents to disk before it is renamed into place. */
+  FILE,
+
+  /** Also force the directory so that the rename itself is on disk. */
+  DIRECTORY
+}
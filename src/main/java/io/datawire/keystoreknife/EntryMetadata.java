@@ -0,0 +1,56 @@
+/*
+ * Copyright 2016 Datawire. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.datawire.keystoreknife;
+
+
+import java.util.Date;
+
+/**
+ * What can be learnt about a key store entry without decrypting it: its alias, type and creation date, and for
+ * private key and trusted certificate entries the algorithm of the certificate's public key. The algorithm of a secret
+ * key is sealed along with the key, so it is {@code null} for secret key entries.
+ */
+public final class EntryMetadata {
+
+  private final String alias;
+  private final KeyStoreIndex.EntryType type;
+  private final long creationDate;
+  private final String algorithm;
+
+  EntryMetadata(String alias, KeyStoreIndex.EntryType type, Date creationDate, String algorithm) {
+    this.alias = alias;
+    this.type = type;
+    this.creationDate = creationDate != null ? creationDate.getTime() : 0;
+    this.algorithm = algorithm;
+  }
+
+  public String getAlias() {
+    return alias;
+  }
+
+  public KeyStoreIndex.EntryType getType() {
+    return type;
+  }
+
+  public Date getCreationDate() {
+    return new Date(creationDate);
+  }
+
+  public String getAlgorithm() {
+    return algorithm;
+  }
+}
@@ -0,0 +1,187 @@
+/*
+ * Copyright 2016 Datawire. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.datawire.keystoreknife;
+
+
+import io.datawire.keystoreknife.exception.KeyStoreKnifeException;
+import io.datawire.keystoreknife.metrics.Metrics;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+import java.security.KeyStore;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+
+/**
+ * Converts key stores from one type to another, e.g. JCEKS to PKCS12. Entries are decrypted and re-protected a batch
+ * at a time on a pool, so no more than one batch of entries is ever held decrypted.
+ *
+ * <p>JKS and JCEKS targets are streamed to disk entry by entry as each batch is re-protected, so memory stays bounded
+ * whatever the size of the key store. Other targets, PKCS12 included, can only be written by their provider in one go
+ * and hold every (still protected) entry until the end; their provider also protects entries one at a time, so only
+ * decryption runs in parallel for them. Reading the source through {@link KeyStoreKnife#open(File, String, String)}
+ * keeps JKS and JCEKS sources mapped rather than loaded.</p>
+ */
+public final class KeyStoreConverter {
+
+  public static final int DEFAULT_BATCH_SIZE = 256;
+
+  private final ForkJoinPool pool;
+  private final int batchSize;
+
+  public KeyStoreConverter(ForkJoinPool pool, int batchSize) {
+    if (batchSize < 1) {
+      throw new IllegalArgumentException("Batch size must be at least 1");
+    }
+
+    this.pool = pool;
+    this.batchSize = batchSize;
+  }
+
+  /**
+   * Writes every entry of the source to a new key store of the target type and returns the number of entries
+   * written. Key entries are decrypted with the source key password and protected with the target key password.
+   */
+  @SuppressWarnings("try")
+  public int convert(KeyStoreKnife source, char[] sourceKeyPassword, File targetFile, String targetType,
+                     char[] targetPassword, char[] targetKeyPassword, Durability durability) {
+
+    List<String> aliases = source.getAliases(null);
+    try (Metrics.Sample sample = Metrics.get().start("convert", targetFile.getAbsolutePath()).entries(aliases.size())) {
+      if (KeyStoreIndex.isSupported(targetType)) {
+        KeyStoreKnife.replace(targetFile, durability, temporary -> {
+          try (FileChannel output = FileChannel.open(temporary, StandardOpenOption.WRITE)) {
+            KeyStoreStreamWriter writer = new KeyStoreStreamWriter(targetType, aliases.size(), output, targetPassword);
+            for (List<String> batch : batches(aliases)) {
+              List<ForkJoinTask<KeyStoreIndex>> encoded = new ArrayList<>(batch.size());
+              for (String alias : batch) {
+                encoded.add(pool.submit(() -> encodeEntry(source, alias, sourceKeyPassword, targetType, targetKeyPassword)));
+              }
+
+              for (ForkJoinTask<KeyStoreIndex> entry : encoded) {
+                writer.write(entry.join());
+              }
+            }
+            writer.finish();
+          }
+        });
+      } else {
+        KeyStore target = KeyStoreKnife.createKeyStore(targetType);
+        target.load(null, null);
+
+        for (List<String> batch : batches(aliases)) {
+          List<ForkJoinTask<KeyStore.Entry>> decrypted = new ArrayList<>(batch.size());
+          for (String alias : batch) {
+            decrypted.add(pool.submit(() -> readEntry(source, alias, sourceKeyPassword)));
+          }
+
+          for (int i = 0; i < batch.size(); i++) {
+            KeyStore.Entry entry = decrypted.get(i).join();
+            target.setEntry(batch.get(i), entry, protection(entry, targetKeyPassword));
+          }
+        }
+
+        KeyStoreKnife.replace(targetFile, durability, temporary -> {
+          try (FileOutputStream output = new FileOutputStream(temporary.toFile())) {
+            target.store(output, targetPassword);
+          }
+        });
+      }
+    } catch (KeyStoreKnifeException ex) {
+      throw ex;
+    } catch (Exception ex) {
+      throw new KeyStoreKnifeException("Unable to convert keystore", ex);
+    }
+
+    return aliases.size();
+  }
+
+  /**
+   * Decrypts entries from both key stores and returns the aliases of those that are missing from the target or differ
+   * from the source. Every entry of the source is checked if the sample size is zero or less, otherwise a random
+   * sample of that many entries.
+   */
+  public List<String> verify(KeyStoreKnife source, char[] sourceKeyPassword, KeyStoreKnife target,
+                             char[] targetKeyPassword, int sampleSize) {
+
+    List<String> aliases = new ArrayList<>(source.getAliases(null));
+    if (sampleSize > 0 && sampleSize < aliases.size()) {
+      Collections.shuffle(aliases, new Random());
+      aliases = new ArrayList<>(aliases.subList(0, sampleSize));
+      Collections.sort(aliases);
+    }
+
+    List<String> mismatched = new ArrayList<>();
+    for (List<String> batch : batches(aliases)) {
+      List<ForkJoinTask<Boolean>> checks = new ArrayList<>(batch.size());
+      for (String alias : batch) {
+        checks.add(pool.submit(() -> {
+          KeyStore.Entry converted = target.getEntry(alias, targetKeyPassword);
+          return converted != null
+              && KeyStoreDiff.isSameEntry(readEntry(source, alias, sourceKeyPassword), converted);
+        }));
+      }
+
+      for (int i = 0; i < batch.size(); i++) {
+        if (!checks.get(i).join()) {
+          mismatched.add(batch.get(i));
+        }
+      }
+    }
+
+    return mismatched;
+  }
+
+  private List<List<String>> batches(List<String> aliases) {
+    List<List<String>> result = new ArrayList<>();
+    for (int start = 0; start < aliases.size(); start += batchSize) {
+      result.add(aliases.subList(start, Math.min(aliases.size(), start + batchSize)));
+    }
+    return result;
+  }
+
+  private static KeyStore.Entry readEntry(KeyStoreKnife source, String alias, char[] keyPassword) {
+    KeyStore.Entry entry = source.getEntry(alias, keyPassword);
+    if (entry == null) {
+      throw new KeyStoreKnifeException(String.format("Entry disappeared while converting (alias: %s)", alias), null);
+    }
+    return entry;
+  }
+
+  private static KeyStoreIndex encodeEntry(KeyStoreKnife source, String alias, char[] sourceKeyPassword,
+                                           String targetType, char[] targetKeyPassword) {
+    KeyStore.Entry entry = readEntry(source, alias, sourceKeyPassword);
+    try {
+      KeyStore single = KeyStoreKnife.createKeyStore(targetType);
+      single.load(null, null);
+      single.setEntry(alias, entry, protection(entry, targetKeyPassword));
+      return KeyStoreKnife.encode(single);
+    } catch (Exception ex) {
+      throw new KeyStoreKnifeException(String.format("Unable to convert entry (alias: %s)", alias), ex);
+    }
+  }
+
+  private static KeyStore.ProtectionParameter protection(KeyStore.Entry entry, char[] keyPassword) {
+    return entry instanceof KeyStore.TrustedCertificateEntry ? null : new KeyStore.PasswordProtection(keyPassword);
+  }
+}
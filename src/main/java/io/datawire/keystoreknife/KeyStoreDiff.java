@@ -0,0 +1,273 @@
+/*
+ * Copyright 2016 Datawire. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.datawire.keystoreknife;
+
+
+import com.google.common.hash.HashCode;
+import io.datawire.keystoreknife.exception.KeyStoreKnifeException;
+import io.datawire.keystoreknife.metrics.Metrics;
+
+import java.security.Key;
+import java.security.KeyStore;
+import java.security.MessageDigest;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.TreeSet;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+
+/**
+ * The differences between two JKS or JCEKS key stores. Entries are first compared by a SHA-256 fingerprint of their
+ * encoded (still encrypted) bytes, which covers the alias, creation date and protected key; only entries whose
+ * fingerprints differ are decrypted to tell a re-protected copy of the same key from a changed one.
+ */
+public final class KeyStoreDiff {
+
+  public enum Status {
+
+    /** The encoded entries are byte for byte the same. */
+    IDENTICAL,
+
+    /** The encoded entries differ but hold the same key or certificate. */
+    EQUIVALENT,
+
+    /** The entries hold different keys or certificates, or keys that were not decrypted for want of a password. */
+    CHANGED,
+
+    ONLY_LEFT,
+
+    ONLY_RIGHT
+  }
+
+  private final KeyStoreIndex left;
+  private final KeyStoreIndex right;
+  private final List<Difference> differences;
+
+  private KeyStoreDiff(KeyStoreIndex left, KeyStoreIndex right, List<Difference> differences) {
+    this.left = left;
+    this.right = right;
+    this.differences = Collections.unmodifiableList(differences);
+  }
+
+  /**
+   * Compares two key stores. Entries whose encoded bytes differ are decrypted on the pool with the key password; if
+   * the key password is {@code null} only certificates are compared and differing key entries are reported as
+   * {@link Status#CHANGED}.
+   */
+  public static KeyStoreDiff compare(KeyStoreIndex left, KeyStoreIndex right, char[] keyPassword, ForkJoinPool pool) {
+    if (!left.getType().equals(right.getType())) {
+      throw new IllegalArgumentException(
+          String.format("Unable to compare a %s key store with a %s key store", left.getType(), right.getType()));
+    }
+
+    try (Metrics.Sample sample = Metrics.get().start("diff", null)) {
+      List<Difference> differences = compare(left, right, keyPassword, pool, sample);
+      return new KeyStoreDiff(left, right, differences);
+    }
+  }
+
+  private static List<Difference> compare(KeyStoreIndex left, KeyStoreIndex right, char[] keyPassword,
+                                          ForkJoinPool pool, Metrics.Sample sample) {
+
+    ForkJoinTask<Map<String, HashCode>> leftFingerprints = pool.submit(() -> fingerprints(left));
+    Map<String, HashCode> rightFingerprints = fingerprints(right);
+
+    Map<String, HashCode> leftResult = leftFingerprints.join();
+    Collection<String> aliases = new TreeSet<>(leftResult.keySet());
+    aliases.addAll(rightFingerprints.keySet());
+
+    Map<String, ForkJoinTask<Status>> pending = new TreeMap<>();
+    for (String alias : aliases) {
+      HashCode leftFingerprint = leftResult.get(alias);
+      HashCode rightFingerprint = rightFingerprints.get(alias);
+      if (leftFingerprint != null && rightFingerprint != null && !leftFingerprint.equals(rightFingerprint)) {
+        pending.put(alias, pool.submit(() -> compareEntry(left, right, alias, keyPassword)));
+      }
+    }
+
+    List<Difference> differences = new ArrayList<>(aliases.size());
+    for (String alias : aliases) {
+      HashCode leftFingerprint = leftResult.get(alias);
+      HashCode rightFingerprint = rightFingerprints.get(alias);
+
+      Status status;
+      if (rightFingerprint == null) {
+        status = Status.ONLY_LEFT;
+      } else if (leftFingerprint == null) {
+        status = Status.ONLY_RIGHT;
+      } else if (leftFingerprint.equals(rightFingerprint)) {
+        status = Status.IDENTICAL;
+      } else {
+        status = pending.get(alias).join();
+      }
+
+      differences.add(new Difference(alias, status, leftFingerprint, rightFingerprint));
+    }
+
+    sample.entries(left.getEntries().size() + right.getEntries().size());
+    return differences;
+  }
+
+  public KeyStoreIndex getLeft() {
+    return left;
+  }
+
+  public KeyStoreIndex getRight() {
+    return right;
+  }
+
+  /**
+   * Returns one difference for every alias in either key store, in alias order, including identical entries.
+   */
+  public List<Difference> getDifferences() {
+    return differences;
+  }
+
+  /**
+   * Returns the aliases of the entries with any of the given statuses, in alias order.
+   */
+  public List<String> getAliases(Status... statuses) {
+    List<Status> wanted = Arrays.asList(statuses);
+    List<String> result = new ArrayList<>();
+    for (Difference difference : differences) {
+      if (wanted.contains(difference.status)) {
+        result.add(difference.alias);
+      }
+    }
+    return result;
+  }
+
+  /**
+   * Returns the SHA-256 fingerprint of every entry's encoded bytes, by alias in alias order.
+   */
+  static Map<String, HashCode> fingerprints(KeyStoreIndex index) {
+    try {
+      MessageDigest digest = MessageDigest.getInstance("SHA-256");
+      Map<String, HashCode> result = new TreeMap<>();
+      for (KeyStoreIndex.Entry entry : index.getEntries()) {
+        digest.update(index.getEntryBytes(entry));
+        result.put(entry.getAlias(), HashCode.fromBytes(digest.digest()));
+      }
+      return result;
+    } catch (Exception ex) {
+      throw new KeyStoreKnifeException("Unable to fingerprint key store entries", ex);
+    }
+  }
+
+  private static Status compareEntry(KeyStoreIndex left, KeyStoreIndex right, String alias, char[] keyPassword) {
+    KeyStoreIndex.EntryType type = left.getEntry(alias).getType();
+    if (type != right.getEntry(alias).getType()) {
+      return Status.CHANGED;
+    }
+
+    if (type != KeyStoreIndex.EntryType.TRUSTED_CERTIFICATE && keyPassword == null) {
+      return Status.CHANGED;
+    }
+
+    try {
+      KeyStore.ProtectionParameter protection = type == KeyStoreIndex.EntryType.TRUSTED_CERTIFICATE
+          ? null
+          : new KeyStore.PasswordProtection(keyPassword);
+
+      KeyStore.Entry leftEntry = left.loadEntry(alias).getEntry(alias, protection);
+      KeyStore.Entry rightEntry = right.loadEntry(alias).getEntry(alias, protection);
+      return isSameEntry(leftEntry, rightEntry) ? Status.EQUIVALENT : Status.CHANGED;
+    } catch (Exception ex) {
+      throw new KeyStoreKnifeException(String.format("Unable to compare entry '%s'", alias), ex);
+    }
+  }
+
+  /**
+   * Indicates whether two decrypted entries hold the same key, certificate chain or trusted certificate.
+   */
+  static boolean isSameEntry(KeyStore.Entry left, KeyStore.Entry right) {
+    if (left instanceof KeyStore.TrustedCertificateEntry && right instanceof KeyStore.TrustedCertificateEntry) {
+      return ((KeyStore.TrustedCertificateEntry) left).getTrustedCertificate()
+          .equals(((KeyStore.TrustedCertificateEntry) right).getTrustedCertificate());
+    }
+
+    if (left instanceof KeyStore.PrivateKeyEntry && right instanceof KeyStore.PrivateKeyEntry) {
+      KeyStore.PrivateKeyEntry leftPrivate = (KeyStore.PrivateKeyEntry) left;
+      KeyStore.PrivateKeyEntry rightPrivate = (KeyStore.PrivateKeyEntry) right;
+      return isSameKey(leftPrivate.getPrivateKey(), rightPrivate.getPrivateKey())
+          && Arrays.equals(leftPrivate.getCertificateChain(), rightPrivate.getCertificateChain());
+    }
+
+    if (left instanceof KeyStore.SecretKeyEntry && right instanceof KeyStore.SecretKeyEntry) {
+      return isSameKey(((KeyStore.SecretKeyEntry) left).getSecretKey(), ((KeyStore.SecretKeyEntry) right).getSecretKey());
+    }
+
+    return false;
+  }
+
+  private static boolean isSameKey(Key left, Key right) {
+    byte[] leftEncoded = left.getEncoded();
+    byte[] rightEncoded = right.getEncoded();
+    try {
+      return left.getAlgorithm().equalsIgnoreCase(right.getAlgorithm()) && MessageDigest.isEqual(leftEncoded, rightEncoded);
+    } finally {
+      if (leftEncoded != null) {
+        Arrays.fill(leftEncoded, (byte) 0);
+      }
+      if (rightEncoded != null) {
+        Arrays.fill(rightEncoded, (byte) 0);
+      }
+    }
+  }
+
+  public static final class Difference {
+
+    private final String alias;
+    private final Status status;
+    private final HashCode leftFingerprint;
+    private final HashCode rightFingerprint;
+
+    Difference(String alias, Status status, HashCode leftFingerprint, HashCode rightFingerprint) {
+      this.alias = alias;
+      this.status = status;
+      this.leftFingerprint = leftFingerprint;
+      this.rightFingerprint = rightFingerprint;
+    }
+
+    public String getAlias() {
+      return alias;
+    }
+
+    public Status getStatus() {
+      return status;
+    }
+
+    /**
+     * Returns the fingerprint of the entry in the left key store or {@code null} if it has no such entry.
+     */
+    public HashCode getLeftFingerprint() {
+      return leftFingerprint;
+    }
+
+    /**
+     * Returns the fingerprint of the entry in the right key store or {@code null} if it has no such entry.
+     */
+    public HashCode getRightFingerprint() {
+      return rightFingerprint;
+    }
+  }
+}
@@ -0,0 +1,464 @@
+/*
+ * Copyright 2016 Datawire. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.datawire.keystoreknife;
+
+
+import io.datawire.keystoreknife.exception.KeyStoreKnifeException;
+import io.datawire.keystoreknife.metrics.Metrics;
+
+import java.io.DataInputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.security.KeyStore;
+import java.security.MessageDigest;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Date;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * An index over the entries of a JKS or JCEKS key store file. The file is memory-mapped and scanned once to record
+ * where each entry starts and ends; entries are only decrypted when asked for, by loading a key store that contains
+ * nothing but that entry.
+ */
+public final class KeyStoreIndex {
+
+  static final int JKS_MAGIC = 0xfeedfeed;
+  static final int JCEKS_MAGIC = 0xcececece;
+
+  static final int HEADER_LENGTH = 12;
+  static final int DIGEST_LENGTH = 20;
+
+  public enum EntryType {
+    PRIVATE_KEY(1),
+    TRUSTED_CERTIFICATE(2),
+    SECRET_KEY(3);
+
+    private final int tag;
+
+    EntryType(int tag) {
+      this.tag = tag;
+    }
+
+    static EntryType fromTag(int tag) throws IOException {
+      for (EntryType type : values()) {
+        if (type.tag == tag) {
+          return type;
+        }
+      }
+      throw new IOException("Unrecognized keystore entry");
+    }
+  }
+
+  private final Path source;
+  private final ByteBuffer buffer;
+  private final String type;
+  private final int magic;
+  private final int version;
+  private final int dataLength;
+  private final Map<String, Entry> entries;
+
+  private KeyStoreIndex(Path source, ByteBuffer buffer, String type, int magic, int version, int dataLength,
+                        Map<String, Entry> entries) {
+    this.source = source;
+    this.buffer = buffer;
+    this.type = type;
+    this.magic = magic;
+    this.version = version;
+    this.dataLength = dataLength;
+    this.entries = entries;
+  }
+
+  /**
+   * Indicates whether key stores of the given type can be indexed.
+   */
+  public static boolean isSupported(String type) {
+    return "jks".equalsIgnoreCase(type) || "jceks".equalsIgnoreCase(type);
+  }
+
+  /**
+   * Indicates whether the buffer starts with a JKS or JCEKS header.
+   */
+  public static boolean isIndexable(ByteBuffer buffer) {
+    if (buffer.remaining() < HEADER_LENGTH) {
+      return false;
+    }
+    int magic = buffer.getInt(buffer.position());
+    return magic == JKS_MAGIC || magic == JCEKS_MAGIC;
+  }
+
+  public static KeyStoreIndex read(File keyStoreFile, char[] password) {
+    try (FileChannel channel = FileChannel.open(keyStoreFile.toPath(), StandardOpenOption.READ);
+         Metrics.Sample sample = Metrics.get().start("index", keyStoreFile.getAbsolutePath())) {
+
+      ByteBuffer mapped = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+      KeyStoreIndex result = read(keyStoreFile.toPath(), mapped, password);
+      sample.bytes(mapped.capacity()).entries(result.entries.size());
+      return result;
+    } catch (IOException ex) {
+      throw new KeyStoreKnifeException(ex.getMessage(), ex);
+    }
+  }
+
+  /**
+   * Indexes a JKS or JCEKS key store. The integrity digest is checked while the entries are scanned unless the
+   * password is {@code null}.
+   */
+  public static KeyStoreIndex read(ByteBuffer source, char[] password) {
+    return read(null, source, password);
+  }
+
+  private static KeyStoreIndex read(Path sourceFile, ByteBuffer source, char[] password) {
+    try {
+      ByteBuffer buffer = source.slice();
+      DataInputStream input = new DataInputStream(new ByteBufferInputStream(buffer));
+
+      if (buffer.remaining() < HEADER_LENGTH) {
+        throw new IOException("Invalid keystore format");
+      }
+
+      int magic = input.readInt();
+      int version = input.readInt();
+      String type;
+      if (magic == JKS_MAGIC && (version == 1 || version == 2)) {
+        type = "JKS";
+      } else if (magic == JCEKS_MAGIC && version == 2) {
+        type = "JCEKS";
+      } else {
+        throw new IOException("Invalid keystore format");
+      }
+
+      int count = input.readInt();
+      Map<String, Entry> entries = new LinkedHashMap<>();
+      for (int i = 0; i < count; i++) {
+        Entry entry = readEntry(buffer, input, version);
+        entries.put(entry.getAlias(), entry);
+      }
+
+      int dataLength = buffer.position();
+      if (password != null) {
+        MessageDigest digest = getPreKeyedHash(password);
+        ByteBuffer data = buffer.duplicate();
+        data.position(0);
+        data.limit(dataLength);
+        digest.update(data);
+
+        byte[] expected = new byte[DIGEST_LENGTH];
+        input.readFully(expected);
+        if (!MessageDigest.isEqual(expected, digest.digest())) {
+          throw new IOException("Keystore was tampered with, or password was incorrect");
+        }
+      }
+
+      return new KeyStoreIndex(sourceFile, buffer, type, magic, version, dataLength, Collections.unmodifiableMap(entries));
+    } catch (IOException ex) {
+      throw new KeyStoreKnifeException(ex.getMessage(), ex);
+    }
+  }
+
+  private static Entry readEntry(ByteBuffer buffer, DataInputStream input, int version) throws IOException {
+    int offset = buffer.position();
+    EntryType entryType = EntryType.fromTag(input.readInt());
+    String alias = input.readUTF();
+    long creationDate = input.readLong();
+
+    switch (entryType) {
+      case PRIVATE_KEY:
+        skip(buffer, input.readInt());
+        int chainLength = input.readInt();
+        for (int i = 0; i < chainLength; i++) {
+          if (version == 2) {
+            input.readUTF();
+          }
+          skip(buffer, input.readInt());
+        }
+        break;
+      case TRUSTED_CERTIFICATE:
+        if (version == 2) {
+          input.readUTF();
+        }
+        skip(buffer, input.readInt());
+        break;
+      case SECRET_KEY:
+        // secret keys are a serialized sealed object with no length in front of it; its end is found by walking the
+        // serialization stream without decrypting or deserializing anything. A stream holding anything a sealed object
+        // is not made of is rejected rather than read back, since this runs before the integrity of the file has been
+        // checked and without any password at all.
+        if (!SerializedObjectSkipper.skip(buffer)) {
+          throw new IOException(String.format("Unsupported secret key entry (alias: %s)", alias));
+        }
+        break;
+    }
+
+    return new Entry(alias, entryType, creationDate, offset, buffer.position() - offset);
+  }
+
+  private static void skip(ByteBuffer buffer, int length) throws IOException {
+    if (length < 0 || length > buffer.remaining()) {
+      throw new IOException("Invalid keystore format");
+    }
+    buffer.position(buffer.position() + length);
+  }
+
+  static MessageDigest getPreKeyedHash(char[] password) {
+    try {
+      MessageDigest digest = MessageDigest.getInstance("SHA");
+      byte[] passwordBytes = new byte[password.length * 2];
+      for (int i = 0, j = 0; i < password.length; i++) {
+        passwordBytes[j++] = (byte) (password[i] >> 8);
+        passwordBytes[j++] = (byte) password[i];
+      }
+      digest.update(passwordBytes);
+      digest.update("Mighty Aphrodite".getBytes(StandardCharsets.UTF_8));
+      Arrays.fill(passwordBytes, (byte) 0);
+      return digest;
+    } catch (Exception ex) {
+      throw new KeyStoreKnifeException("Unable to create keystore digest", ex);
+    }
+  }
+
+  public String getType() {
+    return type;
+  }
+
+  public Collection<Entry> getEntries() {
+    return entries.values();
+  }
+
+  /**
+   * Returns the file the index was read from or {@code null} if it was read from a buffer.
+   */
+  public Path getSource() {
+    return source;
+  }
+
+  /**
+   * Returns the entry for an alias or {@code null} if there is none. Aliases are case-insensitive like they are in
+   * the JKS and JCEKS key stores themselves.
+   */
+  public Entry getEntry(String alias) {
+    return entries.get(alias.toLowerCase(Locale.ENGLISH));
+  }
+
+  /**
+   * Returns a read-only view of the encoded (still encrypted) bytes of an entry.
+   */
+  public ByteBuffer getEntryBytes(Entry entry) {
+    ByteBuffer result = buffer.asReadOnlyBuffer();
+    result.position(entry.offset);
+    result.limit(entry.offset + entry.length);
+    return result.slice();
+  }
+
+  /**
+   * Loads a key store that contains only the entry for the given alias so that it can be decrypted without touching
+   * any other entry. Returns {@code null} if there is no such entry.
+   */
+  public KeyStore loadEntry(String alias) {
+    Entry entry = getEntry(alias);
+    if (entry == null) {
+      return null;
+    }
+    return subset(Collections.singleton(alias)).toKeyStore();
+  }
+
+  /**
+   * Returns an index over a new buffer that holds only the entries for the given aliases, still encrypted. Aliases
+   * without an entry are ignored. The subset has no integrity digest.
+   */
+  public KeyStoreIndex subset(Collection<String> aliases) {
+    Set<Entry> selected = new LinkedHashSet<>();
+    int length = HEADER_LENGTH;
+    for (String alias : aliases) {
+      Entry entry = getEntry(alias);
+      if (entry != null && selected.add(entry)) {
+        length += entry.length;
+      }
+    }
+
+    ByteBuffer subset = ByteBuffer.allocate(length);
+    subset.putInt(magic).putInt(version).putInt(selected.size());
+    for (Entry entry : selected) {
+      subset.put(getEntryBytes(entry));
+    }
+    subset.flip();
+
+    return read(subset, null);
+  }
+
+  /**
+   * Indicates whether the entries of another index can be spliced into this one.
+   */
+  public boolean isSpliceCompatible(KeyStoreIndex other) {
+    return magic == other.magic && version == other.version;
+  }
+
+  /**
+   * Writes a key store made of this index's entries with those in {@code changes} put in their place. The bytes of
+   * untouched entries are written through unchanged, straight from the mapped source file, so only the changed
+   * entries need to have been encoded. The integrity digest is recomputed for the new password.
+   */
+  public void splice(KeyStoreIndex changes, WritableByteChannel output, char[] password) throws IOException {
+    if (!isSpliceCompatible(changes)) {
+      throw new IllegalArgumentException("Key store formats differ");
+    }
+
+    MessageDigest digest = getPreKeyedHash(password);
+
+    int count = changes.entries.size();
+    for (String alias : entries.keySet()) {
+      if (!changes.entries.containsKey(alias)) {
+        count++;
+      }
+    }
+
+    ByteBuffer header = ByteBuffer.allocate(HEADER_LENGTH);
+    header.putInt(magic).putInt(version).putInt(count);
+    header.flip();
+    write(header, digest, output);
+
+    int runStart = HEADER_LENGTH;
+    int runEnd = HEADER_LENGTH;
+    for (Entry entry : entries.values()) {
+      if (changes.entries.containsKey(entry.alias)) {
+        write(range(runStart, runEnd), digest, output);
+        runStart = entry.offset + entry.length;
+      }
+      runEnd = entry.offset + entry.length;
+    }
+    write(range(runStart, runEnd), digest, output);
+
+    for (Entry entry : changes.entries.values()) {
+      write(changes.getEntryBytes(entry), digest, output);
+    }
+
+    write(ByteBuffer.wrap(digest.digest()), null, output);
+  }
+
+  private ByteBuffer range(int start, int end) {
+    ByteBuffer result = buffer.asReadOnlyBuffer();
+    result.position(start);
+    result.limit(end);
+    return result;
+  }
+
+  private static void write(ByteBuffer bytes, MessageDigest digest, WritableByteChannel output) throws IOException {
+    if (digest != null) {
+      digest.update(bytes.duplicate());
+    }
+    while (bytes.hasRemaining()) {
+      output.write(bytes);
+    }
+  }
+
+  /**
+   * Loads every entry into a regular key store. The integrity digest is not checked again.
+   */
+  public KeyStore toKeyStore() {
+    ByteBuffer data = buffer.asReadOnlyBuffer();
+    data.position(0);
+    data.limit(dataLength);
+    return load(new ByteBufferInputStream(data.slice()));
+  }
+
+  private KeyStore load(InputStream input) {
+    try {
+      KeyStore result = KeyStore.getInstance(type);
+      result.load(input, null);
+      return result;
+    } catch (Exception ex) {
+      throw new KeyStoreKnifeException(ex.getMessage(), ex);
+    }
+  }
+
+  public static final class Entry {
+
+    private final String alias;
+    private final EntryType type;
+    private final long creationDate;
+    private final int offset;
+    private final int length;
+
+    Entry(String alias, EntryType type, long creationDate, int offset, int length) {
+      this.alias = alias;
+      this.type = type;
+      this.creationDate = creationDate;
+      this.offset = offset;
+      this.length = length;
+    }
+
+    public String getAlias() {
+      return alias;
+    }
+
+    public EntryType getType() {
+      return type;
+    }
+
+    public Date getCreationDate() {
+      return new Date(creationDate);
+    }
+
+    public int getLength() {
+      return length;
+    }
+  }
+
+  static final class ByteBufferInputStream extends InputStream {
+
+    private final ByteBuffer buffer;
+
+    ByteBufferInputStream(ByteBuffer buffer) {
+      this.buffer = buffer;
+    }
+
+    @Override
+    public int read() {
+      return buffer.hasRemaining() ? buffer.get() & 0xff : -1;
+    }
+
+    @Override
+    public int read(byte[] bytes, int offset, int length) {
+      if (length == 0) {
+        return 0;
+      }
+      if (!buffer.hasRemaining()) {
+        return -1;
+      }
+      int count = Math.min(length, buffer.remaining());
+      buffer.get(bytes, offset, count);
+      return count;
+    }
+
+    @Override
+    public int available() {
+      return buffer.remaining();
+    }
+  }
+}
@@ -0,0 +1,415 @@
+/*
+ * Copyright 2016 Datawire. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.datawire.keystoreknife;
+
+
+import io.datawire.keystoreknife.exception.KeyStoreKnifeException;
+import io.datawire.keystoreknife.metrics.Metrics;
+
+import javax.crypto.AEADBadTagException;
+import javax.crypto.Cipher;
+import javax.crypto.SecretKey;
+import javax.crypto.SecretKeyFactory;
+import javax.crypto.spec.GCMParameterSpec;
+import javax.crypto.spec.PBEKeySpec;
+import javax.crypto.spec.SecretKeySpec;
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.security.GeneralSecurityException;
+import java.security.KeyStore;
+import java.security.MessageDigest;
+import java.security.SecureRandom;
+import java.util.Arrays;
+import java.util.Map;
+
+/**
+ * An append-only journal of the secret keys set on a knife since its key store was last saved, kept next to the key
+ * store file. Every {@code setSecretKey}, {@code replaceSecret} and {@code setSecretKeys} on a journaled knife appends
+ * a record before it returns, so a batch of edits survives a crash without saving the whole key store after each of
+ * them; the journal is replayed when the key store is opened again through
+ * {@link KeyStoreKnife#openJournaled(File, String, String, Durability)} and emptied by the next save of the key store.
+ *
+ * <p>A record holds the alias, the key and the password that protects it, encrypted with AES-GCM under a key derived
+ * from the key store password with PBKDF2 and a salt of the journal's own, so the journal needs to be guarded like the
+ * key store and its password together. Records are authenticated with their position, so they cannot be reordered or
+ * dropped from the middle. A record cut short by a crash is discarded along with anything after it; any other record
+ * that fails to authenticate fails the replay.</p>
+ *
+ * <p>The header records a digest of the key store file the journal was started against and a random epoch that is
+ * renewed whenever the journal is emptied; both are authenticated with every record. A journal whose key store has
+ * since been saved by something else, or an older journal copied back in place, is refused rather than replayed over
+ * the newer file, unless it holds no records, in which case it is simply started afresh.</p>
+ */
+public final class KeyStoreJournal {
+
+  public static final String SUFFIX = ".journal";
+
+  private static final byte[] MAGIC = "KSKJ".getBytes(StandardCharsets.US_ASCII);
+  private static final byte VERSION = 2;
+  private static final int SALT_LENGTH = 16;
+  private static final int EPOCH_LENGTH = 16;
+  private static final int DIGEST_LENGTH = 32;
+  private static final int ITERATIONS = 65536;
+  private static final int NONCE_LENGTH = 12;
+  private static final int TAG_BITS = 128;
+  private static final int TAG_LENGTH = TAG_BITS / 8;
+
+  // magic, version, salt, iterations, epoch, key store digest and the tag of an empty record that checks the password
+  // and authenticates the rest of the header
+  static final int HEADER_LENGTH =
+      MAGIC.length + 1 + SALT_LENGTH + 4 + EPOCH_LENGTH + DIGEST_LENGTH + NONCE_LENGTH + TAG_LENGTH;
+
+  private static final byte OPERATION_SET_SECRET_KEY = 1;
+
+  private static final SecureRandom RANDOM = new SecureRandom();
+
+  private final Path path;
+  private final byte[] salt;
+  private final int iterations;
+  private final SecretKey key;
+  private final Durability durability;
+  private byte[] epoch;
+  private long records;
+
+  private KeyStoreJournal(Path path, byte[] salt, int iterations, SecretKey key, Durability durability, byte[] epoch,
+                          long records) {
+    this.path = path;
+    this.salt = salt;
+    this.iterations = iterations;
+    this.key = key;
+    this.durability = durability;
+    this.epoch = epoch;
+    this.records = records;
+  }
+
+  public static File journalFile(File keyStoreFile) {
+    return new File(keyStoreFile.getPath() + SUFFIX);
+  }
+
+  /**
+   * Opens the journal of a key store file, creating an empty one if there is none, and sets the secret keys it records
+   * on the knife. A record cut short by a crash is truncated away. Appends are forced to disk unless the durability is
+   * {@link Durability#NONE}. A journal with records that was not started against the key store file as it is now is
+   * refused.
+   */
+  static KeyStoreJournal open(File keyStoreFile, char[] password, Durability durability, KeyStoreKnife knife) {
+    Path path = journalFile(keyStoreFile).toPath().toAbsolutePath();
+    try (Metrics.Sample sample = Metrics.get().start("journal-replay", path.toString())) {
+      byte[] digest = digest(keyStoreFile);
+      if (!Files.exists(path)) {
+        byte[] salt = new byte[SALT_LENGTH];
+        RANDOM.nextBytes(salt);
+        KeyStoreJournal journal = new KeyStoreJournal(
+            path, salt, ITERATIONS, deriveKey(password, salt, ITERATIONS), durability, null, 0);
+        journal.writeHeader(digest);
+        return journal;
+      }
+
+      ByteBuffer contents = ByteBuffer.wrap(Files.readAllBytes(path));
+      Header header = readHeader(contents, password);
+      KeyStoreJournal journal = new KeyStoreJournal(
+          path, header.salt, header.iterations, header.key, durability, header.epoch, 0);
+
+      if (!MessageDigest.isEqual(header.digest, digest)) {
+        if (contents.hasRemaining()) {
+          throw new KeyStoreKnifeException(String.format(
+              "Journal was not written against the current key store, which has been saved since; "
+                  + "remove the journal to discard it (path: %s)", path), null);
+        }
+        journal.writeHeader(digest);
+        return journal;
+      }
+
+      long records = 0;
+      long validLength = contents.position();
+      while (contents.remaining() >= 4) {
+        int length = contents.getInt();
+        if (length > contents.remaining()) {
+          break;
+        }
+        if (length < NONCE_LENGTH + TAG_LENGTH) {
+          throw new KeyStoreKnifeException(String.format("Corrupt journal record (record: %d)", records), null);
+        }
+
+        byte[] sealed = new byte[length];
+        contents.get(sealed);
+        byte[] record;
+        try {
+          record = open(header.key, records, header.epoch, sealed);
+        } catch (AEADBadTagException ex) {
+          if (contents.hasRemaining()) {
+            throw new KeyStoreKnifeException(String.format("Corrupt journal record (record: %d)", records), ex);
+          }
+          break;
+        }
+
+        try {
+          apply(knife, ByteBuffer.wrap(record));
+        } finally {
+          Arrays.fill(record, (byte) 0);
+        }
+        records++;
+        validLength = contents.position();
+      }
+
+      if (validLength < contents.capacity()) {
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.WRITE)) {
+          channel.truncate(validLength);
+          channel.force(false);
+        }
+      }
+
+      sample.entries(records);
+      journal.records = records;
+      return journal;
+    } catch (KeyStoreKnifeException ex) {
+      throw ex;
+    } catch (Exception ex) {
+      throw new KeyStoreKnifeException(String.format("Unable to open journal (path: %s)", path), ex);
+    }
+  }
+
+  private static Header readHeader(ByteBuffer contents, char[] password) throws GeneralSecurityException {
+    byte[] magic = new byte[MAGIC.length];
+    if (contents.remaining() < HEADER_LENGTH || !Arrays.equals(readBytes(contents, magic), MAGIC)) {
+      throw new KeyStoreKnifeException("Not a keystore journal", null);
+    }
+
+    byte version = contents.get();
+    if (version != VERSION) {
+      throw new KeyStoreKnifeException(String.format("Unsupported journal version %d", version), null);
+    }
+
+    Header header = new Header();
+    header.salt = readBytes(contents, new byte[SALT_LENGTH]);
+    header.iterations = contents.getInt();
+    header.key = deriveKey(password, header.salt, header.iterations);
+    header.epoch = readBytes(contents, new byte[EPOCH_LENGTH]);
+    header.digest = readBytes(contents, new byte[DIGEST_LENGTH]);
+    try {
+      open(header.key, -1, headerContext(header.epoch, header.digest),
+          readBytes(contents, new byte[NONCE_LENGTH + TAG_LENGTH]));
+    } catch (AEADBadTagException ex) {
+      throw new KeyStoreKnifeException("Journal was tampered with, or password was incorrect", ex);
+    }
+    return header;
+  }
+
+  /**
+   * Replaces the journal with an empty one under a new epoch, started against a key store with the given digest.
+   */
+  private void writeHeader(byte[] keyStoreDigest) throws Exception {
+    byte[] nextEpoch = new byte[EPOCH_LENGTH];
+    RANDOM.nextBytes(nextEpoch);
+
+    ByteBuffer header = ByteBuffer.allocate(HEADER_LENGTH);
+    header.put(MAGIC).put(VERSION).put(salt).putInt(iterations).put(nextEpoch).put(keyStoreDigest);
+    header.put(seal(key, -1, headerContext(nextEpoch, keyStoreDigest), new byte[0]));
+    KeyStoreKnife.replace(path.toFile(), durability, temporary -> Files.write(temporary, header.array()));
+
+    epoch = nextEpoch;
+    records = 0;
+  }
+
+  private static void apply(KeyStoreKnife knife, ByteBuffer record) {
+    byte operation = record.get();
+    if (operation != OPERATION_SET_SECRET_KEY) {
+      throw new KeyStoreKnifeException(String.format("Unknown journal operation %d", operation), null);
+    }
+
+    String alias = readString(record);
+    String algorithm = readString(record);
+    byte[] encoded = readBytes(record, new byte[record.getInt()]);
+    char[] password = new char[record.getInt()];
+    for (int i = 0; i < password.length; i++) {
+      password[i] = record.getChar();
+    }
+
+    try {
+      knife.setSecretKey(alias, new KeyStore.SecretKeyEntry(new SecretKeySpec(encoded, algorithm)), password);
+    } finally {
+      Arrays.fill(encoded, (byte) 0);
+      Arrays.fill(password, '\0');
+    }
+  }
+
+  /**
+   * Appends a record for every entry with a single write, forced to disk once for the lot.
+   */
+  synchronized void append(Map<String, KeyStore.SecretKeyEntry> entries, char[] password) {
+    try (Metrics.Sample sample = Metrics.get().start("journal-append", path.toString()).entries(entries.size())) {
+      ByteArrayOutputStream buffer = new ByteArrayOutputStream(entries.size() * 128);
+      DataOutputStream output = new DataOutputStream(buffer);
+      long sequence = records;
+      for (Map.Entry<String, KeyStore.SecretKeyEntry> entry : entries.entrySet()) {
+        byte[] record = encode(entry.getKey(), entry.getValue().getSecretKey(), password);
+        try {
+          byte[] sealed = seal(key, sequence++, epoch, record);
+          output.writeInt(sealed.length);
+          output.write(sealed);
+        } finally {
+          Arrays.fill(record, (byte) 0);
+        }
+      }
+
+      try (FileChannel channel = FileChannel.open(path, StandardOpenOption.WRITE, StandardOpenOption.APPEND)) {
+        ByteBuffer bytes = ByteBuffer.wrap(buffer.toByteArray());
+        while (bytes.hasRemaining()) {
+          channel.write(bytes);
+        }
+        if (durability != Durability.NONE) {
+          channel.force(false);
+        }
+      }
+      sample.bytes(buffer.size());
+      records = sequence;
+    } catch (Exception ex) {
+      throw new KeyStoreKnifeException(String.format("Unable to append to journal (path: %s)", path), ex);
+    }
+  }
+
+  /**
+   * Empties the journal once the key store it belongs to has been saved with every change it records, and starts it
+   * against the saved file.
+   */
+  synchronized void reset(File keyStoreFile) {
+    try {
+      writeHeader(digest(keyStoreFile));
+    } catch (Exception ex) {
+      throw new KeyStoreKnifeException(String.format("Unable to reset journal (path: %s)", path), ex);
+    }
+  }
+
+  boolean isJournalOf(File keyStoreFile) {
+    return journalFile(keyStoreFile).toPath().toAbsolutePath().normalize().equals(path.normalize());
+  }
+
+  /**
+   * Returns the number of records appended since the key store was last saved.
+   */
+  public synchronized long getRecordCount() {
+    return records;
+  }
+
+  public Path getPath() {
+    return path;
+  }
+
+  private static byte[] encode(String alias, SecretKey secretKey, char[] password) throws IOException {
+    byte[] encoded = secretKey.getEncoded();
+    ByteBuffer record = ByteBuffer.allocate(
+        1 + 4 + alias.length() * 3 + 4 + secretKey.getAlgorithm().length() * 3 + 4 + encoded.length
+            + 4 + password.length * 2);
+    try {
+      record.put(OPERATION_SET_SECRET_KEY);
+      writeString(record, alias);
+      writeString(record, secretKey.getAlgorithm());
+      record.putInt(encoded.length).put(encoded);
+      record.putInt(password.length);
+      for (char c : password) {
+        record.putChar(c);
+      }
+      return Arrays.copyOf(record.array(), record.position());
+    } finally {
+      Arrays.fill(encoded, (byte) 0);
+      Arrays.fill(record.array(), (byte) 0);
+    }
+  }
+
+  private static void writeString(ByteBuffer record, String value) {
+    byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+    record.putInt(bytes.length).put(bytes);
+  }
+
+  private static String readString(ByteBuffer record) {
+    return new String(readBytes(record, new byte[record.getInt()]), StandardCharsets.UTF_8);
+  }
+
+  private static byte[] readBytes(ByteBuffer source, byte[] destination) {
+    source.get(destination);
+    return destination;
+  }
+
+  private static byte[] digest(File keyStoreFile) throws IOException, GeneralSecurityException {
+    return MessageDigest.getInstance("SHA-256").digest(Files.readAllBytes(keyStoreFile.toPath()));
+  }
+
+  private static byte[] headerContext(byte[] epoch, byte[] keyStoreDigest) {
+    return ByteBuffer.allocate(EPOCH_LENGTH + DIGEST_LENGTH).put(epoch).put(keyStoreDigest).array();
+  }
+
+  // the sequence number of a record is authenticated along with it and the journal's epoch; the header's password
+  // check uses -1 and authenticates the epoch and key store digest instead
+
+  private static byte[] seal(SecretKey key, long sequence, byte[] context, byte[] plaintext)
+      throws GeneralSecurityException {
+
+    byte[] nonce = new byte[NONCE_LENGTH];
+    RANDOM.nextBytes(nonce);
+
+    Cipher cipher = Cipher.getInstance("AES/GCM/NoPadding");
+    cipher.init(Cipher.ENCRYPT_MODE, key, new GCMParameterSpec(TAG_BITS, nonce));
+    cipher.updateAAD(ByteBuffer.allocate(8).putLong(sequence).array());
+    cipher.updateAAD(context);
+
+    byte[] sealed = new byte[NONCE_LENGTH + cipher.getOutputSize(plaintext.length)];
+    System.arraycopy(nonce, 0, sealed, 0, NONCE_LENGTH);
+    cipher.doFinal(plaintext, 0, plaintext.length, sealed, NONCE_LENGTH);
+    return sealed;
+  }
+
+  private static byte[] open(SecretKey key, long sequence, byte[] context, byte[] sealed)
+      throws GeneralSecurityException {
+
+    Cipher cipher = Cipher.getInstance("AES/GCM/NoPadding");
+    cipher.init(Cipher.DECRYPT_MODE, key, new GCMParameterSpec(TAG_BITS, sealed, 0, NONCE_LENGTH));
+    cipher.updateAAD(ByteBuffer.allocate(8).putLong(sequence).array());
+    cipher.updateAAD(context);
+    return cipher.doFinal(sealed, NONCE_LENGTH, sealed.length - NONCE_LENGTH);
+  }
+
+  private static SecretKey deriveKey(char[] password, byte[] salt, int iterations) throws GeneralSecurityException {
+    PBEKeySpec spec = new PBEKeySpec(password, salt, iterations, 256);
+    try {
+      byte[] derived = SecretKeyFactory.getInstance("PBKDF2WithHmacSHA256").generateSecret(spec).getEncoded();
+      try {
+        return new SecretKeySpec(derived, "AES");
+      } finally {
+        Arrays.fill(derived, (byte) 0);
+      }
+    } finally {
+      spec.clearPassword();
+    }
+  }
+
+  private static final class Header {
+
+    private byte[] salt;
+    private int iterations;
+    private SecretKey key;
+    private byte[] epoch;
+    private byte[] digest;
+  }
+}
@@ -17,44 +17,303 @@
 package io.datawire.keystoreknife;
 
 
-import com.google.common.io.BaseEncoding;
+import com.google.common.io.ByteStreams;
+import io.datawire.keystoreknife.codec.SecretDecoding;
 import io.datawire.keystoreknife.exception.KeyStoreKnifeException;
+import io.datawire.keystoreknife.metrics.Metrics;
 
 import javax.crypto.SecretKey;
 import javax.crypto.spec.SecretKeySpec;
+import java.io.ByteArrayOutputStream;
 import java.io.File;
 import java.io.FileInputStream;
-import java.io.FileOutputStream;
 import java.io.IOException;
-import java.nio.charset.StandardCharsets;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.FileSystems;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.PosixFileAttributeView;
 import java.security.Key;
 import java.security.KeyStore;
 import java.security.KeyStoreException;
+import java.security.cert.Certificate;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Date;
+import java.util.Enumeration;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
 import java.util.Objects;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.function.BiConsumer;
+import java.util.regex.Pattern;
 
 public class KeyStoreKnife {
 
-  private final KeyStore keyStore;
+  // the buffer secrets given as strings are decoded into, kept per thread; it is zeroed after every use
+  private static final int MAX_RETAINED_DECODE_BUFFER = 8192;
+  private static final ThreadLocal<ByteBuffer> DECODE_BUFFER = ThreadLocal.withInitial(() -> ByteBuffer.allocate(256));
 
-  private KeyStoreKnife(KeyStore keyStore) {
+  private final KeyStoreIndex index;
+  private volatile KeyStore keyStore;
+
+  // the key store file, as it is labelled in the metrics, or null for a key store that was not read from a file
+  private final String name;
+
+  private volatile DerivedKeyCache keyCache;
+
+  // the number of times each alias has been written, so that a read racing a write never caches the old key
+  private final ConcurrentMap<String, Long> aliasGenerations = new ConcurrentHashMap<>();
+
+  // entries set on an indexed key store before it was fully loaded; these are the only entries a save re-encodes
+  private volatile KeyStore changes;
+
+  // records the secret keys set since the key store file was last saved, for a knife opened through openJournaled
+  private volatile KeyStoreJournal journal;
+
+  private KeyStoreKnife(KeyStore keyStore, String name) {
     this.keyStore = Objects.requireNonNull(keyStore, "Key store is null");
+    this.index = null;
+    this.name = name;
+  }
+
+  private KeyStoreKnife(KeyStoreIndex index) {
+    this.index = Objects.requireNonNull(index, "Key store index is null");
+    this.name = index.getSource() != null ? index.getSource().toAbsolutePath().toString() : null;
   }
 
+  /**
+   * Returns the underlying key store. A knife opened through {@link #open(File, String, String)} loads every entry
+   * the first time this is called.
+   */
   public KeyStore getKeyStore() {
-    return keyStore;
+    KeyStore result = keyStore;
+    if (result == null) {
+      synchronized (this) {
+        result = keyStore;
+        if (result == null) {
+          try (Metrics.Sample sample = Metrics.get().start("load", name)) {
+            keyStore = result = changes == null ? index.toKeyStore() : loadSpliced();
+            changes = null;
+            sample.entries(index.getEntries().size());
+          }
+        }
+      }
+    }
+    return result;
   }
 
   public Key getKey(String alias, String password) {
-    try {
-      return keyStore.getKey(alias, password.toCharArray());
+    return getKey(alias, password.toCharArray());
+  }
+
+  @SuppressWarnings("try")
+  public Key getKey(String alias, char[] password) {
+    try (Metrics.Sample sample = Metrics.get().start("decrypt", name).entries(1)) {
+      return readKey(alias, password);
     } catch (Exception ex) {
       throw new KeyStoreKnifeException(String.format("Unable to read key (alias: %s)", alias), ex);
     }
   }
 
-  public SecretKey getSecretKey(String alias, String password) {
+  /**
+   * Returns the aliases in the key store that match a glob pattern ({@code *} and {@code ?} wildcards) in alias
+   * order. A {@code null} pattern matches every alias.
+   */
+  public List<String> getAliases(String pattern) {
+    try {
+      Pattern regex = pattern == null ? null : globToRegex(pattern);
+      List<String> result = new ArrayList<>();
+      KeyStore changed = changes;
+      KeyStore loaded = keyStore;
+      if (loaded == null) {
+        Set<String> aliases = new HashSet<>();
+        for (KeyStoreIndex.Entry entry : index.getEntries()) {
+          aliases.add(entry.getAlias());
+        }
+        if (changed != null) {
+          aliases.addAll(Collections.list(changed.aliases()));
+        }
+        for (String alias : aliases) {
+          if (regex == null || regex.matcher(alias).matches()) {
+            result.add(alias);
+          }
+        }
+      } else {
+        Enumeration<String> aliases = loaded.aliases();
+        while (aliases.hasMoreElements()) {
+          String alias = aliases.nextElement();
+          if (regex == null || regex.matcher(alias).matches()) {
+            result.add(alias);
+          }
+        }
+      }
+
+      Collections.sort(result);
+      return result;
+    } catch (KeyStoreException ex) {
+      throw new KeyStoreKnifeException("Unable to list aliases", ex);
+    }
+  }
+
+  public List<EntryMetadata> getMetadata(String pattern) {
+    return getMetadata(pattern == null ? null : globToRegex(pattern));
+  }
+
+  /**
+   * Returns the metadata of the entries whose alias matches a regular expression, or of every entry if it is
+   * {@code null}, in alias order. Nothing is decrypted, so no key password is needed, and a knife opened through
+   * {@link #open(File, String, String)} with a {@code null} key store password, which skips the integrity check, can
+   * be listed too. Certificates are only parsed for the entries that have one.
+   */
+  public List<EntryMetadata> getMetadata(Pattern regex) {
+    try {
+      List<EntryMetadata> result = new ArrayList<>();
+      KeyStore changed = changes;
+      KeyStore loaded = keyStore;
+      if (loaded != null) {
+        for (String alias : Collections.list(loaded.aliases())) {
+          if (regex == null || regex.matcher(alias).matches()) {
+            result.add(metadata(loaded, alias));
+          }
+        }
+      } else {
+        for (KeyStoreIndex.Entry entry : index.getEntries()) {
+          String alias = entry.getAlias();
+          if ((regex == null || regex.matcher(alias).matches()) && (changed == null || !changed.containsAlias(alias))) {
+            String algorithm = entry.getType() == KeyStoreIndex.EntryType.SECRET_KEY
+                ? null
+                : algorithm(index.loadEntry(alias), alias);
+            result.add(new EntryMetadata(alias, entry.getType(), entry.getCreationDate(), algorithm));
+          }
+        }
+        if (changed != null) {
+          for (String alias : Collections.list(changed.aliases())) {
+            if (regex == null || regex.matcher(alias).matches()) {
+              result.add(metadata(changed, alias));
+            }
+          }
+        }
+      }
+
+      result.sort(Comparator.comparing(EntryMetadata::getAlias));
+      return result;
+    } catch (KeyStoreException ex) {
+      throw new KeyStoreKnifeException("Unable to read entry metadata", ex);
+    }
+  }
+
+  private static EntryMetadata metadata(KeyStore source, String alias) throws KeyStoreException {
+    KeyStoreIndex.EntryType type;
+    if (source.isCertificateEntry(alias)) {
+      type = KeyStoreIndex.EntryType.TRUSTED_CERTIFICATE;
+    } else if (source.entryInstanceOf(alias, KeyStore.PrivateKeyEntry.class)) {
+      type = KeyStoreIndex.EntryType.PRIVATE_KEY;
+    } else {
+      type = KeyStoreIndex.EntryType.SECRET_KEY;
+    }
+
+    String algorithm = type == KeyStoreIndex.EntryType.SECRET_KEY ? null : algorithm(source, alias);
+    return new EntryMetadata(alias, type, source.getCreationDate(alias), algorithm);
+  }
+
+  private static String algorithm(KeyStore source, String alias) throws KeyStoreException {
+    Certificate certificate = source.getCertificate(alias);
+    return certificate != null ? certificate.getPublicKey().getAlgorithm() : null;
+  }
+
+  /**
+   * Decrypts the keys for the given aliases on a fork-join pool and hands them to the consumer in the order the
+   * aliases were given. Decryption runs ahead of the consumer so a slow entry only delays the entries after it.
+   */
+  public void forEachKey(Collection<String> aliases, String password, ForkJoinPool pool, BiConsumer<String, Key> consumer) {
+    List<ForkJoinTask<Key>> tasks = new ArrayList<>(aliases.size());
+    for (String alias : aliases) {
+      tasks.add(pool.submit(() -> getKey(alias, password)));
+    }
+
+    int position = 0;
+    try {
+      for (String alias : aliases) {
+        consumer.accept(alias, tasks.get(position++).join());
+      }
+    } finally {
+      for (ForkJoinTask<Key> task : tasks) {
+        task.cancel(false);
+      }
+    }
+  }
+
+  /**
+   * Returns the decrypted entry for an alias or {@code null} if there is none. The password is not needed for trusted
+   * certificate entries.
+   */
+  @SuppressWarnings("try")
+  public KeyStore.Entry getEntry(String alias, char[] password) {
+    try (Metrics.Sample sample = Metrics.get().start("decrypt", name).entries(1)) {
+      DerivedKeyCache cache = keyCache;
+      long generation = generation(alias);
+      SecretKey cached = cache != null ? cache.get(this, generation, alias, password) : null;
+      if (cached != null) {
+        return new KeyStore.SecretKeyEntry(cached);
+      }
+
+      KeyStore source = readKeyStore(alias);
+      if (source == null || !source.containsAlias(alias)) {
+        return null;
+      }
+
+      KeyStore.ProtectionParameter protection = source.isCertificateEntry(alias)
+          ? null
+          : new KeyStore.PasswordProtection(password);
+
+      KeyStore.Entry result = source.getEntry(alias, protection);
+      if (cache != null && result instanceof KeyStore.SecretKeyEntry) {
+        cache.put(this, generation, alias, password, ((KeyStore.SecretKeyEntry) result).getSecretKey());
+      }
+      return result;
+    } catch (Exception ex) {
+      throw new KeyStoreKnifeException(String.format("Unable to read entry (alias: %s)", alias), ex);
+    }
+  }
+
+  /**
+   * Returns the date the entry for an alias was created or {@code null} if there is none. No entry is decrypted.
+   */
+  public Date getCreationDate(String alias) {
     try {
-      return (SecretKey) keyStore.getKey(alias, password.toCharArray());
+      KeyStore source = readKeyStore(alias);
+      return source != null ? source.getCreationDate(alias) : null;
+    } catch (KeyStoreException ex) {
+      throw new KeyStoreKnifeException(String.format("Unable to read creation date (alias: %s)", alias), ex);
+    }
+  }
+
+  public SecretKey getSecretKey(String alias, String password) {
+    return getSecretKey(alias, password.toCharArray());
+  }
+
+  @SuppressWarnings("try")
+  public SecretKey getSecretKey(String alias, char[] password) {
+    try (Metrics.Sample sample = Metrics.get().start("decrypt", name).entries(1)) {
+      return (SecretKey) readKey(alias, password);
     } catch (Exception ex) {
       throw new KeyStoreKnifeException(String.format("Unable to read key (alias: %s)", alias), ex);
     }
@@ -66,73 +325,586 @@ public class KeyStoreKnife {
   }
 
   public void replaceSecret(SecretKey currentKey, String alias, String password, String newSecret, String encoding) {
-    byte[] newSecretBytes = new byte[0];
-    switch(encoding.toLowerCase()) {
-      case "base16":
-        newSecretBytes = BaseEncoding.base16().decode(newSecret);
-        break;
-      case "base32":
-        newSecretBytes = BaseEncoding.base32().decode(newSecret);
-        break;
-      case "base32_hex":
-        newSecretBytes = BaseEncoding.base32Hex().decode(newSecret);
-        break;
-      case "base64":
-        newSecretBytes = BaseEncoding.base64().decode(newSecret);
-        break;
-      case "base64_url":
-        newSecretBytes = BaseEncoding.base64Url().decode(newSecret);
-        break;
-      case "plain":
-      default:
-        newSecretBytes = newSecret.getBytes(StandardCharsets.UTF_8);
-        break;
-    }
-
-    SecretKey newKey = new SecretKeySpec(newSecretBytes, currentKey.getAlgorithm());
-    KeyStore.SecretKeyEntry newKeyEntry = new KeyStore.SecretKeyEntry(newKey);
-    setSecretKey(alias, newKeyEntry, password);
+    int maxLength = SecretDecoding.maxDecodedLength(newSecret.length(), encoding);
+    ByteBuffer decoded = DECODE_BUFFER.get();
+    if (decoded.capacity() < maxLength) {
+      decoded = ByteBuffer.allocate(maxLength);
+      if (maxLength <= MAX_RETAINED_DECODE_BUFFER) {
+        DECODE_BUFFER.set(decoded);
+      }
+    }
+    replaceSecret(currentKey, alias, password.toCharArray(), newSecret, encoding, decoded);
   }
 
-  public void setSecretKey(String alias, KeyStore.SecretKeyEntry entry, String password) {
+  /**
+   * Replaces a secret without the secret or the password having to be held in a {@link String}. The secret is
+   * decoded into the given buffer, which may be direct, and the buffer is zeroed afterwards.
+   */
+  public void replaceSecret(String alias, char[] password, CharSequence newSecret, String encoding, ByteBuffer buffer) {
+    SecretKey key = getSecretKey(alias, password);
+    replaceSecret(key, alias, password, newSecret, encoding, buffer);
+  }
+
+  public void replaceSecret(SecretKey currentKey, String alias, char[] password, CharSequence newSecret,
+                            String encoding, ByteBuffer buffer) {
+
+    byte[] newSecretBytes = null;
     try {
-      KeyStore.ProtectionParameter protection = new KeyStore.PasswordProtection(password.toCharArray());
-      keyStore.setEntry(alias, entry, protection);
+      buffer.clear();
+      SecretDecoding.decode(newSecret, encoding, buffer);
+      buffer.flip();
+
+      // the key spec takes its own copy, so a heap buffer can be handed to it as it is
+      SecretKey newKey;
+      if (buffer.hasArray()) {
+        newKey = new SecretKeySpec(
+            buffer.array(), buffer.arrayOffset(), buffer.remaining(), currentKey.getAlgorithm());
+      } else {
+        newSecretBytes = new byte[buffer.remaining()];
+        buffer.get(newSecretBytes);
+        newKey = new SecretKeySpec(newSecretBytes, currentKey.getAlgorithm());
+      }
+      KeyStore.SecretKeyEntry newKeyEntry = new KeyStore.SecretKeyEntry(newKey);
+      setSecretKey(alias, newKeyEntry, password);
+    } finally {
+      SecretDecoding.zero(buffer);
+      if (newSecretBytes != null) {
+        Arrays.fill(newSecretBytes, (byte) 0);
+      }
+    }
+  }
+
+  public void setSecretKey(String alias, KeyStore.SecretKeyEntry entry, String password) {
+    setSecretKey(alias, entry, password.toCharArray());
+  }
+
+  @SuppressWarnings("try")
+  public void setSecretKey(String alias, KeyStore.SecretKeyEntry entry, char[] password) {
+    try (Metrics.Sample sample = Metrics.get().start("encrypt", name).entries(1)) {
+      // written ahead: a change that could not be journaled is not made at all
+      journal(Collections.singletonMap(alias, entry), password);
+      KeyStore.ProtectionParameter protection = new KeyStore.PasswordProtection(password);
+      writeKeyStore().setEntry(alias, entry, protection);
+      written(Collections.singleton(alias));
     } catch (Exception ex) {
       throw new KeyStoreKnifeException("Unable to set secret key", ex);
     }
   }
 
-  public void save(File outputFile, String password) throws IOException {
+  /**
+   * Sets an entry of any kind. The password protects key entries and is ignored for trusted certificate entries.
+   */
+  @SuppressWarnings("try")
+  public void setEntry(String alias, KeyStore.Entry entry, char[] password) {
+    if (entry instanceof KeyStore.SecretKeyEntry) {
+      setSecretKey(alias, (KeyStore.SecretKeyEntry) entry, password);
+      return;
+    }
+
+    try (Metrics.Sample sample = Metrics.get().start("encrypt", name).entries(1)) {
+      KeyStore.ProtectionParameter protection = entry instanceof KeyStore.TrustedCertificateEntry
+          ? null
+          : new KeyStore.PasswordProtection(password);
+      writeKeyStore().setEntry(alias, entry, protection);
+      written(Collections.singleton(alias));
+    } catch (Exception ex) {
+      throw new KeyStoreKnifeException(String.format("Unable to set entry (alias: %s)", alias), ex);
+    }
+  }
+
+  /**
+   * Sets many secret keys, all protected by the same password. A key store protects the entries set on it one at a
+   * time, so for JKS and JCEKS key stores the entries are protected in separate key stores on the pool and the
+   * results are spliced in afterwards. Other key store types set the entries one by one.
+   */
+  @SuppressWarnings("try")
+  public void setSecretKeys(Map<String, KeyStore.SecretKeyEntry> entries, char[] password, ForkJoinPool pool) {
+    String type = index != null ? index.getType() : keyStore.getType();
+    if (!KeyStoreIndex.isSupported(type) || entries.size() < 2) {
+      for (Map.Entry<String, KeyStore.SecretKeyEntry> entry : entries.entrySet()) {
+        setSecretKey(entry.getKey(), entry.getValue(), password);
+      }
+      return;
+    }
+
+    int partCount = Math.min(pool.getParallelism(), entries.size());
+    List<List<Map.Entry<String, KeyStore.SecretKeyEntry>>> parts = new ArrayList<>(partCount);
+    for (int i = 0; i < partCount; i++) {
+      parts.add(new ArrayList<>());
+    }
+
+    int next = 0;
+    for (Map.Entry<String, KeyStore.SecretKeyEntry> entry : entries.entrySet()) {
+      parts.get(next++ % partCount).add(entry);
+    }
+
+    List<ForkJoinTask<KeyStoreIndex>> tasks = new ArrayList<>(partCount);
+    for (List<Map.Entry<String, KeyStore.SecretKeyEntry>> part : parts) {
+      tasks.add(pool.submit(() -> {
+        try (Metrics.Sample sample = Metrics.get().start("encrypt", name).entries(part.size())) {
+          KeyStore partKeyStore = createKeyStore(type);
+          partKeyStore.load(null, null);
+
+          KeyStore.ProtectionParameter protection = new KeyStore.PasswordProtection(password);
+          for (Map.Entry<String, KeyStore.SecretKeyEntry> entry : part) {
+            partKeyStore.setEntry(entry.getKey(), entry.getValue(), protection);
+          }
+          return encode(partKeyStore);
+        }
+      }));
+    }
+
     try {
-      try (FileOutputStream output = new FileOutputStream(outputFile)) {
-        keyStore.store(output, password.toCharArray());
+      List<KeyStoreIndex> encodedParts = new ArrayList<>(partCount);
+      for (ForkJoinTask<KeyStoreIndex> task : tasks) {
+        encodedParts.add(task.join());
       }
+      journal(entries, password);
+      spliceIn(encodedParts);
+      written(entries.keySet());
+    } catch (Exception ex) {
+      throw new KeyStoreKnifeException("Unable to set secret keys", ex);
+    }
+  }
+
+  /**
+   * Copies entries from another JKS or JCEKS key store of the same type. The entries are copied still encrypted, so
+   * they keep the passwords they were protected with in the source and no password is needed to copy them.
+   */
+  public void copyEntries(KeyStoreIndex source, Collection<String> aliases) {
+    String type = index != null ? index.getType() : keyStore.getType();
+    if (!source.getType().equalsIgnoreCase(type)) {
+      throw new IllegalArgumentException(
+          String.format("Unable to copy %s entries into a %s key store", source.getType(), type));
+    }
+
+    try {
+      spliceIn(Collections.singletonList(source.subset(aliases)));
+      written(aliases);
+    } catch (Exception ex) {
+      throw new KeyStoreKnifeException("Unable to copy entries", ex);
+    }
+  }
+
+  /**
+   * Caches the secret keys this knife decrypts, so that reading the same entry with the same password again skips the
+   * provider's key derivation; see {@link DerivedKeyCache}. Pass {@code null} to stop caching. The cache is not closed
+   * by the knife.
+   */
+  public void setKeyCache(DerivedKeyCache keyCache) {
+    this.keyCache = keyCache;
+  }
+
+  /**
+   * Returns the journal of a knife opened through {@link #openJournaled(File, String, String, Durability)}, or
+   * {@code null}.
+   */
+  public KeyStoreJournal getJournal() {
+    return journal;
+  }
+
+  public void save(File outputFile, String password) throws IOException {
+    save(outputFile, password, Durability.FILE);
+  }
+
+  /**
+   * Saves the key store by writing a sibling temporary file and atomically renaming it over the output file, so a
+   * crash leaves either the old or the new key store behind. When the knife was opened from an indexed key store and
+   * never fully loaded, only the entries that were set since are encoded; every other entry is copied through from
+   * the original file. Saving a journaled knife over its own key store file empties the journal, which must not race
+   * with writes to the knife; {@link ConcurrentKeyStoreKnife} keeps them apart.
+   */
+  public void save(File outputFile, String password, Durability durability) throws IOException {
+    try (Metrics.Sample sample = Metrics.get().start("store", outputFile.getAbsolutePath())) {
+      replace(outputFile, durability, temporary -> {
+        try (FileChannel output = FileChannel.open(temporary, StandardOpenOption.WRITE)) {
+          write(output, password.toCharArray());
+        }
+        sample.bytes(Files.size(temporary));
+      });
     } catch (Exception ex) {
       throw new KeyStoreKnifeException("Unable to save keystore", ex);
     }
+
+    // a crash before the journal is emptied only replays keys the saved file already has
+    KeyStoreJournal current = journal;
+    if (current != null && current.isJournalOf(outputFile)) {
+      current.reset(outputFile);
+    }
   }
 
-  public static KeyStoreKnife create(File keyStoreFile, String type, String password) {
+  /**
+   * Writes the key store to a channel, such as a pipe or a channel over a buffer. As with
+   * {@link #save(File, String, Durability)} only changed entries are encoded when the knife was opened from an
+   * indexed key store. The channel is not closed.
+   */
+  @SuppressWarnings("try")
+  public void save(WritableByteChannel output, String password) {
+    try (Metrics.Sample sample = Metrics.get().start("store", name)) {
+      write(output, password.toCharArray());
+    } catch (Exception ex) {
+      throw new KeyStoreKnifeException("Unable to save keystore", ex);
+    }
+  }
+
+  /**
+   * Writes the key store to a stream; see {@link #save(WritableByteChannel, String)}. The stream is flushed but not
+   * closed.
+   */
+  public void save(OutputStream output, String password) {
+    save(Channels.newChannel(output), password);
     try {
+      output.flush();
+    } catch (IOException ex) {
+      throw new KeyStoreKnifeException("Unable to save keystore", ex);
+    }
+  }
+
+  private void write(WritableByteChannel output, char[] password) throws Exception {
+    KeyStoreIndex changeIndex = keyStore == null ? encodeChanges() : null;
+    if (changeIndex != null && index.isSpliceCompatible(changeIndex)) {
+      index.splice(changeIndex, output, password);
+    } else {
+      // providers hold the key store's lock for the whole of store(), which readers need too, so the key store is
+      // encoded into memory and only then written out; readers wait for the encoding but never for the disk
+      ByteArrayOutputStream encoded = new ByteArrayOutputStream(1 << 16);
+      getKeyStore().store(encoded, password);
+      ByteBuffer bytes = ByteBuffer.wrap(encoded.toByteArray());
+      while (bytes.hasRemaining()) {
+        output.write(bytes);
+      }
+    }
+  }
+
+  /**
+   * Writes a file next to the output file and moves it into place once it has been forced to disk as far as the
+   * durability asks for, so readers only ever see the old or the new file.
+   */
+  @SuppressWarnings("try")
+  static void replace(File outputFile, Durability durability, FileContents contents) throws Exception {
+    Path target = outputFile.toPath().toAbsolutePath();
+    Path directory = target.getParent();
+    Path temporary = Files.createTempFile(directory, "." + outputFile.getName() + ".", ".tmp");
+    try {
+      contents.writeTo(temporary);
+
+      if (durability != Durability.NONE) {
+        try (Metrics.Sample sample = Metrics.get().start("fsync", target.toString())) {
+          force(temporary);
+        }
+      }
+
+      copyPermissions(target, temporary);
+      move(temporary, target);
+
+      if (durability == Durability.DIRECTORY) {
+        try (Metrics.Sample sample = Metrics.get().start("fsync", target.toString())) {
+          forceDirectory(directory);
+        }
+      }
+    } finally {
+      Files.deleteIfExists(temporary);
+    }
+  }
+
+  public static KeyStoreKnife create(File keyStoreFile, String type, String password) {
+    String name = keyStoreFile.getAbsolutePath();
+    try (Metrics.Sample sample = Metrics.get().start("load", name).bytes(keyStoreFile.length())) {
       KeyStore keyStore = createKeyStore(type);
 
       try(FileInputStream input = new FileInputStream(keyStoreFile)) {
-        keyStore.load(input, password.toCharArray());
+        keyStore.load(input, toChars(password));
       }
 
-      return new KeyStoreKnife(keyStore);
+      sample.entries(keyStore.size());
+      return new KeyStoreKnife(keyStore, name);
+    } catch (Exception ex) {
+      throw new KeyStoreKnifeException(ex.getMessage(), ex);
+    }
+  }
+
+
+  /**
+   * Creates a new, empty key store of the given type.
+   */
+  public static KeyStoreKnife create(String type) {
+    try {
+      KeyStore keyStore = createKeyStore(type);
+      keyStore.load(null, null);
+      return new KeyStoreKnife(keyStore, null);
+    } catch (Exception ex) {
+      throw new KeyStoreKnifeException(ex.getMessage(), ex);
+    }
+  }
+
+  /**
+   * Opens a key store for reading. JKS and JCEKS key stores are indexed rather than loaded so that only the entries
+   * that are actually read get decrypted; other types are loaded as with {@link #create(File, String, String)}. A
+   * {@code null} password skips the integrity check, which is enough for listing entries.
+   */
+  public static KeyStoreKnife open(File keyStoreFile, String type, String password) {
+    if (KeyStoreIndex.isSupported(type) && isIndexable(keyStoreFile)) {
+      return new KeyStoreKnife(KeyStoreIndex.read(keyStoreFile, toChars(password)));
+    }
+    return create(keyStoreFile, type, password);
+  }
+
+  /**
+   * Opens a key store held in a buffer, which may be direct. JKS and JCEKS key stores are indexed over the buffer
+   * itself rather than a copy of it, so its contents must not change while the knife is in use; other types are
+   * loaded from it.
+   */
+  public static KeyStoreKnife open(ByteBuffer source, String type, String password) {
+    if (KeyStoreIndex.isSupported(type) && KeyStoreIndex.isIndexable(source)) {
+      return new KeyStoreKnife(KeyStoreIndex.read(source, toChars(password)));
+    }
+
+    try (Metrics.Sample sample = Metrics.get().start("load", null).bytes(source.remaining())) {
+      KeyStore keyStore = createKeyStore(type);
+      keyStore.load(new KeyStoreIndex.ByteBufferInputStream(source.duplicate()), toChars(password));
+      sample.entries(keyStore.size());
+      return new KeyStoreKnife(keyStore, null);
     } catch (Exception ex) {
       throw new KeyStoreKnifeException(ex.getMessage(), ex);
     }
   }
 
+  /**
+   * Opens a key store read from a stream, such as standard input. The stream is read to its end but not closed.
+   */
+  public static KeyStoreKnife open(InputStream input, String type, String password) {
+    byte[] contents;
+    try {
+      contents = ByteStreams.toByteArray(input);
+    } catch (IOException ex) {
+      throw new KeyStoreKnifeException("Unable to read keystore", ex);
+    }
+    return open(ByteBuffer.wrap(contents), type, password);
+  }
+
+  /**
+   * Opens a key store at a path. Paths on the default file system are mapped as with
+   * {@link #open(File, String, String)}; paths on other file systems, such as in-memory ones, are read into a buffer.
+   */
+  public static KeyStoreKnife open(Path keyStorePath, String type, String password) {
+    if (keyStorePath.getFileSystem() == FileSystems.getDefault()) {
+      return open(keyStorePath.toFile(), type, password);
+    }
+
+    byte[] contents;
+    try {
+      contents = Files.readAllBytes(keyStorePath);
+    } catch (IOException ex) {
+      throw new KeyStoreKnifeException(String.format("Unable to read keystore (path: %s)", keyStorePath), ex);
+    }
+    return open(ByteBuffer.wrap(contents), type, password);
+  }
+
+  /**
+   * Opens a key store as with {@link #open(File, String, String)} and journals the secret keys set on it until it is
+   * saved back over the same file; see {@link KeyStoreJournal}. The keys recorded in an existing journal, left by a
+   * process that did not get to save, are set on the knife first. The journal is encrypted with a key derived from the
+   * key store password, and its appends are forced to disk unless the durability is {@link Durability#NONE}.
+   */
+  public static KeyStoreKnife openJournaled(File keyStoreFile, String type, String password, Durability durability) {
+    KeyStoreKnife knife = open(keyStoreFile, type, Objects.requireNonNull(password, "Password is null"));
+    knife.journal = KeyStoreJournal.open(keyStoreFile, password.toCharArray(), durability, knife);
+    return knife;
+  }
+
+  /**
+   * Opens a key store from an index that has already been read.
+   */
+  public static KeyStoreKnife open(KeyStoreIndex index) {
+    return new KeyStoreKnife(index);
+  }
+
+  // a null key store password skips the integrity check
+  private static char[] toChars(String password) {
+    return password != null ? password.toCharArray() : null;
+  }
+
+  private static boolean isIndexable(File keyStoreFile) {
+    try (FileInputStream input = new FileInputStream(keyStoreFile)) {
+      byte[] header = new byte[KeyStoreIndex.HEADER_LENGTH];
+      return ByteStreams.read(input, header, 0, header.length) == header.length
+          && KeyStoreIndex.isIndexable(ByteBuffer.wrap(header));
+    } catch (IOException ex) {
+      return false;
+    }
+  }
+
+  private Key readKey(String alias, char[] password) throws Exception {
+    DerivedKeyCache cache = keyCache;
+    if (cache == null) {
+      KeyStore source = readKeyStore(alias);
+      return source != null ? source.getKey(alias, password) : null;
+    }
+
+    long generation = generation(alias);
+    SecretKey cached = cache.get(this, generation, alias, password);
+    if (cached != null) {
+      return cached;
+    }
+
+    KeyStore source = readKeyStore(alias);
+    Key result = source != null ? source.getKey(alias, password) : null;
+    if (result instanceof SecretKey) {
+      cache.put(this, generation, alias, password, (SecretKey) result);
+    }
+    return result;
+  }
+
+  private long generation(String alias) {
+    return aliasGenerations.getOrDefault(alias.toLowerCase(Locale.ENGLISH), 0L);
+  }
+
+  private void written(Collection<String> aliases) {
+    DerivedKeyCache cache = keyCache;
+    for (String alias : aliases) {
+      aliasGenerations.merge(alias.toLowerCase(Locale.ENGLISH), 1L, Long::sum);
+      if (cache != null) {
+        cache.invalidate(this, alias);
+      }
+    }
+  }
+
+  private void journal(Map<String, KeyStore.SecretKeyEntry> entries, char[] password) {
+    KeyStoreJournal current = journal;
+    if (current != null) {
+      current.append(entries, password);
+    }
+  }
+
+  private KeyStore readKeyStore(String alias) throws KeyStoreException {
+    // changes is read before keyStore, as loading sets keyStore before it clears changes; the other way round a load
+    // in between could leave a reader with neither
+    KeyStore changed = changes;
+    KeyStore loaded = keyStore;
+    if (loaded != null) {
+      return loaded;
+    }
+
+    return changed != null && changed.containsAlias(alias) ? changed : index.loadEntry(alias);
+  }
+
+  private synchronized KeyStore writeKeyStore() throws Exception {
+    if (keyStore != null) {
+      return keyStore;
+    }
+
+    if (changes == null) {
+      KeyStore created = createKeyStore(index.getType());
+      created.load(null, null);
+      changes = created;
+    }
+    return changes;
+  }
+
+  @SuppressWarnings("try")
+  private synchronized KeyStoreIndex encodeChanges() throws Exception {
+    KeyStore changed = changes;
+    if (changed == null) {
+      changed = createKeyStore(index.getType());
+      changed.load(null, null);
+    }
+
+    try (Metrics.Sample sample = Metrics.get().start("encode", name).entries(changed.size())) {
+      return encode(changed);
+    }
+  }
+
+  private KeyStore loadSpliced() {
+    try {
+      return splice(index, encodeChanges()).toKeyStore();
+    } catch (Exception ex) {
+      throw new KeyStoreKnifeException("Unable to load keystore", ex);
+    }
+  }
+
+  private synchronized void spliceIn(List<KeyStoreIndex> encodedEntries) throws Exception {
+    KeyStoreIndex merged = keyStore != null ? encode(keyStore) : encodeChanges();
+    for (KeyStoreIndex entries : encodedEntries) {
+      merged = splice(merged, entries);
+    }
+
+    if (keyStore != null) {
+      keyStore = merged.toKeyStore();
+    } else {
+      changes = merged.toKeyStore();
+    }
+  }
+
+  // the encoded key stores are only ever read back through an index so the integrity password does not matter
+
+  static KeyStoreIndex encode(KeyStore keyStore) throws Exception {
+    ByteArrayOutputStream encoded = new ByteArrayOutputStream();
+    keyStore.store(encoded, new char[0]);
+    return KeyStoreIndex.read(ByteBuffer.wrap(encoded.toByteArray()), null);
+  }
+
+  private static KeyStoreIndex splice(KeyStoreIndex base, KeyStoreIndex changes) throws Exception {
+    ByteArrayOutputStream spliced = new ByteArrayOutputStream();
+    base.splice(changes, Channels.newChannel(spliced), new char[0]);
+    return KeyStoreIndex.read(ByteBuffer.wrap(spliced.toByteArray()), null);
+  }
+
+  private static void copyPermissions(Path from, Path to) throws IOException {
+    if (Files.exists(from) && Files.getFileStore(to).supportsFileAttributeView(PosixFileAttributeView.class)) {
+      Files.setPosixFilePermissions(to, Files.getPosixFilePermissions(from));
+    }
+  }
+
+  private static void move(Path from, Path to) throws IOException {
+    try {
+      Files.move(from, to, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+    } catch (AtomicMoveNotSupportedException ex) {
+      Files.move(from, to, StandardCopyOption.REPLACE_EXISTING);
+    }
+  }
+
+  private static void force(Path path) throws IOException {
+    try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+      channel.force(true);
+    }
+  }
 
-  private static KeyStore createKeyStore(String algorithm) {
+  private static void forceDirectory(Path directory) {
+    try {
+      force(directory);
+    } catch (IOException ex) {
+      // not every platform allows a directory to be opened and forced (e.g. Windows); the rename is as durable as it
+      // gets there
+    }
+  }
+
+  static Pattern globToRegex(String glob) {
+    StringBuilder regex = new StringBuilder();
+    for (char c : glob.toCharArray()) {
+      switch (c) {
+        case '*':
+          regex.append(".*");
+          break;
+        case '?':
+          regex.append('.');
+          break;
+        default:
+          regex.append(Pattern.quote(String.valueOf(c)));
+          break;
+      }
+    }
+    return Pattern.compile(regex.toString());
+  }
+
+  static KeyStore createKeyStore(String algorithm) {
     try {
       return KeyStore.getInstance(algorithm);
     } catch (KeyStoreException ex) {
       throw new IllegalArgumentException(String.format("Key store type not found (type: %s)", algorithm), ex);
     }
   }
+
+  interface FileContents {
+    void writeTo(Path file) throws Exception;
+  }
 }
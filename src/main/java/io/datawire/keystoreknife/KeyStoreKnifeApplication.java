@@ -20,24 +20,118 @@ package io.datawire.keystoreknife;
 import io.datawire.app.Application;
 import io.datawire.app.ApplicationConfiguration;
 import io.datawire.app.Initializer;
+import io.datawire.app.command.Command;
+import io.datawire.keystoreknife.command.ConvertCommand;
+import io.datawire.keystoreknife.command.DiffCommand;
+import io.datawire.keystoreknife.command.ExportCommand;
 import io.datawire.keystoreknife.command.GenerateKeyCommand;
+import io.datawire.keystoreknife.command.ImportCommand;
+import io.datawire.keystoreknife.command.ListCommand;
+import io.datawire.keystoreknife.command.MergeCommand;
+import io.datawire.keystoreknife.command.MeteredCommand;
 import io.datawire.keystoreknife.command.ReplaceCommand;
+import io.datawire.keystoreknife.command.ReplaceSecretsCommand;
+import io.datawire.keystoreknife.command.RotateCommand;
+import io.datawire.keystoreknife.command.ServeCommand;
 import io.datawire.keystoreknife.command.ShowCommand;
+import io.datawire.keystoreknife.command.ShowSecretsCommand;
+import io.datawire.keystoreknife.command.VerifyCommand;
+import io.datawire.keystoreknife.command.WatchCommand;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
 
 public class KeyStoreKnifeApplication extends Application<ApplicationConfiguration> {
 
-  KeyStoreKnifeApplication() {
+  /**
+   * The names of the commands, other than {@code serve}, in the order they are listed. The command classes are only
+   * loaded, and their arguments only configured, for the command that is run; see {@link #newCommand(String)}.
+   */
+  static final List<String> COMMAND_NAMES = Collections.unmodifiableList(Arrays.asList(
+      "replace-secret",
+      "replace-secrets",
+      "show-secret",
+      "show-secrets",
+      "generate-mac-secret",
+      "diff",
+      "merge",
+      "convert",
+      "export",
+      "import",
+      "list",
+      "rotate",
+      "verify",
+      "watch"));
+
+  private final String commandName;
+
+  /**
+   * Creates the application for a run of the named command, which may be {@code null} when the command is not known
+   * up front, for instance because help was asked for.
+   */
+  KeyStoreKnifeApplication(String commandName) {
     super("keystore-knife", ApplicationConfiguration.class);
+    this.commandName = commandName;
   }
 
   @Override
   public void initialize(Initializer<ApplicationConfiguration> initializer) {
-    initializer.addCommand(new ReplaceCommand());
-    initializer.addCommand(new ShowCommand());
-    initializer.addCommand(new GenerateKeyCommand());
+    if (COMMAND_NAMES.contains(commandName)) {
+      initializer.addCommand(new MeteredCommand(newCommand(commandName)));
+      return;
+    }
+
+    List<Command> served = new ArrayList<>(COMMAND_NAMES.size());
+    for (String name : COMMAND_NAMES) {
+      Command meteredCommand = new MeteredCommand(newCommand(name));
+      // watch never returns, so it cannot answer a request
+      if (!"watch".equals(name)) {
+        served.add(meteredCommand);
+      }
+      initializer.addCommand(meteredCommand);
+    }
+
+    initializer.addCommand(new ServeCommand(served));
+  }
+
+  static Command newCommand(String name) {
+    switch (name) {
+      case "replace-secret":
+        return new ReplaceCommand();
+      case "replace-secrets":
+        return new ReplaceSecretsCommand();
+      case "show-secret":
+        return new ShowCommand();
+      case "show-secrets":
+        return new ShowSecretsCommand();
+      case "generate-mac-secret":
+        return new GenerateKeyCommand();
+      case "diff":
+        return new DiffCommand();
+      case "merge":
+        return new MergeCommand();
+      case "convert":
+        return new ConvertCommand();
+      case "export":
+        return new ExportCommand();
+      case "import":
+        return new ImportCommand();
+      case "list":
+        return new ListCommand();
+      case "rotate":
+        return new RotateCommand();
+      case "verify":
+        return new VerifyCommand();
+      case "watch":
+        return new WatchCommand();
+      default:
+        throw new IllegalArgumentException(String.format("Unknown command '%s'", name));
+    }
   }
 
   public static void main(String... args) {
-    new KeyStoreKnifeApplication().run(args);
+    new KeyStoreKnifeApplication(args.length > 0 ? args[0] : null).run(args);
   }
 }
@@ -0,0 +1,210 @@
+/*
+ * Copyright 2016 Datawire. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.datawire.keystoreknife;
+
+
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.hash.HashCode;
+import com.google.common.hash.Hashing;
+import com.google.common.io.Files;
+import io.datawire.keystoreknife.exception.KeyStoreKnifeException;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.security.SecureRandom;
+import java.util.Locale;
+import java.util.Objects;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * A cache of opened key stores for long-lived processes, keyed by file, key store type and a fingerprint of the key
+ * store password. A cached knife is reused for as long as the file's size, modification time and file key (the inode
+ * on most file systems) are unchanged. When content verification is enabled and that stamp has changed, the file is
+ * hashed and the knife is still reused if the content turns out to be the same; unchanged files are never hashed.
+ * The least recently used knives are evicted once the cache is full and every knife is evicted once it reaches its
+ * time to live.
+ *
+ * <p>Only opened key stores are cached; the entries in them stay protected by their own passwords, so no decrypted
+ * secret material is held. Cached knives are shared between callers and are meant for reading; callers that modify a
+ * key store should open it themselves.</p>
+ */
+public final class KeyStoreKnifeCache {
+
+  private final Cache<CacheKey, CachedKnife> cache;
+  private final boolean verifyContent;
+
+  // salted so that the password fingerprints mean nothing outside this cache
+  private final byte[] fingerprintSalt = new byte[32];
+
+  private final AtomicLong hits = new AtomicLong();
+  private final AtomicLong misses = new AtomicLong();
+
+  public KeyStoreKnifeCache(int maxEntries, long timeToLive, TimeUnit unit, boolean verifyContent) {
+    this.cache = CacheBuilder.newBuilder()
+        .maximumSize(maxEntries)
+        .expireAfterWrite(timeToLive, unit)
+        .build();
+
+    new SecureRandom().nextBytes(fingerprintSalt);
+    this.verifyContent = verifyContent;
+  }
+
+  /**
+   * Returns a cached knife for the key store if the file has not changed since it was opened, or opens it with
+   * {@link KeyStoreKnife#open(File, String, String)} and caches it.
+   */
+  public KeyStoreKnife open(File keyStoreFile, String type, String password) {
+    File file = keyStoreFile.getAbsoluteFile();
+    HashCode passwordFingerprint = Hashing.sha256().newHasher()
+        .putBytes(fingerprintSalt)
+        .putString(password, StandardCharsets.UTF_8)
+        .hash();
+
+    CacheKey key = new CacheKey(file, type, passwordFingerprint);
+    FileStamp stamp = FileStamp.of(file);
+
+    CachedKnife cached = cache.getIfPresent(key);
+    if (cached != null && cached.stamp.equals(stamp)) {
+      hits.incrementAndGet();
+      return cached.knife;
+    }
+
+    // only pay for hashing once the cheap stamp says the file may have changed
+    HashCode contentHash = verifyContent ? hash(file) : null;
+    if (cached != null && contentHash != null && contentHash.equals(cached.contentHash)) {
+      hits.incrementAndGet();
+      cache.put(key, new CachedKnife(cached.knife, stamp, contentHash));
+      return cached.knife;
+    }
+
+    misses.incrementAndGet();
+    KeyStoreKnife knife = KeyStoreKnife.open(file, type, password);
+    cache.put(key, new CachedKnife(knife, stamp, contentHash));
+    return knife;
+  }
+
+  private static HashCode hash(File file) {
+    try {
+      return Files.hash(file, Hashing.sha256());
+    } catch (IOException ex) {
+      throw new KeyStoreKnifeException(ex.getMessage(), ex);
+    }
+  }
+
+  public void invalidateAll() {
+    cache.invalidateAll();
+  }
+
+  public long size() {
+    cache.cleanUp();
+    return cache.size();
+  }
+
+  public long getHitCount() {
+    return hits.get();
+  }
+
+  public long getMissCount() {
+    return misses.get();
+  }
+
+  private static final class CacheKey {
+
+    private final File file;
+    private final String type;
+    private final HashCode passwordFingerprint;
+
+    CacheKey(File file, String type, HashCode passwordFingerprint) {
+      this.file = file;
+      this.type = type.toUpperCase(Locale.ENGLISH);
+      this.passwordFingerprint = passwordFingerprint;
+    }
+
+    @Override
+    public boolean equals(Object other) {
+      if (this == other) {
+        return true;
+      }
+      if (!(other instanceof CacheKey)) {
+        return false;
+      }
+      CacheKey that = (CacheKey) other;
+      return file.equals(that.file) && type.equals(that.type) && passwordFingerprint.equals(that.passwordFingerprint);
+    }
+
+    @Override
+    public int hashCode() {
+      return Objects.hash(file, type, passwordFingerprint);
+    }
+  }
+
+  private static final class FileStamp {
+
+    private final long length;
+    private final long lastModified;
+    private final Object fileKey;
+
+    private FileStamp(long length, long lastModified, Object fileKey) {
+      this.length = length;
+      this.lastModified = lastModified;
+      this.fileKey = fileKey;
+    }
+
+    static FileStamp of(File file) {
+      try {
+        BasicFileAttributes attributes = java.nio.file.Files.readAttributes(file.toPath(), BasicFileAttributes.class);
+        return new FileStamp(attributes.size(), attributes.lastModifiedTime().toMillis(), attributes.fileKey());
+      } catch (IOException ex) {
+        throw new KeyStoreKnifeException(ex.getMessage(), ex);
+      }
+    }
+
+    @Override
+    public boolean equals(Object other) {
+      if (this == other) {
+        return true;
+      }
+      if (!(other instanceof FileStamp)) {
+        return false;
+      }
+      FileStamp that = (FileStamp) other;
+      return length == that.length && lastModified == that.lastModified && Objects.equals(fileKey, that.fileKey);
+    }
+
+    @Override
+    public int hashCode() {
+      return Objects.hash(length, lastModified, fileKey);
+    }
+  }
+
+  private static final class CachedKnife {
+
+    private final KeyStoreKnife knife;
+    private final FileStamp stamp;
+    private final HashCode contentHash;
+
+    CachedKnife(KeyStoreKnife knife, FileStamp stamp, HashCode contentHash) {
+      this.knife = knife;
+      this.stamp = stamp;
+      this.contentHash = contentHash;
+    }
+  }
+}
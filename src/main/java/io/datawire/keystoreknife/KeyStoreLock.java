@@ -0,0 +1,80 @@
+/*
+ * Copyright 2016 Datawire. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.datawire.keystoreknife;
+
+
+import io.datawire.keystoreknife.exception.KeyStoreKnifeException;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * An exclusive lock on a key store file, held on a sibling {@code .lock} file so that it survives the key store being
+ * replaced by a save. Processes that hold the lock from loading a key store until it is saved cannot lose each other's
+ * changes. The lock file is left in place when the lock is released.
+ */
+public final class KeyStoreLock implements Closeable {
+
+  private final FileChannel channel;
+  private final FileLock lock;
+
+  private KeyStoreLock(FileChannel channel, FileLock lock) {
+    this.channel = channel;
+    this.lock = lock;
+  }
+
+  /**
+   * Blocks until the lock for the given key store file is acquired.
+   */
+  public static KeyStoreLock acquire(File keyStoreFile) {
+    File lockFile = new File(keyStoreFile.getAbsoluteFile().getParentFile(), keyStoreFile.getName() + ".lock");
+    FileChannel channel = null;
+    try {
+      channel = FileChannel.open(lockFile.toPath(), StandardOpenOption.CREATE, StandardOpenOption.WRITE);
+      return new KeyStoreLock(channel, channel.lock());
+    } catch (IOException ex) {
+      closeQuietly(channel);
+      throw new KeyStoreKnifeException(String.format("Unable to lock keystore (file: %s)", keyStoreFile), ex);
+    } catch (RuntimeException ex) {
+      closeQuietly(channel);
+      throw ex;
+    }
+  }
+
+  @Override
+  public void close() throws IOException {
+    try {
+      lock.release();
+    } finally {
+      channel.close();
+    }
+  }
+
+  private static void closeQuietly(FileChannel channel) {
+    if (channel != null) {
+      try {
+        channel.close();
+      } catch (IOException ignored) {
+        // already failing
+      }
+    }
+  }
+}
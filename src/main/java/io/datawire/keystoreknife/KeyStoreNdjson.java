@@ -0,0 +1,297 @@
+/*
+ * Copyright 2016 Datawire. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.datawire.keystoreknife;
+
+
+import io.datawire.keystoreknife.codec.SecretCodec;
+import io.datawire.keystoreknife.codec.SecretCodecs;
+import io.datawire.keystoreknife.codec.SecretDecoding;
+import io.datawire.keystoreknife.exception.KeyStoreKnifeException;
+import io.datawire.keystoreknife.util.Json;
+
+import javax.crypto.spec.SecretKeySpec;
+import java.io.BufferedReader;
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.Writer;
+import java.nio.ByteBuffer;
+import java.security.KeyFactory;
+import java.security.KeyStore;
+import java.security.PrivateKey;
+import java.security.cert.Certificate;
+import java.security.cert.CertificateFactory;
+import java.security.spec.PKCS8EncodedKeySpec;
+import java.time.format.DateTimeFormatter;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Date;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+
+/**
+ * Streams key store entries to and from NDJSON, one entry per line:
+ *
+ * <pre>
+ * {"alias":"key-1","type":"secret","algorithm":"HmacSHA256","created":"2016-05-01T12:00:00Z","encoding":"base64","material":"..."}
+ * </pre>
+ *
+ * <p>The type is {@code secret}, {@code private} or {@code certificate}. The material is the encoded secret key,
+ * PKCS#8 private key or certificate; private key entries also have a {@code chain} of encoded certificates and
+ * certificate entries a {@code certificate_type}. Entries are decrypted, or sealed, a batch at a time on a pool so at
+ * most one batch of them is held in memory. The creation date is informational: key stores date the entries they are
+ * given themselves.</p>
+ */
+public final class KeyStoreNdjson {
+
+  public static final int DEFAULT_BATCH_SIZE = 256;
+
+  private final ForkJoinPool pool;
+  private final int batchSize;
+
+  public KeyStoreNdjson(ForkJoinPool pool, int batchSize) {
+    if (batchSize < 1) {
+      throw new IllegalArgumentException("Batch size must be at least 1");
+    }
+
+    this.pool = pool;
+    this.batchSize = batchSize;
+  }
+
+  /**
+   * Writes a line for each alias in the order given and returns the number of lines written. Key entries are
+   * decrypted with the key password; the encoding is the name of any {@link SecretCodec} but {@code plain}.
+   */
+  public int export(KeyStoreKnife knife, List<String> aliases, char[] keyPassword, String encoding, Writer output) {
+    SecretCodec codec = codec(encoding);
+    try {
+      for (int start = 0; start < aliases.size(); start += batchSize) {
+        List<String> batch = aliases.subList(start, Math.min(aliases.size(), start + batchSize));
+        List<ForkJoinTask<String>> lines = new ArrayList<>(batch.size());
+        for (String alias : batch) {
+          lines.add(pool.submit(() -> exportEntry(knife, alias, keyPassword, codec)));
+        }
+
+        for (ForkJoinTask<String> line : lines) {
+          output.write(line.join());
+          output.write('\n');
+        }
+      }
+      output.flush();
+    } catch (IOException ex) {
+      throw new KeyStoreKnifeException("Unable to export keystore", ex);
+    }
+    return aliases.size();
+  }
+
+  /**
+   * Sets an entry on the knife for every line read and returns the number of entries set. Key entries are protected
+   * with the key password. The knife is not saved. Blank lines are skipped.
+   */
+  public int importInto(KeyStoreKnife knife, BufferedReader input, char[] keyPassword) {
+    Map<String, KeyStore.SecretKeyEntry> secrets = new LinkedHashMap<>();
+    int count = 0;
+    int lineNumber = 0;
+    try {
+      String line;
+      while ((line = input.readLine()) != null) {
+        lineNumber++;
+        if (line.trim().isEmpty()) {
+          continue;
+        }
+
+        Map<String, Object> fields;
+        KeyStore.Entry entry;
+        try {
+          fields = Json.parseObject(line);
+          entry = toEntry(fields);
+        } catch (Exception ex) {
+          throw new KeyStoreKnifeException(String.format("Unable to import entry (line: %d)", lineNumber), ex);
+        }
+
+        String alias = field(fields, "alias");
+        if (entry instanceof KeyStore.SecretKeyEntry) {
+          // a later line for the same alias must win, so it has to follow the earlier one into the batch
+          secrets.remove(alias);
+          secrets.put(alias, (KeyStore.SecretKeyEntry) entry);
+          if (secrets.size() >= batchSize) {
+            flush(knife, secrets, keyPassword);
+          }
+        } else {
+          flush(knife, secrets, keyPassword);
+          knife.setEntry(alias, entry, keyPassword);
+        }
+        count++;
+      }
+    } catch (IOException ex) {
+      throw new KeyStoreKnifeException(String.format("Unable to read entries (line: %d)", lineNumber), ex);
+    }
+
+    flush(knife, secrets, keyPassword);
+    return count;
+  }
+
+  private void flush(KeyStoreKnife knife, Map<String, KeyStore.SecretKeyEntry> secrets, char[] keyPassword) {
+    if (!secrets.isEmpty()) {
+      knife.setSecretKeys(secrets, keyPassword, pool);
+      secrets.clear();
+    }
+  }
+
+  private static String exportEntry(KeyStoreKnife knife, String alias, char[] keyPassword, SecretCodec codec) {
+    KeyStore.Entry entry = knife.getEntry(alias, keyPassword);
+    if (entry == null) {
+      throw new KeyStoreKnifeException(String.format("Entry disappeared while exporting (alias: %s)", alias), null);
+    }
+    return toLine(alias, entry, knife.getCreationDate(alias), codec);
+  }
+
+  static String toLine(String alias, KeyStore.Entry entry, Date created, SecretCodec codec) {
+    StringBuilder line = new StringBuilder(256).append("{\"alias\":").append(Json.quote(alias));
+    byte[] material;
+    try {
+      if (entry instanceof KeyStore.SecretKeyEntry) {
+        KeyStore.SecretKeyEntry secret = (KeyStore.SecretKeyEntry) entry;
+        line.append(",\"type\":\"secret\",\"algorithm\":").append(Json.quote(secret.getSecretKey().getAlgorithm()));
+        material = secret.getSecretKey().getEncoded();
+      } else if (entry instanceof KeyStore.PrivateKeyEntry) {
+        KeyStore.PrivateKeyEntry privateKey = (KeyStore.PrivateKeyEntry) entry;
+        line.append(",\"type\":\"private\",\"algorithm\":").append(Json.quote(privateKey.getPrivateKey().getAlgorithm()));
+        material = privateKey.getPrivateKey().getEncoded();
+      } else if (entry instanceof KeyStore.TrustedCertificateEntry) {
+        Certificate certificate = ((KeyStore.TrustedCertificateEntry) entry).getTrustedCertificate();
+        line.append(",\"type\":\"certificate\",\"algorithm\":")
+            .append(Json.quote(certificate.getPublicKey().getAlgorithm()))
+            .append(",\"certificate_type\":").append(Json.quote(certificate.getType()));
+        material = certificate.getEncoded();
+      } else {
+        throw new IllegalArgumentException("Unsupported entry type " + entry.getClass().getName());
+      }
+
+      if (created != null) {
+        line.append(",\"created\":").append(Json.quote(DateTimeFormatter.ISO_INSTANT.format(created.toInstant())));
+      }
+
+      line.append(",\"encoding\":").append(Json.quote(codec.getName())).append(",\"material\":");
+      quote(codec, material, line);
+      Arrays.fill(material, (byte) 0);
+
+      if (entry instanceof KeyStore.PrivateKeyEntry) {
+        line.append(",\"chain\":[");
+        String separator = "";
+        for (Certificate certificate : ((KeyStore.PrivateKeyEntry) entry).getCertificateChain()) {
+          line.append(separator);
+          quote(codec, certificate.getEncoded(), line);
+          separator = ",";
+        }
+        line.append(']');
+      }
+    } catch (Exception ex) {
+      throw new KeyStoreKnifeException(String.format("Unable to export entry (alias: %s)", alias), ex);
+    }
+
+    return line.append('}').toString();
+  }
+
+  static KeyStore.Entry toEntry(Map<String, Object> fields) throws Exception {
+    field(fields, "alias");
+    String type = field(fields, "type");
+    String encoding = fields.containsKey("encoding") ? field(fields, "encoding") : "base64";
+    byte[] material = decode(field(fields, "material"), encoding);
+    try {
+      switch (type) {
+        case "secret":
+          return new KeyStore.SecretKeyEntry(new SecretKeySpec(material, field(fields, "algorithm")));
+        case "private":
+          PrivateKey privateKey = KeyFactory.getInstance(field(fields, "algorithm"))
+              .generatePrivate(new PKCS8EncodedKeySpec(material));
+          Object chain = fields.get("chain");
+          if (!(chain instanceof List) || ((List<?>) chain).isEmpty()) {
+            throw new IllegalArgumentException("A private key entry needs a certificate chain");
+          }
+
+          List<Certificate> certificates = new ArrayList<>();
+          for (Object encoded : (List<?>) chain) {
+            certificates.add(certificate("X.509", decode(String.valueOf(encoded), encoding)));
+          }
+          return new KeyStore.PrivateKeyEntry(privateKey, certificates.toArray(new Certificate[certificates.size()]));
+        case "certificate":
+          String certificateType = fields.containsKey("certificate_type") ? field(fields, "certificate_type") : "X.509";
+          return new KeyStore.TrustedCertificateEntry(certificate(certificateType, material));
+        default:
+          throw new IllegalArgumentException(String.format("Unknown entry type '%s'", type));
+      }
+    } finally {
+      Arrays.fill(material, (byte) 0);
+    }
+  }
+
+  private static Certificate certificate(String type, byte[] encoded) throws Exception {
+    return CertificateFactory.getInstance(type).generateCertificate(new ByteArrayInputStream(encoded));
+  }
+
+  private static byte[] decode(String encoded, String encoding) {
+    SecretCodec codec = codec(encoding);
+    ByteBuffer buffer = ByteBuffer.allocate(codec.maxDecodedLength(encoded.length()));
+    try {
+      codec.decode(encoded, buffer);
+      buffer.flip();
+      byte[] result = new byte[buffer.remaining()];
+      buffer.get(result);
+      return result;
+    } finally {
+      SecretDecoding.zero(buffer);
+    }
+  }
+
+  private static String field(Map<String, Object> fields, String name) {
+    Object value = fields.get(name);
+    if (!(value instanceof String)) {
+      throw new IllegalArgumentException(String.format("Missing or non-string field '%s'", name));
+    }
+    return (String) value;
+  }
+
+  /**
+   * Appends the encoded bytes as a JSON string. The bytes are encoded straight into the line and only escaped when
+   * the codec produced characters that need it, such as the line breaks of PEM.
+   */
+  private static void quote(SecretCodec codec, byte[] bytes, StringBuilder line) {
+    int start = line.append('"').length();
+    codec.encode(bytes, line);
+    for (int i = start; i < line.length(); i++) {
+      char c = line.charAt(i);
+      if (c == '"' || c == '\\' || c < 0x20) {
+        String encoded = line.substring(start);
+        line.setLength(start - 1);
+        line.append(Json.quote(encoded));
+        return;
+      }
+    }
+    line.append('"');
+  }
+
+  static SecretCodec codec(String encoding) {
+    SecretCodec codec = SecretCodecs.find(encoding);
+    if (codec == null || "plain".equals(codec.getName())) {
+      throw new IllegalArgumentException(String.format("Unsupported material encoding '%s'", encoding));
+    }
+    return codec;
+  }
+}
@@ -0,0 +1,89 @@
+/*
+ * Copyright 2016 Datawire. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.datawire.keystoreknife;
+
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.WritableByteChannel;
+import java.security.MessageDigest;
+
+/**
+ * Writes a JKS or JCEKS key store one encoded entry at a time, so that a key store of any size can be written without
+ * holding all of its entries. The number of entries has to be known up front because the format puts it in the
+ * header.
+ */
+final class KeyStoreStreamWriter {
+
+  private final WritableByteChannel output;
+  private final MessageDigest digest;
+  private final int count;
+  private int written;
+
+  KeyStoreStreamWriter(String type, int count, WritableByteChannel output, char[] password) throws IOException {
+    int magic;
+    if ("JKS".equalsIgnoreCase(type)) {
+      magic = KeyStoreIndex.JKS_MAGIC;
+    } else if ("JCEKS".equalsIgnoreCase(type)) {
+      magic = KeyStoreIndex.JCEKS_MAGIC;
+    } else {
+      throw new IllegalArgumentException(String.format("Unable to stream a %s key store", type));
+    }
+
+    this.output = output;
+    this.digest = KeyStoreIndex.getPreKeyedHash(password);
+    this.count = count;
+
+    ByteBuffer header = ByteBuffer.allocate(KeyStoreIndex.HEADER_LENGTH);
+    header.putInt(magic).putInt(2).putInt(count);
+    header.flip();
+    write(header);
+  }
+
+  /**
+   * Writes every entry of an index, as encoded.
+   */
+  void write(KeyStoreIndex entries) throws IOException {
+    for (KeyStoreIndex.Entry entry : entries.getEntries()) {
+      if (++written > count) {
+        throw new IllegalStateException("More entries written than the header announced");
+      }
+      write(entries.getEntryBytes(entry));
+    }
+  }
+
+  /**
+   * Writes the integrity digest once every announced entry has been written.
+   */
+  void finish() throws IOException {
+    if (written != count) {
+      throw new IllegalStateException(String.format("Only %d of %d entries were written", written, count));
+    }
+
+    ByteBuffer result = ByteBuffer.wrap(digest.digest());
+    while (result.hasRemaining()) {
+      output.write(result);
+    }
+  }
+
+  private void write(ByteBuffer bytes) throws IOException {
+    digest.update(bytes.duplicate());
+    while (bytes.hasRemaining()) {
+      output.write(bytes);
+    }
+  }
+}
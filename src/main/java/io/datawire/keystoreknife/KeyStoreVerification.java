@@ -0,0 +1,355 @@
+/*
+ * Copyright 2016 Datawire. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.datawire.keystoreknife;
+
+
+import io.datawire.keystoreknife.exception.KeyStoreKnifeException;
+import io.datawire.keystoreknife.metrics.Metrics;
+
+import javax.crypto.Cipher;
+import javax.crypto.Mac;
+import javax.crypto.SecretKey;
+import javax.crypto.SecretKeyFactory;
+import java.io.File;
+import java.security.GeneralSecurityException;
+import java.security.Key;
+import java.security.KeyStore;
+import java.security.NoSuchAlgorithmException;
+import java.security.PrivateKey;
+import java.security.PublicKey;
+import java.security.cert.Certificate;
+import java.security.cert.CertificateExpiredException;
+import java.security.cert.CertificateNotYetValidException;
+import java.security.cert.X509Certificate;
+import java.security.interfaces.ECKey;
+import java.security.interfaces.RSAKey;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Date;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+
+/**
+ * The outcome of checking a key store end to end: that it can be read, that its integrity digest matches the key
+ * store password, and that every key entry decrypts with one of the key passwords into a key the JDK providers accept.
+ * Secret keys are checked by initializing a MAC or cipher of their algorithm with them, which rejects key lengths the
+ * algorithm does not support; private keys must match the public key of the first certificate in their chain; and
+ * certificates must be valid at the time of the check. Entries are checked in parallel since decrypting them, not
+ * reading the file, is what takes the time.
+ */
+public final class KeyStoreVerification {
+
+  private final File keyStoreFile;
+  private final String problem;
+  private final List<Check> checks;
+  private final long openNanos;
+  private final long probeNanos;
+
+  private KeyStoreVerification(File keyStoreFile, String problem, List<Check> checks, long openNanos, long probeNanos) {
+    this.keyStoreFile = keyStoreFile;
+    this.problem = problem;
+    this.checks = Collections.unmodifiableList(checks);
+    this.openNanos = openNanos;
+    this.probeNanos = probeNanos;
+  }
+
+  /**
+   * Verifies a key store file. Key entries are decrypted on the pool with each of the key passwords in turn until one
+   * of them works. A key store whose digest does not match is still opened without the check so that its entries are
+   * reported too.
+   */
+  public static KeyStoreVerification verify(File keyStoreFile, String type, String password, List<char[]> keyPasswords,
+                                            ForkJoinPool pool) {
+
+    try (Metrics.Sample sample = Metrics.get().start("verify", null)) {
+      long started = System.nanoTime();
+      String problem = null;
+      KeyStoreKnife knife;
+      try {
+        knife = KeyStoreKnife.open(keyStoreFile, type, password);
+      } catch (KeyStoreKnifeException ex) {
+        problem = "Integrity check failed: " + describe(ex);
+        try {
+          knife = KeyStoreKnife.open(keyStoreFile, type, null);
+        } catch (KeyStoreKnifeException unreadable) {
+          return new KeyStoreVerification(keyStoreFile, "Unable to read keystore: " + describe(unreadable),
+              Collections.emptyList(), System.nanoTime() - started, 0);
+        }
+      }
+      long openNanos = System.nanoTime() - started;
+
+      started = System.nanoTime();
+      Date now = new Date();
+      List<ForkJoinTask<Check>> tasks = new ArrayList<>();
+      for (EntryMetadata entry : knife.getMetadata((String) null)) {
+        KeyStoreKnife source = knife;
+        tasks.add(pool.submit(() -> check(source, entry, keyPasswords, now)));
+      }
+
+      List<Check> checks = new ArrayList<>(tasks.size());
+      for (ForkJoinTask<Check> task : tasks) {
+        checks.add(task.join());
+      }
+
+      sample.entries(checks.size());
+      return new KeyStoreVerification(keyStoreFile, problem, checks, openNanos, System.nanoTime() - started);
+    }
+  }
+
+  static Check check(KeyStoreKnife knife, EntryMetadata entry, List<char[]> keyPasswords, Date now) {
+    long started = System.nanoTime();
+    String algorithm = entry.getAlgorithm();
+    int bits = 0;
+    String problem = null;
+    try {
+      KeyStore.Entry decrypted = decrypt(knife, entry, keyPasswords);
+      if (decrypted == null) {
+        problem = "Not decryptable with any of the key passwords";
+      } else if (decrypted instanceof KeyStore.SecretKeyEntry) {
+        SecretKey key = ((KeyStore.SecretKeyEntry) decrypted).getSecretKey();
+        algorithm = key.getAlgorithm();
+        byte[] encoded = key.getEncoded();
+        bits = encoded != null ? encoded.length * 8 : 0;
+        if (encoded != null) {
+          Arrays.fill(encoded, (byte) 0);
+        }
+        problem = bits == 0 ? "Secret key has no key material" : checkSecretKey(key);
+      } else if (decrypted instanceof KeyStore.PrivateKeyEntry) {
+        KeyStore.PrivateKeyEntry privateKey = (KeyStore.PrivateKeyEntry) decrypted;
+        algorithm = privateKey.getPrivateKey().getAlgorithm();
+        bits = bits(privateKey.getPrivateKey());
+        problem = checkPrivateKey(privateKey.getPrivateKey(), privateKey.getCertificateChain()[0].getPublicKey());
+        if (problem == null) {
+          problem = checkValidity(privateKey.getCertificateChain(), now);
+        }
+      } else if (decrypted instanceof KeyStore.TrustedCertificateEntry) {
+        Certificate certificate = ((KeyStore.TrustedCertificateEntry) decrypted).getTrustedCertificate();
+        bits = bits(certificate.getPublicKey());
+        problem = checkValidity(new Certificate[] {certificate}, now);
+      }
+    } catch (Exception ex) {
+      problem = describe(ex);
+    }
+    return new Check(entry.getAlias(), entry.getType(), algorithm, bits, problem, System.nanoTime() - started);
+  }
+
+  private static KeyStore.Entry decrypt(KeyStoreKnife knife, EntryMetadata entry, List<char[]> keyPasswords) {
+    if (entry.getType() == KeyStoreIndex.EntryType.TRUSTED_CERTIFICATE) {
+      return knife.getEntry(entry.getAlias(), null);
+    }
+
+    for (char[] password : keyPasswords) {
+      try {
+        return knife.getEntry(entry.getAlias(), password);
+      } catch (KeyStoreKnifeException wrongPassword) {
+        // a wrong password surfaces as whatever failed first while unsealing, so just try the next one
+      }
+    }
+    return null;
+  }
+
+  /**
+   * Returns why the secret key cannot be used with its algorithm, or {@code null} if it can.
+   */
+  static String checkSecretKey(SecretKey key) {
+    String algorithm = key.getAlgorithm();
+    try {
+      Mac.getInstance(algorithm).init(key);
+      return null;
+    } catch (NoSuchAlgorithmException notMac) {
+      // not a MAC, so try it as a cipher key
+    } catch (GeneralSecurityException | RuntimeException ex) {
+      return String.format("Invalid %s key of %d bytes: %s", algorithm, length(key), ex.getMessage());
+    }
+
+    try {
+      Cipher.getInstance(algorithm).init(Cipher.ENCRYPT_MODE, key);
+      return null;
+    } catch (NoSuchAlgorithmException notCipher) {
+      // neither a MAC nor a cipher, so the algorithm only has to be known
+    } catch (GeneralSecurityException | RuntimeException ex) {
+      return String.format("Invalid %s key of %d bytes: %s", algorithm, length(key), ex.getMessage());
+    }
+
+    try {
+      SecretKeyFactory.getInstance(algorithm);
+      return null;
+    } catch (NoSuchAlgorithmException ex) {
+      return String.format("Unknown secret key algorithm '%s'", algorithm);
+    }
+  }
+
+  private static String checkPrivateKey(PrivateKey privateKey, PublicKey publicKey) {
+    if (!privateKey.getAlgorithm().equals(publicKey.getAlgorithm())) {
+      return String.format("Private key algorithm %s does not match the certificate's %s",
+          privateKey.getAlgorithm(), publicKey.getAlgorithm());
+    }
+    if (privateKey instanceof RSAKey && publicKey instanceof RSAKey
+        && !((RSAKey) privateKey).getModulus().equals(((RSAKey) publicKey).getModulus())) {
+      return "Private key does not match the certificate's public key";
+    }
+    return null;
+  }
+
+  private static String checkValidity(Certificate[] chain, Date now) {
+    for (Certificate certificate : chain) {
+      if (certificate instanceof X509Certificate) {
+        X509Certificate x509 = (X509Certificate) certificate;
+        try {
+          x509.checkValidity(now);
+        } catch (CertificateExpiredException ex) {
+          return String.format("Certificate expired on %s (subject: %s)",
+              x509.getNotAfter().toInstant(), x509.getSubjectX500Principal());
+        } catch (CertificateNotYetValidException ex) {
+          return String.format("Certificate not valid before %s (subject: %s)",
+              x509.getNotBefore().toInstant(), x509.getSubjectX500Principal());
+        }
+      }
+    }
+    return null;
+  }
+
+  private static int bits(Key key) {
+    if (key instanceof RSAKey) {
+      return ((RSAKey) key).getModulus().bitLength();
+    } else if (key instanceof ECKey) {
+      return ((ECKey) key).getParams().getCurve().getField().getFieldSize();
+    }
+    return 0;
+  }
+
+  private static int length(SecretKey key) {
+    byte[] encoded = key.getEncoded();
+    int length = encoded != null ? encoded.length : 0;
+    if (encoded != null) {
+      Arrays.fill(encoded, (byte) 0);
+    }
+    return length;
+  }
+
+  private static String describe(Throwable error) {
+    StringBuilder message = new StringBuilder(String.valueOf(error.getMessage()));
+    for (Throwable cause = error.getCause(); cause != null; cause = cause.getCause()) {
+      if (cause.getMessage() != null && !cause.getMessage().equals(error.getMessage())) {
+        message.append(": ").append(cause.getMessage());
+      }
+    }
+    return message.toString();
+  }
+
+  public File getKeyStoreFile() {
+    return keyStoreFile;
+  }
+
+  /**
+   * Returns what is wrong with the key store as a whole, such as a digest that does not match, or {@code null}.
+   */
+  public String getProblem() {
+    return problem;
+  }
+
+  /**
+   * Returns one check for every entry, in alias order.
+   */
+  public List<Check> getChecks() {
+    return checks;
+  }
+
+  public int getFailedCount() {
+    int failed = problem != null ? 1 : 0;
+    for (Check check : checks) {
+      if (!check.isPassed()) {
+        failed++;
+      }
+    }
+    return failed;
+  }
+
+  public boolean isPassed() {
+    return getFailedCount() == 0;
+  }
+
+  /**
+   * Returns how long reading the key store and checking its digest took.
+   */
+  public long getOpenNanos() {
+    return openNanos;
+  }
+
+  /**
+   * Returns how long checking all of the entries took, in parallel.
+   */
+  public long getProbeNanos() {
+    return probeNanos;
+  }
+
+  public static final class Check {
+
+    private final String alias;
+    private final KeyStoreIndex.EntryType type;
+    private final String algorithm;
+    private final int bits;
+    private final String problem;
+    private final long nanos;
+
+    private Check(String alias, KeyStoreIndex.EntryType type, String algorithm, int bits, String problem, long nanos) {
+      this.alias = alias;
+      this.type = type;
+      this.algorithm = algorithm;
+      this.bits = bits;
+      this.problem = problem;
+      this.nanos = nanos;
+    }
+
+    public String getAlias() {
+      return alias;
+    }
+
+    public KeyStoreIndex.EntryType getType() {
+      return type;
+    }
+
+    /**
+     * Returns the algorithm of the key, or of the certificate's public key, or {@code null} if the entry could not be
+     * decrypted.
+     */
+    public String getAlgorithm() {
+      return algorithm;
+    }
+
+    /**
+     * Returns the key size in bits, or zero if it is not known.
+     */
+    public int getBits() {
+      return bits;
+    }
+
+    public String getProblem() {
+      return problem;
+    }
+
+    public boolean isPassed() {
+      return problem == null;
+    }
+
+    public long getNanos() {
+      return nanos;
+    }
+  }
+}
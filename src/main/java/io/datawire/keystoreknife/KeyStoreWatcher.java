@@ -0,0 +1,333 @@
+/*
+ * Copyright 2016 Datawire. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.datawire.keystoreknife;
+
+
+import com.google.common.hash.HashCode;
+import io.datawire.keystoreknife.exception.KeyStoreKnifeException;
+import io.datawire.keystoreknife.metrics.Metrics;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.ClosedWatchServiceException;
+import java.nio.file.FileSystems;
+import java.nio.file.Path;
+import java.nio.file.StandardWatchEventKinds;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Watches JKS and JCEKS key store files and tells listeners which aliases changed whenever one of them is written.
+ * Events for a file are debounced, so a burst of writes is read once after it settles, and only that file is read
+ * again. Entries are compared by the fingerprint of their encoded bytes, so nothing is decrypted to work out what
+ * changed; a listener gets a knife over the new contents to read the changed keys from.
+ *
+ * <p>{@link #run()} blocks the calling thread, delivering changes on it, until the watcher is closed. A file that
+ * cannot be read, for instance because it is not yet completely written by a tool that does not replace files
+ * atomically, is reported to the listeners and read again on its next change. An exception thrown by a listener is
+ * reported to that listener's {@link Listener#failed(File, Exception)} and does not stop the others or the watch. When
+ * a watched directory is removed or can no longer be watched, its files are reported as failed and dropped.</p>
+ */
+public final class KeyStoreWatcher implements Closeable {
+
+  public interface Listener {
+
+    void changed(Change change);
+
+    /**
+     * Called when a key store could not be read, when its directory can no longer be watched, or when
+     * {@link #changed(Change)} threw for a change to it.
+     */
+    default void failed(File keyStoreFile, Exception error) {
+    }
+  }
+
+  private final long debounceNanos;
+  private final WatchService watchService;
+  private final Map<Path, WatchKey> directories = new ConcurrentHashMap<>();
+  private final Map<Path, WatchedFile> files = new ConcurrentHashMap<>();
+  private final List<Listener> listeners = new CopyOnWriteArrayList<>();
+
+  public KeyStoreWatcher(Duration debounce) {
+    this.debounceNanos = debounce.toNanos();
+    try {
+      this.watchService = FileSystems.getDefault().newWatchService();
+    } catch (IOException ex) {
+      throw new KeyStoreKnifeException("Unable to watch files", ex);
+    }
+  }
+
+  public void addListener(Listener listener) {
+    listeners.add(Objects.requireNonNull(listener));
+  }
+
+  public void removeListener(Listener listener) {
+    listeners.remove(listener);
+  }
+
+  /**
+   * Starts watching a key store file, which is read now so that later changes can be compared with it. The password
+   * is used to check the integrity of every version of the file.
+   */
+  public void watch(File keyStoreFile, String type, String password) {
+    if (!KeyStoreIndex.isSupported(type)) {
+      throw new IllegalArgumentException(String.format("Unable to watch a %s key store", type));
+    }
+
+    Path path = keyStoreFile.toPath().toAbsolutePath().normalize();
+    WatchedFile watched = new WatchedFile(path.toFile(), password != null ? password.toCharArray() : null);
+    watched.fingerprints = KeyStoreDiff.fingerprints(KeyStoreIndex.read(watched.file, watched.password));
+
+    Path directory = path.getParent();
+    directories.computeIfAbsent(directory, unused -> {
+      try {
+        return directory.register(watchService,
+            StandardWatchEventKinds.ENTRY_CREATE, StandardWatchEventKinds.ENTRY_MODIFY);
+      } catch (IOException ex) {
+        throw new KeyStoreKnifeException(String.format("Unable to watch directory (path: %s)", directory), ex);
+      }
+    });
+    files.put(path, watched);
+  }
+
+  /**
+   * Delivers changes until the watcher is closed or the thread is interrupted.
+   */
+  public void run() throws InterruptedException {
+    try {
+      while (true) {
+        long wait = nextWait(System.nanoTime());
+        WatchKey key = wait < 0 ? watchService.take() : watchService.poll(wait, TimeUnit.NANOSECONDS);
+
+        if (key != null) {
+          schedule(key);
+        }
+        reloadDue();
+      }
+    } catch (ClosedWatchServiceException ex) {
+      // closed
+    }
+  }
+
+  // the nanoseconds until the next file settles, or -1 if no file has changed
+  private long nextWait(long now) {
+    long next = -1;
+    for (WatchedFile watched : files.values()) {
+      if (watched.pending) {
+        long wait = Math.max(0, watched.deadline - now);
+        next = next < 0 ? wait : Math.min(next, wait);
+      }
+    }
+    return next;
+  }
+
+  private void schedule(WatchKey key) {
+    Path directory = (Path) key.watchable();
+    long deadline = System.nanoTime() + debounceNanos;
+    for (WatchEvent<?> event : key.pollEvents()) {
+      if (event.kind() == StandardWatchEventKinds.OVERFLOW) {
+        for (Map.Entry<Path, WatchedFile> entry : files.entrySet()) {
+          if (entry.getKey().getParent().equals(directory)) {
+            entry.getValue().settleAt(deadline);
+          }
+        }
+      } else {
+        WatchedFile watched = files.get(directory.resolve((Path) event.context()));
+        if (watched != null) {
+          watched.settleAt(deadline);
+        }
+      }
+    }
+
+    if (!key.reset()) {
+      drop(directory);
+    }
+  }
+
+  // the directory was removed or became inaccessible, so no more events will come for the files in it
+  private void drop(Path directory) {
+    directories.remove(directory);
+    for (Map.Entry<Path, WatchedFile> entry : files.entrySet()) {
+      if (entry.getKey().getParent().equals(directory)) {
+        files.remove(entry.getKey());
+        notifyFailed(entry.getValue().file, new KeyStoreKnifeException(
+            String.format("Directory can no longer be watched, no longer watching the keystore (path: %s)", directory),
+            null));
+      }
+    }
+  }
+
+  private void reloadDue() {
+    long now = System.nanoTime();
+    for (WatchedFile watched : files.values()) {
+      if (watched.pending && watched.deadline - now <= 0) {
+        watched.pending = false;
+        reload(watched);
+      }
+    }
+  }
+
+  private void reload(WatchedFile watched) {
+    KeyStoreIndex index;
+    try (Metrics.Sample sample = Metrics.get().start("reload", watched.file.getPath())) {
+      index = KeyStoreIndex.read(watched.file, watched.password);
+      sample.entries(index.getEntries().size());
+    } catch (Exception ex) {
+      notifyFailed(watched.file, ex);
+      return;
+    }
+
+    Map<String, HashCode> fingerprints = KeyStoreDiff.fingerprints(index);
+    Change change = compare(watched.file, watched.fingerprints, fingerprints, index);
+    watched.fingerprints = fingerprints;
+    if (!change.isEmpty()) {
+      for (Listener listener : listeners) {
+        try {
+          listener.changed(change);
+        } catch (RuntimeException ex) {
+          failed(listener, watched.file, ex);
+        }
+      }
+    }
+  }
+
+  private void notifyFailed(File keyStoreFile, Exception error) {
+    for (Listener listener : listeners) {
+      failed(listener, keyStoreFile, error);
+    }
+  }
+
+  // a listener that fails to take a failure has nobody left to report to
+  private static void failed(Listener listener, File keyStoreFile, Exception error) {
+    try {
+      listener.failed(keyStoreFile, error);
+    } catch (RuntimeException ignored) {
+      // keep delivering to the other listeners
+    }
+  }
+
+  static Change compare(File keyStoreFile, Map<String, HashCode> before, Map<String, HashCode> after,
+                        KeyStoreIndex index) {
+
+    List<String> added = new ArrayList<>();
+    List<String> changed = new ArrayList<>();
+    for (Map.Entry<String, HashCode> entry : after.entrySet()) {
+      HashCode previous = before.get(entry.getKey());
+      if (previous == null) {
+        added.add(entry.getKey());
+      } else if (!previous.equals(entry.getValue())) {
+        changed.add(entry.getKey());
+      }
+    }
+
+    List<String> removed = new ArrayList<>();
+    for (String alias : before.keySet()) {
+      if (!after.containsKey(alias)) {
+        removed.add(alias);
+      }
+    }
+
+    return new Change(keyStoreFile, added, removed, changed, index);
+  }
+
+  @Override
+  public void close() throws IOException {
+    watchService.close();
+  }
+
+  private static final class WatchedFile {
+
+    private final File file;
+    private final char[] password;
+
+    // only touched by the thread delivering changes, apart from the first read
+    private volatile Map<String, HashCode> fingerprints;
+    private volatile boolean pending;
+    private volatile long deadline;
+
+    private WatchedFile(File file, char[] password) {
+      this.file = file;
+      this.password = password;
+    }
+
+    // every event pushes the read back, so it happens once the writes have settled
+    private void settleAt(long deadline) {
+      this.deadline = deadline;
+      this.pending = true;
+    }
+  }
+
+  /**
+   * The aliases that were added, removed or changed by a write to a key store file, each in alias order.
+   */
+  public static final class Change {
+
+    private final File keyStoreFile;
+    private final List<String> added;
+    private final List<String> removed;
+    private final List<String> changed;
+    private final KeyStoreIndex index;
+
+    private Change(File keyStoreFile, List<String> added, List<String> removed, List<String> changed,
+                   KeyStoreIndex index) {
+
+      this.keyStoreFile = keyStoreFile;
+      this.added = Collections.unmodifiableList(added);
+      this.removed = Collections.unmodifiableList(removed);
+      this.changed = Collections.unmodifiableList(changed);
+      this.index = index;
+    }
+
+    public File getKeyStoreFile() {
+      return keyStoreFile;
+    }
+
+    public List<String> getAdded() {
+      return added;
+    }
+
+    public List<String> getRemoved() {
+      return removed;
+    }
+
+    public List<String> getChanged() {
+      return changed;
+    }
+
+    public boolean isEmpty() {
+      return added.isEmpty() && removed.isEmpty() && changed.isEmpty();
+    }
+
+    /**
+     * Returns a knife over the key store as it was read for this change.
+     */
+    public KeyStoreKnife getKnife() {
+      return KeyStoreKnife.open(index);
+    }
+  }
+}
@@ -0,0 +1,236 @@
+/*
+ * Copyright 2016 Datawire. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.datawire.keystoreknife;
+
+
+import io.datawire.keystoreknife.exception.KeyStoreKnifeException;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.Reader;
+import java.security.KeyStore;
+import java.time.Duration;
+import java.time.Instant;
+import java.time.format.DateTimeParseException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.ForkJoinPool;
+import java.util.regex.Pattern;
+
+/**
+ * Decides which secret keys are due to be replaced from their age. A policy is read from lines of
+ * {@code alias_pattern max_age algorithm [key_size]}, separated by whitespace, where the alias pattern is a glob, the
+ * maximum age is a number of days, hours, minutes or seconds ({@code 90d}, {@code 12h}, {@code 30m}, {@code 45s}) or
+ * an ISO-8601 duration, and the algorithm and key size are those of the replacement key. The first rule whose pattern
+ * matches an alias applies to it. Blank lines and lines starting with {@code #} are ignored.
+ *
+ * <p>Only the creation dates of the entries are read to evaluate a policy, so nothing is decrypted until keys are
+ * actually replaced, and then every replacement is generated and protected on a pool at once.</p>
+ */
+public final class RotationPolicy {
+
+  private final List<Rule> rules;
+
+  private RotationPolicy(List<Rule> rules) {
+    this.rules = rules;
+  }
+
+  public static RotationPolicy read(Reader source) throws IOException {
+    List<Rule> rules = new ArrayList<>();
+
+    BufferedReader reader = new BufferedReader(source);
+    String line;
+    int lineNumber = 0;
+    while ((line = reader.readLine()) != null) {
+      lineNumber++;
+      String trimmed = line.trim();
+      if (trimmed.isEmpty() || trimmed.startsWith("#")) {
+        continue;
+      }
+
+      String[] fields = trimmed.split("\\s+");
+      if (fields.length < 3 || fields.length > 4) {
+        throw new IllegalArgumentException(String.format(
+            "Invalid policy line, expected alias_pattern max_age algorithm [key_size] (line: %d)", lineNumber));
+      }
+
+      try {
+        int keySize = fields.length == 4 ? Integer.parseInt(fields[3]) : 0;
+        rules.add(new Rule(fields[0], parseAge(fields[1]), fields[2], keySize));
+      } catch (IllegalArgumentException | DateTimeParseException ex) {
+        throw new IllegalArgumentException(String.format("Invalid policy line (line: %d)", lineNumber), ex);
+      }
+    }
+
+    return new RotationPolicy(Collections.unmodifiableList(rules));
+  }
+
+  static Duration parseAge(String age) {
+    String normalized = age.toUpperCase(Locale.ENGLISH);
+    if (normalized.startsWith("P")) {
+      return Duration.parse(normalized);
+    }
+
+    long amount = Long.parseLong(normalized.substring(0, normalized.length() - 1));
+    switch (normalized.charAt(normalized.length() - 1)) {
+      case 'D':
+        return Duration.ofDays(amount);
+      case 'H':
+        return Duration.ofHours(amount);
+      case 'M':
+        return Duration.ofMinutes(amount);
+      case 'S':
+        return Duration.ofSeconds(amount);
+      default:
+        throw new IllegalArgumentException(String.format("Unrecognized age '%s'", age));
+    }
+  }
+
+  public List<Rule> getRules() {
+    return rules;
+  }
+
+  /**
+   * Returns the first rule whose pattern matches the alias, or {@code null} if none does.
+   */
+  public Rule getRule(String alias) {
+    for (Rule rule : rules) {
+      if (rule.regex.matcher(alias).matches()) {
+        return rule;
+      }
+    }
+    return null;
+  }
+
+  /**
+   * Returns the secret key entries that are older than the rule that applies to them allows, in the order given.
+   * Other kinds of entries are never rotated.
+   */
+  public List<Rotation> getRotations(List<EntryMetadata> entries, Instant now) {
+    List<Rotation> result = new ArrayList<>();
+    for (EntryMetadata entry : entries) {
+      if (entry.getType() != KeyStoreIndex.EntryType.SECRET_KEY) {
+        continue;
+      }
+
+      Rule rule = getRule(entry.getAlias());
+      if (rule != null) {
+        Duration age = Duration.between(entry.getCreationDate().toInstant(), now);
+        if (age.compareTo(rule.maxAge) > 0) {
+          result.add(new Rotation(entry.getAlias(), rule, age));
+        }
+      }
+    }
+    return result;
+  }
+
+  /**
+   * Generates a replacement for every rotation on the pool and sets them all on the knife, protected by the key
+   * password. The knife is not saved.
+   */
+  public static void rotate(KeyStoreKnife knife, List<Rotation> rotations, char[] keyPassword, ForkJoinPool pool) {
+    Map<List<Object>, List<String>> aliasesByKey = new LinkedHashMap<>();
+    for (Rotation rotation : rotations) {
+      List<Object> key = Arrays.asList(rotation.rule.algorithm, rotation.rule.keySize);
+      aliasesByKey.computeIfAbsent(key, unused -> new ArrayList<>()).add(rotation.alias);
+    }
+
+    Map<String, KeyStore.SecretKeyEntry> entries = new LinkedHashMap<>();
+    for (Map.Entry<List<Object>, List<String>> group : aliasesByKey.entrySet()) {
+      SecretKeyGenerator generator = new SecretKeyGenerator(
+          (String) group.getKey().get(0), (Integer) group.getKey().get(1));
+      List<String> aliases = group.getValue();
+      generator.generate(aliases.size(), pool, (n, key) -> entries.put(aliases.get(n), new KeyStore.SecretKeyEntry(key)));
+    }
+
+    try {
+      knife.setSecretKeys(entries, keyPassword, pool);
+    } catch (KeyStoreKnifeException ex) {
+      throw new KeyStoreKnifeException(String.format("Unable to rotate %d keys", entries.size()), ex);
+    }
+  }
+
+  public static final class Rule {
+
+    private final String pattern;
+    private final Pattern regex;
+    private final Duration maxAge;
+    private final String algorithm;
+    private final int keySize;
+
+    Rule(String pattern, Duration maxAge, String algorithm, int keySize) {
+      if (maxAge.isNegative()) {
+        throw new IllegalArgumentException("Maximum age cannot be negative");
+      }
+      this.pattern = pattern;
+      this.regex = KeyStoreKnife.globToRegex(pattern);
+      this.maxAge = maxAge;
+      this.algorithm = Objects.requireNonNull(algorithm);
+      this.keySize = keySize;
+    }
+
+    public String getPattern() {
+      return pattern;
+    }
+
+    public Duration getMaxAge() {
+      return maxAge;
+    }
+
+    public String getAlgorithm() {
+      return algorithm;
+    }
+
+    /**
+     * Returns the key size in bits, or zero for the algorithm's default.
+     */
+    public int getKeySize() {
+      return keySize;
+    }
+  }
+
+  public static final class Rotation {
+
+    private final String alias;
+    private final Rule rule;
+    private final Duration age;
+
+    Rotation(String alias, Rule rule, Duration age) {
+      this.alias = alias;
+      this.rule = rule;
+      this.age = age;
+    }
+
+    public String getAlias() {
+      return alias;
+    }
+
+    public Rule getRule() {
+      return rule;
+    }
+
+    public Duration getAge() {
+      return age;
+    }
+  }
+}
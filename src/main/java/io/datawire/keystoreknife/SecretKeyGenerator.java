@@ -0,0 +1,90 @@
+/*
+ * Copyright 2016 Datawire. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.datawire.keystoreknife;
+
+
+import io.datawire.keystoreknife.exception.KeyStoreKnifeException;
+
+import javax.crypto.KeyGenerator;
+import javax.crypto.SecretKey;
+import java.security.SecureRandom;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.function.BiConsumer;
+
+/**
+ * Generates secret keys on many threads at once. Every thread gets its own {@link KeyGenerator} and
+ * {@link SecureRandom} so that the threads do not contend on a shared source of randomness.
+ */
+public final class SecretKeyGenerator {
+
+  private static final int CHUNK_SIZE = 1024;
+
+  private final String algorithm;
+  private final ThreadLocal<KeyGenerator> generators;
+
+  /**
+   * @param keySize the key size in bits, or zero for the algorithm's default
+   */
+  public SecretKeyGenerator(String algorithm, int keySize) {
+    this.algorithm = algorithm;
+    this.generators = ThreadLocal.withInitial(() -> {
+      try {
+        KeyGenerator generator = KeyGenerator.getInstance(algorithm);
+        if (keySize > 0) {
+          generator.init(keySize, new SecureRandom());
+        } else {
+          generator.init(new SecureRandom());
+        }
+        return generator;
+      } catch (Exception ex) {
+        throw new KeyStoreKnifeException(String.format("Unable to create key generator (algorithm: %s)", algorithm), ex);
+      }
+    });
+
+    // fail here rather than on the first worker thread
+    generators.get();
+  }
+
+  public String getAlgorithm() {
+    return algorithm;
+  }
+
+  public SecretKey generate() {
+    return generators.get().generateKey();
+  }
+
+  /**
+   * Generates {@code count} keys on the pool and hands them to the consumer in order, numbered from zero. Keys are
+   * generated a chunk at a time so memory use does not grow with the count.
+   */
+  public void generate(int count, ForkJoinPool pool, BiConsumer<Integer, SecretKey> consumer) {
+    for (int start = 0; start < count; start += CHUNK_SIZE) {
+      int end = Math.min(count, start + CHUNK_SIZE);
+
+      List<ForkJoinTask<SecretKey>> tasks = new ArrayList<>(end - start);
+      for (int i = start; i < end; i++) {
+        tasks.add(pool.submit(() -> generate()));
+      }
+
+      for (int i = start; i < end; i++) {
+        consumer.accept(i, tasks.get(i - start).join());
+      }
+    }
+  }
+}
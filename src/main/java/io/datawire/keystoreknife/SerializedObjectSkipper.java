@@ -0,0 +1,308 @@
+/*
+ * Copyright 2016 Datawire. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.datawire.keystoreknife;
+
+
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * Finds the end of a Java serialization stream holding a single object without deserializing it. JCEKS stores each
+ * secret key as a serialized sealed object and gives no length for it, so indexing a key store used to mean reading
+ * every sealed object back through an {@code ObjectInputStream}; walking the stream grammar is much cheaper. Only
+ * what sealed objects are made of is understood (plain serializable classes, strings, arrays and back references);
+ * anything else makes {@link #skip(ByteBuffer)} return {@code false}, and the caller has to reject the entry: such a
+ * stream must never be deserialized, as it comes from an unverified file. For the same reason, class hierarchies that
+ * loop back on themselves and nesting deeper than any sealed object needs are rejected rather than followed.
+ */
+final class SerializedObjectSkipper {
+
+  private static final short STREAM_MAGIC = (short) 0xaced;
+  private static final short STREAM_VERSION = 5;
+
+  private static final byte TC_NULL = 0x70;
+  private static final byte TC_REFERENCE = 0x71;
+  private static final byte TC_CLASSDESC = 0x72;
+  private static final byte TC_OBJECT = 0x73;
+  private static final byte TC_STRING = 0x74;
+  private static final byte TC_ARRAY = 0x75;
+  private static final byte TC_ENDBLOCKDATA = 0x78;
+  private static final byte TC_LONGSTRING = 0x7c;
+
+  private static final byte SC_WRITE_METHOD = 0x01;
+  private static final byte SC_SERIALIZABLE = 0x02;
+  private static final byte SC_EXTERNALIZABLE = 0x04;
+
+  private static final int BASE_HANDLE = 0x7e0000;
+
+  // sealed objects nest a handful of levels deep; this only has to stop hostile streams from exhausting the stack
+  private static final int MAX_DEPTH = 100;
+
+  private final ByteBuffer buffer;
+
+  // every object that was given a handle, in order; class descriptions are kept so that references to them can be
+  // followed, everything else is only a placeholder
+  private final List<ClassDesc> handles = new ArrayList<>();
+
+  private int depth;
+
+  private SerializedObjectSkipper(ByteBuffer buffer) {
+    this.buffer = buffer;
+  }
+
+  /**
+   * Moves the buffer past a serialization stream that holds one object and returns {@code true}, or leaves the buffer
+   * where it was and returns {@code false} if the stream holds something this does not understand.
+   */
+  static boolean skip(ByteBuffer buffer) {
+    int start = buffer.position();
+    try {
+      SerializedObjectSkipper skipper = new SerializedObjectSkipper(buffer);
+      if (buffer.getShort() != STREAM_MAGIC || buffer.getShort() != STREAM_VERSION) {
+        throw new UnsupportedStreamException();
+      }
+      skipper.skipContent();
+      return true;
+    } catch (UnsupportedStreamException | BufferUnderflowException | IllegalArgumentException ex) {
+      buffer.position(start);
+      return false;
+    }
+  }
+
+  private void skipContent() {
+    enter();
+    byte tag = buffer.get();
+    switch (tag) {
+      case TC_NULL:
+        break;
+      case TC_REFERENCE:
+        handle(buffer.getInt());
+        break;
+      case TC_STRING:
+        skipBytes(buffer.getShort() & 0xffff);
+        handles.add(null);
+        break;
+      case TC_LONGSTRING:
+        skipBytes(buffer.getLong());
+        handles.add(null);
+        break;
+      case TC_ARRAY:
+        skipArray();
+        break;
+      case TC_OBJECT:
+        skipObject();
+        break;
+      default:
+        throw new UnsupportedStreamException();
+    }
+    depth--;
+  }
+
+  private void skipObject() {
+    ClassDesc desc = readClassDesc();
+    if (desc == null) {
+      throw new UnsupportedStreamException();
+    }
+    handles.add(null);
+
+    // a superclass can be a reference to a description further down the same hierarchy
+    Set<ClassDesc> seen = Collections.newSetFromMap(new IdentityHashMap<>());
+    Deque<ClassDesc> hierarchy = new ArrayDeque<>();
+    for (ClassDesc current = desc; current != null; current = current.superClass) {
+      if (!seen.add(current)) {
+        throw new UnsupportedStreamException();
+      }
+      hierarchy.addFirst(current);
+    }
+
+    for (ClassDesc current : hierarchy) {
+      if ((current.flags & SC_EXTERNALIZABLE) != 0 || (current.flags & SC_SERIALIZABLE) == 0) {
+        throw new UnsupportedStreamException();
+      }
+      for (char type : current.fieldTypes) {
+        skipValue(type);
+      }
+      if ((current.flags & SC_WRITE_METHOD) != 0) {
+        skipUntilEndBlockData();
+      }
+    }
+  }
+
+  private void skipArray() {
+    ClassDesc desc = readClassDesc();
+    if (desc == null || desc.name.length() < 2 || desc.name.charAt(0) != '[') {
+      throw new UnsupportedStreamException();
+    }
+    handles.add(null);
+
+    int length = buffer.getInt();
+    char elementType = desc.name.charAt(1);
+    int size = primitiveSize(elementType);
+    if (size > 0) {
+      skipBytes((long) length * size);
+    } else {
+      for (int i = 0; i < length; i++) {
+        skipContent();
+      }
+    }
+  }
+
+  private ClassDesc readClassDesc() {
+    enter();
+    ClassDesc desc = readClassDescContent();
+    depth--;
+    return desc;
+  }
+
+  private ClassDesc readClassDescContent() {
+    byte tag = buffer.get();
+    switch (tag) {
+      case TC_NULL:
+        return null;
+      case TC_REFERENCE:
+        ClassDesc referenced = handle(buffer.getInt());
+        if (referenced == null) {
+          throw new UnsupportedStreamException();
+        }
+        return referenced;
+      case TC_CLASSDESC:
+        String name = readUtf();
+        buffer.getLong(); // serialVersionUID
+        ClassDesc desc = new ClassDesc(name);
+        handles.add(desc);
+
+        desc.flags = buffer.get();
+        int fieldCount = buffer.getShort();
+        for (int i = 0; i < fieldCount; i++) {
+          char type = (char) buffer.get();
+          readUtf(); // field name
+          if (type == 'L' || type == '[') {
+            skipContent(); // the field's class name, as a string or a reference to one
+          } else if (primitiveSize(type) < 0) {
+            throw new UnsupportedStreamException();
+          }
+          desc.fieldTypes.add(type);
+        }
+
+        skipUntilEndBlockData(); // class annotation
+        desc.superClass = readClassDesc();
+        if (desc.superClass == desc) {
+          throw new UnsupportedStreamException();
+        }
+        return desc;
+      default:
+        throw new UnsupportedStreamException();
+    }
+  }
+
+  private void skipValue(char type) {
+    int size = primitiveSize(type);
+    if (size > 0) {
+      skipBytes(size);
+    } else {
+      skipContent();
+    }
+  }
+
+  private void skipUntilEndBlockData() {
+    while (buffer.get(buffer.position()) != TC_ENDBLOCKDATA) {
+      skipContent();
+    }
+    buffer.get();
+  }
+
+  private void enter() {
+    if (++depth > MAX_DEPTH) {
+      throw new UnsupportedStreamException();
+    }
+  }
+
+  private ClassDesc handle(int handle) {
+    int index = handle - BASE_HANDLE;
+    if (index < 0 || index >= handles.size()) {
+      throw new UnsupportedStreamException();
+    }
+    return handles.get(index);
+  }
+
+  private String readUtf() {
+    int length = buffer.getShort() & 0xffff;
+    byte[] bytes = new byte[length];
+    buffer.get(bytes);
+    // class and field names are ASCII in practice; anything else only has to compare unequal to '['
+    return new String(bytes, StandardCharsets.ISO_8859_1);
+  }
+
+  private void skipBytes(long count) {
+    if (count < 0 || count > buffer.remaining()) {
+      throw new UnsupportedStreamException();
+    }
+    buffer.position(buffer.position() + (int) count);
+  }
+
+  // the size of a primitive of the given type code, 0 for objects and arrays and -1 for anything else
+  private static int primitiveSize(char type) {
+    switch (type) {
+      case 'B':
+      case 'Z':
+        return 1;
+      case 'C':
+      case 'S':
+        return 2;
+      case 'I':
+      case 'F':
+        return 4;
+      case 'J':
+      case 'D':
+        return 8;
+      case 'L':
+      case '[':
+        return 0;
+      default:
+        return -1;
+    }
+  }
+
+  private static final class ClassDesc {
+
+    private final String name;
+    private final List<Character> fieldTypes = new ArrayList<>();
+    private byte flags;
+    private ClassDesc superClass;
+
+    ClassDesc(String name) {
+      this.name = name;
+    }
+  }
+
+  private static final class UnsupportedStreamException extends RuntimeException {
+
+    private static final long serialVersionUID = 1L;
+
+    UnsupportedStreamException() {
+      super(null, null, false, false);
+    }
+  }
+}
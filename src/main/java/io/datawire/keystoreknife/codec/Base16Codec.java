@@ -0,0 +1,77 @@
+/*
+ * Copyright 2016 Datawire. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.datawire.keystoreknife.codec;
+
+
+/**
+ * Encodes a byte at a time through a table of the two characters of every byte value and decodes a pair of characters
+ * at a time. Both cases are accepted when decoding.
+ */
+final class Base16Codec extends TableCodec {
+
+  private final char[] pairs = new char[512];
+  private final byte[] table;
+
+  Base16Codec(String name, String alphabet) {
+    super(name);
+    for (int i = 0; i < 256; i++) {
+      pairs[i << 1] = alphabet.charAt(i >>> 4);
+      pairs[(i << 1) + 1] = alphabet.charAt(i & 0xf);
+    }
+    this.table = decodeTable(alphabet, true);
+  }
+
+  @Override
+  public int maxEncodedLength(int length) {
+    return length * 2;
+  }
+
+  @Override
+  public int encode(byte[] source, int offset, int length, char[] target, int targetOffset) {
+    int t = targetOffset;
+    for (int i = offset, end = offset + length; i < end; i++) {
+      int pair = (source[i] & 0xff) << 1;
+      target[t] = pairs[pair];
+      target[t + 1] = pairs[pair + 1];
+      t += 2;
+    }
+    return t - targetOffset;
+  }
+
+  @Override
+  public int maxDecodedLength(int length) {
+    return length / 2;
+  }
+
+  @Override
+  int decodedLength(char[] secret, int length) {
+    return decodedLength(length, unpadded(secret, length), 4);
+  }
+
+  @Override
+  void decode(char[] secret, int secretLength, byte[] target, int offset) {
+    int t = offset;
+    for (int i = 0, length = unpadded(secret, secretLength); i < length; i += 2) {
+      // an unrecognized character in either half makes the whole value negative
+      int value = value(table, secret[i]) << 4 | value(table, secret[i + 1]);
+      if (value < 0) {
+        throw unrecognized(table, secret, i);
+      }
+      target[t++] = (byte) value;
+    }
+  }
+}
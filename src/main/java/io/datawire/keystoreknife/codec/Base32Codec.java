@@ -0,0 +1,104 @@
+/*
+ * Copyright 2016 Datawire. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.datawire.keystoreknife.codec;
+
+
+/**
+ * Encodes five bytes into eight characters at a time, with the last group padded. Decoding shifts five bits at a time
+ * through an accumulator. Both cases are accepted when decoding and input may be unpadded.
+ */
+final class Base32Codec extends TableCodec {
+
+  private final char[] alphabet;
+  private final byte[] table;
+
+  Base32Codec(String name, String alphabet) {
+    super(name);
+    this.alphabet = alphabet.toCharArray();
+    this.table = decodeTable(alphabet, true);
+  }
+
+  @Override
+  public int maxEncodedLength(int length) {
+    return (int) (((long) length + 4) / 5 * 8);
+  }
+
+  @Override
+  public int encode(byte[] source, int offset, int length, char[] target, int targetOffset) {
+    int i = offset;
+    int t = targetOffset;
+    for (int end = offset + length - length % 5; i < end; i += 5) {
+      long bits = (source[i] & 0xffL) << 32 | (source[i + 1] & 0xffL) << 24 | (source[i + 2] & 0xffL) << 16
+          | (source[i + 3] & 0xffL) << 8 | (source[i + 4] & 0xffL);
+      for (int shift = 35; shift >= 0; shift -= 5) {
+        target[t++] = alphabet[(int) (bits >>> shift) & 0x1f];
+      }
+    }
+
+    int end = offset + length;
+    if (i < end) {
+      int group = t;
+      int buffer = 0;
+      int bits = 0;
+      for (; i < end; i++) {
+        buffer = buffer << 8 | (source[i] & 0xff);
+        bits += 8;
+        while (bits >= 5) {
+          bits -= 5;
+          target[t++] = alphabet[buffer >>> bits & 0x1f];
+        }
+      }
+      if (bits > 0) {
+        target[t++] = alphabet[buffer << (5 - bits) & 0x1f];
+      }
+      while (t - group < 8) {
+        target[t++] = '=';
+      }
+    }
+    return t - targetOffset;
+  }
+
+  @Override
+  public int maxDecodedLength(int length) {
+    return (int) ((long) length * 5 / 8);
+  }
+
+  @Override
+  int decodedLength(char[] secret, int length) {
+    return decodedLength(length, unpadded(secret, length), 5);
+  }
+
+  @Override
+  void decode(char[] secret, int secretLength, byte[] target, int offset) {
+    int t = offset;
+    int buffer = 0;
+    int bits = 0;
+    for (int i = 0, length = unpadded(secret, secretLength); i < length; i++) {
+      int value = value(table, secret[i]);
+      if (value < 0) {
+        throw unrecognized(i);
+      }
+
+      buffer = buffer << 5 | value;
+      bits += 5;
+      if (bits >= 8) {
+        bits -= 8;
+        target[t++] = (byte) (buffer >>> bits);
+      }
+    }
+  }
+}
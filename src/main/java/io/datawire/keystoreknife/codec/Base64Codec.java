@@ -0,0 +1,114 @@
+/*
+ * Copyright 2016 Datawire. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.datawire.keystoreknife.codec;
+
+
+/**
+ * Encodes three bytes into four characters and decodes four characters into three bytes at a time, with a branch
+ * free lookup per character; only the last group is handled separately. Output is padded, input may be unpadded.
+ */
+final class Base64Codec extends TableCodec {
+
+  private final char[] alphabet;
+  private final byte[] table;
+
+  Base64Codec(String name, String alphabet) {
+    super(name);
+    this.alphabet = alphabet.toCharArray();
+    this.table = decodeTable(alphabet, false);
+  }
+
+  @Override
+  public int maxEncodedLength(int length) {
+    return (int) (((long) length + 2) / 3 * 4);
+  }
+
+  @Override
+  public int encode(byte[] source, int offset, int length, char[] target, int targetOffset) {
+    int i = offset;
+    int t = targetOffset;
+    for (int end = offset + length - length % 3; i < end; i += 3) {
+      int bits = (source[i] & 0xff) << 16 | (source[i + 1] & 0xff) << 8 | (source[i + 2] & 0xff);
+      target[t] = alphabet[bits >>> 18];
+      target[t + 1] = alphabet[bits >>> 12 & 0x3f];
+      target[t + 2] = alphabet[bits >>> 6 & 0x3f];
+      target[t + 3] = alphabet[bits & 0x3f];
+      t += 4;
+    }
+
+    int remaining = offset + length - i;
+    if (remaining > 0) {
+      int bits = (source[i] & 0xff) << 16 | (remaining == 2 ? (source[i + 1] & 0xff) << 8 : 0);
+      target[t] = alphabet[bits >>> 18];
+      target[t + 1] = alphabet[bits >>> 12 & 0x3f];
+      target[t + 2] = remaining == 2 ? alphabet[bits >>> 6 & 0x3f] : '=';
+      target[t + 3] = '=';
+      t += 4;
+    }
+    return t - targetOffset;
+  }
+
+  @Override
+  public int maxDecodedLength(int length) {
+    return (int) ((long) length * 3 / 4);
+  }
+
+  @Override
+  int decodedLength(char[] secret, int length) {
+    return decodedLength(length, unpadded(secret, length), 6);
+  }
+
+  @Override
+  void decode(char[] secret, int secretLength, byte[] target, int offset) {
+    int length = unpadded(secret, secretLength);
+    int t = offset;
+    int i = 0;
+    for (int end = length - length % 4; i < end; i += 4) {
+      int a = value(table, secret[i]);
+      int b = value(table, secret[i + 1]);
+      int c = value(table, secret[i + 2]);
+      int d = value(table, secret[i + 3]);
+      if ((a | b | c | d) < 0) {
+        throw unrecognized(table, secret, i);
+      }
+
+      int bits = a << 18 | b << 12 | c << 6 | d;
+      target[t] = (byte) (bits >>> 16);
+      target[t + 1] = (byte) (bits >>> 8);
+      target[t + 2] = (byte) bits;
+      t += 3;
+    }
+
+    if (i < length) {
+      int bits = 0;
+      for (int j = i; j < length; j++) {
+        int value = value(table, secret[j]);
+        if (value < 0) {
+          throw unrecognized(j);
+        }
+        bits = bits << 6 | value;
+      }
+
+      if (length - i == 2) {
+        target[t] = (byte) (bits >>> 4);
+      } else {
+        target[t] = (byte) (bits >>> 10);
+        target[t + 1] = (byte) (bits >>> 2);
+      }
+    }
+  }
+}
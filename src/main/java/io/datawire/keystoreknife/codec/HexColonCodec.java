@@ -0,0 +1,80 @@
+/*
+ * Copyright 2016 Datawire. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.datawire.keystoreknife.codec;
+
+
+/**
+ * Encodes bytes as colon separated pairs of lower case hex digits, such as {@code 0a:1b:2c}, the way fingerprints are
+ * usually shown. Both cases are accepted when decoding.
+ */
+public final class HexColonCodec extends TableCodec {
+
+  private static final char[] DIGITS = "0123456789abcdef".toCharArray();
+  private static final byte[] TABLE = decodeTable("0123456789ABCDEF", true);
+
+  public HexColonCodec() {
+    super("hex_colon");
+  }
+
+  @Override
+  public int maxEncodedLength(int length) {
+    return length == 0 ? 0 : length * 3 - 1;
+  }
+
+  @Override
+  public int encode(byte[] source, int offset, int length, char[] target, int targetOffset) {
+    int t = targetOffset;
+    for (int i = offset, end = offset + length; i < end; i++) {
+      if (i > offset) {
+        target[t++] = ':';
+      }
+      target[t] = DIGITS[(source[i] & 0xff) >>> 4];
+      target[t + 1] = DIGITS[source[i] & 0xf];
+      t += 2;
+    }
+    return t - targetOffset;
+  }
+
+  @Override
+  public int maxDecodedLength(int length) {
+    return (length + 1) / 3;
+  }
+
+  @Override
+  int decodedLength(char[] secret, int length) {
+    if ((length + 1) % 3 != 0 && length != 0) {
+      throw new IllegalArgumentException("Invalid input length " + length);
+    }
+    return maxDecodedLength(length);
+  }
+
+  @Override
+  void decode(char[] secret, int length, byte[] target, int offset) {
+    int t = offset;
+    for (int i = 0; i < length; i += 3) {
+      int high = value(TABLE, secret[i]);
+      int low = value(TABLE, secret[i + 1]);
+      if ((high | low) < 0) {
+        throw unrecognized(high < 0 ? i : i + 1);
+      }
+      if (i + 2 < length && secret[i + 2] != ':') {
+        throw unrecognized(i + 2);
+      }
+      target[t++] = (byte) (high << 4 | low);
+    }
+  }
+}
@@ -0,0 +1,93 @@
+/*
+ * Copyright 2016 Datawire. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.datawire.keystoreknife.codec;
+
+
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.util.Arrays;
+
+/**
+ * Encodes bytes as a PEM block: base 64 wrapped at 64 characters between {@code -----BEGIN SECRET KEY-----} and
+ * {@code -----END SECRET KEY-----} lines. Decoding skips every line that starts with a dash, whatever its label, and
+ * all whitespace, so a bare base 64 secret is accepted too.
+ */
+public final class PemCodec implements SecretCodec {
+
+  private static final String BEGIN = "-----BEGIN SECRET KEY-----";
+  private static final String END = "-----END SECRET KEY-----";
+  private static final int BYTES_PER_LINE = 48;
+
+  private final SecretCodec base64 = SecretCodecs.get("base64");
+
+  @Override
+  public String getName() {
+    return "pem";
+  }
+
+  @Override
+  public int maxEncodedLength(int length) {
+    int lines = (length + BYTES_PER_LINE - 1) / BYTES_PER_LINE;
+    return BEGIN.length() + 1 + base64.maxEncodedLength(length) + lines + END.length();
+  }
+
+  @Override
+  public int encode(byte[] source, int offset, int length, char[] target, int targetOffset) {
+    int t = append(BEGIN, target, targetOffset);
+    target[t++] = '\n';
+    for (int i = offset, end = offset + length; i < end; i += BYTES_PER_LINE) {
+      t += base64.encode(source, i, Math.min(BYTES_PER_LINE, end - i), target, t);
+      target[t++] = '\n';
+    }
+    return append(END, target, t) - targetOffset;
+  }
+
+  @Override
+  public int maxDecodedLength(int length) {
+    return base64.maxDecodedLength(length);
+  }
+
+  @Override
+  public int decode(CharSequence secret, ByteBuffer target) {
+    char[] body = new char[secret.length()];
+    try {
+      int length = 0;
+      boolean lineStart = true;
+      boolean armor = false;
+      for (int i = 0; i < secret.length(); i++) {
+        char c = secret.charAt(i);
+        if (c == '\n' || c == '\r') {
+          lineStart = true;
+          armor = false;
+        } else if (lineStart && c == '-') {
+          armor = true;
+        } else if (!armor && !Character.isWhitespace(c)) {
+          body[length++] = c;
+          lineStart = false;
+        }
+      }
+      return base64.decode(CharBuffer.wrap(body, 0, length), target);
+    } finally {
+      Arrays.fill(body, '\0');
+    }
+  }
+
+  private static int append(String text, char[] target, int offset) {
+    text.getChars(0, text.length(), target, offset);
+    return offset + text.length();
+  }
+}
@@ -0,0 +1,75 @@
+/*
+ * Copyright 2016 Datawire. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.datawire.keystoreknife.codec;
+
+
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.charset.CharsetEncoder;
+import java.nio.charset.CoderResult;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Treats secrets as text, which is encoded as UTF-8. Encoding bytes that are not UTF-8 replaces the malformed ones.
+ */
+final class PlainCodec implements SecretCodec {
+
+  @Override
+  public String getName() {
+    return "plain";
+  }
+
+  @Override
+  public int maxEncodedLength(int length) {
+    return length;
+  }
+
+  @Override
+  public int encode(byte[] source, int offset, int length, char[] target, int targetOffset) {
+    String decoded = new String(source, offset, length, StandardCharsets.UTF_8);
+    decoded.getChars(0, decoded.length(), target, targetOffset);
+    return decoded.length();
+  }
+
+  @Override
+  public String encode(byte[] source) {
+    return new String(source, StandardCharsets.UTF_8);
+  }
+
+  @Override
+  public int maxDecodedLength(int length) {
+    return (int) Math.min(Integer.MAX_VALUE, (long) length * 3);
+  }
+
+  @Override
+  public int decode(CharSequence secret, ByteBuffer target) {
+    int start = target.position();
+    CharBuffer source = secret instanceof CharBuffer ? ((CharBuffer) secret).duplicate() : CharBuffer.wrap(secret);
+
+    CharsetEncoder encoder = StandardCharsets.UTF_8.newEncoder();
+    CoderResult result = encoder.encode(source, target, true);
+    if (!result.isUnderflow()) {
+      throw new IllegalArgumentException(result.isOverflow() ? "Secret does not fit in buffer" : "Invalid secret");
+    }
+    result = encoder.flush(target);
+    if (!result.isUnderflow()) {
+      throw new IllegalArgumentException("Secret does not fit in buffer");
+    }
+
+    return target.position() - start;
+  }
+}
@@ -0,0 +1,71 @@
+/*
+ * Copyright 2016 Datawire. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.datawire.keystoreknife.codec;
+
+
+import java.nio.ByteBuffer;
+
+/**
+ * Encodes secrets to text and decodes them back. Codecs are looked up by name in {@link SecretCodecs}; besides the
+ * built-in ones, codecs listed in {@code META-INF/services/io.datawire.keystoreknife.codec.SecretCodec} on the class
+ * path are registered, so they need a public no-argument constructor. Codecs must be thread safe.
+ */
+public interface SecretCodec {
+
+  /**
+   * Returns the name the codec is selected by, such as {@code base64}. Names are lower case.
+   */
+  String getName();
+
+  /**
+   * Returns the largest number of characters the given number of bytes can encode to.
+   */
+  int maxEncodedLength(int length);
+
+  /**
+   * Encodes bytes of the source into the target array.
+   *
+   * @return the number of characters written
+   */
+  int encode(byte[] source, int offset, int length, char[] target, int targetOffset);
+
+  /**
+   * Returns the largest number of bytes a secret of the given length can decode to.
+   */
+  int maxDecodedLength(int length);
+
+  /**
+   * Decodes a secret into the target buffer, starting at its position. The buffer may be direct.
+   *
+   * @return the number of bytes written
+   * @throws IllegalArgumentException if the secret is not valid for the codec or does not fit in the buffer
+   */
+  int decode(CharSequence secret, ByteBuffer target);
+
+  default String encode(byte[] source) {
+    char[] encoded = new char[maxEncodedLength(source.length)];
+    return new String(encoded, 0, encode(source, 0, source.length, encoded, 0));
+  }
+
+  /**
+   * Appends the encoded bytes to the builder without going through an intermediate string.
+   */
+  default StringBuilder encode(byte[] source, StringBuilder target) {
+    char[] encoded = new char[maxEncodedLength(source.length)];
+    return target.append(encoded, 0, encode(source, 0, source.length, encoded, 0));
+  }
+}
@@ -0,0 +1,109 @@
+/*
+ * Copyright 2016 Datawire. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.datawire.keystoreknife.codec;
+
+
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Locale;
+import java.util.Map;
+import java.util.ServiceLoader;
+import java.util.Set;
+
+/**
+ * The registry of secret codecs. The built-in codecs are {@code plain} (UTF-8), {@code base16}, {@code base32},
+ * {@code base32_hex}, {@code base64} and {@code base64_url}; the class path is only searched for other codecs the first
+ * time one that is not built in is asked for, so that looking up a built-in codec stays cheap at startup.
+ */
+public final class SecretCodecs {
+
+  private static final Map<String, SecretCodec> BUILT_IN = builtIn();
+
+  private static volatile Map<String, SecretCodec> all;
+
+  private SecretCodecs() {
+  }
+
+  /**
+   * Returns the codec with the given name, ignoring case.
+   *
+   * @throws IllegalArgumentException if there is no such codec
+   */
+  public static SecretCodec get(String name) {
+    SecretCodec codec = find(name);
+    if (codec == null) {
+      throw new IllegalArgumentException(String.format("Unsupported encoding '%s'", name));
+    }
+    return codec;
+  }
+
+  /**
+   * Returns the codec with the given name, ignoring case, or {@code null} if there is no such codec.
+   */
+  public static SecretCodec find(String name) {
+    String key = name.toLowerCase(Locale.ENGLISH);
+    SecretCodec codec = BUILT_IN.get(key);
+    return codec != null ? codec : all().get(key);
+  }
+
+  /**
+   * Returns the names of all codecs, built-in ones first.
+   */
+  public static Set<String> names() {
+    return all().keySet();
+  }
+
+  private static Map<String, SecretCodec> all() {
+    Map<String, SecretCodec> result = all;
+    if (result == null) {
+      synchronized (SecretCodecs.class) {
+        result = all;
+        if (result == null) {
+          result = load(SecretCodecs.class.getClassLoader());
+          all = result;
+        }
+      }
+    }
+    return result;
+  }
+
+  static Map<String, SecretCodec> load(ClassLoader classLoader) {
+    Map<String, SecretCodec> result = new LinkedHashMap<>(BUILT_IN);
+    for (SecretCodec codec : ServiceLoader.load(SecretCodec.class, classLoader)) {
+      String name = codec.getName();
+      if (result.putIfAbsent(name, codec) != null) {
+        throw new IllegalStateException(
+            String.format("Duplicate secret codec '%s' (%s)", name, codec.getClass().getName()));
+      }
+    }
+    return Collections.unmodifiableMap(result);
+  }
+
+  private static Map<String, SecretCodec> builtIn() {
+    Map<String, SecretCodec> result = new LinkedHashMap<>();
+    for (SecretCodec codec : new SecretCodec[] {
+        new PlainCodec(),
+        new Base16Codec("base16", "0123456789ABCDEF"),
+        new Base32Codec("base32", "ABCDEFGHIJKLMNOPQRSTUVWXYZ234567"),
+        new Base32Codec("base32_hex", "0123456789ABCDEFGHIJKLMNOPQRSTUV"),
+        new Base64Codec("base64", "ABCDEFGHIJKLMNOPQRSTUVWXYZabcdefghijklmnopqrstuvwxyz0123456789+/"),
+        new Base64Codec("base64_url", "ABCDEFGHIJKLMNOPQRSTUVWXYZabcdefghijklmnopqrstuvwxyz0123456789-_")}) {
+      result.put(codec.getName(), codec);
+    }
+    return Collections.unmodifiableMap(result);
+  }
+}
@@ -0,0 +1,82 @@
+/*
+ * Copyright 2016 Datawire. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.datawire.keystoreknife.codec;
+
+
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.util.Arrays;
+
+/**
+ * Decodes secrets straight into a caller-supplied buffer without going through intermediate strings; any scratch
+ * arrays are zeroed. The buffer may be direct. Both upper and lower case are accepted for base 16 and base 32; padding
+ * is optional. The encoding is the name of a {@link SecretCodec}.
+ */
+public final class SecretDecoding {
+
+  private SecretDecoding() {
+  }
+
+  /**
+   * Returns the largest number of bytes a secret of the given length can decode to.
+   */
+  public static int maxDecodedLength(int length, String encoding) {
+    return codec(encoding).maxDecodedLength(length);
+  }
+
+  /**
+   * Decodes a secret into the target buffer, starting at its position. Unknown encodings are treated as plain text,
+   * which is encoded as UTF-8.
+   *
+   * @return the number of bytes written
+   * @throws IllegalArgumentException if the secret is not valid for the encoding or does not fit in the buffer
+   */
+  public static int decode(CharSequence secret, String encoding, ByteBuffer target) {
+    return codec(encoding).decode(secret, target);
+  }
+
+  /**
+   * Overwrites the whole buffer with zeros and clears it.
+   */
+  public static void zero(ByteBuffer buffer) {
+    buffer.clear();
+    if (buffer.hasArray()) {
+      Arrays.fill(buffer.array(), buffer.arrayOffset(), buffer.arrayOffset() + buffer.capacity(), (byte) 0);
+    } else {
+      while (buffer.hasRemaining()) {
+        buffer.put((byte) 0);
+      }
+      buffer.clear();
+    }
+  }
+
+  public static void zero(CharBuffer buffer) {
+    buffer.clear();
+    if (buffer.hasArray()) {
+      Arrays.fill(buffer.array(), buffer.arrayOffset(), buffer.arrayOffset() + buffer.capacity(), '\0');
+    } else {
+      while (buffer.hasRemaining()) {
+        buffer.put('\0');
+      }
+      buffer.clear();
+    }
+  }
+
+  private static SecretCodec codec(String encoding) {
+    SecretCodec codec = SecretCodecs.find(encoding);
+    return codec != null ? codec : SecretCodecs.get("plain");
+  }
+}
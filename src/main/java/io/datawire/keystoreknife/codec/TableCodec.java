@@ -0,0 +1,179 @@
+/*
+ * Copyright 2016 Datawire. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.datawire.keystoreknife.codec;
+
+
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.util.Arrays;
+
+/**
+ * Base of the table-driven codecs, which decode from a character array into a byte array. The secret is copied into
+ * a scratch array first; heap buffers are decoded into in place and direct buffers go through another scratch array.
+ * Scratch arrays are kept per thread, so decoding does not allocate, and the part of them that was used is zeroed
+ * afterwards. Secrets too long to be worth keeping a scratch array around for get one of their own.
+ */
+abstract class TableCodec implements SecretCodec {
+
+  private static final int MAX_RETAINED_SCRATCH = 8192;
+
+  private static final ThreadLocal<char[]> CHAR_SCRATCH = ThreadLocal.withInitial(() -> new char[256]);
+  private static final ThreadLocal<byte[]> BYTE_SCRATCH = ThreadLocal.withInitial(() -> new byte[256]);
+
+  private final String name;
+
+  TableCodec(String name) {
+    this.name = name;
+  }
+
+  @Override
+  public final String getName() {
+    return name;
+  }
+
+  @Override
+  public final int decode(CharSequence secret, ByteBuffer target) {
+    // decoding from an array rather than through charAt keeps the loops free of calls and is measurably faster
+    int length = secret.length();
+    char[] chars = charScratch(length);
+    try {
+      copy(secret, chars, length);
+      int decoded = decodedLength(chars, length);
+      if (target.remaining() < decoded) {
+        throw new IllegalArgumentException("Secret does not fit in buffer");
+      }
+
+      if (target.hasArray()) {
+        decode(chars, length, target.array(), target.arrayOffset() + target.position());
+        target.position(target.position() + decoded);
+      } else {
+        byte[] bytes = byteScratch(decoded);
+        try {
+          decode(chars, length, bytes, 0);
+          target.put(bytes, 0, decoded);
+        } finally {
+          Arrays.fill(bytes, 0, decoded, (byte) 0);
+        }
+      }
+      return decoded;
+    } finally {
+      Arrays.fill(chars, 0, length, '\0');
+    }
+  }
+
+  /**
+   * Checks that the first {@code length} characters of the secret have a valid length and returns the number of bytes
+   * they decode to.
+   */
+  abstract int decodedLength(char[] secret, int length);
+
+  /**
+   * Decodes the first {@code length} characters of a secret, whose length has been checked, into the target array.
+   */
+  abstract void decode(char[] secret, int length, byte[] target, int offset);
+
+  private static char[] charScratch(int length) {
+    char[] chars = CHAR_SCRATCH.get();
+    if (chars.length >= length) {
+      return chars;
+    }
+    chars = new char[length];
+    if (length <= MAX_RETAINED_SCRATCH) {
+      CHAR_SCRATCH.set(chars);
+    }
+    return chars;
+  }
+
+  private static byte[] byteScratch(int length) {
+    byte[] bytes = BYTE_SCRATCH.get();
+    if (bytes.length >= length) {
+      return bytes;
+    }
+    bytes = new byte[length];
+    if (length <= MAX_RETAINED_SCRATCH) {
+      BYTE_SCRATCH.set(bytes);
+    }
+    return bytes;
+  }
+
+  private static void copy(CharSequence secret, char[] target, int length) {
+    if (secret instanceof String) {
+      ((String) secret).getChars(0, length, target, 0);
+    } else if (secret instanceof CharBuffer) {
+      ((CharBuffer) secret).duplicate().get(target, 0, length);
+    } else {
+      for (int i = 0; i < length; i++) {
+        target[i] = secret.charAt(i);
+      }
+    }
+  }
+
+  /**
+   * Returns a table from characters below 128 to their value in the alphabet, or -1.
+   */
+  static byte[] decodeTable(String alphabet, boolean caseInsensitive) {
+    byte[] result = new byte[128];
+    Arrays.fill(result, (byte) -1);
+    for (int i = 0; i < alphabet.length(); i++) {
+      char c = alphabet.charAt(i);
+      result[c] = (byte) i;
+      if (caseInsensitive) {
+        result[Character.toLowerCase(c)] = (byte) i;
+        result[Character.toUpperCase(c)] = (byte) i;
+      }
+    }
+    return result;
+  }
+
+  static int value(byte[] table, char c) {
+    return c < 128 ? table[c] : -1;
+  }
+
+  /**
+   * Returns the length of the first {@code length} characters of the secret without their trailing padding.
+   */
+  static int unpadded(char[] secret, int length) {
+    while (length > 0 && secret[length - 1] == '=') {
+      length--;
+    }
+    return length;
+  }
+
+  /**
+   * Checks that a secret of the given unpadded length holds whole bytes only and returns how many.
+   */
+  static int decodedLength(int secretLength, int length, int bitsPerChar) {
+    // a trailing group must still hold at least one whole byte and may not have left over bits that make another
+    int leftoverBits = (int) ((long) length * bitsPerChar % 8);
+    if (leftoverBits >= bitsPerChar) {
+      throw new IllegalArgumentException("Invalid input length " + secretLength);
+    }
+    return (int) ((long) length * bitsPerChar / 8);
+  }
+
+  static IllegalArgumentException unrecognized(int index) {
+    return new IllegalArgumentException(String.format("Unrecognized character at index %d", index));
+  }
+
+  static IllegalArgumentException unrecognized(byte[] table, char[] secret, int from) {
+    int index = from;
+    while (value(table, secret[index]) >= 0) {
+      index++;
+    }
+    return unrecognized(index);
+  }
+}
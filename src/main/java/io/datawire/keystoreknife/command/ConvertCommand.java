@@ -0,0 +1,138 @@
+/*
+ * Copyright 2016 Datawire. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.datawire.keystoreknife.command;
+
+
+import io.datawire.app.Initializer;
+import io.datawire.app.command.Command;
+import io.datawire.keystoreknife.Durability;
+import io.datawire.keystoreknife.KeyStoreConverter;
+import io.datawire.keystoreknife.KeyStoreKnife;
+import io.datawire.keystoreknife.exception.KeyStoreKnifeException;
+import net.sourceforge.argparse4j.impl.Arguments;
+import net.sourceforge.argparse4j.inf.Namespace;
+import net.sourceforge.argparse4j.inf.Subparser;
+
+import java.io.File;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+
+/**
+ * Converts a keystore to another type, e.g. JCEKS to PKCS12, a batch of entries at a time, and then checks a sample
+ * of the converted entries (or all of them) against the source.
+ */
+public class ConvertCommand extends Command {
+
+  public ConvertCommand() {
+    super("convert", "Convert a keystore to another keystore type");
+  }
+
+  @Override
+  public void configure(Subparser subparser) {
+    subparser.addArgument("source")
+        .help("the keystore to convert")
+        .type(Arguments.fileType().verifyCanRead());
+
+    subparser.addArgument("--source-type").setDefault("JCEKS").help("the java keystore type of the source");
+    subparser.addArgument("--target-type").setDefault("PKCS12").help("the java keystore type to convert to");
+
+    subparser.addArgument("--key-password")
+        .help("the password protecting the keys in the source; defaults to the source keystore password");
+
+    subparser.addArgument("--target-key-password")
+        .help("the password to protect the converted keys with; defaults to the source key password");
+
+    subparser.addArgument("--batch-size")
+        .type(Integer.class)
+        .setDefault(KeyStoreConverter.DEFAULT_BATCH_SIZE)
+        .help("the number of entries decrypted at a time");
+
+    subparser.addArgument("--parallelism")
+        .type(Integer.class)
+        .setDefault(Runtime.getRuntime().availableProcessors())
+        .help("the number of threads used to decrypt and protect keys");
+
+    subparser.addArgument("--verify")
+        .setDefault("sample")
+        .choices("none", "sample", "full")
+        .help("how many converted entries to check against the source");
+
+    subparser.addArgument("--sample-size")
+        .type(Integer.class)
+        .setDefault(100)
+        .help("the number of entries checked with --verify sample");
+
+    SaveOptions.configureDurability(subparser);
+
+    subparser.addArgument("source_password").help("the source keystore password");
+
+    subparser.addArgument("target")
+        .help("the file to write the converted keystore to")
+        .type(Arguments.fileType());
+
+    subparser.addArgument("target_password").help("the converted keystore password");
+  }
+
+  @Override
+  public void run(Initializer<?> initializer, Namespace namespace) throws Exception {
+    String sourcePassword = namespace.getString("source_password");
+    char[] keyPassword = namespace.getString("key_password") != null
+        ? namespace.getString("key_password").toCharArray()
+        : sourcePassword.toCharArray();
+
+    char[] targetKeyPassword = namespace.getString("target_key_password") != null
+        ? namespace.getString("target_key_password").toCharArray()
+        : keyPassword;
+
+    File sourceFile = namespace.get("source");
+    File targetFile = namespace.get("target");
+    String targetType = namespace.getString("target_type");
+    String targetPassword = namespace.getString("target_password");
+
+    ForkJoinPool pool = new ForkJoinPool(namespace.getInt("parallelism"));
+    try {
+      KeyStoreConverter converter = new KeyStoreConverter(pool, namespace.getInt("batch_size"));
+      KeyStoreKnife source = KeyStoreKnife.open(sourceFile, namespace.getString("source_type"), sourcePassword);
+
+      int converted = converter.convert(source, keyPassword, targetFile, targetType, targetPassword.toCharArray(),
+          targetKeyPassword, SaveOptions.durability(namespace));
+
+      System.out.println(String.format("%d entries converted to %s", converted, targetType));
+
+      String verify = namespace.getString("verify");
+      if (!"none".equals(verify)) {
+        int sampleSize = "full".equals(verify) ? 0 : namespace.getInt("sample_size");
+        KeyStoreKnife target = KeyStoreKnife.open(targetFile, targetType, targetPassword);
+
+        List<String> mismatched = converter.verify(source, keyPassword, target, targetKeyPassword, sampleSize);
+        for (String alias : mismatched) {
+          System.out.println("mismatched -> " + alias);
+        }
+
+        int checked = sampleSize > 0 ? Math.min(sampleSize, converted) : converted;
+        System.out.println(String.format("%d of %d checked entries match", checked - mismatched.size(), checked));
+
+        if (!mismatched.isEmpty()) {
+          throw new KeyStoreKnifeException(
+              String.format("%d converted entries do not match the source", mismatched.size()), null);
+        }
+      }
+    } finally {
+      pool.shutdownNow();
+    }
+  }
+}
@@ -0,0 +1,123 @@
+/*
+ * Copyright 2016 Datawire. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.datawire.keystoreknife.command;
+
+
+import io.datawire.app.Initializer;
+import io.datawire.app.command.Command;
+import io.datawire.keystoreknife.KeyStoreDiff;
+import io.datawire.keystoreknife.KeyStoreIndex;
+import net.sourceforge.argparse4j.impl.Arguments;
+import net.sourceforge.argparse4j.inf.Namespace;
+import net.sourceforge.argparse4j.inf.Subparser;
+
+import java.io.File;
+import java.util.EnumMap;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.ForkJoinPool;
+
+/**
+ * Lists the aliases whose entries differ between two JKS or JCEKS key stores. Entries are compared by fingerprint and
+ * only those that differ are decrypted, with {@code --key-password}, to tell re-protected copies from changed keys.
+ */
+public class DiffCommand extends Command {
+
+  public DiffCommand() {
+    super("diff", "Show the entries that differ between two keystores");
+  }
+
+  @Override
+  public void configure(Subparser subparser) {
+    subparser.addArgument("--key-password")
+        .help("the password protecting the keys; without it keys whose entries differ are reported as changed");
+
+    subparser.addArgument("--all")
+        .action(Arguments.storeTrue())
+        .help("also list the entries that are the same in both keystores");
+
+    subparser.addArgument("--parallelism")
+        .type(Integer.class)
+        .setDefault(Runtime.getRuntime().availableProcessors())
+        .help("the number of threads used to decrypt keys");
+
+    subparser.addArgument("left")
+        .help("the first keystore")
+        .type(Arguments.fileType().verifyCanRead());
+
+    subparser.addArgument("left_password").help("the first keystore password");
+
+    subparser.addArgument("right")
+        .help("the second keystore")
+        .type(Arguments.fileType().verifyCanRead());
+
+    subparser.addArgument("right_password").help("the second keystore password");
+  }
+
+  @Override
+  public void run(Initializer<?> initializer, Namespace namespace) throws Exception {
+    KeyStoreIndex left = KeyStoreIndex.read(
+        (File) namespace.get("left"), namespace.getString("left_password").toCharArray());
+
+    KeyStoreIndex right = KeyStoreIndex.read(
+        (File) namespace.get("right"), namespace.getString("right_password").toCharArray());
+
+    char[] keyPassword = namespace.getString("key_password") != null
+        ? namespace.getString("key_password").toCharArray()
+        : null;
+
+    ForkJoinPool pool = new ForkJoinPool(namespace.getInt("parallelism"));
+    try {
+      KeyStoreDiff diff = KeyStoreDiff.compare(left, right, keyPassword, pool);
+      System.out.println(formatReport(diff, namespace.getBoolean("all")));
+    } finally {
+      pool.shutdownNow();
+    }
+  }
+
+  static String formatReport(KeyStoreDiff diff, boolean includeSame) {
+    Map<KeyStoreDiff.Status, Integer> counts = new EnumMap<>(KeyStoreDiff.Status.class);
+    for (KeyStoreDiff.Status status : KeyStoreDiff.Status.values()) {
+      counts.put(status, 0);
+    }
+
+    StringBuilder report = new StringBuilder();
+    for (KeyStoreDiff.Difference difference : diff.getDifferences()) {
+      KeyStoreDiff.Status status = difference.getStatus();
+      counts.put(status, counts.get(status) + 1);
+
+      boolean same = status == KeyStoreDiff.Status.IDENTICAL || status == KeyStoreDiff.Status.EQUIVALENT;
+      if (includeSame || !same) {
+        report.append(String.format("%-10s -> %s", formatStatus(status), difference.getAlias()))
+            .append(System.lineSeparator());
+      }
+    }
+
+    report.append(System.lineSeparator())
+        .append(counts.get(KeyStoreDiff.Status.CHANGED)).append(" changed, ")
+        .append(counts.get(KeyStoreDiff.Status.ONLY_LEFT)).append(" only left, ")
+        .append(counts.get(KeyStoreDiff.Status.ONLY_RIGHT)).append(" only right, ")
+        .append(counts.get(KeyStoreDiff.Status.IDENTICAL) + counts.get(KeyStoreDiff.Status.EQUIVALENT))
+        .append(" the same");
+
+    return report.toString();
+  }
+
+  private static String formatStatus(KeyStoreDiff.Status status) {
+    return status.name().toLowerCase(Locale.ENGLISH).replace('_', '-');
+  }
+}
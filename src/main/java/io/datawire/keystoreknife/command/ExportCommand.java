@@ -0,0 +1,111 @@
+/*
+ * Copyright 2016 Datawire. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.datawire.keystoreknife.command;
+
+
+import io.datawire.app.Initializer;
+import io.datawire.app.command.Command;
+import io.datawire.keystoreknife.KeyStoreKnife;
+import io.datawire.keystoreknife.KeyStoreNdjson;
+import io.datawire.keystoreknife.codec.SecretCodecs;
+import net.sourceforge.argparse4j.impl.Arguments;
+import net.sourceforge.argparse4j.inf.Namespace;
+import net.sourceforge.argparse4j.inf.Subparser;
+
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.stream.Collectors;
+
+/**
+ * Writes the entries of a key store as NDJSON, one entry per line; see {@link KeyStoreNdjson} for the format.
+ */
+public class ExportCommand extends Command {
+
+  public ExportCommand() {
+    super("export", "Export the entries of a keystore as NDJSON");
+  }
+
+  @Override
+  public void configure(Subparser subparser) {
+    subparser.addArgument("keystore")
+        .help("the keystore to export or '-' to read it from stdin")
+        .type(Arguments.fileType().verifyCanRead().acceptSystemIn());
+
+    subparser.addArgument("--keystore-type").setDefault("JCEKS").help("the java keystore type");
+    subparser.addArgument("--alias-pattern")
+        .setDefault("*")
+        .help("a glob pattern selecting the aliases to export");
+
+    subparser.addArgument("--key-password")
+        .help("the password protecting the keys (defaults to the keystore password)");
+
+    subparser.addArgument("--encoding")
+        .setDefault("base64")
+        .choices(SecretCodecs.names().stream().filter(name -> !"plain".equals(name)).collect(Collectors.toList()))
+        .help("the encoding of the key material");
+
+    subparser.addArgument("--out")
+        .help("the file to write the entries to instead of standard output")
+        .type(Arguments.fileType());
+
+    subparser.addArgument("--batch-size")
+        .type(Integer.class)
+        .setDefault(KeyStoreNdjson.DEFAULT_BATCH_SIZE)
+        .help("the number of entries decrypted at a time");
+
+    subparser.addArgument("--parallelism")
+        .type(Integer.class)
+        .setDefault(Runtime.getRuntime().availableProcessors())
+        .help("the number of threads used to decrypt keys");
+
+    subparser.addArgument("keystore_password").help("the keystore password");
+  }
+
+  @Override
+  public void run(Initializer<?> initializer, Namespace namespace) throws Exception {
+    String keyStorePassword = namespace.getString("keystore_password");
+    char[] keyPassword = namespace.getString("key_password") != null
+        ? namespace.getString("key_password").toCharArray()
+        : keyStorePassword.toCharArray();
+
+    KeyStoreKnife knife = StandardStreams.openForReading(namespace.get(ServeCommand.CACHE_ATTRIBUTE),
+        namespace.get("keystore"), namespace.getString("keystore_type"), keyStorePassword);
+    List<String> aliases = knife.getAliases(namespace.getString("alias_pattern"));
+
+    File outputFile = namespace.get("out");
+    ForkJoinPool pool = new ForkJoinPool(namespace.getInt("parallelism"));
+    Writer writer = new BufferedWriter(new OutputStreamWriter(
+        outputFile != null ? new FileOutputStream(outputFile) : System.out, StandardCharsets.UTF_8), 1 << 16);
+    try {
+      new KeyStoreNdjson(pool, namespace.getInt("batch_size"))
+          .export(knife, aliases, keyPassword, namespace.getString("encoding"), writer);
+    } finally {
+      pool.shutdownNow();
+      if (outputFile != null) {
+        writer.close();
+      } else {
+        writer.flush();
+      }
+    }
+  }
+}
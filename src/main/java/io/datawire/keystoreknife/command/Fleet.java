@@ -0,0 +1,274 @@
+/*
+ * Copyright 2016 Datawire. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.datawire.keystoreknife.command;
+
+
+import io.datawire.keystoreknife.KeyStoreJournal;
+import io.datawire.keystoreknife.exception.KeyStoreKnifeException;
+import io.datawire.keystoreknife.util.Json;
+import net.sourceforge.argparse4j.impl.Arguments;
+import net.sourceforge.argparse4j.inf.Namespace;
+import net.sourceforge.argparse4j.inf.Subparser;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.FileSystems;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.PathMatcher;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+/**
+ * Runs a command over every key store file under a directory. Files are processed on a bounded pool and a failure only
+ * fails its own file; the outcome of every file is collected into a JSON report, and the command fails once all files
+ * have been processed if any of them failed.
+ */
+final class Fleet {
+
+  interface FileTask {
+
+    /**
+     * Processes one key store file and returns what should be printed for it, or {@code null}.
+     */
+    String run(File keyStoreFile) throws Exception;
+  }
+
+  /**
+   * Fails a file but still has what should be printed for it, such as a report of what was wrong.
+   */
+  static final class Failure extends Exception {
+
+    private static final long serialVersionUID = 1L;
+
+    private final String output;
+
+    Failure(String message, String output) {
+      super(message);
+      this.output = output;
+    }
+
+    String getOutput() {
+      return output;
+    }
+  }
+
+  private final File directory;
+  private final List<Result> results;
+  private final long nanos;
+
+  private Fleet(File directory, List<Result> results, long nanos) {
+    this.directory = directory;
+    this.results = results;
+    this.nanos = nanos;
+  }
+
+  /**
+   * Adds the arguments that control how the files under a directory are processed. They are ignored when the key store
+   * argument is a file.
+   */
+  static void configure(Subparser subparser) {
+    subparser.addArgument("--glob")
+        .setDefault("**")
+        .help("when the keystore is a directory, the pattern that the paths of the keystores under it must match");
+
+    subparser.addArgument("--parallelism")
+        .type(Integer.class)
+        .setDefault(Runtime.getRuntime().availableProcessors())
+        .help("when the keystore is a directory, the number of keystores processed at once");
+
+    subparser.addArgument("--report")
+        .type(Arguments.fileType())
+        .help("when the keystore is a directory, the file to write the JSON report to instead of standard output");
+  }
+
+  static boolean isFleet(Namespace namespace) {
+    return ((File) namespace.get("keystore")).isDirectory();
+  }
+
+  /**
+   * Processes every matching key store under the directory, prints what each file produced in path order followed by
+   * the report, and fails if any file failed.
+   */
+  static void run(Namespace namespace, FileTask task) throws Exception {
+    File directory = namespace.get("keystore");
+    List<File> files = find(directory, namespace.getString("glob"));
+
+    ForkJoinPool pool = new ForkJoinPool(namespace.getInt("parallelism"));
+    Fleet fleet;
+    try {
+      fleet = run(directory, files, pool, task);
+    } finally {
+      pool.shutdownNow();
+    }
+
+    for (Result result : fleet.results) {
+      if (result.output != null) {
+        System.out.println(result.output);
+      }
+    }
+
+    File reportFile = namespace.get("report");
+    if (reportFile == null) {
+      System.out.println(fleet.toJson());
+    } else {
+      Files.write(reportFile.toPath(), (fleet.toJson() + System.lineSeparator()).getBytes(StandardCharsets.UTF_8));
+    }
+
+    int failed = fleet.getFailedCount();
+    if (failed > 0) {
+      throw new KeyStoreKnifeException(
+          String.format("Unable to process %d of %d keystores (directory: %s)", failed, files.size(), directory), null);
+    }
+  }
+
+  static Fleet run(File directory, List<File> files, ForkJoinPool pool, FileTask task) {
+    long started = System.nanoTime();
+
+    List<ForkJoinTask<Result>> tasks = new ArrayList<>(files.size());
+    for (File file : files) {
+      tasks.add(pool.submit(() -> process(file, task)));
+    }
+
+    List<Result> results = new ArrayList<>(files.size());
+    for (ForkJoinTask<Result> result : tasks) {
+      results.add(result.join());
+    }
+    return new Fleet(directory, results, System.nanoTime() - started);
+  }
+
+  /**
+   * Returns the regular files under the directory whose path relative to it matches the glob, in path order. Hidden
+   * files, such as the temporary files of a save in progress, lock files and journals are skipped.
+   */
+  static List<File> find(File directory, String glob) throws IOException {
+    Path root = directory.toPath();
+    PathMatcher matcher = FileSystems.getDefault().getPathMatcher("glob:" + glob);
+    try (Stream<Path> paths = Files.walk(root)) {
+      return paths
+          .filter(Files::isRegularFile)
+          .filter(path -> !path.getFileName().toString().startsWith("."))
+          .filter(path -> !path.getFileName().toString().endsWith(".lock"))
+          .filter(path -> !path.getFileName().toString().endsWith(KeyStoreJournal.SUFFIX))
+          .filter(path -> matcher.matches(root.relativize(path)))
+          .sorted()
+          .map(Path::toFile)
+          .collect(Collectors.toList());
+    }
+  }
+
+  /**
+   * Returns where a key store under the directory should be written when the output is another directory, creating
+   * the parent directories the output needs.
+   */
+  static File resolveOutput(File directory, File keyStoreFile, File outputDirectory) throws IOException {
+    Path relative = directory.toPath().relativize(keyStoreFile.toPath());
+    Path output = outputDirectory.toPath().resolve(relative);
+    Files.createDirectories(output.toAbsolutePath().getParent());
+    return output.toFile();
+  }
+
+  List<Result> getResults() {
+    return Collections.unmodifiableList(results);
+  }
+
+  int getFailedCount() {
+    int failed = 0;
+    for (Result result : results) {
+      if (result.error != null) {
+        failed++;
+      }
+    }
+    return failed;
+  }
+
+  String toJson() {
+    StringBuilder json = new StringBuilder("{\"directory\":").append(Json.quote(directory.getPath()))
+        .append(",\"keystores\":").append(results.size())
+        .append(",\"succeeded\":").append(results.size() - getFailedCount())
+        .append(",\"failed\":").append(getFailedCount())
+        .append(",\"seconds\":").append(Json.seconds(nanos))
+        .append(",\"results\":[");
+
+    String separator = "";
+    for (Result result : results) {
+      json.append(separator)
+          .append("{\"keystore\":").append(Json.quote(result.file.getPath()))
+          .append(",\"status\":").append(Json.quote(result.error == null ? "ok" : "failed"))
+          .append(",\"seconds\":").append(Json.seconds(result.nanos));
+      if (result.error != null) {
+        json.append(",\"error\":").append(Json.quote(result.error));
+      }
+      json.append('}');
+      separator = ",";
+    }
+    return json.append("]}").toString();
+  }
+
+  private static Result process(File file, FileTask task) {
+    long started = System.nanoTime();
+    try {
+      String output = task.run(file);
+      return new Result(file, output, null, System.nanoTime() - started);
+    } catch (Failure ex) {
+      return new Result(file, ex.output, describe(ex), System.nanoTime() - started);
+    } catch (Exception ex) {
+      return new Result(file, null, describe(ex), System.nanoTime() - started);
+    }
+  }
+
+  private static String describe(Throwable error) {
+    StringBuilder message = new StringBuilder(String.valueOf(error.getMessage()));
+    for (Throwable cause = error.getCause(); cause != null; cause = cause.getCause()) {
+      message.append(": ").append(cause.getMessage());
+    }
+    return message.toString();
+  }
+
+  static final class Result {
+
+    private final File file;
+    private final String output;
+    private final String error;
+    private final long nanos;
+
+    private Result(File file, String output, String error, long nanos) {
+      this.file = file;
+      this.output = output;
+      this.error = error;
+      this.nanos = nanos;
+    }
+
+    File getFile() {
+      return file;
+    }
+
+    String getOutput() {
+      return output;
+    }
+
+    String getError() {
+      return error;
+    }
+  }
+}
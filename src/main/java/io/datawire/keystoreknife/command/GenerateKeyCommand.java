@@ -1,20 +1,40 @@
 package io.datawire.keystoreknife.command;
 
 
-import com.google.common.io.BaseEncoding;
 import io.datawire.app.Initializer;
 import io.datawire.app.command.Command;
+import io.datawire.keystoreknife.KeyStoreKnife;
+import io.datawire.keystoreknife.SecretKeyGenerator;
+import io.datawire.keystoreknife.codec.SecretCodec;
+import io.datawire.keystoreknife.codec.SecretCodecs;
+import io.datawire.keystoreknife.util.Json;
 import net.sourceforge.argparse4j.impl.Arguments;
 import net.sourceforge.argparse4j.inf.Namespace;
 import net.sourceforge.argparse4j.inf.Subparser;
 
-import javax.crypto.KeyGenerator;
-import javax.crypto.SecretKey;
+import java.io.BufferedWriter;
 import java.io.File;
 import java.io.FileWriter;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.UncheckedIOException;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.security.KeyStore;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ForkJoinPool;
 
 public class GenerateKeyCommand extends Command {
 
+  private static final SecretCodec BASE16 = SecretCodecs.get("base16");
+  private static final SecretCodec BASE64 = SecretCodecs.get("base64");
+  private static final SecretCodec BASE64_URL = SecretCodecs.get("base64_url");
+
   public GenerateKeyCommand() {
     super("generate-mac-secret", "Generate a secret key for use with MAC");
   }
@@ -27,61 +47,182 @@ public class GenerateKeyCommand extends Command {
 
     subparser.addArgument("--format")
         .help("The output format")
-        .choices("json", "line")
+        .choices("json", "line", "ndjson")
         .setDefault("line");
 
     subparser.addArgument("--output-file")
         .help("The file to write the result into")
         .type(Arguments.fileType());
+
+    subparser.addArgument("--count")
+        .help("The number of keys to generate")
+        .type(Integer.class)
+        .setDefault(1);
+
+    subparser.addArgument("--key-size")
+        .help("The key size in bits (defaults to the algorithm's key size)")
+        .type(Integer.class)
+        .setDefault(0);
+
+    subparser.addArgument("--parallelism")
+        .help("The number of threads used to generate keys")
+        .type(Integer.class)
+        .setDefault(Runtime.getRuntime().availableProcessors());
+
+    subparser.addArgument("--alias-pattern")
+        .help("The alias of each key, where {n} is replaced by its number starting from 1")
+        .setDefault("key-{n}");
+
+    subparser.addArgument("--into-keystore")
+        .help("Store the keys in this keystore (created if it does not exist) instead of printing them")
+        .type(Arguments.fileType());
+
+    subparser.addArgument("--overwrite")
+        .help("Replace keys that already exist in the keystore given with --into-keystore")
+        .action(Arguments.storeTrue());
+
+    subparser.addArgument("--keystore-type").setDefault("JCEKS").help("the java keystore type");
+    subparser.addArgument("--keystore-password").help("the keystore password (required with --into-keystore)");
+    subparser.addArgument("--key-password").help("the password protecting the keys (defaults to the keystore password)");
   }
 
   @Override
   public void run(Initializer<?> initializer, Namespace namespace) throws Exception {
-    KeyGenerator keygen = KeyGenerator.getInstance(namespace.getString("algorithm"));
-    SecretKey secretKey = keygen.generateKey();
+    SecretKeyGenerator generator = new SecretKeyGenerator(namespace.getString("algorithm"), namespace.getInt("key_size"));
+    int count = namespace.getInt("count");
+    String aliasPattern = namespace.getString("alias_pattern");
+    boolean aliased = namespace.get("into_keystore") != null || "ndjson".equalsIgnoreCase(namespace.getString("format"));
+    if (aliased && count > 1 && !aliasPattern.contains("{n}")) {
+      throw new IllegalArgumentException("--alias-pattern must contain {n} when --count is more than 1");
+    }
 
-    byte[] encoded = secretKey.getEncoded();
+    ForkJoinPool pool = new ForkJoinPool(namespace.getInt("parallelism"));
+    try {
+      File keyStoreFile = namespace.get("into_keystore");
+      if (keyStoreFile != null) {
+        generateIntoKeyStore(generator, count, aliasPattern, pool, keyStoreFile, namespace);
+      } else {
+        generateIntoOutput(generator, count, aliasPattern, pool, namespace);
+      }
+    } finally {
+      pool.shutdownNow();
+    }
+  }
 
-    String base64 = BaseEncoding.base64().encode(encoded);
-    String base64UrlSafe = BaseEncoding.base64Url().encode(encoded);
-    String base16 = BaseEncoding.base16().encode(encoded);
+  private void generateIntoKeyStore(SecretKeyGenerator generator, int count, String aliasPattern, ForkJoinPool pool,
+                                    File keyStoreFile, Namespace namespace) throws IOException {
 
-    String format = namespace.getString("format");
-    String output = null;
-    switch (format.toLowerCase()) {
-      case "json":
-        output = buildJsonFormat(base64, base64UrlSafe, base16);
-        break;
-      case "line":
-      default:
-        output = buildLineFormat(base64, base64UrlSafe, base16);
-        break;
+    String keyStoreType = namespace.getString("keystore_type");
+    String keyStorePassword = namespace.getString("keystore_password");
+    if (keyStorePassword == null) {
+      throw new IllegalArgumentException("--keystore-password is required with --into-keystore");
     }
 
+    char[] keyPassword = namespace.getString("key_password") != null
+        ? namespace.getString("key_password").toCharArray()
+        : keyStorePassword.toCharArray();
+
+    KeyStoreKnife knife = keyStoreFile.exists()
+        ? KeyStoreKnife.open(keyStoreFile, keyStoreType, keyStorePassword)
+        : KeyStoreKnife.create(keyStoreType);
+
+    if (!namespace.getBoolean("overwrite")) {
+      Set<String> existing = new HashSet<>();
+      for (String alias : knife.getAliases(null)) {
+        existing.add(alias.toLowerCase(Locale.ENGLISH));
+      }
+      for (int n = 0; n < count; n++) {
+        String alias = alias(aliasPattern, n);
+        if (existing.contains(alias.toLowerCase(Locale.ENGLISH))) {
+          throw new IllegalArgumentException(String.format(
+              "Alias already exists, pass --overwrite to replace it (alias: %s, keystore: %s)", alias, keyStoreFile));
+        }
+      }
+    }
+
+    Map<String, KeyStore.SecretKeyEntry> entries = new LinkedHashMap<>();
+    generator.generate(count, pool, (n, key) -> entries.put(alias(aliasPattern, n), new KeyStore.SecretKeyEntry(key)));
+    knife.setSecretKeys(entries, keyPassword, pool);
+
+    knife.save(keyStoreFile, keyStorePassword);
+    System.out.println(String.format("%d keys written to %s", entries.size(), keyStoreFile));
+  }
+
+  private void generateIntoOutput(SecretKeyGenerator generator, int count, String aliasPattern, ForkJoinPool pool,
+                                  Namespace namespace) throws IOException {
+
+    String format = namespace.getString("format");
     File outputFile = namespace.get("output_file");
-    if (outputFile != null) {
-      try(FileWriter writer = new FileWriter(outputFile)) {
-        writer.write(output);
+
+    Writer writer = outputFile != null
+        ? new BufferedWriter(new FileWriter(outputFile))
+        : new BufferedWriter(new OutputStreamWriter(System.out, StandardCharsets.UTF_8));
+
+    try {
+      generator.generate(count, pool, (n, secretKey) -> {
+        byte[] encoded = secretKey.getEncoded();
+
+        String output;
+        switch (format.toLowerCase(Locale.ENGLISH)) {
+          case "json":
+            output = buildJsonFormat(encoded);
+            break;
+          case "ndjson":
+            output = buildNdjsonFormat(alias(aliasPattern, n), encoded);
+            break;
+          case "line":
+          default:
+            output = buildLineFormat(encoded);
+            break;
+        }
+        Arrays.fill(encoded, (byte) 0);
+
+        try {
+          writer.write(output);
+          writer.write(System.lineSeparator());
+        } catch (IOException ex) {
+          throw new UncheckedIOException(ex);
+        }
+      });
+    } finally {
+      if (outputFile != null) {
+        writer.close();
+      } else {
+        writer.flush();
       }
-    } else {
-      System.out.println(output);
     }
   }
 
-  private String buildJsonFormat(String base64, String base64UrlSafe, String base16) {
-    StringBuilder result = new StringBuilder("{").append(System.lineSeparator());
-    result.append("  \"base 16\": ").append('"').append(base16).append("\",").append(System.lineSeparator());
-    result.append("  \"base 64\": ").append('"').append(base64).append("\",").append(System.lineSeparator());
-    result.append("  \"base 64 (url safe)\": ").append('"').append(base64UrlSafe).append('"').append(System.lineSeparator());
-    result.append("}");
+  static String alias(String aliasPattern, int n) {
+    return aliasPattern.replace("{n}", String.valueOf(n + 1));
+  }
+
+  // each builder encodes the key straight into its output, once per encoding it shows
+
+  String buildNdjsonFormat(String alias, byte[] key) {
+    StringBuilder result = new StringBuilder(64 + key.length * 6).append('{');
+    result.append("\"alias\":").append(Json.quote(alias)).append(',');
+    BASE16.encode(key, result.append("\"base16\":\"")).append("\",");
+    BASE64.encode(key, result.append("\"base64\":\"")).append("\",");
+    BASE64_URL.encode(key, result.append("\"base64_url\":\"")).append('"');
+    result.append('}');
+    return result.toString();
+  }
+
+  String buildJsonFormat(byte[] key) {
+    StringBuilder result = new StringBuilder(64 + key.length * 6).append('{').append(System.lineSeparator());
+    BASE16.encode(key, result.append("  \"base 16\": \"")).append("\",").append(System.lineSeparator());
+    BASE64.encode(key, result.append("  \"base 64\": \"")).append("\",").append(System.lineSeparator());
+    BASE64_URL.encode(key, result.append("  \"base 64 (url safe)\": \"")).append('"').append(System.lineSeparator());
+    result.append('}');
     return result.toString();
   }
 
-  private String buildLineFormat(String base64, String base64UrlSafe, String base16) {
-    StringBuilder result = new StringBuilder();
-    result.append("base 16       -> ").append(base16).append(System.lineSeparator());;
-    result.append("base 64       -> ").append(base64).append(System.lineSeparator());;
-    result.append("base 64 (url) -> ").append(base64UrlSafe).append(System.lineSeparator());;
+  String buildLineFormat(byte[] key) {
+    StringBuilder result = new StringBuilder(64 + key.length * 6);
+    BASE16.encode(key, result.append("base 16       -> ")).append(System.lineSeparator());
+    BASE64.encode(key, result.append("base 64       -> ")).append(System.lineSeparator());
+    BASE64_URL.encode(key, result.append("base 64 (url) -> ")).append(System.lineSeparator());
     return result.toString();
   }
 }
@@ -0,0 +1,112 @@
+/*
+ * Copyright 2016 Datawire. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.datawire.keystoreknife.command;
+
+
+import io.datawire.app.Initializer;
+import io.datawire.app.command.Command;
+import io.datawire.keystoreknife.KeyStoreKnife;
+import io.datawire.keystoreknife.KeyStoreLock;
+import io.datawire.keystoreknife.KeyStoreNdjson;
+import net.sourceforge.argparse4j.impl.Arguments;
+import net.sourceforge.argparse4j.inf.Namespace;
+import net.sourceforge.argparse4j.inf.Subparser;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.ForkJoinPool;
+
+/**
+ * Reads NDJSON entries, as written by the export command, into a key store and saves it once at the end. Entries
+ * replace any existing entries with the same alias; the key store is created if it does not exist.
+ */
+public class ImportCommand extends Command {
+
+  public ImportCommand() {
+    super("import", "Import NDJSON entries into a keystore");
+  }
+
+  @Override
+  public void configure(Subparser subparser) {
+    subparser.addArgument("keystore")
+        .help("the keystore to import into, created if it does not exist, or '-' to read it from stdin and write it "
+            + "to stdout")
+        .type(Arguments.fileType().acceptSystemIn());
+
+    subparser.addArgument("--keystore-type").setDefault("JCEKS").help("the java keystore type");
+    subparser.addArgument("--key-password")
+        .help("the password protecting the imported keys (defaults to the keystore password)");
+
+    subparser.addArgument("--out")
+        .help("the file to write the modified keystore to instead of the keystore itself or '-' for stdout")
+        .type(Arguments.fileType());
+
+    SaveOptions.configure(subparser);
+
+    subparser.addArgument("--batch-size")
+        .type(Integer.class)
+        .setDefault(KeyStoreNdjson.DEFAULT_BATCH_SIZE)
+        .help("the number of keys protected at a time");
+
+    subparser.addArgument("--parallelism")
+        .type(Integer.class)
+        .setDefault(Runtime.getRuntime().availableProcessors())
+        .help("the number of threads used to protect keys");
+
+    subparser.addArgument("keystore_password").help("the keystore password");
+    subparser.addArgument("input").help("the NDJSON file to import or '-' to read it from stdin");
+  }
+
+  @Override
+  @SuppressWarnings("try")
+  public void run(Initializer<?> initializer, Namespace namespace) throws Exception {
+    String keyStorePassword = namespace.getString("keystore_password");
+    char[] keyPassword = namespace.getString("key_password") != null
+        ? namespace.getString("key_password").toCharArray()
+        : keyStorePassword.toCharArray();
+
+    File keyStoreFile = namespace.get("keystore");
+    File outputFile = namespace.get("out") == null ? keyStoreFile : namespace.get("out");
+    String input = namespace.getString("input");
+    if ("-".equals(input) && StandardStreams.isStandardStream(keyStoreFile)) {
+      throw new IllegalArgumentException("The keystore and the entries cannot both be read from stdin");
+    }
+
+    ForkJoinPool pool = new ForkJoinPool(namespace.getInt("parallelism"));
+    try (KeyStoreLock lock = StandardStreams.lock(outputFile, SaveOptions.lock(namespace));
+         InputStream stream = "-".equals(input) ? System.in : new FileInputStream(input)) {
+
+      String keyStoreType = namespace.getString("keystore_type");
+      KeyStoreKnife knife = StandardStreams.isStandardStream(keyStoreFile) || keyStoreFile.exists()
+          ? StandardStreams.open(keyStoreFile, keyStoreType, keyStorePassword)
+          : KeyStoreKnife.create(keyStoreType);
+
+      BufferedReader reader = new BufferedReader(new InputStreamReader(stream, StandardCharsets.UTF_8), 1 << 16);
+      int count = new KeyStoreNdjson(pool, namespace.getInt("batch_size")).importInto(knife, reader, keyPassword);
+
+      StandardStreams.save(knife, outputFile, keyStorePassword,
+          SaveOptions.durability(namespace));
+      StandardStreams.messages(outputFile).println(String.format("%d entries imported into %s", count, outputFile));
+    } finally {
+      pool.shutdownNow();
+    }
+  }
+}
@@ -0,0 +1,122 @@
+/*
+ * Copyright 2016 Datawire. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.datawire.keystoreknife.command;
+
+
+import io.datawire.app.Initializer;
+import io.datawire.app.command.Command;
+import io.datawire.keystoreknife.EntryMetadata;
+import io.datawire.keystoreknife.KeyStoreIndex;
+import io.datawire.keystoreknife.KeyStoreKnife;
+import io.datawire.keystoreknife.util.Json;
+import net.sourceforge.argparse4j.impl.Arguments;
+import net.sourceforge.argparse4j.inf.Namespace;
+import net.sourceforge.argparse4j.inf.Subparser;
+
+import java.io.BufferedWriter;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.time.format.DateTimeFormatter;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Locale;
+import java.util.regex.Pattern;
+
+/**
+ * Lists the entries of a key store with their type, algorithm and creation date. Nothing is decrypted, so no key
+ * password is needed and the key store password is only used to check the key store's integrity.
+ */
+public class ListCommand extends Command {
+
+  public ListCommand() {
+    super("list", "List the entries of a keystore without decrypting them");
+  }
+
+  @Override
+  public void configure(Subparser subparser) {
+    subparser.addArgument("keystore")
+        .help("the keystore to list or '-' to read it from stdin")
+        .type(Arguments.fileType().verifyCanRead().acceptSystemIn());
+
+    subparser.addArgument("--keystore-type").setDefault("JCEKS").help("the java keystore type");
+    subparser.addArgument("--keystore-password")
+        .help("the keystore password; the keystore's integrity is only checked when it is given");
+
+    subparser.addArgument("--alias-pattern")
+        .help("a glob pattern selecting the aliases to list");
+
+    subparser.addArgument("--alias-regex")
+        .help("a regular expression selecting the aliases to list");
+
+    subparser.addArgument("--sort")
+        .setDefault("alias")
+        .choices("alias", "date")
+        .help("the order to list the entries in; date lists the oldest first");
+
+    subparser.addArgument("--format")
+        .setDefault("text")
+        .choices("text", "ndjson")
+        .help("the output format");
+  }
+
+  @Override
+  public void run(Initializer<?> initializer, Namespace namespace) throws Exception {
+    String pattern = namespace.getString("alias_pattern");
+    String regex = namespace.getString("alias_regex");
+    if (pattern != null && regex != null) {
+      throw new IllegalArgumentException("Only one of --alias-pattern and --alias-regex can be given");
+    }
+
+    KeyStoreKnife knife = StandardStreams.openForReading(namespace.get(ServeCommand.CACHE_ATTRIBUTE),
+        namespace.get("keystore"), namespace.getString("keystore_type"), namespace.getString("keystore_password"));
+
+    List<EntryMetadata> entries = regex != null ? knife.getMetadata(Pattern.compile(regex)) : knife.getMetadata(pattern);
+    if ("date".equals(namespace.getString("sort"))) {
+      entries.sort(Comparator.comparing(EntryMetadata::getCreationDate).thenComparing(EntryMetadata::getAlias));
+    }
+
+    boolean ndjson = "ndjson".equals(namespace.getString("format"));
+    Writer writer = new BufferedWriter(new OutputStreamWriter(System.out, StandardCharsets.UTF_8), 1 << 16);
+    for (EntryMetadata entry : entries) {
+      writer.write(ndjson ? formatJson(entry) : formatLine(entry));
+      writer.write(System.lineSeparator());
+    }
+    writer.flush();
+  }
+
+  static String formatLine(EntryMetadata entry) {
+    return String.format("%-24s  %-20s  %-10s  %s", entry.getAlias(), formatType(entry.getType()),
+        entry.getAlgorithm() != null ? entry.getAlgorithm() : "-", created(entry));
+  }
+
+  static String formatJson(EntryMetadata entry) {
+    return "{\"alias\":" + Json.quote(entry.getAlias())
+        + ",\"type\":" + Json.quote(formatType(entry.getType()))
+        + ",\"algorithm\":" + Json.quote(entry.getAlgorithm())
+        + ",\"created\":" + Json.quote(created(entry))
+        + "}";
+  }
+
+  static String formatType(KeyStoreIndex.EntryType type) {
+    return type.name().toLowerCase(Locale.ENGLISH).replace('_', '-');
+  }
+
+  private static String created(EntryMetadata entry) {
+    return DateTimeFormatter.ISO_INSTANT.format(entry.getCreationDate().toInstant());
+  }
+}
@@ -0,0 +1,119 @@
+/*
+ * Copyright 2016 Datawire. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.datawire.keystoreknife.command;
+
+
+import io.datawire.app.Initializer;
+import io.datawire.app.command.Command;
+import io.datawire.keystoreknife.KeyStoreDiff;
+import io.datawire.keystoreknife.KeyStoreIndex;
+import io.datawire.keystoreknife.KeyStoreKnife;
+import io.datawire.keystoreknife.KeyStoreLock;
+import net.sourceforge.argparse4j.impl.Arguments;
+import net.sourceforge.argparse4j.inf.Namespace;
+import net.sourceforge.argparse4j.inf.Subparser;
+
+import java.io.File;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+
+/**
+ * Copies the entries that are new or changed in a source keystore into a target keystore with a single save. Entries
+ * are copied still encrypted, so they keep the key passwords they have in the source; {@code --key-password} is only
+ * used to avoid copying entries that were re-protected without changing.
+ */
+public class MergeCommand extends Command {
+
+  public MergeCommand() {
+    super("merge", "Copy new and changed entries from one keystore into another");
+  }
+
+  @Override
+  public void configure(Subparser subparser) {
+    subparser.addArgument("--key-password")
+        .help("the password protecting the keys; without it every entry that differs is copied");
+
+    subparser.addArgument("--alias-pattern")
+        .setDefault("*")
+        .help("a glob pattern selecting the source aliases to merge");
+
+    subparser.addArgument("--out")
+        .help("the file to write the merged keystore to instead of the target keystore")
+        .type(Arguments.fileType());
+
+    SaveOptions.configure(subparser);
+
+    subparser.addArgument("--parallelism")
+        .type(Integer.class)
+        .setDefault(Runtime.getRuntime().availableProcessors())
+        .help("the number of threads used to decrypt keys");
+
+    subparser.addArgument("target")
+        .help("the keystore to merge into")
+        .type(Arguments.fileType().verifyCanRead());
+
+    subparser.addArgument("target_password").help("the target keystore password");
+
+    subparser.addArgument("source")
+        .help("the keystore to merge from")
+        .type(Arguments.fileType().verifyCanRead());
+
+    subparser.addArgument("source_password").help("the source keystore password");
+  }
+
+  @Override
+  @SuppressWarnings("try")
+  public void run(Initializer<?> initializer, Namespace namespace) throws Exception {
+    File targetFile = namespace.get("target");
+    String targetPassword = namespace.getString("target_password");
+    File outputFile = namespace.get("out") == null ? targetFile : namespace.get("out");
+
+    char[] keyPassword = namespace.getString("key_password") != null
+        ? namespace.getString("key_password").toCharArray()
+        : null;
+
+    ForkJoinPool pool = new ForkJoinPool(namespace.getInt("parallelism"));
+    try (KeyStoreLock lock = SaveOptions.lock(namespace) ? KeyStoreLock.acquire(outputFile) : null) {
+      KeyStoreIndex target = KeyStoreIndex.read(targetFile, targetPassword.toCharArray());
+      KeyStoreIndex source = KeyStoreIndex.read(
+          (File) namespace.get("source"), namespace.getString("source_password").toCharArray());
+
+      List<String> selected = KeyStoreKnife.open(source).getAliases(namespace.getString("alias_pattern"));
+      KeyStoreDiff diff = KeyStoreDiff.compare(target, source.subset(selected), keyPassword, pool);
+      List<String> merged = diff.getAliases(KeyStoreDiff.Status.CHANGED, KeyStoreDiff.Status.ONLY_RIGHT);
+
+      StringBuilder report = new StringBuilder();
+      for (String alias : merged) {
+        report.append("merged -> ").append(alias).append(System.lineSeparator());
+      }
+
+      if (!merged.isEmpty() || !outputFile.equals(targetFile)) {
+        KeyStoreKnife knife = KeyStoreKnife.open(target);
+        knife.copyEntries(source, merged);
+        knife.save(outputFile, targetPassword, SaveOptions.durability(namespace));
+      }
+
+      report.append(System.lineSeparator())
+          .append(merged.size()).append(" merged, ")
+          .append(selected.size() - merged.size()).append(" already up to date");
+
+      System.out.println(report.toString());
+    } finally {
+      pool.shutdownNow();
+    }
+  }
+}
@@ -0,0 +1,80 @@
+/*
+ * Copyright 2016 Datawire. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.datawire.keystoreknife.command;
+
+
+import io.datawire.app.Initializer;
+import io.datawire.app.command.Command;
+import io.datawire.keystoreknife.metrics.Metrics;
+import net.sourceforge.argparse4j.impl.Arguments;
+import net.sourceforge.argparse4j.inf.Namespace;
+import net.sourceforge.argparse4j.inf.Subparser;
+
+import java.io.File;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+
+/**
+ * Adds {@code --metrics-out} and {@code --metrics-format} to another command. The metrics are reset and enabled
+ * before the command runs and written, as JSON or Prometheus text, once it finishes, whether or not it succeeded;
+ * without {@code --metrics-out} nothing is recorded.
+ */
+public class MeteredCommand extends Command {
+
+  private final Command command;
+
+  public MeteredCommand(Command command) {
+    super(command.getName(), command.getDescription());
+    this.command = command;
+  }
+
+  @Override
+  public void configure(Subparser subparser) {
+    command.configure(subparser);
+
+    subparser.addArgument("--metrics-out")
+        .help("the file to write operation timings, sizes and entry counts to")
+        .type(Arguments.fileType());
+
+    subparser.addArgument("--metrics-format")
+        .setDefault("json")
+        .choices("json", "prometheus")
+        .help("the format of the metrics file");
+  }
+
+  @Override
+  @SuppressWarnings("try")
+  public void run(Initializer<?> initializer, Namespace namespace) throws Exception {
+    File metricsFile = namespace.get("metrics_out");
+    if (metricsFile == null) {
+      command.run(initializer, namespace);
+      return;
+    }
+
+    Metrics metrics = Metrics.get();
+    metrics.reset();
+    metrics.setEnabled(true);
+    try (Metrics.Sample sample = metrics.start("command:" + getName(), null)) {
+      command.run(initializer, namespace);
+    } finally {
+      metrics.setEnabled(false);
+      String report = "prometheus".equals(namespace.getString("metrics_format")) ? metrics.toPrometheus() : metrics.toJson();
+      metrics.reset();
+      Files.write(metricsFile.toPath(), (report + System.lineSeparator()).getBytes(StandardCharsets.UTF_8));
+    }
+  }
+}
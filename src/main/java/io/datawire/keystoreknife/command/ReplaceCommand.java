@@ -18,6 +18,8 @@ package io.datawire.keystoreknife.command;
 
 
 import io.datawire.keystoreknife.KeyStoreKnife;
+import io.datawire.keystoreknife.KeyStoreLock;
+import io.datawire.keystoreknife.codec.SecretCodecs;
 import io.datawire.app.Initializer;
 import io.datawire.app.command.Command;
 import net.sourceforge.argparse4j.impl.Arguments;
@@ -36,16 +38,24 @@ public class ReplaceCommand extends Command {
   @Override
   public void configure(Subparser subparser) {
     subparser.addArgument("keystore")
-        .help("the keystore to open and modify")
-        .type(Arguments.fileType().verifyCanRead());
+        .help("the keystore to open and modify, a directory of keystores to modify alike, or '-' to read it from "
+            + "stdin and write it to stdout")
+        .type(Arguments.fileType().verifyCanRead().acceptSystemIn());
 
     subparser.addArgument("--keystore-type").setDefault("JCEKS").help("the java keystore type");
     subparser.addArgument("--encoding")
         .setDefault("plain")
-        .choices("plain", "base16", "base32", "base32_hex", "base64", "base64_url")
+        .choices(SecretCodecs.names())
         .help("The encoding of the replacement secret");
 
-    subparser.addArgument("--out");
+    subparser.addArgument("--out")
+        .help("the file to write the modified keystore to instead of the keystore itself ('-' for stdout), or the directory to write "
+            + "the modified keystores to when the keystore is a directory")
+        .type(Arguments.fileType());
+
+    SaveOptions.configure(subparser);
+
+    Fleet.configure(subparser);
 
     subparser.addArgument("keystore_password").help("the keystore password");
     subparser.addArgument("alias").help("the alias of the secret being replaced");
@@ -55,19 +65,35 @@ public class ReplaceCommand extends Command {
 
   @Override
   public void run(Initializer<?> initializer, Namespace namespace) throws Exception {
+    File keyStoreFile = namespace.get("keystore");
+    File out = namespace.get("out");
+
+    if (Fleet.isFleet(namespace)) {
+      Fleet.run(namespace, file -> {
+        replace(file, out == null ? file : Fleet.resolveOutput(keyStoreFile, file, out), namespace);
+        return null;
+      });
+    } else {
+      replace(keyStoreFile, out == null ? keyStoreFile : out, namespace);
+    }
+  }
+
+  @SuppressWarnings("try")
+  private static void replace(File keyStoreFile, File outputFile, Namespace namespace) throws Exception {
     final String keyStorePassword = namespace.getString("keystore_password");
 
-    KeyStoreKnife knife = KeyStoreKnife.create(
-        namespace.get("keystore"), namespace.getString("keystore_type"), keyStorePassword);
+    try (KeyStoreLock lock = StandardStreams.lock(outputFile, SaveOptions.lock(namespace))) {
+      KeyStoreKnife knife = StandardStreams.open(keyStoreFile, namespace.getString("keystore_type"), keyStorePassword);
 
-    final String keyAlias = namespace.getString("alias");
-    final String keyPassword = namespace.getString("password");
+      final String keyAlias = namespace.getString("alias");
+      final String keyPassword = namespace.getString("password");
 
-    knife.replaceSecret(keyAlias, keyPassword,
-        namespace.getString("new_secret"),
-        namespace.getString("encoding"));
+      knife.replaceSecret(keyAlias, keyPassword,
+          namespace.getString("new_secret"),
+          namespace.getString("encoding"));
 
-    File outputFile = namespace.getString("out") == null ? namespace.get("keystore") : namespace.get("out");
-    knife.save(outputFile, keyStorePassword);
+      StandardStreams.save(knife, outputFile, keyStorePassword,
+          SaveOptions.durability(namespace));
+    }
   }
 }
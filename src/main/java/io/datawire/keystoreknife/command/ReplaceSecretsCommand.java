@@ -0,0 +1,214 @@
+/*
+ * Copyright 2016 Datawire. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.datawire.keystoreknife.command;
+
+
+import io.datawire.keystoreknife.KeyStoreKnife;
+import io.datawire.keystoreknife.KeyStoreLock;
+import io.datawire.keystoreknife.codec.SecretCodec;
+import io.datawire.keystoreknife.codec.SecretCodecs;
+import io.datawire.keystoreknife.exception.KeyStoreKnifeException;
+import io.datawire.app.Initializer;
+import io.datawire.app.command.Command;
+import net.sourceforge.argparse4j.impl.Arguments;
+import net.sourceforge.argparse4j.inf.Namespace;
+import net.sourceforge.argparse4j.inf.Subparser;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.Reader;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Replaces many secrets in a single load/store cycle. The replacements are read from a manifest where each line is
+ * {@code alias,password,new_secret[,encoding]}. Fields may be double-quoted if they contain commas; blank lines and
+ * lines starting with {@code #} are ignored. The whole manifest, encodings included, is checked before anything is
+ * replaced, and the keystore is only saved if every secret was replaced: a failure leaves it as it was.
+ */
+public class ReplaceSecretsCommand extends Command {
+
+  public ReplaceSecretsCommand() {
+    super("replace-secrets", "Replaces many existing secret keys listed in a manifest");
+  }
+
+  @Override
+  public void configure(Subparser subparser) {
+    subparser.addArgument("keystore")
+        .help("the keystore to open and modify or '-' to read it from stdin and write it to stdout")
+        .type(Arguments.fileType().verifyCanRead().acceptSystemIn());
+
+    subparser.addArgument("--keystore-type").setDefault("JCEKS").help("the java keystore type");
+    subparser.addArgument("--encoding")
+        .setDefault("plain")
+        .choices(SecretCodecs.names())
+        .help("The encoding of replacement secrets that do not specify one in the manifest");
+
+    subparser.addArgument("--out")
+        .help("the file to write the modified keystore to instead of the keystore itself or '-' for stdout")
+        .type(Arguments.fileType());
+
+    SaveOptions.configure(subparser);
+
+    subparser.addArgument("keystore_password").help("the keystore password");
+    subparser.addArgument("manifest").help("the manifest of replacements or '-' to read it from stdin");
+  }
+
+  @Override
+  @SuppressWarnings("try")
+  public void run(Initializer<?> initializer, Namespace namespace) throws Exception {
+    final String keyStorePassword = namespace.getString("keystore_password");
+
+    List<Replacement> replacements;
+    String manifest = namespace.getString("manifest");
+    if ("-".equals(manifest) && StandardStreams.isStandardStream(namespace.get("keystore"))) {
+      throw new IllegalArgumentException("The keystore and the manifest cannot both be read from stdin");
+    }
+    if ("-".equals(manifest)) {
+      replacements = readManifest(new InputStreamReader(System.in, StandardCharsets.UTF_8));
+    } else {
+      try (InputStream input = new FileInputStream(manifest)) {
+        replacements = readManifest(new InputStreamReader(input, StandardCharsets.UTF_8));
+      }
+    }
+
+    File outputFile = namespace.get("out") == null ? namespace.get("keystore") : namespace.get("out");
+    String defaultEncoding = namespace.getString("encoding");
+    int failures = 0;
+
+    StringBuilder report = new StringBuilder();
+    try (KeyStoreLock lock = StandardStreams.lock(outputFile, SaveOptions.lock(namespace))) {
+      KeyStoreKnife knife = StandardStreams.open(
+          namespace.get("keystore"), namespace.getString("keystore_type"), keyStorePassword);
+
+      for (Replacement replacement : replacements) {
+        String encoding = replacement.encoding != null ? replacement.encoding : defaultEncoding;
+        try {
+          knife.replaceSecret(replacement.alias, replacement.password, replacement.secret, encoding);
+          report.append("replaced -> ").append(replacement.alias).append(System.lineSeparator());
+        } catch (Exception ex) {
+          failures++;
+          report.append("failed   -> ").append(replacement.alias).append(" (").append(ex.getMessage()).append(')')
+              .append(System.lineSeparator());
+        }
+      }
+
+      if (failures == 0) {
+        StandardStreams.save(knife, outputFile, keyStorePassword,
+            SaveOptions.durability(namespace));
+      }
+    }
+
+    report.append(System.lineSeparator())
+        .append(replacements.size() - failures).append(" replaced, ").append(failures).append(" failed");
+    if (failures > 0) {
+      report.append(", keystore left unchanged");
+    }
+
+    StandardStreams.messages(outputFile).println(report.toString());
+
+    if (failures > 0) {
+      throw new KeyStoreKnifeException(
+          String.format("Unable to replace %d of %d secrets, keystore left unchanged", failures, replacements.size()),
+          null);
+    }
+  }
+
+  static List<Replacement> readManifest(Reader source) throws IOException {
+    List<Replacement> result = new ArrayList<>();
+
+    BufferedReader reader = new BufferedReader(source);
+    String line;
+    int lineNumber = 0;
+    while ((line = reader.readLine()) != null) {
+      lineNumber++;
+      if (line.trim().isEmpty() || line.trim().startsWith("#")) {
+        continue;
+      }
+
+      List<String> fields = splitFields(line);
+      if (fields.size() < 3 || fields.size() > 4) {
+        throw new IllegalArgumentException(
+            String.format("Invalid manifest line, expected alias,password,new_secret[,encoding] (line: %d)", lineNumber));
+      }
+
+      String encoding = null;
+      if (fields.size() == 4) {
+        SecretCodec codec = SecretCodecs.find(fields.get(3));
+        if (codec == null) {
+          throw new IllegalArgumentException(
+              String.format("Unsupported encoding '%s' (line: %d)", fields.get(3), lineNumber));
+        }
+        encoding = codec.getName();
+      }
+
+      result.add(new Replacement(fields.get(0), fields.get(1), fields.get(2), encoding));
+    }
+
+    return result;
+  }
+
+  private static List<String> splitFields(String line) {
+    List<String> fields = new ArrayList<>();
+    StringBuilder field = new StringBuilder();
+    boolean quoted = false;
+
+    for (int i = 0; i < line.length(); i++) {
+      char c = line.charAt(i);
+      if (quoted) {
+        if (c == '"' && i + 1 < line.length() && line.charAt(i + 1) == '"') {
+          field.append('"');
+          i++;
+        } else if (c == '"') {
+          quoted = false;
+        } else {
+          field.append(c);
+        }
+      } else if (c == '"') {
+        quoted = true;
+      } else if (c == ',') {
+        fields.add(field.toString());
+        field.setLength(0);
+      } else {
+        field.append(c);
+      }
+    }
+
+    fields.add(field.toString());
+    return fields;
+  }
+
+  static class Replacement {
+
+    final String alias;
+    final String password;
+    final String secret;
+    final String encoding;
+
+    Replacement(String alias, String password, String secret, String encoding) {
+      this.alias = alias;
+      this.password = password;
+      this.secret = secret;
+      this.encoding = encoding;
+    }
+  }
+}
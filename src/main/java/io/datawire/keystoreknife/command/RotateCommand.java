@@ -0,0 +1,149 @@
+/*
+ * Copyright 2016 Datawire. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.datawire.keystoreknife.command;
+
+
+import io.datawire.app.Initializer;
+import io.datawire.app.command.Command;
+import io.datawire.keystoreknife.KeyStoreKnife;
+import io.datawire.keystoreknife.KeyStoreLock;
+import io.datawire.keystoreknife.RotationPolicy;
+import net.sourceforge.argparse4j.impl.Arguments;
+import net.sourceforge.argparse4j.inf.Namespace;
+import net.sourceforge.argparse4j.inf.Subparser;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+
+/**
+ * Replaces the secret keys that are older than a rotation policy allows with freshly generated keys and saves the key
+ * store once at the end. See {@link RotationPolicy} for the format of the policy file.
+ */
+public class RotateCommand extends Command {
+
+  public RotateCommand() {
+    super("rotate", "Replace secret keys that are older than a policy allows");
+  }
+
+  @Override
+  public void configure(Subparser subparser) {
+    subparser.addArgument("keystore")
+        .help("the keystore to open and modify or '-' to read it from stdin and write it to stdout")
+        .type(Arguments.fileType().verifyCanRead().acceptSystemIn());
+
+    subparser.addArgument("--keystore-type").setDefault("JCEKS").help("the java keystore type");
+    subparser.addArgument("--key-password")
+        .help("the password protecting the replacement keys (defaults to the keystore password)");
+
+    subparser.addArgument("--dry-run")
+        .action(Arguments.storeTrue())
+        .help("report the keys that would be rotated without generating or saving anything");
+
+    subparser.addArgument("--out")
+        .help("the file to write the modified keystore to instead of the keystore itself or '-' for stdout")
+        .type(Arguments.fileType());
+
+    SaveOptions.configure(subparser);
+
+    subparser.addArgument("--parallelism")
+        .type(Integer.class)
+        .setDefault(Runtime.getRuntime().availableProcessors())
+        .help("the number of threads used to generate and protect keys");
+
+    subparser.addArgument("keystore_password").help("the keystore password");
+    subparser.addArgument("policy").help("the rotation policy file or '-' to read it from stdin");
+  }
+
+  @Override
+  @SuppressWarnings("try")
+  public void run(Initializer<?> initializer, Namespace namespace) throws Exception {
+    String keyStorePassword = namespace.getString("keystore_password");
+    char[] keyPassword = namespace.getString("key_password") != null
+        ? namespace.getString("key_password").toCharArray()
+        : keyStorePassword.toCharArray();
+
+    File keyStoreFile = namespace.get("keystore");
+    File outputFile = namespace.get("out") == null ? keyStoreFile : namespace.get("out");
+    String policyFile = namespace.getString("policy");
+    if ("-".equals(policyFile) && StandardStreams.isStandardStream(keyStoreFile)) {
+      throw new IllegalArgumentException("The keystore and the policy cannot both be read from stdin");
+    }
+
+    RotationPolicy policy;
+    try (InputStream input = "-".equals(policyFile) ? System.in : new FileInputStream(policyFile)) {
+      policy = RotationPolicy.read(new InputStreamReader(input, StandardCharsets.UTF_8));
+    }
+
+    boolean dryRun = namespace.getBoolean("dry_run");
+    ForkJoinPool pool = new ForkJoinPool(namespace.getInt("parallelism"));
+    StringBuilder report = new StringBuilder();
+    try (KeyStoreLock lock = StandardStreams.lock(outputFile, !dryRun && SaveOptions.lock(namespace))) {
+      KeyStoreKnife knife = StandardStreams.open(keyStoreFile, namespace.getString("keystore_type"), keyStorePassword);
+      List<RotationPolicy.Rotation> rotations = policy.getRotations(knife.getMetadata((String) null), Instant.now());
+
+      String action = dryRun ? "would rotate -> " : "rotated -> ";
+      for (RotationPolicy.Rotation rotation : rotations) {
+        RotationPolicy.Rule rule = rotation.getRule();
+        report.append(action).append(rotation.getAlias())
+            .append(" (age: ").append(formatAge(rotation.getAge()))
+            .append(", max age: ").append(formatAge(rule.getMaxAge()))
+            .append(", algorithm: ").append(rule.getAlgorithm());
+        if (rule.getKeySize() > 0) {
+          report.append(", key size: ").append(rule.getKeySize());
+        }
+        report.append(')').append(System.lineSeparator());
+      }
+
+      // with nothing to rotate the key store is still written unless that would rewrite it as it is, so that a
+      // pipeline or a separate output file always gets one
+      boolean copied = !outputFile.equals(keyStoreFile) || StandardStreams.isStandardStream(outputFile);
+      if (!dryRun && (!rotations.isEmpty() || copied)) {
+        RotationPolicy.rotate(knife, rotations, keyPassword, pool);
+        StandardStreams.save(knife, outputFile, keyStorePassword,
+            SaveOptions.durability(namespace));
+      }
+
+      report.append(System.lineSeparator())
+          .append(rotations.size()).append(dryRun ? " would be rotated" : " rotated");
+    } finally {
+      pool.shutdownNow();
+    }
+
+    StandardStreams.messages(outputFile).println(report.toString());
+  }
+
+  /**
+   * Formats an age in the largest unit of the policy syntax that is at least one.
+   */
+  static String formatAge(Duration age) {
+    if (age.toDays() > 0) {
+      return age.toDays() + "d";
+    } else if (age.toHours() > 0) {
+      return age.toHours() + "h";
+    } else if (age.toMinutes() > 0) {
+      return age.toMinutes() + "m";
+    }
+    return age.getSeconds() + "s";
+  }
+}
@@ -0,0 +1,60 @@
+/*
+ * Copyright 2016 Datawire. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.datawire.keystoreknife.command;
+
+
+import io.datawire.keystoreknife.Durability;
+import net.sourceforge.argparse4j.impl.Arguments;
+import net.sourceforge.argparse4j.inf.Namespace;
+import net.sourceforge.argparse4j.inf.Subparser;
+
+import java.util.Locale;
+
+/**
+ * The {@code --durability} and {@code --lock} options shared by the commands that save a key store.
+ */
+final class SaveOptions {
+
+  private SaveOptions() {
+  }
+
+  static void configure(Subparser subparser) {
+    configureDurability(subparser);
+
+    subparser.addArgument("--lock")
+        .action(Arguments.storeTrue())
+        .help("hold a lock on the output keystore so concurrent modifications wait for each other");
+  }
+
+  /**
+   * Adds {@code --durability} only, for commands that write a new key store rather than modify one.
+   */
+  static void configureDurability(Subparser subparser) {
+    subparser.addArgument("--durability")
+        .setDefault("file")
+        .choices("none", "file", "directory")
+        .help("what to force to disk before the save completes");
+  }
+
+  static Durability durability(Namespace namespace) {
+    return Durability.valueOf(namespace.getString("durability").toUpperCase(Locale.ENGLISH));
+  }
+
+  static boolean lock(Namespace namespace) {
+    return namespace.getBoolean("lock");
+  }
+}
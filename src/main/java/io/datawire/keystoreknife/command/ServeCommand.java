@@ -0,0 +1,254 @@
+/*
+ * Copyright 2016 Datawire. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.datawire.keystoreknife.command;
+
+
+import com.google.common.io.BaseEncoding;
+import com.google.common.io.ByteStreams;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+import io.datawire.app.Initializer;
+import io.datawire.app.command.Command;
+import io.datawire.keystoreknife.KeyStoreKnifeCache;
+import net.sourceforge.argparse4j.ArgumentParsers;
+import net.sourceforge.argparse4j.impl.Arguments;
+import net.sourceforge.argparse4j.inf.ArgumentParser;
+import net.sourceforge.argparse4j.inf.ArgumentParserException;
+import net.sourceforge.argparse4j.inf.Namespace;
+import net.sourceforge.argparse4j.inf.Subparser;
+import net.sourceforge.argparse4j.inf.Subparsers;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.PosixFilePermissions;
+import java.security.MessageDigest;
+import java.security.SecureRandom;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Runs the other commands inside one long-lived process so that callers do not pay for JVM startup on every call. The
+ * server listens on the loopback interface only; a request is a POST to {@code /run} whose body is the command line
+ * arguments separated by NUL characters and whose {@code X-Keystore-Knife-Token} header carries the token written to
+ * the token file on startup. The response body is whatever the command printed. The {@code keystore-knife-client}
+ * script in the distribution does all of this with curl.
+ *
+ * <p>Commands are run one at a time because they print their results to {@code System.out}. Commands that only read
+ * a key store open it through a {@link KeyStoreKnifeCache} shared by every request, so repeated reads of the same file
+ * skip parsing it again. Served commands have no standard input or output of their own, so requests that pass
+ * {@code -} as a file argument are rejected.</p>
+ */
+public class ServeCommand extends Command {
+
+  static final String TOKEN_HEADER = "X-Keystore-Knife-Token";
+  static final String CACHE_ATTRIBUTE = "knife_cache";
+
+  // the file arguments that are taken as plain strings because they also accept '-'
+  private static final Set<String> STREAM_ARGUMENTS = new HashSet<>(Arrays.asList("input", "manifest", "policy"));
+
+  private final List<Command> commands;
+
+  public ServeCommand(List<Command> commands) {
+    super("serve", "Serve the other commands over a local HTTP socket");
+    this.commands = new ArrayList<>(commands);
+  }
+
+  @Override
+  public void configure(Subparser subparser) {
+    subparser.addArgument("--port")
+        .type(Integer.class)
+        .setDefault(7337)
+        .help("the loopback port to listen on");
+
+    subparser.addArgument("--token-file")
+        .type(Arguments.fileType())
+        .setDefault(new File(System.getProperty("user.home"), ".keystore-knife.token"))
+        .help("the file the access token is written to; clients must send it with every request");
+
+    subparser.addArgument("--cache-size")
+        .type(Integer.class)
+        .setDefault(64)
+        .help("the most key stores kept open between requests");
+
+    subparser.addArgument("--cache-ttl")
+        .type(Long.class)
+        .setDefault(300L)
+        .help("the seconds an open key store is kept before it is read again");
+
+    subparser.addArgument("--verify-content")
+        .action(Arguments.storeTrue())
+        .help("hash a key store whose size or modification time changed before deciding to read it again");
+  }
+
+  @Override
+  public void run(Initializer<?> initializer, Namespace namespace) throws Exception {
+    ArgumentParser parser = ArgumentParsers.newArgumentParser("keystore-knife");
+    Subparsers subparsers = parser.addSubparsers();
+    KeyStoreKnifeCache cache = new KeyStoreKnifeCache(namespace.getInt("cache_size"), namespace.getLong("cache_ttl"),
+        TimeUnit.SECONDS, namespace.getBoolean("verify_content"));
+
+    for (Command command : commands) {
+      Subparser subparser = subparsers.addParser(command.getName())
+          .setDefault("served_command", command)
+          .setDefault(CACHE_ATTRIBUTE, cache);
+      command.configure(subparser);
+    }
+
+    byte[] token = createToken(namespace.get("token_file"));
+
+    HttpServer server = HttpServer.create(
+        new InetSocketAddress(InetAddress.getLoopbackAddress(), namespace.getInt("port")), 0);
+
+    server.createContext("/run", exchange -> {
+      try {
+        handle(exchange, token, parser, initializer);
+      } finally {
+        exchange.close();
+      }
+    });
+
+    CountDownLatch stopped = new CountDownLatch(1);
+    Runtime.getRuntime().addShutdownHook(new Thread(() -> {
+      server.stop(0);
+      stopped.countDown();
+    }));
+
+    server.start();
+    System.out.println(String.format("Listening on %s", server.getAddress()));
+    stopped.await();
+  }
+
+  private void handle(HttpExchange exchange, byte[] token, ArgumentParser parser, Initializer<?> initializer)
+      throws IOException {
+
+    if (!"POST".equals(exchange.getRequestMethod())) {
+      respond(exchange, 405, "Only POST is supported");
+      return;
+    }
+
+    String presentedToken = exchange.getRequestHeaders().getFirst(TOKEN_HEADER);
+    if (presentedToken == null
+        || !MessageDigest.isEqual(token, presentedToken.trim().getBytes(StandardCharsets.US_ASCII))) {
+      respond(exchange, 403, "Invalid token");
+      return;
+    }
+
+    String[] args = parseArguments(ByteStreams.toByteArray(exchange.getRequestBody()));
+
+    ByteArrayOutputStream output = new ByteArrayOutputStream();
+    int status = 200;
+
+    PrintStream originalOut = System.out;
+    try (PrintStream captured = new PrintStream(output, true, StandardCharsets.UTF_8.name())) {
+      System.setOut(captured);
+      try {
+        Namespace commandNamespace = parser.parseArgs(args);
+        if (usesStandardStreams(commandNamespace)) {
+          status = 400;
+          captured.println("Standard input and output are not available to served commands");
+        } else {
+          Command command = commandNamespace.get("served_command");
+          command.run(initializer, commandNamespace);
+        }
+      } catch (ArgumentParserException ex) {
+        status = 400;
+        captured.println(ex.getMessage());
+      } catch (Exception ex) {
+        status = 500;
+        captured.println(ex.getMessage());
+      } finally {
+        System.setOut(originalOut);
+      }
+    }
+
+    respond(exchange, status, output.toByteArray());
+  }
+
+  static String[] parseArguments(byte[] body) {
+    String joined = new String(body, StandardCharsets.UTF_8);
+    if (joined.isEmpty()) {
+      return new String[0];
+    }
+
+    List<String> args = new ArrayList<>(Arrays.asList(joined.split("\0", -1)));
+    if (args.get(args.size() - 1).isEmpty()) {
+      args.remove(args.size() - 1);
+    }
+    return args.toArray(new String[args.size()]);
+  }
+
+  /**
+   * Whether any of the file arguments of a parsed command is {@code -}; passwords and secrets may well be {@code -}
+   * themselves, so only file arguments are looked at.
+   */
+  static boolean usesStandardStreams(Namespace namespace) {
+    for (Map.Entry<String, Object> attribute : namespace.getAttrs().entrySet()) {
+      Object value = attribute.getValue();
+      if (value instanceof File && StandardStreams.isStandardStream((File) value)) {
+        return true;
+      }
+      if (STREAM_ARGUMENTS.contains(attribute.getKey()) && "-".equals(value)) {
+        return true;
+      }
+    }
+    return false;
+  }
+
+  private static byte[] createToken(File tokenFile) throws IOException {
+    byte[] random = new byte[32];
+    new SecureRandom().nextBytes(random);
+    byte[] token = BaseEncoding.base16().lowerCase().encode(random).getBytes(StandardCharsets.US_ASCII);
+
+    Files.deleteIfExists(tokenFile.toPath());
+    try {
+      Files.createFile(tokenFile.toPath(), PosixFilePermissions.asFileAttribute(PosixFilePermissions.fromString("rw-------")));
+    } catch (UnsupportedOperationException ex) {
+      Files.createFile(tokenFile.toPath());
+    }
+    Files.write(tokenFile.toPath(), token, StandardOpenOption.TRUNCATE_EXISTING);
+
+    return token;
+  }
+
+  private static void respond(HttpExchange exchange, int status, String message) throws IOException {
+    respond(exchange, status, (message + System.lineSeparator()).getBytes(StandardCharsets.UTF_8));
+  }
+
+  private static void respond(HttpExchange exchange, int status, byte[] body) throws IOException {
+    exchange.getResponseHeaders().set("Content-Type", "text/plain; charset=utf-8");
+    exchange.sendResponseHeaders(status, body.length == 0 ? -1 : body.length);
+    if (body.length > 0) {
+      try (OutputStream responseBody = exchange.getResponseBody()) {
+        responseBody.write(body);
+      }
+    }
+  }
+}
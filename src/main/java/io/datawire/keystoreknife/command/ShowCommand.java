@@ -17,15 +17,19 @@
 package io.datawire.keystoreknife.command;
 
 
-import com.google.common.io.BaseEncoding;
 import io.datawire.keystoreknife.KeyStoreKnife;
+import io.datawire.keystoreknife.codec.SecretCodecs;
+import io.datawire.keystoreknife.exception.KeyStoreKnifeException;
 import io.datawire.app.Initializer;
 import io.datawire.app.command.Command;
 import net.sourceforge.argparse4j.impl.Arguments;
 import net.sourceforge.argparse4j.inf.Namespace;
 import net.sourceforge.argparse4j.inf.Subparser;
 
+import java.io.File;
 import java.security.Key;
+import java.util.Arrays;
+import java.util.Locale;
 
 public class ShowCommand extends Command {
 
@@ -36,10 +40,11 @@ public class ShowCommand extends Command {
   @Override
   public void configure(Subparser subparser) {
     subparser.addArgument("keystore")
-        .help("the keystore to open and modify")
-        .type(Arguments.fileType().verifyCanRead());
+        .help("the keystore to open, a directory of keystores to show the secret of, or '-' to read it from stdin")
+        .type(Arguments.fileType().verifyCanRead().acceptSystemIn());
 
     subparser.addArgument("--keystore-type").setDefault("JCEKS");
+    Fleet.configure(subparser);
     subparser.addArgument("keystore_password").help("the keystore password");
     subparser.addArgument("alias").help("the alias of the secret being replaced");
     subparser.addArgument("password").help("the password protecting the secret");
@@ -47,22 +52,42 @@ public class ShowCommand extends Command {
 
   @Override
   public void run(Initializer<?> initializer, Namespace namespace) throws Exception {
-    KeyStoreKnife keystore = KeyStoreKnife.create(
-        namespace.get("keystore"), namespace.getString("keystore_type"), namespace.getString("keystore_password"));
+    if (Fleet.isFleet(namespace)) {
+      Fleet.run(namespace, file -> "Keystore: " + file + System.lineSeparator() + show(file, namespace));
+    } else {
+      System.out.println(show(namespace.get("keystore"), namespace));
+    }
+  }
+
+  private static String show(File keyStoreFile, Namespace namespace) {
+    KeyStoreKnife keystore = StandardStreams.openForReading(namespace.get(ServeCommand.CACHE_ATTRIBUTE),
+        keyStoreFile, namespace.getString("keystore_type"), namespace.getString("keystore_password"));
 
     Key key = keystore.getKey(namespace.getString("alias"), namespace.getString("password"));
+    return formatKey(namespace.getString("alias"), key);
+  }
+
+  static String formatKey(String alias, Key key) {
+    if (key == null) {
+      // a trusted certificate entry, or no entry at all
+      throw new KeyStoreKnifeException(String.format("Not a secret key (alias: %s)", alias), null);
+    }
 
     StringBuilder result = new StringBuilder();
-    result.append("Key: ").append(namespace.getString("alias"))
+    result.append("Key: ").append(alias)
         .append(System.lineSeparator())
         .append(System.lineSeparator());
 
-    result.append("Hex        -> ").append(BaseEncoding.base16().encode(key.getEncoded()).toLowerCase())
-        .append(System.lineSeparator());
-
-    result.append("Base64     -> ").append(BaseEncoding.base64().encode(key.getEncoded())).append(System.lineSeparator());
-    result.append("Base64 URL -> ").append(BaseEncoding.base64Url().encode(key.getEncoded())).append(System.lineSeparator());
+    byte[] encoded = key.getEncoded();
+    try {
+      result.append("Hex        -> ").append(SecretCodecs.get("base16").encode(encoded).toLowerCase(Locale.ENGLISH))
+          .append(System.lineSeparator());
+      SecretCodecs.get("base64").encode(encoded, result.append("Base64     -> ")).append(System.lineSeparator());
+      SecretCodecs.get("base64_url").encode(encoded, result.append("Base64 URL -> ")).append(System.lineSeparator());
+    } finally {
+      Arrays.fill(encoded, (byte) 0);
+    }
 
-    System.out.println(result.toString());
+    return result.toString();
   }
 }
@@ -0,0 +1,80 @@
+/*
+ * Copyright 2016 Datawire. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.datawire.keystoreknife.command;
+
+
+import io.datawire.keystoreknife.EntryMetadata;
+import io.datawire.keystoreknife.KeyStoreIndex;
+import io.datawire.keystoreknife.KeyStoreKnife;
+import io.datawire.app.Initializer;
+import io.datawire.app.command.Command;
+import net.sourceforge.argparse4j.impl.Arguments;
+import net.sourceforge.argparse4j.inf.Namespace;
+import net.sourceforge.argparse4j.inf.Subparser;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+
+public class ShowSecretsCommand extends Command {
+
+  public ShowSecretsCommand() {
+    super("show-secrets", "Show every secret key matching an alias pattern");
+  }
+
+  @Override
+  public void configure(Subparser subparser) {
+    subparser.addArgument("keystore")
+        .help("the keystore to open or '-' to read it from stdin")
+        .type(Arguments.fileType().verifyCanRead().acceptSystemIn());
+
+    subparser.addArgument("--keystore-type").setDefault("JCEKS");
+    subparser.addArgument("--alias-pattern")
+        .setDefault("*")
+        .help("a glob pattern selecting the aliases to show");
+
+    subparser.addArgument("--parallelism")
+        .type(Integer.class)
+        .setDefault(Runtime.getRuntime().availableProcessors())
+        .help("the number of threads used to decrypt keys");
+
+    subparser.addArgument("keystore_password").help("the keystore password");
+    subparser.addArgument("password").help("the password protecting the secrets");
+  }
+
+  @Override
+  public void run(Initializer<?> initializer, Namespace namespace) throws Exception {
+    KeyStoreKnife keystore = StandardStreams.openForReading(namespace.get(ServeCommand.CACHE_ATTRIBUTE),
+        namespace.get("keystore"), namespace.getString("keystore_type"), namespace.getString("keystore_password"));
+
+    ForkJoinPool pool = new ForkJoinPool(namespace.getInt("parallelism"));
+    try {
+      // private key and certificate entries matched by the pattern are not secrets and are left out
+      List<String> aliases = new ArrayList<>();
+      for (EntryMetadata entry : keystore.getMetadata(namespace.getString("alias_pattern"))) {
+        if (entry.getType() == KeyStoreIndex.EntryType.SECRET_KEY) {
+          aliases.add(entry.getAlias());
+        }
+      }
+
+      keystore.forEachKey(aliases, namespace.getString("password"),
+          pool, (alias, key) -> System.out.println(ShowCommand.formatKey(alias, key)));
+    } finally {
+      pool.shutdownNow();
+    }
+  }
+}
@@ -0,0 +1,81 @@
+/*
+ * Copyright 2016 Datawire. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.datawire.keystoreknife.command;
+
+
+import io.datawire.keystoreknife.Durability;
+import io.datawire.keystoreknife.KeyStoreKnife;
+import io.datawire.keystoreknife.KeyStoreKnifeCache;
+import io.datawire.keystoreknife.KeyStoreLock;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.PrintStream;
+
+/**
+ * Lets commands read a key store from standard input and write it to standard output when it is given as {@code -},
+ * so that they can sit in a pipeline without touching the disk. Keystore arguments accept {@code -} through
+ * {@code Arguments.fileType().acceptSystemIn()}.
+ */
+final class StandardStreams {
+
+  private StandardStreams() {
+  }
+
+  static boolean isStandardStream(File file) {
+    return file != null && "-".equals(file.getPath());
+  }
+
+  static KeyStoreKnife open(File keyStoreFile, String type, String password) {
+    return isStandardStream(keyStoreFile)
+        ? KeyStoreKnife.open(System.in, type, password)
+        : KeyStoreKnife.open(keyStoreFile, type, password);
+  }
+
+  /**
+   * Opens a key store that the caller only reads from, through the cache when the command is being served by
+   * {@link ServeCommand} and on its own otherwise.
+   */
+  static KeyStoreKnife openForReading(KeyStoreKnifeCache cache, File keyStoreFile, String type, String password) {
+    return cache != null && !isStandardStream(keyStoreFile)
+        ? cache.open(keyStoreFile, type, password)
+        : open(keyStoreFile, type, password);
+  }
+
+  static void save(KeyStoreKnife knife, File outputFile, String password, Durability durability) throws IOException {
+    if (isStandardStream(outputFile)) {
+      knife.save(System.out, password);
+    } else {
+      knife.save(outputFile, password, durability);
+    }
+  }
+
+  /**
+   * Locks the output key store if asked to; there is nothing to lock when it is written to standard output.
+   */
+  static KeyStoreLock lock(File outputFile, boolean lock) {
+    return lock && !isStandardStream(outputFile) ? KeyStoreLock.acquire(outputFile) : null;
+  }
+
+  /**
+   * Returns where messages for the user should go: standard error when the key store itself is written to standard
+   * output, standard output otherwise.
+   */
+  static PrintStream messages(File outputFile) {
+    return isStandardStream(outputFile) ? System.err : System.out;
+  }
+}
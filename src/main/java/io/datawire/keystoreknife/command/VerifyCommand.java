@@ -0,0 +1,169 @@
+/*
+ * Copyright 2016 Datawire. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.datawire.keystoreknife.command;
+
+
+import io.datawire.app.Initializer;
+import io.datawire.app.command.Command;
+import io.datawire.keystoreknife.KeyStoreVerification;
+import io.datawire.keystoreknife.exception.KeyStoreKnifeException;
+import io.datawire.keystoreknife.util.Json;
+import net.sourceforge.argparse4j.impl.Arguments;
+import net.sourceforge.argparse4j.inf.Namespace;
+import net.sourceforge.argparse4j.inf.Subparser;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+
+/**
+ * Checks a key store, or every key store under a directory, before it is deployed: its integrity digest, and that
+ * every entry decrypts into a usable key or a valid certificate. Prints a report and fails if anything is wrong.
+ */
+public class VerifyCommand extends Command {
+
+  public VerifyCommand() {
+    super("verify", "Check the integrity and the entries of a keystore");
+  }
+
+  @Override
+  public void configure(Subparser subparser) {
+    subparser.addArgument("keystore")
+        .help("the keystore to verify or a directory of keystores to verify")
+        .type(Arguments.fileType().verifyCanRead());
+
+    subparser.addArgument("--keystore-type").setDefault("JCEKS").help("the java keystore type");
+    subparser.addArgument("--key-password")
+        .action(Arguments.append())
+        .help("a password that may protect the keys, tried in the order given; may be repeated (defaults to the "
+            + "keystore password)");
+
+    subparser.addArgument("--format")
+        .setDefault("text")
+        .choices("text", "json")
+        .help("the format of the report");
+
+    Fleet.configure(subparser);
+    subparser.addArgument("keystore_password").help("the keystore password");
+  }
+
+  @Override
+  public void run(Initializer<?> initializer, Namespace namespace) throws Exception {
+    String keyStorePassword = namespace.getString("keystore_password");
+    List<String> passwords = namespace.getList("key_password");
+    List<char[]> keyPasswords = new ArrayList<>();
+    if (passwords == null || passwords.isEmpty()) {
+      keyPasswords.add(keyStorePassword.toCharArray());
+    } else {
+      for (String password : passwords) {
+        keyPasswords.add(password.toCharArray());
+      }
+    }
+
+    boolean json = "json".equals(namespace.getString("format"));
+    ForkJoinPool pool = new ForkJoinPool(namespace.getInt("parallelism"));
+    try {
+      Fleet.FileTask task = file -> {
+        KeyStoreVerification verification = KeyStoreVerification.verify(
+            file, namespace.getString("keystore_type"), keyStorePassword, keyPasswords, pool);
+        String report = json ? toJson(verification) : formatReport(verification);
+        if (!verification.isPassed()) {
+          throw new Fleet.Failure(String.format("Keystore failed verification (problems: %d, keystore: %s)",
+              verification.getFailedCount(), file), report);
+        }
+        return report;
+      };
+
+      if (Fleet.isFleet(namespace)) {
+        Fleet.run(namespace, task);
+      } else {
+        try {
+          System.out.println(task.run(namespace.get("keystore")));
+        } catch (Fleet.Failure ex) {
+          System.out.println(ex.getOutput());
+          throw new KeyStoreKnifeException(ex.getMessage(), null);
+        }
+      }
+    } finally {
+      pool.shutdownNow();
+    }
+  }
+
+  static String formatReport(KeyStoreVerification verification) {
+    StringBuilder report = new StringBuilder();
+    report.append("Keystore: ").append(verification.getKeyStoreFile()).append(System.lineSeparator());
+    if (verification.getProblem() != null) {
+      report.append("failed -> ").append(verification.getProblem()).append(System.lineSeparator());
+    }
+
+    int passed = 0;
+    for (KeyStoreVerification.Check check : verification.getChecks()) {
+      report.append(check.isPassed() ? "ok     -> " : "failed -> ").append(check.getAlias())
+          .append(" (").append(ListCommand.formatType(check.getType()));
+      if (check.getAlgorithm() != null) {
+        report.append(", ").append(check.getAlgorithm());
+      }
+      if (check.getBits() > 0) {
+        report.append(", ").append(check.getBits()).append(" bits");
+      }
+      report.append(')');
+      if (check.isPassed()) {
+        passed++;
+      } else {
+        report.append(": ").append(check.getProblem());
+      }
+      report.append(System.lineSeparator());
+    }
+
+    report.append(System.lineSeparator())
+        .append(passed).append(" passed, ").append(verification.getChecks().size() - passed).append(" failed in ")
+        .append(Json.seconds(verification.getOpenNanos() + verification.getProbeNanos())).append(" s (open ")
+        .append(Json.seconds(verification.getOpenNanos())).append(" s, entries ")
+        .append(Json.seconds(verification.getProbeNanos())).append(" s)");
+    return report.toString();
+  }
+
+  static String toJson(KeyStoreVerification verification) {
+    StringBuilder json = new StringBuilder("{\"keystore\":").append(Json.quote(verification.getKeyStoreFile().getPath()))
+        .append(",\"status\":").append(Json.quote(verification.isPassed() ? "passed" : "failed"))
+        .append(",\"failed\":").append(verification.getFailedCount());
+    if (verification.getProblem() != null) {
+      json.append(",\"problem\":").append(Json.quote(verification.getProblem()));
+    }
+    json.append(",\"open_seconds\":").append(Json.seconds(verification.getOpenNanos()))
+        .append(",\"entries_seconds\":").append(Json.seconds(verification.getProbeNanos()))
+        .append(",\"entries\":[");
+
+    String separator = "";
+    for (KeyStoreVerification.Check check : verification.getChecks()) {
+      json.append(separator)
+          .append("{\"alias\":").append(Json.quote(check.getAlias()))
+          .append(",\"type\":").append(Json.quote(ListCommand.formatType(check.getType())))
+          .append(",\"algorithm\":").append(Json.quote(check.getAlgorithm()))
+          .append(",\"bits\":").append(check.getBits())
+          .append(",\"status\":").append(Json.quote(check.isPassed() ? "passed" : "failed"))
+          .append(",\"seconds\":").append(Json.seconds(check.getNanos()));
+      if (!check.isPassed()) {
+        json.append(",\"problem\":").append(Json.quote(check.getProblem()));
+      }
+      json.append('}');
+      separator = ",";
+    }
+    return json.append("]}").toString();
+  }
+}
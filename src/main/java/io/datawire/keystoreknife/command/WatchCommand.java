@@ -0,0 +1,131 @@
+/*
+ * Copyright 2016 Datawire. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.datawire.keystoreknife.command;
+
+
+import io.datawire.app.Initializer;
+import io.datawire.app.command.Command;
+import io.datawire.keystoreknife.KeyStoreWatcher;
+import io.datawire.keystoreknife.exception.KeyStoreKnifeException;
+import io.datawire.keystoreknife.util.Json;
+import net.sourceforge.argparse4j.impl.Arguments;
+import net.sourceforge.argparse4j.inf.Namespace;
+import net.sourceforge.argparse4j.inf.Subparser;
+
+import java.io.File;
+import java.time.Duration;
+import java.time.Instant;
+import java.time.format.DateTimeFormatter;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Watches a key store, or every key store under a directory, and prints a line of JSON for every write that adds,
+ * removes or changes entries:
+ *
+ * <pre>
+ * {"keystore":"/etc/app/keystore.jceks","time":"2016-05-01T12:00:00Z","added":[],"removed":[],"changed":["db"]}
+ * </pre>
+ *
+ * <p>Runs until it is stopped. Key stores created under a directory after the watch started are not picked up, and
+ * files under it that cannot be read as key stores when the watch starts are reported and skipped.</p>
+ */
+public class WatchCommand extends Command {
+
+  public WatchCommand() {
+    super("watch", "Print the aliases that change whenever a keystore is written");
+  }
+
+  @Override
+  public void configure(Subparser subparser) {
+    subparser.addArgument("keystore")
+        .help("the keystore to watch or a directory of keystores to watch")
+        .type(Arguments.fileType().verifyCanRead());
+
+    subparser.addArgument("--keystore-type").setDefault("JCEKS").help("the java keystore type");
+    subparser.addArgument("--glob")
+        .setDefault("**")
+        .help("when the keystore is a directory, the pattern that the paths of the keystores under it must match");
+
+    subparser.addArgument("--debounce")
+        .type(Integer.class)
+        .setDefault(250)
+        .help("the milliseconds a keystore must go unwritten before it is read again");
+
+    subparser.addArgument("keystore_password").help("the keystore password");
+  }
+
+  @Override
+  public void run(Initializer<?> initializer, Namespace namespace) throws Exception {
+    File keyStoreFile = namespace.get("keystore");
+    List<File> keyStoreFiles = keyStoreFile.isDirectory()
+        ? Fleet.find(keyStoreFile, namespace.getString("glob"))
+        : Collections.singletonList(keyStoreFile);
+
+    try (KeyStoreWatcher watcher = new KeyStoreWatcher(Duration.ofMillis(namespace.getInt("debounce")))) {
+      int watched = 0;
+      for (File file : keyStoreFiles) {
+        try {
+          watcher.watch(file, namespace.getString("keystore_type"), namespace.getString("keystore_password"));
+          watched++;
+        } catch (KeyStoreKnifeException ex) {
+          if (!keyStoreFile.isDirectory()) {
+            throw ex;
+          }
+          System.err.println(String.format("Unable to read keystore, not watching it (keystore: %s): %s",
+              file, ex.getMessage()));
+        }
+      }
+
+      watcher.addListener(new KeyStoreWatcher.Listener() {
+        @Override
+        public void changed(KeyStoreWatcher.Change change) {
+          System.out.println(toJson(change, Instant.now()));
+          System.out.flush();
+        }
+
+        @Override
+        public void failed(File file, Exception error) {
+          System.err.println(String.format("Unable to handle a change to the keystore (keystore: %s): %s",
+              file, error.getMessage()));
+        }
+      });
+
+      System.err.println(String.format("Watching %d keystores", watched));
+      watcher.run();
+    }
+  }
+
+  static String toJson(KeyStoreWatcher.Change change, Instant time) {
+    return "{\"keystore\":" + Json.quote(change.getKeyStoreFile().getPath())
+        + ",\"time\":" + Json.quote(DateTimeFormatter.ISO_INSTANT.format(time))
+        + ",\"added\":" + toJson(change.getAdded())
+        + ",\"removed\":" + toJson(change.getRemoved())
+        + ",\"changed\":" + toJson(change.getChanged())
+        + "}";
+  }
+
+  private static String toJson(List<String> aliases) {
+    StringBuilder json = new StringBuilder("[");
+    String separator = "";
+    for (String alias : aliases) {
+      json.append(separator).append(Json.quote(alias));
+      separator = ",";
+    }
+    return json.append(']').toString();
+  }
+}
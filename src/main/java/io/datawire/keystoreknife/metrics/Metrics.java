@@ -0,0 +1,253 @@
+/*
+ * Copyright 2016 Datawire. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.datawire.keystoreknife.metrics;
+
+
+import io.datawire.keystoreknife.util.Json;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Objects;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Function;
+
+/**
+ * A small registry of operation timings. Each operation (load, decrypt, store, fsync, ...) is recorded per key store
+ * with a count, the total and longest time taken, and the bytes and entries it handled. The registry is process-wide
+ * so that the knife can record into it without it being passed around. It records nothing until it is enabled, so
+ * that long-lived processes and library users that never ask for metrics do not collect an entry for every key store
+ * they touch; commands enable and reset it only when metrics are asked for.
+ */
+public final class Metrics {
+
+  private static final Metrics DEFAULT = new Metrics();
+
+  // handed out while recording is disabled; it has no operation to record into
+  private static final Sample DISABLED = new Sample(null);
+
+  private final ConcurrentMap<Key, Operation> operations = new ConcurrentHashMap<>();
+  private volatile boolean enabled;
+
+  public static Metrics get() {
+    return DEFAULT;
+  }
+
+  /**
+   * Starts timing an operation. The time is recorded when the returned sample is closed. The key store may be
+   * {@code null} for operations that do not concern a single key store.
+   */
+  public Sample start(String operation, String keyStore) {
+    if (!enabled) {
+      return DISABLED;
+    }
+    return new Sample(operations.computeIfAbsent(new Key(operation, keyStore), Operation::new));
+  }
+
+  public boolean isEnabled() {
+    return enabled;
+  }
+
+  /**
+   * Starts or stops recording. Operations already recorded are kept until {@link #reset()}.
+   */
+  public void setEnabled(boolean enabled) {
+    this.enabled = enabled;
+  }
+
+  public void reset() {
+    operations.clear();
+  }
+
+  /**
+   * Returns the recorded operations ordered by key store and then operation.
+   */
+  public List<Operation> getOperations() {
+    List<Operation> result = new ArrayList<>(operations.values());
+    result.sort(Comparator.comparing((Operation operation) -> Objects.toString(operation.key.keyStore, ""))
+        .thenComparing(operation -> operation.key.operation));
+    return result;
+  }
+
+  public String toJson() {
+    StringBuilder json = new StringBuilder("{\"operations\":[");
+    String separator = "";
+    for (Operation operation : getOperations()) {
+      json.append(separator)
+          .append("{\"operation\":").append(Json.quote(operation.getName()))
+          .append(",\"keystore\":").append(Json.quote(operation.getKeyStore()))
+          .append(",\"count\":").append(operation.getCount())
+          .append(",\"seconds\":").append(Json.seconds(operation.getTotalNanos()))
+          .append(",\"max_seconds\":").append(Json.seconds(operation.getMaxNanos()))
+          .append(",\"bytes\":").append(operation.getBytes())
+          .append(",\"entries\":").append(operation.getEntries())
+          .append('}');
+      separator = ",";
+    }
+    return json.append("]}").toString();
+  }
+
+  public String toPrometheus() {
+    List<Operation> recorded = getOperations();
+    StringBuilder text = new StringBuilder();
+
+    appendFamily(text, recorded, "keystore_knife_operations_total", "counter", "Operations performed",
+        operation -> Long.toString(operation.getCount()));
+    appendFamily(text, recorded, "keystore_knife_operation_seconds_total", "counter", "Time spent in operations",
+        operation -> Json.seconds(operation.getTotalNanos()));
+    appendFamily(text, recorded, "keystore_knife_operation_seconds_max", "gauge", "Longest single operation",
+        operation -> Json.seconds(operation.getMaxNanos()));
+    appendFamily(text, recorded, "keystore_knife_operation_bytes_total", "counter", "Bytes read or written",
+        operation -> Long.toString(operation.getBytes()));
+    appendFamily(text, recorded, "keystore_knife_operation_entries_total", "counter", "Key store entries handled",
+        operation -> Long.toString(operation.getEntries()));
+
+    return text.toString();
+  }
+
+  private static void appendFamily(StringBuilder text, List<Operation> operations, String name, String type,
+                                   String help, Function<Operation, String> value) {
+    text.append("# HELP ").append(name).append(' ').append(help).append('\n');
+    text.append("# TYPE ").append(name).append(' ').append(type).append('\n');
+    for (Operation operation : operations) {
+      text.append(name).append("{operation=\"").append(escapeLabel(operation.getName())).append('"');
+      if (operation.getKeyStore() != null) {
+        text.append(",keystore=\"").append(escapeLabel(operation.getKeyStore())).append('"');
+      }
+      text.append("} ").append(value.apply(operation)).append('\n');
+    }
+  }
+
+  private static String escapeLabel(String value) {
+    return value.replace("\\", "\\\\").replace("\"", "\\\"").replace("\n", "\\n");
+  }
+
+  public static final class Operation {
+
+    private final Key key;
+    private final LongAdder count = new LongAdder();
+    private final LongAdder totalNanos = new LongAdder();
+    private final LongAccumulator maxNanos = new LongAccumulator(Math::max, 0);
+    private final LongAdder bytes = new LongAdder();
+    private final LongAdder entries = new LongAdder();
+
+    Operation(Key key) {
+      this.key = key;
+    }
+
+    public String getName() {
+      return key.operation;
+    }
+
+    public String getKeyStore() {
+      return key.keyStore;
+    }
+
+    public long getCount() {
+      return count.sum();
+    }
+
+    public long getTotalNanos() {
+      return totalNanos.sum();
+    }
+
+    public long getMaxNanos() {
+      return maxNanos.get();
+    }
+
+    public long getBytes() {
+      return bytes.sum();
+    }
+
+    public long getEntries() {
+      return entries.sum();
+    }
+  }
+
+  /**
+   * A running operation. Sizes can be added while it runs; closing it records the time taken.
+   */
+  public static final class Sample implements AutoCloseable {
+
+    private final Operation operation;
+    private final long started = System.nanoTime();
+    private long bytes;
+    private long entries;
+
+    Sample(Operation operation) {
+      this.operation = operation;
+    }
+
+    public Sample bytes(long count) {
+      if (operation != null) {
+        bytes += count;
+      }
+      return this;
+    }
+
+    public Sample entries(long count) {
+      if (operation != null) {
+        entries += count;
+      }
+      return this;
+    }
+
+    @Override
+    public void close() {
+      if (operation == null) {
+        return;
+      }
+      long elapsed = System.nanoTime() - started;
+      operation.count.increment();
+      operation.totalNanos.add(elapsed);
+      operation.maxNanos.accumulate(elapsed);
+      operation.bytes.add(bytes);
+      operation.entries.add(entries);
+    }
+  }
+
+  private static final class Key {
+
+    private final String operation;
+    private final String keyStore;
+
+    Key(String operation, String keyStore) {
+      this.operation = operation;
+      this.keyStore = keyStore;
+    }
+
+    @Override
+    public boolean equals(Object other) {
+      if (this == other) {
+        return true;
+      }
+      if (!(other instanceof Key)) {
+        return false;
+      }
+      Key that = (Key) other;
+      return operation.equals(that.operation) && Objects.equals(keyStore, that.keyStore);
+    }
+
+    @Override
+    public int hashCode() {
+      return Objects.hash(operation, keyStore);
+    }
+  }
+}
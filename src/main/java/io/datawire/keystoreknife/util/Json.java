@@ -0,0 +1,292 @@
+/*
+ * Copyright 2016 Datawire. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.datawire.keystoreknife.util;
+
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Just enough JSON for the line-oriented input and output of the commands.
+ */
+public final class Json {
+
+  private Json() {
+  }
+
+  /**
+   * Returns the value as a quoted and escaped JSON string, or the JSON null literal if it is {@code null}.
+   */
+  public static String quote(String value) {
+    if (value == null) {
+      return "null";
+    }
+
+    StringBuilder result = new StringBuilder(value.length() + 2).append('"');
+    for (int i = 0; i < value.length(); i++) {
+      char c = value.charAt(i);
+      switch (c) {
+        case '"':
+          result.append("\\\"");
+          break;
+        case '\\':
+          result.append("\\\\");
+          break;
+        case '\n':
+          result.append("\\n");
+          break;
+        case '\r':
+          result.append("\\r");
+          break;
+        case '\t':
+          result.append("\\t");
+          break;
+        default:
+          if (c < 0x20) {
+            result.append(String.format("\\u%04x", (int) c));
+          } else {
+            result.append(c);
+          }
+          break;
+      }
+    }
+    return result.append('"').toString();
+  }
+
+  /**
+   * Returns a duration as a JSON number of seconds with microsecond precision, whatever the default locale.
+   */
+  public static String seconds(long nanos) {
+    return String.format(Locale.ENGLISH, "%.6f", nanos / (double) TimeUnit.SECONDS.toNanos(1));
+  }
+
+  /**
+   * Parses a single JSON object, such as one line of NDJSON. Objects become {@link Map}s that keep the order of their
+   * members, arrays become {@link List}s, numbers become {@link Long}s or, if they have a fraction or exponent,
+   * {@link Double}s.
+   *
+   * @throws IllegalArgumentException if the text is not a single JSON object
+   */
+  public static Map<String, Object> parseObject(CharSequence text) {
+    Parser parser = new Parser(text);
+    parser.skipWhitespace();
+    Map<String, Object> result = parser.readObject();
+    parser.skipWhitespace();
+    if (parser.position < text.length()) {
+      throw parser.error("Unexpected content after object");
+    }
+    return result;
+  }
+
+  private static final class Parser {
+
+    private final CharSequence text;
+    private int position;
+
+    Parser(CharSequence text) {
+      this.text = text;
+    }
+
+    Object readValue() {
+      skipWhitespace();
+      char c = peek();
+      switch (c) {
+        case '{':
+          return readObject();
+        case '[':
+          return readArray();
+        case '"':
+          return readString();
+        case 't':
+          expectWord("true");
+          return Boolean.TRUE;
+        case 'f':
+          expectWord("false");
+          return Boolean.FALSE;
+        case 'n':
+          expectWord("null");
+          return null;
+        default:
+          if (c == '-' || (c >= '0' && c <= '9')) {
+            return readNumber();
+          }
+          throw error("Unexpected character");
+      }
+    }
+
+    Map<String, Object> readObject() {
+      expect('{');
+      Map<String, Object> result = new LinkedHashMap<>();
+      skipWhitespace();
+      if (peek() == '}') {
+        position++;
+        return result;
+      }
+
+      while (true) {
+        skipWhitespace();
+        String name = readString();
+        skipWhitespace();
+        expect(':');
+        result.put(name, readValue());
+        skipWhitespace();
+        if (peek() == ',') {
+          position++;
+        } else {
+          expect('}');
+          return result;
+        }
+      }
+    }
+
+    List<Object> readArray() {
+      expect('[');
+      List<Object> result = new ArrayList<>();
+      skipWhitespace();
+      if (peek() == ']') {
+        position++;
+        return result;
+      }
+
+      while (true) {
+        result.add(readValue());
+        skipWhitespace();
+        if (peek() == ',') {
+          position++;
+        } else {
+          expect(']');
+          return result;
+        }
+      }
+    }
+
+    String readString() {
+      expect('"');
+      StringBuilder result = new StringBuilder();
+      while (true) {
+        char c = next();
+        if (c == '"') {
+          return result.toString();
+        }
+        if (c != '\\') {
+          result.append(c);
+          continue;
+        }
+
+        char escaped = next();
+        switch (escaped) {
+          case '"':
+          case '\\':
+          case '/':
+            result.append(escaped);
+            break;
+          case 'b':
+            result.append('\b');
+            break;
+          case 'f':
+            result.append('\f');
+            break;
+          case 'n':
+            result.append('\n');
+            break;
+          case 'r':
+            result.append('\r');
+            break;
+          case 't':
+            result.append('\t');
+            break;
+          case 'u':
+            if (position + 4 > text.length()) {
+              throw error("Truncated unicode escape");
+            }
+            try {
+              result.append((char) Integer.parseInt(text.subSequence(position, position + 4).toString(), 16));
+            } catch (NumberFormatException ex) {
+              throw error("Invalid unicode escape");
+            }
+            position += 4;
+            break;
+          default:
+            throw error("Invalid escape");
+        }
+      }
+    }
+
+    Object readNumber() {
+      int start = position;
+      boolean integral = true;
+      while (position < text.length()) {
+        char c = text.charAt(position);
+        if (c == '.' || c == 'e' || c == 'E') {
+          integral = false;
+        } else if (!(c == '-' || c == '+' || (c >= '0' && c <= '9'))) {
+          break;
+        }
+        position++;
+      }
+
+      String number = text.subSequence(start, position).toString();
+      try {
+        return integral ? (Object) Long.parseLong(number) : (Object) Double.parseDouble(number);
+      } catch (NumberFormatException ex) {
+        position = start;
+        throw error("Invalid number");
+      }
+    }
+
+    void skipWhitespace() {
+      while (position < text.length() && Character.isWhitespace(text.charAt(position))) {
+        position++;
+      }
+    }
+
+    private void expectWord(String word) {
+      for (int i = 0; i < word.length(); i++) {
+        if (next() != word.charAt(i)) {
+          throw error("Unexpected character");
+        }
+      }
+    }
+
+    private void expect(char expected) {
+      if (peek() != expected) {
+        throw error(String.format("Expected '%s'", expected));
+      }
+      position++;
+    }
+
+    private char peek() {
+      if (position >= text.length()) {
+        throw error("Unexpected end of input");
+      }
+      return text.charAt(position);
+    }
+
+    private char next() {
+      char c = peek();
+      position++;
+      return c;
+    }
+
+    IllegalArgumentException error(String message) {
+      return new IllegalArgumentException(String.format("%s at index %d", message, position));
+    }
+  }
+}
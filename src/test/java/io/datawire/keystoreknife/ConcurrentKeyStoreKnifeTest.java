@@ -0,0 +1,183 @@
+/*
+ * Copyright 2016 Datawire. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.datawire.keystoreknife;
+
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import javax.crypto.spec.SecretKeySpec;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.nio.charset.StandardCharsets;
+import java.security.KeyStore;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+import static org.assertj.core.api.Assertions.*;
+
+public class ConcurrentKeyStoreKnifeTest {
+
+  private static final char[] PASSWORD = "notasecret".toCharArray();
+  private static final int ALIASES = 4;
+  private static final int WRITES_PER_ALIAS = 6;
+
+  @Rule
+  public TemporaryFolder temporaryStorage = new TemporaryFolder();
+
+  private File keyStoreFile;
+  private ExecutorService executor;
+
+  @Before
+  public void setup() throws Exception {
+    KeyStore keyStore = KeyStore.getInstance("JCEKS");
+    keyStore.load(null, null);
+    for (int i = 0; i < ALIASES; i++) {
+      keyStore.setEntry(alias(i), version(0), new KeyStore.PasswordProtection(PASSWORD));
+    }
+
+    keyStoreFile = temporaryStorage.newFile();
+    try (FileOutputStream output = new FileOutputStream(keyStoreFile)) {
+      keyStore.store(output, PASSWORD);
+    }
+
+    executor = Executors.newCachedThreadPool();
+  }
+
+  @After
+  public void tearDown() {
+    executor.shutdownNow();
+  }
+
+  @Test
+  public void getSecretKey_concurrentWritesAndSaves_NeverReadsAnOlderVersionThanTheLastCompletedWrite() throws Exception {
+    ConcurrentKeyStoreKnife knife = ConcurrentKeyStoreKnife.open(keyStoreFile, "JCEKS", new String(PASSWORD));
+
+    // started[i] is raised before a write of alias i begins and committed[i] once it has returned, so a read that
+    // starts after committed[i] was read must see at least that version and never more than started[i]
+    AtomicLongArray started = new AtomicLongArray(ALIASES);
+    AtomicLongArray committed = new AtomicLongArray(ALIASES);
+    AtomicBoolean writing = new AtomicBoolean(true);
+
+    List<Future<?>> writers = new ArrayList<>();
+    for (int writer = 0; writer < 2; writer++) {
+      int first = writer;
+      writers.add(executor.submit(() -> {
+        for (int version = 1; version <= WRITES_PER_ALIAS; version++) {
+          for (int i = first; i < ALIASES; i += 2) {
+            started.set(i, version);
+            knife.setSecretKey(alias(i), version(version), PASSWORD);
+            committed.set(i, version);
+          }
+        }
+        return null;
+      }));
+    }
+
+    List<Future<?>> others = new ArrayList<>();
+    for (int reader = 0; reader < 2; reader++) {
+      others.add(executor.submit(() -> {
+        long[] lastSeen = new long[ALIASES];
+        int reads = 0;
+        while (writing.get() || reads < ALIASES) {
+          int i = reads++ % ALIASES;
+          long floor = committed.get(i);
+          long seen = read(knife.getSecretKey(alias(i), PASSWORD).getEncoded());
+          long ceiling = started.get(i);
+
+          assertThat(seen).as("version of %s", alias(i)).isGreaterThanOrEqualTo(floor).isLessThanOrEqualTo(ceiling);
+          assertThat(seen).as("version of %s", alias(i)).isGreaterThanOrEqualTo(lastSeen[i]);
+          lastSeen[i] = seen;
+        }
+        return null;
+      }));
+    }
+
+    File savedFile = new File(temporaryStorage.getRoot(), "saved.jks");
+    others.add(executor.submit(() -> {
+      while (writing.get()) {
+        knife.save(savedFile, new String(PASSWORD), Durability.NONE);
+      }
+      return null;
+    }));
+
+    try {
+      for (Future<?> writer : writers) {
+        writer.get(2, TimeUnit.MINUTES);
+      }
+    } finally {
+      writing.set(false);
+    }
+    for (Future<?> other : others) {
+      other.get(2, TimeUnit.MINUTES);
+    }
+
+    knife.save(savedFile, new String(PASSWORD), Durability.NONE);
+    KeyStoreKnife saved = KeyStoreKnife.open(savedFile, "JCEKS", new String(PASSWORD));
+    for (int i = 0; i < ALIASES; i++) {
+      assertThat(read(saved.getSecretKey(alias(i), PASSWORD).getEncoded())).isEqualTo(WRITES_PER_ALIAS);
+    }
+  }
+
+  @Test
+  public void setSecretKeys_readersOfTheSameAliases_SeeAllOrNoneOfTheKeys() throws Exception {
+    ConcurrentKeyStoreKnife knife = ConcurrentKeyStoreKnife.open(keyStoreFile, "JCEKS", new String(PASSWORD));
+    ForkJoinPool pool = new ForkJoinPool(2);
+    try {
+      Map<String, KeyStore.SecretKeyEntry> entries = new HashMap<>();
+      for (int i = 0; i < ALIASES; i++) {
+        entries.put(alias(i), version(1));
+      }
+
+      Future<?> write = executor.submit(() -> knife.setSecretKeys(entries, PASSWORD, pool));
+      long before = read(knife.getSecretKey(alias(0), PASSWORD).getEncoded());
+      write.get(2, TimeUnit.MINUTES);
+
+      assertThat(before).isBetween(0L, 1L);
+      for (int i = 0; i < ALIASES; i++) {
+        assertThat(read(knife.getSecretKey(alias(i), PASSWORD).getEncoded())).isEqualTo(1);
+      }
+    } finally {
+      pool.shutdown();
+    }
+  }
+
+  private static String alias(int i) {
+    return "key-" + i;
+  }
+
+  private static KeyStore.SecretKeyEntry version(long version) {
+    byte[] encoded = ("version-" + version).getBytes(StandardCharsets.UTF_8);
+    return new KeyStore.SecretKeyEntry(new SecretKeySpec(encoded, "HmacSHA256"));
+  }
+
+  private static long read(byte[] encoded) {
+    return Long.parseLong(new String(encoded, StandardCharsets.UTF_8).substring("version-".length()));
+  }
+}
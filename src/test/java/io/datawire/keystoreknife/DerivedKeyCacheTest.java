@@ -0,0 +1,108 @@
+/*
+ * Copyright 2016 Datawire. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.datawire.keystoreknife;
+
+
+import io.datawire.util.test.Fixtures;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Properties;
+
+import static org.assertj.core.api.Assertions.*;
+
+public class DerivedKeyCacheTest {
+
+  private final Fixtures fixtures = new Fixtures();
+
+  private File keyStoreFile;
+  private String keyStorePassword;
+  private String keyAlias;
+  private String keyPassword;
+
+  @Before
+  public void setup() throws IOException {
+    Properties keyStoreProperties = new Properties();
+    keyStoreProperties.load(fixtures.loadFixture("keystore.properties"));
+
+    keyStoreFile = new File(fixtures.getFixtureFilePath("keystore.jceks"));
+    keyStorePassword = keyStoreProperties.getProperty("keyStorePassword");
+    keyAlias = keyStoreProperties.getProperty("alias");
+    keyPassword = keyStoreProperties.getProperty("password");
+  }
+
+  @Test
+  public void getSecretKey_repeatedRead_HitsCache() {
+    try (DerivedKeyCache cache = new DerivedKeyCache(10)) {
+      KeyStoreKnife knife = KeyStoreKnife.open(keyStoreFile, "JCEKS", keyStorePassword);
+      knife.setKeyCache(cache);
+
+      byte[] first = knife.getSecretKey(keyAlias, keyPassword).getEncoded();
+      byte[] second = knife.getSecretKey(keyAlias, keyPassword).getEncoded();
+
+      assertThat(second).isEqualTo(first);
+      assertThat(cache.getMissCount()).isEqualTo(1);
+      assertThat(cache.getHitCount()).isEqualTo(1);
+      assertThat(cache.size()).isEqualTo(1);
+    }
+  }
+
+  @Test
+  public void getSecretKey_otherPassword_MissesCache() {
+    try (DerivedKeyCache cache = new DerivedKeyCache(10)) {
+      KeyStoreKnife knife = KeyStoreKnife.open(keyStoreFile, "JCEKS", keyStorePassword);
+      knife.setKeyCache(cache);
+      knife.getSecretKey(keyAlias, keyPassword);
+
+      assertThatThrownBy(() -> knife.getSecretKey(keyAlias, "INVALID_PASSWORD"))
+          .isInstanceOf(RuntimeException.class);
+      assertThat(cache.getHitCount()).isZero();
+    }
+  }
+
+  @Test
+  public void replaceSecret_cachedKey_InvalidatesCachedKey() {
+    try (DerivedKeyCache cache = new DerivedKeyCache(10)) {
+      KeyStoreKnife knife = KeyStoreKnife.open(keyStoreFile, "JCEKS", keyStorePassword);
+      knife.setKeyCache(cache);
+
+      knife.getSecretKey(keyAlias, keyPassword);
+      knife.replaceSecret(keyAlias, keyPassword, "applesauce", "plain");
+
+      assertThat(cache.size()).isZero();
+      assertThat(new String(knife.getSecretKey(keyAlias, keyPassword).getEncoded())).isEqualTo("applesauce");
+      assertThat(new String(knife.getSecretKey(keyAlias, keyPassword).getEncoded())).isEqualTo("applesauce");
+      assertThat(cache.getHitCount()).isEqualTo(2);
+    }
+  }
+
+  @Test
+  public void close_cachedKeys_DropsEveryKey() {
+    DerivedKeyCache cache = new DerivedKeyCache(10);
+    KeyStoreKnife knife = KeyStoreKnife.open(keyStoreFile, "JCEKS", keyStorePassword);
+    knife.setKeyCache(cache);
+    knife.getSecretKey(keyAlias, keyPassword);
+
+    cache.close();
+
+    assertThat(cache.size()).isZero();
+    assertThat(knife.getSecretKey(keyAlias, keyPassword)).isNotNull();
+    assertThat(cache.getMissCount()).isEqualTo(2);
+  }
+}
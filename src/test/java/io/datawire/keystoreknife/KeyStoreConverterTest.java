@@ -0,0 +1,108 @@
+/*
+ * Copyright 2016 Datawire. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.datawire.keystoreknife;
+
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import javax.crypto.spec.SecretKeySpec;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.nio.charset.StandardCharsets;
+import java.security.KeyStore;
+import java.util.concurrent.ForkJoinPool;
+
+import static org.assertj.core.api.Assertions.*;
+
+public class KeyStoreConverterTest {
+
+  private static final char[] PASSWORD = "notasecret".toCharArray();
+
+  @Rule
+  public TemporaryFolder temporaryStorage = new TemporaryFolder();
+
+  private ForkJoinPool pool;
+  private KeyStoreKnife source;
+
+  @Before
+  public void setup() throws Exception {
+    pool = new ForkJoinPool(2);
+
+    KeyStore keyStore = KeyStore.getInstance("JCEKS");
+    keyStore.load(null, null);
+    for (int i = 0; i < 5; i++) {
+      SecretKeySpec key = new SecretKeySpec(("secret-" + i).getBytes(StandardCharsets.UTF_8), "HmacSHA256");
+      keyStore.setEntry("key-" + i, new KeyStore.SecretKeyEntry(key), new KeyStore.PasswordProtection(PASSWORD));
+    }
+
+    File sourceFile = temporaryStorage.newFile();
+    try (FileOutputStream output = new FileOutputStream(sourceFile)) {
+      keyStore.store(output, PASSWORD);
+    }
+
+    source = KeyStoreKnife.open(sourceFile, "JCEKS", new String(PASSWORD));
+  }
+
+  @After
+  public void tearDown() {
+    pool.shutdown();
+  }
+
+  @Test
+  public void convert_toPkcs12_WritesEveryEntry() {
+    File targetFile = new File(temporaryStorage.getRoot(), "converted.p12");
+    KeyStoreConverter converter = new KeyStoreConverter(pool, 2);
+
+    assertThat(converter.convert(source, PASSWORD, targetFile, "PKCS12", PASSWORD, PASSWORD, Durability.NONE))
+        .isEqualTo(5);
+
+    KeyStoreKnife target = KeyStoreKnife.open(targetFile, "PKCS12", new String(PASSWORD));
+    assertThat(target.getAliases(null)).containsExactly("key-0", "key-1", "key-2", "key-3", "key-4");
+    assertThat(new String(target.getSecretKey("key-3", PASSWORD).getEncoded())).isEqualTo("secret-3");
+    assertThat(converter.verify(source, PASSWORD, target, PASSWORD, 0)).isEmpty();
+  }
+
+  @Test
+  public void convert_toJceksWithNewKeyPassword_StreamsEveryEntry() {
+    File targetFile = new File(temporaryStorage.getRoot(), "converted.jceks");
+    char[] newKeyPassword = "applesauce".toCharArray();
+    KeyStoreConverter converter = new KeyStoreConverter(pool, 2);
+
+    converter.convert(source, PASSWORD, targetFile, "JCEKS", "newpassword".toCharArray(), newKeyPassword,
+        Durability.FILE);
+
+    KeyStoreKnife target = KeyStoreKnife.create(targetFile, "JCEKS", "newpassword");
+    assertThat(target.getAliases(null)).hasSize(5);
+    assertThat(converter.verify(source, PASSWORD, target, newKeyPassword, 3)).isEmpty();
+  }
+
+  @Test
+  public void verify_differentKey_ReturnsMismatchedAlias() throws Exception {
+    File targetFile = new File(temporaryStorage.getRoot(), "converted.jceks");
+    KeyStoreConverter converter = new KeyStoreConverter(pool, 2);
+    converter.convert(source, PASSWORD, targetFile, "JCEKS", PASSWORD, PASSWORD, Durability.NONE);
+
+    KeyStoreKnife target = KeyStoreKnife.open(targetFile, "JCEKS", new String(PASSWORD));
+    target.replaceSecret("key-1", new String(PASSWORD), "applesauce", "plain");
+
+    assertThat(converter.verify(source, PASSWORD, target, PASSWORD, 0)).containsExactly("key-1");
+  }
+}
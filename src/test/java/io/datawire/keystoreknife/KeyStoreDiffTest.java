@@ -0,0 +1,119 @@
+/*
+ * Copyright 2016 Datawire. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.datawire.keystoreknife;
+
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import javax.crypto.SecretKey;
+import javax.crypto.spec.SecretKeySpec;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.nio.charset.StandardCharsets;
+import java.security.KeyStore;
+import java.util.concurrent.ForkJoinPool;
+
+import static io.datawire.keystoreknife.KeyStoreDiff.Status.*;
+import static org.assertj.core.api.Assertions.*;
+
+public class KeyStoreDiffTest {
+
+  private static final String KEY_STORE_PASSWORD = "notasecret";
+  private static final String KEY_PASSWORD = "notasecret";
+
+  @Rule
+  public TemporaryFolder temporaryStorage = new TemporaryFolder();
+
+  private ForkJoinPool pool;
+  private KeyStoreIndex left;
+  private KeyStoreIndex right;
+
+  @Before
+  public void setup() throws Exception {
+    pool = new ForkJoinPool(2);
+
+    File leftFile = createKeyStore("a", "b", "c");
+
+    KeyStoreKnife knife = KeyStoreKnife.open(leftFile, "JCEKS", KEY_STORE_PASSWORD);
+    knife.replaceSecret("b", KEY_PASSWORD, "secret-b", "plain");
+    knife.replaceSecret("c", KEY_PASSWORD, "applesauce", "plain");
+    knife.setSecretKey("d", new KeyStore.SecretKeyEntry(createKey("secret-d")), KEY_PASSWORD);
+
+    File rightFile = temporaryStorage.newFile();
+    knife.save(rightFile, KEY_STORE_PASSWORD);
+
+    left = KeyStoreIndex.read(leftFile, KEY_STORE_PASSWORD.toCharArray());
+    right = KeyStoreIndex.read(rightFile, KEY_STORE_PASSWORD.toCharArray());
+  }
+
+  @After
+  public void tearDown() {
+    pool.shutdown();
+  }
+
+  @Test
+  public void compare_withKeyPassword_DecryptsOnlyDifferingEntries() {
+    KeyStoreDiff diff = KeyStoreDiff.compare(left, right, KEY_PASSWORD.toCharArray(), pool);
+
+    assertThat(diff.getDifferences()).extracting("alias").containsExactly("a", "b", "c", "d");
+    assertThat(diff.getDifferences()).extracting("status").containsExactly(IDENTICAL, EQUIVALENT, CHANGED, ONLY_RIGHT);
+    assertThat(diff.getAliases(CHANGED, ONLY_RIGHT)).containsExactly("c", "d");
+    assertThat(diff.getDifferences().get(3).getLeftFingerprint()).isNull();
+  }
+
+  @Test
+  public void compare_withoutKeyPassword_ReportsDifferingKeysAsChanged() {
+    KeyStoreDiff diff = KeyStoreDiff.compare(right, left, null, pool);
+
+    assertThat(diff.getDifferences()).extracting("status").containsExactly(IDENTICAL, CHANGED, CHANGED, ONLY_LEFT);
+  }
+
+  @Test
+  public void compare_wrongKeyPassword_ThrowsKeyStoreKnifeException() {
+    try {
+      KeyStoreDiff.compare(left, right, "INVALID_PASSWORD".toCharArray(), pool);
+      failBecauseExceptionWasNotThrown(RuntimeException.class);
+    } catch (RuntimeException ex) {
+      assertThat(ex).hasMessageContaining("Unable to compare entry 'b'");
+    }
+  }
+
+  private File createKeyStore(String... aliases) throws Exception {
+    KeyStore keyStore = KeyStore.getInstance("JCEKS");
+    keyStore.load(null, null);
+
+    for (String alias : aliases) {
+      keyStore.setEntry(alias, new KeyStore.SecretKeyEntry(createKey("secret-" + alias)),
+          new KeyStore.PasswordProtection(KEY_PASSWORD.toCharArray()));
+    }
+
+    File result = temporaryStorage.newFile();
+    try (FileOutputStream output = new FileOutputStream(result)) {
+      keyStore.store(output, KEY_STORE_PASSWORD.toCharArray());
+    }
+
+    return result;
+  }
+
+  private static SecretKey createKey(String secret) {
+    return new SecretKeySpec(secret.getBytes(StandardCharsets.UTF_8), "HmacSHA256");
+  }
+}
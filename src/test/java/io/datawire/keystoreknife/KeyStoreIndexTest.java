@@ -0,0 +1,134 @@
+/*
+ * Copyright 2016 Datawire. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.datawire.keystoreknife;
+
+
+import io.datawire.keystoreknife.exception.KeyStoreKnifeException;
+import io.datawire.util.test.Fixtures;
+import org.junit.Before;
+import org.junit.Test;
+
+import javax.crypto.SecretKey;
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.ObjectOutputStream;
+import java.nio.ByteBuffer;
+import java.security.KeyStore;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Properties;
+
+import static org.assertj.core.api.Assertions.*;
+
+public class KeyStoreIndexTest {
+
+  private final Fixtures fixtures = new Fixtures();
+
+  private File keyStoreFile;
+  private String keyStorePassword;
+  private String keyAlias;
+  private String keyPassword;
+
+  @Before
+  public void setup() throws IOException {
+    Properties keyStoreProperties = new Properties();
+    keyStoreProperties.load(fixtures.loadFixture("keystore.properties"));
+
+    keyStoreFile = new File(fixtures.getFixtureFilePath("keystore.jceks"));
+    keyStorePassword = keyStoreProperties.getProperty("keyStorePassword");
+    keyAlias = keyStoreProperties.getProperty("alias");
+    keyPassword = keyStoreProperties.getProperty("password");
+  }
+
+  @Test
+  public void read_validKeyStore_IndexesEntries() {
+    KeyStoreIndex index = KeyStoreIndex.read(keyStoreFile, keyStorePassword.toCharArray());
+
+    assertThat(index.getType()).isEqualTo("JCEKS");
+    assertThat(index.getEntries()).hasSize(1);
+
+    KeyStoreIndex.Entry entry = index.getEntry(keyAlias.toUpperCase());
+    assertThat(entry.getAlias()).isEqualTo(keyAlias);
+    assertThat(entry.getType()).isEqualTo(KeyStoreIndex.EntryType.SECRET_KEY);
+    assertThat(index.getEntryBytes(entry).remaining()).isEqualTo(entry.getLength());
+  }
+
+  @Test
+  public void read_invalidPassword_ThrowsKeyStoreKnifeException() {
+    try {
+      KeyStoreIndex.read(keyStoreFile, "INVALID_PASSWORD".toCharArray());
+      failBecauseExceptionWasNotThrown(KeyStoreKnifeException.class);
+    } catch (KeyStoreKnifeException ex) {
+      assertThat(ex).hasCauseInstanceOf(IOException.class)
+          .hasMessage("Keystore was tampered with, or password was incorrect");
+    }
+  }
+
+  @Test
+  public void read_invalidKeyStore_ThrowsKeyStoreKnifeException() {
+    try {
+      KeyStoreIndex.read(new File(fixtures.getFixtureFilePath("not_a_real_keystore.jceks")), null);
+      failBecauseExceptionWasNotThrown(KeyStoreKnifeException.class);
+    } catch (KeyStoreKnifeException ex) {
+      assertThat(ex).hasCauseInstanceOf(IOException.class).hasMessage("Invalid keystore format");
+    }
+  }
+
+  @Test
+  public void read_secretKeyEntryThatIsNotASealedObject_ThrowsKeyStoreKnifeException() throws Exception {
+    ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+    DataOutputStream output = new DataOutputStream(bytes);
+    output.writeInt(KeyStoreIndex.JCEKS_MAGIC);
+    output.writeInt(2);
+    output.writeInt(1);
+    output.writeInt(3); // secret key entry
+    output.writeUTF("planted");
+    output.writeLong(0);
+    try (ObjectOutputStream serialized = new ObjectOutputStream(output)) {
+      serialized.writeObject(new ArrayList<>(Arrays.asList("a", "b")));
+    }
+
+    try {
+      KeyStoreIndex.read(ByteBuffer.wrap(bytes.toByteArray()), null);
+      failBecauseExceptionWasNotThrown(KeyStoreKnifeException.class);
+    } catch (KeyStoreKnifeException ex) {
+      assertThat(ex).hasCauseInstanceOf(IOException.class).hasMessage("Unsupported secret key entry (alias: planted)");
+    }
+  }
+
+  @Test
+  public void loadEntry_knownAlias_ReturnsKeyStoreWithOnlyThatEntry() throws Exception {
+    KeyStoreIndex index = KeyStoreIndex.read(keyStoreFile, null);
+
+    KeyStore single = index.loadEntry(keyAlias);
+    assertThat(single.size()).isEqualTo(1);
+    assertThat(((SecretKey) single.getKey(keyAlias, keyPassword.toCharArray())).getAlgorithm()).isEqualTo("HmacSHA256");
+    assertThat(index.loadEntry("UNKNOWN_ALIAS")).isNull();
+  }
+
+  @Test
+  public void open_validKeyStore_ReadsSameKeyAsCreate() {
+    KeyStoreKnife opened = KeyStoreKnife.open(keyStoreFile, "jceks", keyStorePassword);
+    KeyStoreKnife created = KeyStoreKnife.create(keyStoreFile, "jceks", keyStorePassword);
+
+    assertThat(opened.getSecretKey(keyAlias, keyPassword).getEncoded())
+        .isEqualTo(created.getSecretKey(keyAlias, keyPassword).getEncoded());
+    assertThat(opened.getSecretKey("UNKNOWN_ALIAS", keyPassword)).isNull();
+  }
+}
@@ -0,0 +1,221 @@
+/*
+ * Copyright 2016 Datawire. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.datawire.keystoreknife;
+
+
+import io.datawire.keystoreknife.exception.KeyStoreKnifeException;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import javax.crypto.spec.SecretKeySpec;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardOpenOption;
+import java.security.KeyStore;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ForkJoinPool;
+
+import static org.assertj.core.api.Assertions.*;
+
+public class KeyStoreJournalTest {
+
+  private static final String PASSWORD = "notasecret";
+
+  @Rule
+  public TemporaryFolder temporaryStorage = new TemporaryFolder();
+
+  private File keyStoreFile;
+
+  @Before
+  public void setup() throws Exception {
+    KeyStore keyStore = KeyStore.getInstance("JCEKS");
+    keyStore.load(null, null);
+    keyStore.setEntry("key", secret("original"), new KeyStore.PasswordProtection(PASSWORD.toCharArray()));
+
+    keyStoreFile = temporaryStorage.newFile("keystore.jceks");
+    try (FileOutputStream output = new FileOutputStream(keyStoreFile)) {
+      keyStore.store(output, PASSWORD.toCharArray());
+    }
+  }
+
+  @Test
+  public void openJournaled_processDiedBeforeSaving_ReplaysTheKeysSetSince() throws Exception {
+    KeyStoreKnife knife = KeyStoreKnife.openJournaled(keyStoreFile, "JCEKS", PASSWORD, Durability.NONE);
+    knife.setSecretKey("key", secret("first"), PASSWORD);
+    knife.replaceSecret("key", PASSWORD, "second", "plain");
+    knife.setSecretKey("other", secret("other"), "other-password");
+
+    KeyStoreKnife recovered = KeyStoreKnife.openJournaled(keyStoreFile, "JCEKS", PASSWORD, Durability.NONE);
+
+    assertThat(recovered.getJournal().getRecordCount()).isEqualTo(3);
+    assertThat(read(recovered, "key", PASSWORD)).isEqualTo("second");
+    assertThat(read(recovered, "other", "other-password")).isEqualTo("other");
+    assertThat(read(KeyStoreKnife.open(keyStoreFile, "JCEKS", PASSWORD), "key", PASSWORD)).isEqualTo("original");
+  }
+
+  @Test
+  public void save_overTheJournaledFile_EmptiesTheJournal() throws Exception {
+    KeyStoreKnife knife = KeyStoreKnife.openJournaled(keyStoreFile, "JCEKS", PASSWORD, Durability.NONE);
+    knife.setSecretKey("key", secret("saved"), PASSWORD);
+
+    knife.save(new File(temporaryStorage.getRoot(), "elsewhere.jceks"), PASSWORD, Durability.NONE);
+    assertThat(knife.getJournal().getRecordCount()).isEqualTo(1);
+
+    knife.save(keyStoreFile, PASSWORD, Durability.NONE);
+    assertThat(knife.getJournal().getRecordCount()).isEqualTo(0);
+
+    KeyStoreKnife reopened = KeyStoreKnife.openJournaled(keyStoreFile, "JCEKS", PASSWORD, Durability.NONE);
+    assertThat(reopened.getJournal().getRecordCount()).isEqualTo(0);
+    assertThat(read(reopened, "key", PASSWORD)).isEqualTo("saved");
+  }
+
+  @Test
+  public void openJournaled_lastRecordCutShort_ReplaysTheRestAndTruncatesIt() throws Exception {
+    KeyStoreKnife knife = KeyStoreKnife.openJournaled(keyStoreFile, "JCEKS", PASSWORD, Durability.NONE);
+    knife.setSecretKey("key", secret("complete"), PASSWORD);
+    knife.setSecretKey("key", secret("torn"), PASSWORD);
+
+    File journalFile = KeyStoreJournal.journalFile(keyStoreFile);
+    try (FileChannel channel = FileChannel.open(journalFile.toPath(), StandardOpenOption.WRITE)) {
+      channel.truncate(channel.size() - 5);
+    }
+
+    KeyStoreKnife recovered = KeyStoreKnife.openJournaled(keyStoreFile, "JCEKS", PASSWORD, Durability.NONE);
+    assertThat(read(recovered, "key", PASSWORD)).isEqualTo("complete");
+    assertThat(recovered.getJournal().getRecordCount()).isEqualTo(1);
+
+    recovered.setSecretKey("key", secret("after"), PASSWORD);
+    KeyStoreKnife again = KeyStoreKnife.openJournaled(keyStoreFile, "JCEKS", PASSWORD, Durability.NONE);
+    assertThat(read(again, "key", PASSWORD)).isEqualTo("after");
+  }
+
+  @Test
+  public void setSecretKeys_journaledKnife_RecordsEveryKey() throws Exception {
+    KeyStoreKnife knife = KeyStoreKnife.openJournaled(keyStoreFile, "JCEKS", PASSWORD, Durability.FILE);
+    Map<String, KeyStore.SecretKeyEntry> entries = new LinkedHashMap<>();
+    for (int i = 0; i < 4; i++) {
+      entries.put("key-" + i, secret("value-" + i));
+    }
+
+    ForkJoinPool pool = new ForkJoinPool(2);
+    try {
+      knife.setSecretKeys(entries, PASSWORD.toCharArray(), pool);
+    } finally {
+      pool.shutdown();
+    }
+
+    KeyStoreKnife recovered = KeyStoreKnife.openJournaled(keyStoreFile, "JCEKS", PASSWORD, Durability.FILE);
+    assertThat(recovered.getJournal().getRecordCount()).isEqualTo(4);
+    assertThat(read(recovered, "key-3", PASSWORD)).isEqualTo("value-3");
+  }
+
+  @Test(expected = KeyStoreKnifeException.class)
+  public void open_wrongPassword_Throws() throws Exception {
+    KeyStoreKnife knife = KeyStoreKnife.openJournaled(keyStoreFile, "JCEKS", PASSWORD, Durability.NONE);
+    knife.setSecretKey("key", secret("x"), PASSWORD);
+
+    KeyStoreJournal.open(keyStoreFile, "wrong".toCharArray(), Durability.NONE, KeyStoreKnife.create("JCEKS"));
+  }
+
+  @Test
+  public void openJournaled_keyStoreSavedWithoutTheJournalSince_RefusesTheReplay() throws Exception {
+    KeyStoreKnife crashed = KeyStoreKnife.openJournaled(keyStoreFile, "JCEKS", PASSWORD, Durability.NONE);
+    crashed.setSecretKey("key", secret("stale"), PASSWORD);
+
+    KeyStoreKnife rotated = KeyStoreKnife.open(keyStoreFile, "JCEKS", PASSWORD);
+    rotated.setSecretKey("key", secret("rotated"), PASSWORD);
+    rotated.save(keyStoreFile, PASSWORD, Durability.NONE);
+
+    assertThatThrownBy(() -> KeyStoreKnife.openJournaled(keyStoreFile, "JCEKS", PASSWORD, Durability.NONE))
+        .isInstanceOf(KeyStoreKnifeException.class)
+        .hasMessageContaining("not written against the current key store");
+  }
+
+  @Test
+  public void openJournaled_emptyJournalOfAnEarlierKeyStore_StartsAfresh() throws Exception {
+    KeyStoreKnife.openJournaled(keyStoreFile, "JCEKS", PASSWORD, Durability.NONE);
+
+    KeyStoreKnife rotated = KeyStoreKnife.open(keyStoreFile, "JCEKS", PASSWORD);
+    rotated.setSecretKey("key", secret("rotated"), PASSWORD);
+    rotated.save(keyStoreFile, PASSWORD, Durability.NONE);
+
+    KeyStoreKnife reopened = KeyStoreKnife.openJournaled(keyStoreFile, "JCEKS", PASSWORD, Durability.NONE);
+    reopened.setSecretKey("other", secret("other"), PASSWORD);
+
+    KeyStoreKnife recovered = KeyStoreKnife.openJournaled(keyStoreFile, "JCEKS", PASSWORD, Durability.NONE);
+    assertThat(read(recovered, "key", PASSWORD)).isEqualTo("rotated");
+    assertThat(read(recovered, "other", PASSWORD)).isEqualTo("other");
+  }
+
+  @Test
+  public void openJournaled_olderJournalCopiedBack_RefusesTheReplay() throws Exception {
+    KeyStoreKnife knife = KeyStoreKnife.openJournaled(keyStoreFile, "JCEKS", PASSWORD, Durability.NONE);
+    knife.setSecretKey("key", secret("old"), PASSWORD);
+    File journalFile = KeyStoreJournal.journalFile(keyStoreFile);
+    byte[] oldJournal = Files.readAllBytes(journalFile.toPath());
+
+    knife.setSecretKey("key", secret("new"), PASSWORD);
+    knife.save(keyStoreFile, PASSWORD, Durability.NONE);
+    Files.write(journalFile.toPath(), oldJournal);
+
+    assertThatThrownBy(() -> KeyStoreKnife.openJournaled(keyStoreFile, "JCEKS", PASSWORD, Durability.NONE))
+        .isInstanceOf(KeyStoreKnifeException.class);
+  }
+
+  @Test
+  public void openJournaled_recordLengthTooShortWithRecordsAfterIt_Throws() throws Exception {
+    KeyStoreKnife knife = KeyStoreKnife.openJournaled(keyStoreFile, "JCEKS", PASSWORD, Durability.NONE);
+    knife.setSecretKey("key", secret("first"), PASSWORD);
+    knife.setSecretKey("key", secret("second"), PASSWORD);
+
+    File journalFile = KeyStoreJournal.journalFile(keyStoreFile);
+    byte[] journal = Files.readAllBytes(journalFile.toPath());
+    ByteBuffer.wrap(journal).putInt(KeyStoreJournal.HEADER_LENGTH, 4);
+    Files.write(journalFile.toPath(), journal);
+
+    assertThatThrownBy(() -> KeyStoreKnife.openJournaled(keyStoreFile, "JCEKS", PASSWORD, Durability.NONE))
+        .isInstanceOf(KeyStoreKnifeException.class)
+        .hasMessageContaining("Corrupt journal record");
+  }
+
+  @Test
+  public void setSecretKey_journalCannotBeAppendedTo_LeavesTheKnifeUnchanged() throws Exception {
+    KeyStoreKnife knife = KeyStoreKnife.openJournaled(keyStoreFile, "JCEKS", PASSWORD, Durability.NONE);
+    File journalFile = KeyStoreJournal.journalFile(keyStoreFile);
+    assertThat(journalFile.delete()).isTrue();
+    assertThat(journalFile.mkdir()).isTrue();
+
+    assertThatThrownBy(() -> knife.setSecretKey("key", secret("unjournaled"), PASSWORD))
+        .isInstanceOf(KeyStoreKnifeException.class);
+    assertThat(read(knife, "key", PASSWORD)).isEqualTo("original");
+  }
+
+  private static KeyStore.SecretKeyEntry secret(String value) {
+    return new KeyStore.SecretKeyEntry(new SecretKeySpec(value.getBytes(StandardCharsets.UTF_8), "HmacSHA256"));
+  }
+
+  private static String read(KeyStoreKnife knife, String alias, String password) {
+    return new String(knife.getSecretKey(alias, password).getEncoded(), StandardCharsets.UTF_8);
+  }
+}
@@ -0,0 +1,37 @@
+/*
+ * Copyright 2016 Datawire. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.datawire.keystoreknife;
+
+
+import org.junit.Test;
+
+import static org.assertj.core.api.Assertions.*;
+
+public class KeyStoreKnifeApplicationTest {
+
+  @Test
+  public void newCommand_everyCommandName_CreatesTheCommandWithThatName() {
+    for (String name : KeyStoreKnifeApplication.COMMAND_NAMES) {
+      assertThat(KeyStoreKnifeApplication.newCommand(name).getName()).isEqualTo(name);
+    }
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void newCommand_unknownName_Throws() {
+    KeyStoreKnifeApplication.newCommand("serve");
+  }
+}
@@ -0,0 +1,108 @@
+/*
+ * Copyright 2016 Datawire. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.datawire.keystoreknife;
+
+
+import com.google.common.io.Files;
+import io.datawire.util.test.Fixtures;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Properties;
+import java.util.concurrent.TimeUnit;
+
+import static org.assertj.core.api.Assertions.*;
+
+public class KeyStoreKnifeCacheTest {
+
+  private final Fixtures fixtures = new Fixtures();
+
+  @Rule
+  public TemporaryFolder temporaryStorage = new TemporaryFolder();
+
+  private File keyStoreFile;
+  private String keyStoreType;
+  private String keyStorePassword;
+
+  @Before
+  public void setup() throws IOException {
+    Properties keyStoreProperties = new Properties();
+    keyStoreProperties.load(fixtures.loadFixture("keystore.properties"));
+
+    keyStoreFile = temporaryStorage.newFile();
+    Files.copy(new File(fixtures.getFixtureFilePath("keystore.jceks")), keyStoreFile);
+    keyStoreType = keyStoreProperties.getProperty("keyStoreType");
+    keyStorePassword = keyStoreProperties.getProperty("keyStorePassword");
+  }
+
+  @Test
+  public void open_unchangedFile_ReturnsCachedKnife() {
+    KeyStoreKnifeCache cache = new KeyStoreKnifeCache(10, 1, TimeUnit.MINUTES, true);
+
+    KeyStoreKnife first = cache.open(keyStoreFile, keyStoreType, keyStorePassword);
+    KeyStoreKnife second = cache.open(keyStoreFile, keyStoreType.toUpperCase(), keyStorePassword);
+
+    assertThat(second).isSameAs(first);
+    assertThat(cache.getMissCount()).isEqualTo(1);
+    assertThat(cache.getHitCount()).isEqualTo(1);
+  }
+
+  @Test
+  public void open_modifiedFile_ReopensKnife() {
+    KeyStoreKnifeCache cache = new KeyStoreKnifeCache(10, 1, TimeUnit.MINUTES, false);
+
+    KeyStoreKnife first = cache.open(keyStoreFile, keyStoreType, keyStorePassword);
+    assertThat(keyStoreFile.setLastModified(keyStoreFile.lastModified() - 10000)).isTrue();
+    KeyStoreKnife second = cache.open(keyStoreFile, keyStoreType, keyStorePassword);
+
+    assertThat(second).isNotSameAs(first);
+    assertThat(cache.getMissCount()).isEqualTo(2);
+    assertThat(cache.size()).isEqualTo(1);
+  }
+
+  @Test
+  public void open_touchedFileWithSameContent_ReturnsCachedKnifeWhenVerifyingContent() {
+    KeyStoreKnifeCache cache = new KeyStoreKnifeCache(10, 1, TimeUnit.MINUTES, true);
+
+    KeyStoreKnife first = cache.open(keyStoreFile, keyStoreType, keyStorePassword);
+    assertThat(keyStoreFile.setLastModified(keyStoreFile.lastModified() - 10000)).isTrue();
+    KeyStoreKnife second = cache.open(keyStoreFile, keyStoreType, keyStorePassword);
+
+    assertThat(second).isSameAs(first);
+    assertThat(cache.getMissCount()).isEqualTo(1);
+    assertThat(cache.getHitCount()).isEqualTo(1);
+  }
+
+  @Test
+  public void open_moreStoresThanMaximum_EvictsLeastRecentlyUsed() throws IOException {
+    KeyStoreKnifeCache cache = new KeyStoreKnifeCache(1, 1, TimeUnit.MINUTES, false);
+
+    File otherKeyStoreFile = temporaryStorage.newFile();
+    Files.copy(keyStoreFile, otherKeyStoreFile);
+
+    cache.open(keyStoreFile, keyStoreType, keyStorePassword);
+    cache.open(otherKeyStoreFile, keyStoreType, keyStorePassword);
+    cache.open(keyStoreFile, keyStoreType, keyStorePassword);
+
+    assertThat(cache.size()).isEqualTo(1);
+    assertThat(cache.getMissCount()).isEqualTo(3);
+  }
+}
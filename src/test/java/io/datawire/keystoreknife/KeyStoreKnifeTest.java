@@ -26,11 +26,29 @@ import org.junit.Test;
 import org.junit.rules.TemporaryFolder;
 
 import javax.crypto.SecretKey;
+import javax.crypto.spec.SecretKeySpec;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
 import java.io.File;
 import java.io.FileInputStream;
+import java.io.FileOutputStream;
 import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.WritableByteChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
 import java.security.KeyStore;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
 import java.util.Properties;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ForkJoinPool;
+import java.util.regex.Pattern;
 
 import static org.assertj.core.api.Assertions.*;
 
@@ -130,6 +148,21 @@ public class KeyStoreKnifeTest {
     assertThat(BaseEncoding.base64Url().encode(modified.getEncoded())).isEqualTo(newKeySecret);
   }
 
+  @Test
+  public void replaceSecretKey_WithCharactersAndDirectBuffer_replacesSecretKeyAndZeroesBuffer() throws Exception {
+    KeyStoreKnife knife = KeyStoreKnife.create(keyStoreFile, keyStoreType, keyStorePassword);
+
+    ByteBuffer buffer = ByteBuffer.allocateDirect(16);
+    knife.replaceSecret(keyAlias, keyPassword.toCharArray(), CharBuffer.wrap("6170706c657361756365".toCharArray()),
+        "base16", buffer);
+
+    SecretKey modified = knife.getSecretKey(keyAlias, keyPassword.toCharArray());
+    assertThat(new String(modified.getEncoded())).isEqualTo("applesauce");
+    while (buffer.hasRemaining()) {
+      assertThat(buffer.get()).isEqualTo((byte) 0);
+    }
+  }
+
   @Test
   public void saveKeyStore() throws IOException {
     KeyStoreKnife knife = KeyStoreKnife.create(keyStoreFile, keyStoreType, keyStorePassword);
@@ -147,6 +180,198 @@ public class KeyStoreKnifeTest {
     assertThat(new String(updatedAndSavedKey.getEncoded())).isEqualTo(newKeySecret);
   }
 
+  @Test
+  public void getAliases_withPattern_ReturnsMatchingAliasesInOrder() throws Exception {
+    KeyStoreKnife knife = KeyStoreKnife.create(createKeyStore("svc-b", "svc-a", "other"), keyStoreType, keyStorePassword);
+
+    assertThat(knife.getAliases("svc-*")).containsExactly("svc-a", "svc-b");
+    assertThat(knife.getAliases(null)).containsExactly("other", "svc-a", "svc-b");
+  }
+
+  @Test
+  public void getMetadata_openedWithoutPassword_ListsEntriesWithoutDecrypting() throws Exception {
+    File source = createKeyStore("b", "a", "c");
+    KeyStoreKnife knife = KeyStoreKnife.open(source, keyStoreType, null);
+    SecretKey key = new SecretKeySpec("secret-z".getBytes(StandardCharsets.UTF_8), "HmacSHA256");
+    knife.setSecretKey("z", new KeyStore.SecretKeyEntry(key), keyPassword);
+
+    List<EntryMetadata> metadata = knife.getMetadata((String) null);
+
+    assertThat(metadata).extracting(EntryMetadata::getAlias).containsExactly("a", "b", "c", "z");
+    assertThat(metadata).extracting(EntryMetadata::getType).containsOnly(KeyStoreIndex.EntryType.SECRET_KEY);
+    assertThat(metadata.get(0).getCreationDate()).isEqualTo(loadKeyStore(source, keyStoreType, keyStorePassword)
+        .getCreationDate("a"));
+    assertThat(knife.getMetadata(Pattern.compile("[ab]"))).extracting(EntryMetadata::getAlias).containsExactly("a", "b");
+  }
+
+  @Test
+  public void forEachKey_multipleAliases_ConsumesKeysInAliasOrder() throws Exception {
+    KeyStoreKnife knife = KeyStoreKnife.create(createKeyStore("c", "a", "b"), keyStoreType, keyStorePassword);
+
+    List<String> consumed = new ArrayList<>();
+    ForkJoinPool pool = new ForkJoinPool(2);
+    try {
+      knife.forEachKey(knife.getAliases(null), keyPassword, pool, (alias, key) -> {
+        assertThat(new String(key.getEncoded(), StandardCharsets.UTF_8)).isEqualTo("secret-" + alias);
+        consumed.add(alias);
+      });
+    } finally {
+      pool.shutdown();
+    }
+
+    assertThat(consumed).containsExactly("a", "b", "c");
+  }
+
+  @Test
+  public void save_openedKeyStoreWithChanges_SplicesChangedEntries() throws Exception {
+    File source = createKeyStore("a", "b", "c");
+    KeyStoreKnife knife = KeyStoreKnife.open(source, keyStoreType, keyStorePassword);
+    knife.replaceSecret("b", keyPassword, "applesauce", "plain");
+
+    assertThat(new String(knife.getSecretKey("b", keyPassword).getEncoded())).isEqualTo("applesauce");
+
+    File output = temporaryStorage.newFile();
+    knife.save(output, "newpassword");
+
+    KeyStoreKnife saved = KeyStoreKnife.create(output, keyStoreType, "newpassword");
+    assertThat(saved.getAliases(null)).containsExactly("a", "b", "c");
+    assertThat(new String(saved.getSecretKey("a", keyPassword).getEncoded())).isEqualTo("secret-a");
+    assertThat(new String(saved.getSecretKey("b", keyPassword).getEncoded())).isEqualTo("applesauce");
+    assertThat(new String(saved.getSecretKey("c", keyPassword).getEncoded())).isEqualTo("secret-c");
+  }
+
+  @Test
+  public void save_openedKeyStoreOverSource_ReplacesSource() throws Exception {
+    File source = createKeyStore("a", "b");
+    KeyStoreKnife knife = KeyStoreKnife.open(source, keyStoreType, keyStorePassword);
+    knife.replaceSecret("a", keyPassword, "applesauce", "plain");
+    knife.save(source, keyStorePassword);
+
+    KeyStoreKnife saved = KeyStoreKnife.create(source, keyStoreType, keyStorePassword);
+    assertThat(new String(saved.getSecretKey("a", keyPassword).getEncoded())).isEqualTo("applesauce");
+    assertThat(new String(saved.getSecretKey("b", keyPassword).getEncoded())).isEqualTo("secret-b");
+    assertThat(new String(knife.getKeyStore().getKey("a", keyPassword.toCharArray()).getEncoded())).isEqualTo("applesauce");
+  }
+
+  @Test
+  public void open_directBuffer_IndexesTheBufferAndSavesToAChannel() throws Exception {
+    byte[] contents = Files.readAllBytes(createKeyStore("a", "b").toPath());
+    ByteBuffer direct = ByteBuffer.allocateDirect(contents.length);
+    direct.put(contents).flip();
+
+    KeyStoreKnife knife = KeyStoreKnife.open(direct, keyStoreType, keyStorePassword);
+    knife.replaceSecret("a", keyPassword, "applesauce", "plain");
+
+    ByteArrayOutputStream saved = new ByteArrayOutputStream();
+    knife.save(Channels.newChannel(saved), "newpassword");
+
+    KeyStoreKnife reopened = KeyStoreKnife.open(
+        new ByteArrayInputStream(saved.toByteArray()), keyStoreType, "newpassword");
+    assertThat(reopened.getAliases(null)).containsExactly("a", "b");
+    assertThat(new String(reopened.getSecretKey("a", keyPassword).getEncoded())).isEqualTo("applesauce");
+    assertThat(new String(reopened.getSecretKey("b", keyPassword).getEncoded())).isEqualTo("secret-b");
+  }
+
+  @Test
+  public void open_pkcs12Stream_LoadsAndSavesToAStream() throws Exception {
+    KeyStore keyStore = KeyStore.getInstance("PKCS12");
+    keyStore.load(null, null);
+    SecretKey key = new SecretKeySpec("secret".getBytes(StandardCharsets.UTF_8), "HmacSHA256");
+    keyStore.setEntry("a", new KeyStore.SecretKeyEntry(key), new KeyStore.PasswordProtection(keyPassword.toCharArray()));
+    ByteArrayOutputStream original = new ByteArrayOutputStream();
+    keyStore.store(original, keyStorePassword.toCharArray());
+
+    KeyStoreKnife knife = KeyStoreKnife.open(
+        new ByteArrayInputStream(original.toByteArray()), "PKCS12", keyStorePassword);
+    knife.replaceSecret("a", keyPassword, "applesauce", "plain");
+    ByteArrayOutputStream saved = new ByteArrayOutputStream();
+    knife.save(saved, keyStorePassword);
+
+    KeyStoreKnife reopened = KeyStoreKnife.open(ByteBuffer.wrap(saved.toByteArray()), "PKCS12", keyStorePassword);
+    assertThat(new String(reopened.getSecretKey("a", keyPassword).getEncoded())).isEqualTo("applesauce");
+  }
+
+  @Test
+  @SuppressWarnings("try")
+  public void save_withDirectoryDurability_ReplacesFileAtomically() throws Exception {
+    File directory = temporaryStorage.newFolder();
+    File output = new File(directory, "keystore.jceks");
+
+    KeyStoreKnife knife = KeyStoreKnife.create(keyStoreFile, keyStoreType, keyStorePassword);
+    knife.replaceSecret(keyAlias, keyPassword, "applesauce", "plain");
+
+    try (KeyStoreLock lock = KeyStoreLock.acquire(output)) {
+      knife.save(output, keyStorePassword, Durability.DIRECTORY);
+    }
+
+    assertThat(directory.list()).containsOnly("keystore.jceks", "keystore.jceks.lock");
+
+    KeyStoreKnife saved = KeyStoreKnife.create(output, keyStoreType, keyStorePassword);
+    assertThat(new String(saved.getSecretKey(keyAlias, keyPassword).getEncoded())).isEqualTo("applesauce");
+  }
+
+  @Test
+  public void setSecretKeys_openedKeyStore_SplicesEntriesSealedOnThePool() throws Exception {
+    File source = createKeyStore("a", "b");
+    KeyStoreKnife knife = KeyStoreKnife.open(source, keyStoreType, keyStorePassword);
+
+    Map<String, KeyStore.SecretKeyEntry> entries = new LinkedHashMap<>();
+    for (String alias : new String[] {"b", "c", "d", "e"}) {
+      SecretKey key = new SecretKeySpec(("generated-" + alias).getBytes(StandardCharsets.UTF_8), "HmacSHA256");
+      entries.put(alias, new KeyStore.SecretKeyEntry(key));
+    }
+
+    ForkJoinPool pool = new ForkJoinPool(3);
+    try {
+      knife.setSecretKeys(entries, keyPassword.toCharArray(), pool);
+    } finally {
+      pool.shutdown();
+    }
+
+    File output = temporaryStorage.newFile();
+    knife.save(output, keyStorePassword);
+
+    KeyStoreKnife saved = KeyStoreKnife.create(output, keyStoreType, keyStorePassword);
+    assertThat(saved.getAliases(null)).containsExactly("a", "b", "c", "d", "e");
+    assertThat(new String(saved.getSecretKey("a", keyPassword).getEncoded())).isEqualTo("secret-a");
+    assertThat(new String(saved.getSecretKey("b", keyPassword).getEncoded())).isEqualTo("generated-b");
+    assertThat(new String(saved.getSecretKey("e", keyPassword).getEncoded())).isEqualTo("generated-e");
+  }
+
+  @Test
+  public void copyEntries_fromOtherKeyStore_CopiesEntriesStillEncrypted() throws Exception {
+    KeyStoreIndex source = KeyStoreIndex.read(createKeyStore("b", "c", "d"), keyStorePassword.toCharArray());
+
+    KeyStoreKnife knife = KeyStoreKnife.open(createKeyStore("a", "b"), keyStoreType, keyStorePassword);
+    knife.replaceSecret("a", keyPassword, "applesauce", "plain");
+    knife.copyEntries(source, Arrays.asList("c", "missing"));
+
+    File output = temporaryStorage.newFile();
+    knife.save(output, keyStorePassword);
+
+    KeyStoreIndex saved = KeyStoreIndex.read(output, keyStorePassword.toCharArray());
+    assertThat(saved.getEntries()).extracting("alias").containsOnly("a", "b", "c");
+    assertThat(saved.getEntryBytes(saved.getEntry("c"))).isEqualTo(source.getEntryBytes(source.getEntry("c")));
+    assertThat(new String(KeyStoreKnife.open(saved).getSecretKey("a", keyPassword).getEncoded())).isEqualTo("applesauce");
+  }
+
+  private File createKeyStore(String... aliases) throws Exception {
+    KeyStore keyStore = KeyStore.getInstance(keyStoreType);
+    keyStore.load(null, null);
+
+    for (String alias : aliases) {
+      SecretKey key = new SecretKeySpec(("secret-" + alias).getBytes(StandardCharsets.UTF_8), "HmacSHA256");
+      keyStore.setEntry(alias, new KeyStore.SecretKeyEntry(key), new KeyStore.PasswordProtection(keyPassword.toCharArray()));
+    }
+
+    File result = temporaryStorage.newFile();
+    try (FileOutputStream output = new FileOutputStream(result)) {
+      keyStore.store(output, keyStorePassword.toCharArray());
+    }
+
+    return result;
+  }
+
   private Properties loadProperties(String propertiesFixture) throws IOException {
     Properties result = new Properties();
     result.load(fixtures.loadFixture(propertiesFixture));
@@ -162,4 +387,45 @@ public class KeyStoreKnifeTest {
 
     return keyStore;
   }
+
+  @Test(timeout = 10000)
+  public void save_loadedKnifeWhileOutputIsBlocked_DoesNotHoldUpReaders() throws Exception {
+    KeyStoreKnife knife = KeyStoreKnife.create(keyStoreFile, keyStoreType, keyStorePassword);
+    CountDownLatch writing = new CountDownLatch(1);
+    CountDownLatch release = new CountDownLatch(1);
+
+    WritableByteChannel blocked = new WritableByteChannel() {
+      @Override
+      public int write(ByteBuffer source) throws IOException {
+        writing.countDown();
+        try {
+          release.await();
+        } catch (InterruptedException ex) {
+          throw new IOException(ex);
+        }
+        int written = source.remaining();
+        source.position(source.limit());
+        return written;
+      }
+
+      @Override
+      public boolean isOpen() {
+        return true;
+      }
+
+      @Override
+      public void close() {
+      }
+    };
+
+    Thread saver = new Thread(() -> knife.save(blocked, keyStorePassword));
+    saver.start();
+    try {
+      writing.await();
+      assertThat(knife.getSecretKey(keyAlias, keyPassword)).isNotNull();
+    } finally {
+      release.countDown();
+      saver.join();
+    }
+  }
 }
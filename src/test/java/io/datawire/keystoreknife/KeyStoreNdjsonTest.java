@@ -0,0 +1,148 @@
+/*
+ * Copyright 2016 Datawire. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.datawire.keystoreknife;
+
+
+import io.datawire.keystoreknife.exception.KeyStoreKnifeException;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import javax.crypto.spec.SecretKeySpec;
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.StringReader;
+import java.io.StringWriter;
+import java.nio.charset.StandardCharsets;
+import java.security.KeyStore;
+import java.util.concurrent.ForkJoinPool;
+
+import static org.assertj.core.api.Assertions.*;
+
+public class KeyStoreNdjsonTest {
+
+  private static final char[] PASSWORD = "notasecret".toCharArray();
+
+  @Rule
+  public TemporaryFolder temporaryStorage = new TemporaryFolder();
+
+  private ForkJoinPool pool;
+  private KeyStoreKnife source;
+
+  @Before
+  public void setup() throws Exception {
+    pool = new ForkJoinPool(2);
+
+    KeyStore keyStore = KeyStore.getInstance("JCEKS");
+    keyStore.load(null, null);
+    for (int i = 0; i < 3; i++) {
+      SecretKeySpec key = new SecretKeySpec(("secret-" + i).getBytes(StandardCharsets.UTF_8), "HmacSHA256");
+      keyStore.setEntry("key-" + i, new KeyStore.SecretKeyEntry(key), new KeyStore.PasswordProtection(PASSWORD));
+    }
+
+    File sourceFile = temporaryStorage.newFile();
+    try (FileOutputStream output = new FileOutputStream(sourceFile)) {
+      keyStore.store(output, PASSWORD);
+    }
+
+    source = KeyStoreKnife.open(sourceFile, "JCEKS", new String(PASSWORD));
+  }
+
+  @After
+  public void tearDown() {
+    pool.shutdown();
+  }
+
+  @Test
+  public void export_secretKeys_WritesOneLinePerEntryInAliasOrder() {
+    StringWriter output = new StringWriter();
+
+    int count = new KeyStoreNdjson(pool, 2).export(source, source.getAliases(null), PASSWORD, "base16", output);
+
+    String[] lines = output.toString().split("\n");
+    assertThat(count).isEqualTo(3);
+    assertThat(lines).hasSize(3);
+    assertThat(lines[1])
+        .startsWith("{\"alias\":\"key-1\",\"type\":\"secret\",\"algorithm\":\"HmacSHA256\",\"created\":\"")
+        .endsWith("\"encoding\":\"base16\",\"material\":\"7365637265742D31\"}");
+  }
+
+  @Test
+  public void importInto_exportedEntries_RoundTripsEveryKey() throws Exception {
+    StringWriter exported = new StringWriter();
+    KeyStoreNdjson ndjson = new KeyStoreNdjson(pool, 2);
+    ndjson.export(source, source.getAliases(null), PASSWORD, "base64_url", exported);
+
+    KeyStoreKnife target = KeyStoreKnife.create("JCEKS");
+    char[] newPassword = "applesauce".toCharArray();
+    int count = ndjson.importInto(target, new BufferedReader(new StringReader(exported + "\n")), newPassword);
+
+    File targetFile = new File(temporaryStorage.getRoot(), "imported.jceks");
+    target.save(targetFile, new String(PASSWORD));
+
+    KeyStoreKnife imported = KeyStoreKnife.open(targetFile, "JCEKS", new String(PASSWORD));
+    assertThat(count).isEqualTo(3);
+    assertThat(imported.getAliases(null)).containsExactly("key-0", "key-1", "key-2");
+    assertThat(new String(imported.getSecretKey("key-2", newPassword).getEncoded(), StandardCharsets.UTF_8))
+        .isEqualTo("secret-2");
+  }
+
+  @Test
+  public void importInto_repeatedAlias_KeepsTheLastLine() {
+    String lines = "{\"alias\":\"key\",\"type\":\"secret\",\"algorithm\":\"AES\",\"material\":\"AAAA\"}\n"
+        + "{\"alias\":\"key\",\"type\":\"secret\",\"algorithm\":\"AES\",\"material\":\"AQEB\"}\n";
+
+    KeyStoreKnife target = KeyStoreKnife.create("JCEKS");
+    new KeyStoreNdjson(pool, 10).importInto(target, new BufferedReader(new StringReader(lines)), PASSWORD);
+
+    assertThat(target.getSecretKey("key", PASSWORD).getEncoded()).containsExactly(new byte[] {1, 1, 1});
+  }
+
+  @Test
+  public void importInto_invalidLine_FailsWithLineNumber() {
+    String lines = "{\"alias\":\"key\",\"type\":\"secret\",\"algorithm\":\"AES\",\"material\":\"AAAA\"}\n"
+        + "\n"
+        + "{\"alias\":\"other\",\"type\":\"unknown\",\"material\":\"AAAA\"}\n";
+
+    try {
+      new KeyStoreNdjson(pool, 10)
+          .importInto(KeyStoreKnife.create("JCEKS"), new BufferedReader(new StringReader(lines)), PASSWORD);
+      failBecauseExceptionWasNotThrown(KeyStoreKnifeException.class);
+    } catch (KeyStoreKnifeException ex) {
+      assertThat(ex).hasMessage("Unable to import entry (line: 3)");
+      assertThat(ex.getCause()).hasMessage("Unknown entry type 'unknown'");
+    }
+  }
+
+  @Test
+  public void importInto_unknownEncoding_FailsInsteadOfStoringTheText() {
+    String lines = "{\"alias\":\"key\",\"type\":\"secret\",\"algorithm\":\"AES\",\"encoding\":\"base46\","
+        + "\"material\":\"AAAA\"}\n";
+
+    try {
+      new KeyStoreNdjson(pool, 10)
+          .importInto(KeyStoreKnife.create("JCEKS"), new BufferedReader(new StringReader(lines)), PASSWORD);
+      failBecauseExceptionWasNotThrown(KeyStoreKnifeException.class);
+    } catch (KeyStoreKnifeException ex) {
+      assertThat(ex).hasMessage("Unable to import entry (line: 1)");
+      assertThat(ex.getCause()).hasMessage("Unsupported material encoding 'base46'");
+    }
+  }
+}
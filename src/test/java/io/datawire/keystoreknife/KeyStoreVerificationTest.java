@@ -0,0 +1,151 @@
+/*
+ * Copyright 2016 Datawire. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.datawire.keystoreknife;
+
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import javax.crypto.spec.SecretKeySpec;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.security.KeyStore;
+import java.util.Arrays;
+import java.util.concurrent.ForkJoinPool;
+
+import static org.assertj.core.api.Assertions.*;
+
+public class KeyStoreVerificationTest {
+
+  private static final String PASSWORD = "notasecret";
+
+  @Rule
+  public TemporaryFolder temporaryStorage = new TemporaryFolder();
+
+  private ForkJoinPool pool;
+
+  @Before
+  public void setup() {
+    pool = new ForkJoinPool(2);
+  }
+
+  @After
+  public void tearDown() {
+    pool.shutdownNow();
+  }
+
+  @Test
+  public void verify_healthyKeyStore_Passes() throws Exception {
+    KeyStore keyStore = emptyKeyStore();
+    put(keyStore, "hmac", 32, "HmacSHA256", PASSWORD);
+    put(keyStore, "aes", 16, "AES", PASSWORD);
+    File keyStoreFile = store(keyStore);
+
+    KeyStoreVerification verification = verify(keyStoreFile, PASSWORD, PASSWORD);
+
+    assertThat(verification.isPassed()).isTrue();
+    assertThat(verification.getProblem()).isNull();
+    assertThat(verification.getChecks()).extracting(KeyStoreVerification.Check::getAlias).containsExactly("aes", "hmac");
+    assertThat(verification.getChecks()).extracting(KeyStoreVerification.Check::getBits).containsExactly(128, 256);
+  }
+
+  @Test
+  public void verify_wrongKeyStorePassword_FailsIntegrityButStillChecksEntries() throws Exception {
+    KeyStore keyStore = emptyKeyStore();
+    put(keyStore, "hmac", 32, "HmacSHA256", PASSWORD);
+    File keyStoreFile = store(keyStore);
+
+    KeyStoreVerification verification = verify(keyStoreFile, "wrong", PASSWORD);
+
+    assertThat(verification.isPassed()).isFalse();
+    assertThat(verification.getProblem()).startsWith("Integrity check failed");
+    assertThat(verification.getChecks()).extracting(KeyStoreVerification.Check::isPassed).containsExactly(true);
+  }
+
+  @Test
+  public void verify_keysUnderDifferentPasswords_TriesEveryKeyPassword() throws Exception {
+    KeyStore keyStore = emptyKeyStore();
+    put(keyStore, "first", 32, "HmacSHA256", "first-password");
+    put(keyStore, "second", 32, "HmacSHA256", "second-password");
+    File keyStoreFile = store(keyStore);
+
+    assertThat(verify(keyStoreFile, PASSWORD, "first-password", "second-password").isPassed()).isTrue();
+
+    KeyStoreVerification verification = verify(keyStoreFile, PASSWORD, "first-password");
+    assertThat(verification.getFailedCount()).isEqualTo(1);
+    assertThat(verification.getChecks().get(1).getProblem()).contains("Not decryptable");
+  }
+
+  @Test
+  public void verify_keyLengthTheAlgorithmRejects_FailsThatEntry() throws Exception {
+    KeyStore keyStore = emptyKeyStore();
+    put(keyStore, "aes", 5, "AES", PASSWORD);
+    put(keyStore, "unknown", 16, "NoSuchAlgorithm", PASSWORD);
+    File keyStoreFile = store(keyStore);
+
+    KeyStoreVerification verification = verify(keyStoreFile, PASSWORD, PASSWORD);
+
+    assertThat(verification.getFailedCount()).isEqualTo(2);
+    assertThat(verification.getChecks().get(0).getProblem()).startsWith("Invalid AES key of 5 bytes");
+    assertThat(verification.getChecks().get(1).getProblem()).contains("Unknown secret key algorithm");
+  }
+
+  @Test
+  public void verify_notAKeyStore_FailsWithoutEntries() throws Exception {
+    File keyStoreFile = temporaryStorage.newFile();
+    Files.write(keyStoreFile.toPath(), "not a keystore".getBytes(StandardCharsets.UTF_8));
+
+    KeyStoreVerification verification = verify(keyStoreFile, PASSWORD, PASSWORD);
+
+    assertThat(verification.getProblem()).startsWith("Unable to read keystore");
+    assertThat(verification.getChecks()).isEmpty();
+    assertThat(verification.isPassed()).isFalse();
+  }
+
+  private KeyStoreVerification verify(File keyStoreFile, String password, String... keyPasswords) {
+    return KeyStoreVerification.verify(keyStoreFile, "JCEKS", password,
+        Arrays.asList(Arrays.stream(keyPasswords).map(String::toCharArray).toArray(char[][]::new)), pool);
+  }
+
+  private static KeyStore emptyKeyStore() throws Exception {
+    KeyStore keyStore = KeyStore.getInstance("JCEKS");
+    keyStore.load(null, null);
+    return keyStore;
+  }
+
+  private static void put(KeyStore keyStore, String alias, int length, String algorithm, String password)
+      throws Exception {
+
+    byte[] key = new byte[length];
+    Arrays.fill(key, (byte) 7);
+    keyStore.setEntry(alias, new KeyStore.SecretKeyEntry(new SecretKeySpec(key, algorithm)),
+        new KeyStore.PasswordProtection(password.toCharArray()));
+  }
+
+  private File store(KeyStore keyStore) throws Exception {
+    File keyStoreFile = temporaryStorage.newFile();
+    try (FileOutputStream output = new FileOutputStream(keyStoreFile)) {
+      keyStore.store(output, PASSWORD.toCharArray());
+    }
+    return keyStoreFile;
+  }
+}
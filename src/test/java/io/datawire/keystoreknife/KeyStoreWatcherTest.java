@@ -0,0 +1,207 @@
+/*
+ * Copyright 2016 Datawire. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.datawire.keystoreknife;
+
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import javax.crypto.spec.SecretKeySpec;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.nio.charset.StandardCharsets;
+import java.security.KeyStore;
+import java.time.Duration;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+import static org.assertj.core.api.Assertions.*;
+
+public class KeyStoreWatcherTest {
+
+  private static final String PASSWORD = "notasecret";
+
+  @Rule
+  public TemporaryFolder temporaryStorage = new TemporaryFolder();
+
+  @Test
+  public void run_keyStoreSaved_DeliversTheAliasesThatChanged() throws Exception {
+    File keyStoreFile = temporaryStorage.newFile("keystore.jceks");
+    KeyStore keyStore = KeyStore.getInstance("JCEKS");
+    keyStore.load(null, null);
+    for (String alias : new String[] {"same", "rotated", "dropped"}) {
+      keyStore.setEntry(alias, secret(alias), new KeyStore.PasswordProtection(PASSWORD.toCharArray()));
+    }
+    try (FileOutputStream output = new FileOutputStream(keyStoreFile)) {
+      keyStore.store(output, PASSWORD.toCharArray());
+    }
+
+    BlockingQueue<KeyStoreWatcher.Change> changes = new LinkedBlockingQueue<>();
+    ExecutorService executor = Executors.newSingleThreadExecutor();
+    try (KeyStoreWatcher watcher = new KeyStoreWatcher(Duration.ofMillis(50))) {
+      watcher.watch(keyStoreFile, "JCEKS", PASSWORD);
+      watcher.addListener(changes::add);
+      executor.submit(() -> {
+        watcher.run();
+        return null;
+      });
+
+      KeyStoreKnife knife = KeyStoreKnife.open(keyStoreFile, "JCEKS", PASSWORD);
+      knife.getKeyStore().deleteEntry("dropped");
+      knife.replaceSecret("rotated", PASSWORD, "new secret", "plain");
+      knife.setSecretKey("added", secret("added"), PASSWORD);
+      knife.save(keyStoreFile, PASSWORD, Durability.NONE);
+
+      KeyStoreWatcher.Change change = changes.poll(30, TimeUnit.SECONDS);
+      assertThat(change).isNotNull();
+      assertThat(change.getAdded()).containsExactly("added");
+      assertThat(change.getRemoved()).containsExactly("dropped");
+      assertThat(change.getChanged()).containsExactly("rotated");
+
+      byte[] rotated = change.getKnife().getSecretKey("rotated", PASSWORD).getEncoded();
+      assertThat(new String(rotated, StandardCharsets.UTF_8)).isEqualTo("new secret");
+    } finally {
+      executor.shutdownNow();
+      assertThat(executor.awaitTermination(30, TimeUnit.SECONDS)).isTrue();
+    }
+  }
+
+  @Test
+  public void run_fileRewrittenWithTheSameEntries_DeliversNothing() throws Exception {
+    File keyStoreFile = temporaryStorage.newFile("keystore.jceks");
+    KeyStore keyStore = KeyStore.getInstance("JCEKS");
+    keyStore.load(null, null);
+    keyStore.setEntry("key", secret("key"), new KeyStore.PasswordProtection(PASSWORD.toCharArray()));
+    try (FileOutputStream output = new FileOutputStream(keyStoreFile)) {
+      keyStore.store(output, PASSWORD.toCharArray());
+    }
+
+    BlockingQueue<KeyStoreWatcher.Change> changes = new LinkedBlockingQueue<>();
+    ExecutorService executor = Executors.newSingleThreadExecutor();
+    try (KeyStoreWatcher watcher = new KeyStoreWatcher(Duration.ofMillis(50))) {
+      watcher.watch(keyStoreFile, "JCEKS", PASSWORD);
+      watcher.addListener(changes::add);
+      executor.submit(() -> {
+        watcher.run();
+        return null;
+      });
+
+      KeyStoreKnife.open(keyStoreFile, "JCEKS", PASSWORD).save(keyStoreFile, PASSWORD, Durability.NONE);
+      assertThat(changes.poll(1, TimeUnit.SECONDS)).isNull();
+    } finally {
+      executor.shutdownNow();
+    }
+  }
+
+  @Test
+  public void run_listenerThrows_KeepsDeliveringAndReportsTheFailureToIt() throws Exception {
+    File keyStoreFile = temporaryStorage.newFile("keystore.jceks");
+    writeKeyStore(keyStoreFile, "first");
+
+    BlockingQueue<KeyStoreWatcher.Change> changes = new LinkedBlockingQueue<>();
+    BlockingQueue<Exception> failures = new LinkedBlockingQueue<>();
+    ExecutorService executor = Executors.newSingleThreadExecutor();
+    try (KeyStoreWatcher watcher = new KeyStoreWatcher(Duration.ofMillis(50))) {
+      watcher.watch(keyStoreFile, "JCEKS", PASSWORD);
+      watcher.addListener(new KeyStoreWatcher.Listener() {
+        @Override
+        public void changed(KeyStoreWatcher.Change change) {
+          throw new IllegalStateException("listener failed");
+        }
+
+        @Override
+        public void failed(File file, Exception error) {
+          failures.add(error);
+        }
+      });
+      watcher.addListener(changes::add);
+      executor.submit(() -> {
+        watcher.run();
+        return null;
+      });
+
+      writeKeyStore(keyStoreFile, "second");
+      assertThat(changes.poll(30, TimeUnit.SECONDS)).isNotNull();
+      assertThat(failures.poll(30, TimeUnit.SECONDS)).hasMessage("listener failed");
+
+      writeKeyStore(keyStoreFile, "third");
+      assertThat(changes.poll(30, TimeUnit.SECONDS)).isNotNull();
+    } finally {
+      executor.shutdownNow();
+      assertThat(executor.awaitTermination(30, TimeUnit.SECONDS)).isTrue();
+    }
+  }
+
+  @Test
+  public void run_directoryRemoved_ReportsItsKeyStoresAsFailed() throws Exception {
+    File directory = temporaryStorage.newFolder("keystores");
+    File keyStoreFile = new File(directory, "keystore.jceks");
+    writeKeyStore(keyStoreFile, "first");
+
+    BlockingQueue<Exception> failures = new LinkedBlockingQueue<>();
+    ExecutorService executor = Executors.newSingleThreadExecutor();
+    try (KeyStoreWatcher watcher = new KeyStoreWatcher(Duration.ofMillis(50))) {
+      watcher.watch(keyStoreFile, "JCEKS", PASSWORD);
+      watcher.addListener(new KeyStoreWatcher.Listener() {
+        @Override
+        public void changed(KeyStoreWatcher.Change change) {
+        }
+
+        @Override
+        public void failed(File file, Exception error) {
+          failures.add(error);
+        }
+      });
+      executor.submit(() -> {
+        watcher.run();
+        return null;
+      });
+
+      assertThat(keyStoreFile.delete()).isTrue();
+      assertThat(directory.delete()).isTrue();
+
+      // the buffer mapped when the key store was first read keeps the removed directory alive until it is collected
+      Exception failure = null;
+      for (int attempt = 0; failure == null && attempt < 300; attempt++) {
+        System.gc();
+        failure = failures.poll(100, TimeUnit.MILLISECONDS);
+      }
+      assertThat(failure).isNotNull();
+      assertThat(failure.getMessage()).contains("no longer watching");
+    } finally {
+      executor.shutdownNow();
+      assertThat(executor.awaitTermination(30, TimeUnit.SECONDS)).isTrue();
+    }
+  }
+
+  private static void writeKeyStore(File keyStoreFile, String value) throws Exception {
+    KeyStore keyStore = KeyStore.getInstance("JCEKS");
+    keyStore.load(null, null);
+    keyStore.setEntry("key", secret(value), new KeyStore.PasswordProtection(PASSWORD.toCharArray()));
+    try (FileOutputStream output = new FileOutputStream(keyStoreFile)) {
+      keyStore.store(output, PASSWORD.toCharArray());
+    }
+  }
+
+  private static KeyStore.SecretKeyEntry secret(String value) {
+    return new KeyStore.SecretKeyEntry(new SecretKeySpec(value.getBytes(StandardCharsets.UTF_8), "HmacSHA256"));
+  }
+}
@@ -0,0 +1,107 @@
+/*
+ * Copyright 2016 Datawire. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.datawire.keystoreknife;
+
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import javax.crypto.spec.SecretKeySpec;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.StringReader;
+import java.nio.charset.StandardCharsets;
+import java.security.KeyStore;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+
+import static org.assertj.core.api.Assertions.*;
+
+public class RotationPolicyTest {
+
+  private static final String PASSWORD = "notasecret";
+
+  @Rule
+  public TemporaryFolder temporaryStorage = new TemporaryFolder();
+
+  @Test
+  public void read_commentsAndBlankLines_ParsesRulesInOrder() throws Exception {
+    RotationPolicy policy = RotationPolicy.read(new StringReader(
+        "# session keys rotate often\n\nsession-* 12h HmacSHA256\n*  P90D  AES 256\n"));
+
+    assertThat(policy.getRules()).extracting(RotationPolicy.Rule::getPattern).containsExactly("session-*", "*");
+    assertThat(policy.getRules().get(0).getMaxAge()).isEqualTo(Duration.ofHours(12));
+    assertThat(policy.getRules().get(0).getKeySize()).isEqualTo(0);
+    assertThat(policy.getRules().get(1).getMaxAge()).isEqualTo(Duration.ofDays(90));
+    assertThat(policy.getRules().get(1).getKeySize()).isEqualTo(256);
+  }
+
+  @Test
+  public void read_invalidLine_ThrowsWithLineNumber() throws Exception {
+    try {
+      RotationPolicy.read(new StringReader("* 90d AES\n* 90x AES\n"));
+      failBecauseExceptionWasNotThrown(IllegalArgumentException.class);
+    } catch (IllegalArgumentException ex) {
+      assertThat(ex).hasMessageContaining("line: 2");
+    }
+  }
+
+  @Test
+  public void getRule_overlappingPatterns_FirstMatchWins() throws Exception {
+    RotationPolicy policy = RotationPolicy.read(new StringReader("session-* 1d HmacSHA256\n* 30d AES 128\n"));
+
+    assertThat(policy.getRule("session-1").getAlgorithm()).isEqualTo("HmacSHA256");
+    assertThat(policy.getRule("database").getAlgorithm()).isEqualTo("AES");
+    assertThat(RotationPolicy.read(new StringReader("session-* 1d AES\n")).getRule("database")).isNull();
+  }
+
+  @Test
+  public void rotate_staleAndCurrentEntries_ReplacesOnlyTheStaleKeys() throws Exception {
+    File keyStoreFile = temporaryStorage.newFile();
+    KeyStore keyStore = KeyStore.getInstance("JCEKS");
+    keyStore.load(null, null);
+    for (String alias : new String[] {"session-1", "session-2", "database"}) {
+      SecretKeySpec key = new SecretKeySpec(alias.getBytes(StandardCharsets.UTF_8), "HmacSHA256");
+      keyStore.setEntry(alias, new KeyStore.SecretKeyEntry(key), new KeyStore.PasswordProtection(PASSWORD.toCharArray()));
+    }
+    try (FileOutputStream output = new FileOutputStream(keyStoreFile)) {
+      keyStore.store(output, PASSWORD.toCharArray());
+    }
+
+    KeyStoreKnife knife = KeyStoreKnife.open(keyStoreFile, "JCEKS", PASSWORD);
+    RotationPolicy policy = RotationPolicy.read(new StringReader("session-* 1d AES 128\n* 30d HmacSHA256\n"));
+    List<RotationPolicy.Rotation> rotations =
+        policy.getRotations(knife.getMetadata((String) null), Instant.now().plus(Duration.ofDays(2)));
+
+    assertThat(rotations).extracting(RotationPolicy.Rotation::getAlias).containsOnly("session-1", "session-2");
+
+    ForkJoinPool pool = new ForkJoinPool(2);
+    try {
+      RotationPolicy.rotate(knife, rotations, PASSWORD.toCharArray(), pool);
+    } finally {
+      pool.shutdown();
+    }
+
+    assertThat(knife.getSecretKey("session-1", PASSWORD).getAlgorithm()).isEqualTo("AES");
+    assertThat(knife.getSecretKey("session-2", PASSWORD).getEncoded()).hasSize(16);
+    assertThat(knife.getSecretKey("database", PASSWORD).getEncoded())
+        .isEqualTo("database".getBytes(StandardCharsets.UTF_8));
+  }
+}
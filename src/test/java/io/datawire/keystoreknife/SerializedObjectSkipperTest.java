@@ -0,0 +1,158 @@
+/*
+ * Copyright 2016 Datawire. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.datawire.keystoreknife;
+
+
+import org.junit.Test;
+
+import javax.crypto.Cipher;
+import javax.crypto.SealedObject;
+import javax.crypto.spec.SecretKeySpec;
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.ObjectOutputStream;
+import java.io.Serializable;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.security.KeyStore;
+import java.util.ArrayList;
+import java.util.Arrays;
+
+import static org.assertj.core.api.Assertions.*;
+
+public class SerializedObjectSkipperTest {
+
+  @Test
+  public void skip_sealedObject_StopsWhereTheObjectEnds() throws Exception {
+    Cipher cipher = Cipher.getInstance("AES/CBC/PKCS5Padding");
+    cipher.init(Cipher.ENCRYPT_MODE, new SecretKeySpec(new byte[16], "AES"));
+    SealedObject sealed = new SealedObject(new Nested("secret", new byte[] {1, 2, 3}), cipher);
+
+    ByteBuffer buffer = withTrailer(serialize(sealed));
+
+    assertThat(SerializedObjectSkipper.skip(buffer)).isTrue();
+    assertThat(buffer.remaining()).isEqualTo(4);
+  }
+
+  @Test
+  public void skip_jceksSecretKeyEntry_StopsWhereTheEntryEnds() throws Exception {
+    KeyStore keyStore = KeyStore.getInstance("JCEKS");
+    keyStore.load(null, null);
+    keyStore.setEntry("key", new KeyStore.SecretKeyEntry(new SecretKeySpec(new byte[32], "HmacSHA256")),
+        new KeyStore.PasswordProtection("notasecret".toCharArray()));
+    ByteArrayOutputStream stored = new ByteArrayOutputStream();
+    keyStore.store(stored, "notasecret".toCharArray());
+
+    KeyStoreIndex index = KeyStoreIndex.read(ByteBuffer.wrap(stored.toByteArray()), "notasecret".toCharArray());
+    ByteBuffer entry = index.getEntryBytes(index.getEntry("key"));
+    entry.position(entry.position() + 4 + 2 + "key".length() + 8);
+
+    assertThat(SerializedObjectSkipper.skip(entry)).isTrue();
+    assertThat(entry.hasRemaining()).isFalse();
+  }
+
+  @Test
+  public void skip_objectWithCustomWriteObject_LeavesBufferUnchanged() throws Exception {
+    ByteBuffer buffer = withTrailer(serialize(new ArrayList<>(Arrays.asList("a", "b"))));
+    int start = buffer.position();
+
+    assertThat(SerializedObjectSkipper.skip(buffer)).isFalse();
+    assertThat(buffer.position()).isEqualTo(start);
+  }
+
+  @Test
+  public void skip_truncatedStream_ReturnsFalse() throws Exception {
+    byte[] serialized = serialize(new Nested("secret", new byte[64]));
+
+    assertThat(SerializedObjectSkipper.skip(ByteBuffer.wrap(serialized, 0, serialized.length - 10).slice())).isFalse();
+  }
+
+  @Test(timeout = 10000)
+  public void skip_classThatIsItsOwnSuperclass_ReturnsFalse() throws Exception {
+    ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+    DataOutputStream output = new DataOutputStream(bytes);
+    output.writeShort(0xaced);
+    output.writeShort(5);
+    output.writeByte(0x73); // TC_OBJECT
+    output.writeByte(0x72); // TC_CLASSDESC
+    output.writeUTF("A");
+    output.writeLong(1);
+    output.writeByte(0x02); // SC_SERIALIZABLE
+    output.writeShort(0);
+    output.writeByte(0x78); // TC_ENDBLOCKDATA
+    output.writeByte(0x71); // TC_REFERENCE to the class itself
+    output.writeInt(0x7e0000);
+
+    assertThat(SerializedObjectSkipper.skip(ByteBuffer.wrap(bytes.toByteArray()))).isFalse();
+  }
+
+  @Test
+  public void skip_deeplyNestedArrays_ReturnsFalse() throws Exception {
+    ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+    DataOutputStream output = new DataOutputStream(bytes);
+    output.writeShort(0xaced);
+    output.writeShort(5);
+    output.writeByte(0x75); // TC_ARRAY
+    output.writeByte(0x72); // TC_CLASSDESC
+    output.writeUTF("[Ljava.lang.Object;");
+    output.writeLong(1);
+    output.writeByte(0x02); // SC_SERIALIZABLE
+    output.writeShort(0);
+    output.writeByte(0x78); // TC_ENDBLOCKDATA
+    output.writeByte(0x70); // TC_NULL superclass
+    output.writeInt(1);
+    for (int i = 0; i < 200000; i++) {
+      output.writeByte(0x75); // TC_ARRAY
+      output.writeByte(0x71); // TC_REFERENCE to the array class
+      output.writeInt(0x7e0000);
+      output.writeInt(1);
+    }
+    output.writeByte(0x70);
+
+    assertThat(SerializedObjectSkipper.skip(ByteBuffer.wrap(bytes.toByteArray()))).isFalse();
+  }
+
+  private static byte[] serialize(Object value) throws Exception {
+    ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+    try (ObjectOutputStream output = new ObjectOutputStream(bytes)) {
+      output.writeObject(value);
+    }
+    return bytes.toByteArray();
+  }
+
+  private static ByteBuffer withTrailer(byte[] serialized) {
+    ByteBuffer buffer = ByteBuffer.allocate(serialized.length + 4);
+    buffer.put(serialized).putInt(0xcafebabe).flip();
+    return buffer;
+  }
+
+  static final class Nested implements Serializable {
+
+    private static final long serialVersionUID = 1L;
+
+    private final String name;
+    private final byte[] value;
+    private final byte[] copy;
+    private final long created = 42;
+
+    Nested(String name, byte[] value) {
+      this.name = name;
+      this.value = value;
+      this.copy = new String(value, StandardCharsets.ISO_8859_1).getBytes(StandardCharsets.ISO_8859_1);
+    }
+  }
+}
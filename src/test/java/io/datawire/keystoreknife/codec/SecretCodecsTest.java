@@ -0,0 +1,132 @@
+/*
+ * Copyright 2016 Datawire. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.datawire.keystoreknife.codec;
+
+
+import com.google.common.io.BaseEncoding;
+import org.junit.Test;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.Random;
+
+import static org.assertj.core.api.Assertions.*;
+
+public class SecretCodecsTest {
+
+  @Test
+  public void encode_randomSecrets_MatchesGuava() {
+    Random random = new Random(20160118);
+    for (int length = 0; length < 70; length++) {
+      byte[] secret = new byte[length];
+      random.nextBytes(secret);
+
+      assertThat(SecretCodecs.get("base16").encode(secret)).isEqualTo(BaseEncoding.base16().encode(secret));
+      assertThat(SecretCodecs.get("base32").encode(secret)).isEqualTo(BaseEncoding.base32().encode(secret));
+      assertThat(SecretCodecs.get("base32_hex").encode(secret)).isEqualTo(BaseEncoding.base32Hex().encode(secret));
+      assertThat(SecretCodecs.get("base64").encode(secret)).isEqualTo(BaseEncoding.base64().encode(secret));
+      assertThat(SecretCodecs.get("base64_url").encode(secret)).isEqualTo(BaseEncoding.base64Url().encode(secret));
+    }
+  }
+
+  @Test
+  public void decode_encodedSecrets_RoundTripsEveryCodec() {
+    Random random = new Random(20160118);
+    for (String name : SecretCodecs.names()) {
+      if ("plain".equals(name)) {
+        continue;
+      }
+
+      SecretCodec codec = SecretCodecs.get(name);
+      for (int length = 0; length < 120; length++) {
+        byte[] secret = new byte[length];
+        random.nextBytes(secret);
+        String encoded = codec.encode(secret);
+        assertThat(encoded.length()).as(name).isLessThanOrEqualTo(codec.maxEncodedLength(length));
+
+        ByteBuffer decoded = ByteBuffer.allocateDirect(codec.maxDecodedLength(encoded.length()));
+        assertThat(codec.decode(encoded, decoded)).as(name).isEqualTo(length);
+        byte[] actual = new byte[length];
+        decoded.flip();
+        decoded.get(actual);
+        assertThat(actual).as(name).isEqualTo(secret);
+      }
+    }
+  }
+
+  @Test
+  public void decode_shorterSecretAfterLongerOne_IgnoresWhatIsLeftOfTheLongerOne() {
+    for (String name : SecretCodecs.names()) {
+      if ("plain".equals(name) || "pem".equals(name)) {
+        continue;
+      }
+
+      SecretCodec codec = SecretCodecs.get(name);
+      byte[] longer = new byte[10000];
+      Arrays.fill(longer, (byte) 0x5a);
+      codec.decode(codec.encode(longer), ByteBuffer.allocate(longer.length));
+      codec.decode(codec.encode(Arrays.copyOf(longer, 300)), ByteBuffer.allocate(300));
+
+      byte[] shorter = new byte[] {1, 2, 3, 4, 5};
+      ByteBuffer decoded = ByteBuffer.allocate(codec.maxDecodedLength(codec.encode(shorter).length()));
+      assertThat(codec.decode(codec.encode(shorter), decoded)).as(name).isEqualTo(shorter.length);
+      assertThat(Arrays.copyOf(decoded.array(), shorter.length)).as(name).isEqualTo(shorter);
+    }
+  }
+
+  @Test
+  public void names_serviceLoaderCodecs_AreRegisteredAfterTheBuiltInOnes() {
+    assertThat(SecretCodecs.names())
+        .containsExactly("plain", "base16", "base32", "base32_hex", "base64", "base64_url", "hex_colon", "pem");
+    assertThat(SecretCodecs.get("PEM")).isInstanceOf(PemCodec.class);
+  }
+
+  @Test
+  public void encode_hexColonAndPem_UseTheirUsualLayout() {
+    byte[] secret = new byte[] {0x0a, 0x1b, (byte) 0xfc};
+    assertThat(SecretCodecs.get("hex_colon").encode(secret)).isEqualTo("0a:1b:fc");
+    assertThat(SecretCodecs.get("pem").encode(new byte[49]))
+        .isEqualTo("-----BEGIN SECRET KEY-----\n" + BaseEncoding.base64().encode(new byte[48]) + "\nAA==\n"
+            + "-----END SECRET KEY-----");
+  }
+
+  @Test
+  public void encode_appendToBuilder_AppendsAfterTheExistingText() {
+    StringBuilder builder = SecretCodecs.get("base64").encode(new byte[] {1, 2}, new StringBuilder("key="));
+    assertThat(builder.toString()).isEqualTo("key=AQI=");
+  }
+
+  @Test
+  public void decode_hexColonMissingSeparator_ThrowsIllegalArgumentException() {
+    try {
+      SecretCodecs.get("hex_colon").decode("0a-1b", ByteBuffer.allocate(2));
+      failBecauseExceptionWasNotThrown(IllegalArgumentException.class);
+    } catch (IllegalArgumentException ex) {
+      assertThat(ex).hasMessage("Unrecognized character at index 2");
+    }
+  }
+
+  @Test
+  public void get_unknownCodec_ThrowsIllegalArgumentException() {
+    try {
+      SecretCodecs.get("rot13");
+      failBecauseExceptionWasNotThrown(IllegalArgumentException.class);
+    } catch (IllegalArgumentException ex) {
+      assertThat(ex).hasMessage("Unsupported encoding 'rot13'");
+    }
+  }
+}
@@ -0,0 +1,104 @@
+/*
+ * Copyright 2016 Datawire. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.datawire.keystoreknife.codec;
+
+
+import com.google.common.io.BaseEncoding;
+import org.junit.Test;
+
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Random;
+
+import static org.assertj.core.api.Assertions.*;
+
+public class SecretDecodingTest {
+
+  @Test
+  public void decode_guavaEncodedSecrets_MatchesGuava() {
+    Random random = new Random(20160118);
+    for (int length = 0; length < 70; length++) {
+      byte[] secret = new byte[length];
+      random.nextBytes(secret);
+
+      assertDecodes(BaseEncoding.base16().encode(secret), "base16", secret);
+      assertDecodes(BaseEncoding.base16().lowerCase().encode(secret), "base16", secret);
+      assertDecodes(BaseEncoding.base32().encode(secret), "base32", secret);
+      assertDecodes(BaseEncoding.base32Hex().encode(secret), "base32_hex", secret);
+      assertDecodes(BaseEncoding.base64().encode(secret), "base64", secret);
+      assertDecodes(BaseEncoding.base64().omitPadding().encode(secret), "base64", secret);
+      assertDecodes(BaseEncoding.base64Url().encode(secret), "base64_url", secret);
+    }
+  }
+
+  @Test
+  public void decode_plain_EncodesAsUtf8() {
+    ByteBuffer target = ByteBuffer.allocateDirect(SecretDecoding.maxDecodedLength(5, "plain"));
+    int written = SecretDecoding.decode(CharBuffer.wrap("\u00e4pfel".toCharArray()), "plain", target);
+
+    byte[] expected = "\u00e4pfel".getBytes(StandardCharsets.UTF_8);
+    assertThat(written).isEqualTo(expected.length);
+
+    byte[] actual = new byte[written];
+    target.flip();
+    target.get(actual);
+    assertThat(actual).isEqualTo(expected);
+  }
+
+  @Test
+  public void decode_invalidCharacter_ThrowsIllegalArgumentException() {
+    try {
+      SecretDecoding.decode("YW*h", "base64", ByteBuffer.allocate(3));
+      failBecauseExceptionWasNotThrown(IllegalArgumentException.class);
+    } catch (IllegalArgumentException ex) {
+      assertThat(ex).hasMessage("Unrecognized character at index 2");
+    }
+  }
+
+  @Test
+  public void decode_invalidLength_ThrowsIllegalArgumentException() {
+    try {
+      SecretDecoding.decode("abc", "base16", ByteBuffer.allocate(2));
+      failBecauseExceptionWasNotThrown(IllegalArgumentException.class);
+    } catch (IllegalArgumentException ex) {
+      assertThat(ex).hasMessage("Invalid input length 3");
+    }
+  }
+
+  @Test
+  public void zero_directBuffer_OverwritesContents() {
+    ByteBuffer buffer = ByteBuffer.allocateDirect(4);
+    buffer.put(new byte[] {1, 2, 3, 4});
+
+    SecretDecoding.zero(buffer);
+
+    assertThat(buffer.position()).isEqualTo(0);
+    while (buffer.hasRemaining()) {
+      assertThat(buffer.get()).isEqualTo((byte) 0);
+    }
+  }
+
+  private void assertDecodes(String encoded, String encoding, byte[] expected) {
+    ByteBuffer target = ByteBuffer.allocate(SecretDecoding.maxDecodedLength(encoded.length(), encoding));
+    int written = SecretDecoding.decode(encoded, encoding, target);
+
+    byte[] actual = new byte[written];
+    target.flip();
+    target.get(actual);
+    assertThat(actual).as("%s: %s", encoding, encoded).isEqualTo(expected);
+  }
+}
@@ -0,0 +1,85 @@
+/*
+ * Copyright 2016 Datawire. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.datawire.keystoreknife.command;
+
+
+import io.datawire.keystoreknife.KeyStoreKnife;
+import io.datawire.util.test.Fixtures;
+import net.sourceforge.argparse4j.ArgumentParsers;
+import net.sourceforge.argparse4j.inf.Subparser;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.PrintStream;
+import java.nio.charset.StandardCharsets;
+
+import static org.assertj.core.api.Assertions.*;
+
+public class ConvertCommandTest {
+
+  private static final String PASSWORD = "notasecret";
+
+  @Rule
+  public TemporaryFolder temporaryStorage = new TemporaryFolder();
+
+  private final Fixtures fixtures = new Fixtures();
+
+  @Test
+  public void run_fullVerification_ConvertsAndChecksEveryEntry() throws Exception {
+    File targetFile = new File(temporaryStorage.getRoot(), "keystore.p12");
+
+    String printed = run("--verify", "full", fixtures.getFixtureFilePath("keystore.jceks"), PASSWORD,
+        targetFile.getPath(), "alsonotasecret");
+
+    assertThat(printed).contains("1 entries converted to PKCS12").contains("1 of 1 checked entries match");
+    assertThat(KeyStoreKnife.open(targetFile, "PKCS12", "alsonotasecret").getAliases(null)).containsExactly("foobar");
+  }
+
+  @Test
+  public void run_targetKeyPassword_ProtectsTheConvertedKeysWithIt() throws Exception {
+    File targetFile = new File(temporaryStorage.getRoot(), "keystore.jceks");
+    byte[] original = KeyStoreKnife.open(new File(fixtures.getFixtureFilePath("keystore.jceks")), "JCEKS", PASSWORD)
+        .getSecretKey("foobar", PASSWORD).getEncoded();
+
+    String printed = run("--target-type", "JCEKS", "--target-key-password", "keypassword", "--verify", "none",
+        fixtures.getFixtureFilePath("keystore.jceks"), PASSWORD, targetFile.getPath(), PASSWORD);
+
+    assertThat(printed).contains("1 entries converted to JCEKS").doesNotContain("checked");
+    assertThat(KeyStoreKnife.open(targetFile, "JCEKS", PASSWORD).getSecretKey("foobar", "keypassword").getEncoded())
+        .isEqualTo(original);
+  }
+
+  // runs the command and returns what it printed to standard output
+  private static String run(String... args) throws Exception {
+    ConvertCommand command = new ConvertCommand();
+    Subparser subparser = ArgumentParsers.newArgumentParser("knife").addSubparsers().addParser(command.getName());
+    command.configure(subparser);
+
+    ByteArrayOutputStream printed = new ByteArrayOutputStream();
+    PrintStream standardOutput = System.out;
+    System.setOut(new PrintStream(printed, true, "UTF-8"));
+    try {
+      command.run(null, subparser.parseArgs(args));
+    } finally {
+      System.setOut(standardOutput);
+    }
+    return new String(printed.toByteArray(), StandardCharsets.UTF_8);
+  }
+}
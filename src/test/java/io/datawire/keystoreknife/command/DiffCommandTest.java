@@ -0,0 +1,97 @@
+/*
+ * Copyright 2016 Datawire. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.datawire.keystoreknife.command;
+
+
+import io.datawire.keystoreknife.KeyStoreKnife;
+import io.datawire.util.test.Fixtures;
+import net.sourceforge.argparse4j.ArgumentParsers;
+import net.sourceforge.argparse4j.inf.Subparser;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import javax.crypto.spec.SecretKeySpec;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.PrintStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.security.KeyStore;
+
+import static org.assertj.core.api.Assertions.*;
+
+public class DiffCommandTest {
+
+  private static final String PASSWORD = "notasecret";
+
+  @Rule
+  public TemporaryFolder temporaryStorage = new TemporaryFolder();
+
+  private final Fixtures fixtures = new Fixtures();
+
+  private File original;
+  private File extended;
+
+  @Before
+  public void setup() throws Exception {
+    original = temporaryStorage.newFile("original.jceks");
+    Files.copy(new File(fixtures.getFixtureFilePath("keystore.jceks")).toPath(), original.toPath(),
+        StandardCopyOption.REPLACE_EXISTING);
+
+    extended = temporaryStorage.newFile("extended.jceks");
+    KeyStoreKnife knife = KeyStoreKnife.open(original, "JCEKS", PASSWORD);
+    knife.setSecretKey("alpha", new KeyStore.SecretKeyEntry(
+        new SecretKeySpec("alpha".getBytes(StandardCharsets.UTF_8), "HmacSHA256")), PASSWORD);
+    knife.save(extended, PASSWORD);
+  }
+
+  @Test
+  public void run_entryOnlyOnTheRight_ListsItAndCountsTheRestAsTheSame() throws Exception {
+    String printed = run("--key-password", PASSWORD, original.getPath(), PASSWORD, extended.getPath(), PASSWORD);
+
+    assertThat(printed).contains("only-right -> alpha").doesNotContain("foobar")
+        .contains("0 changed, 0 only left, 1 only right, 1 the same");
+  }
+
+  @Test
+  public void run_all_AlsoListsTheEntriesThatAreTheSame() throws Exception {
+    String printed = run("--all", "--key-password", PASSWORD, extended.getPath(), PASSWORD, original.getPath(),
+        PASSWORD);
+
+    assertThat(printed).contains("only-left  -> alpha").contains("-> foobar");
+  }
+
+  // runs the command and returns what it printed to standard output
+  private static String run(String... args) throws Exception {
+    DiffCommand command = new DiffCommand();
+    Subparser subparser = ArgumentParsers.newArgumentParser("knife").addSubparsers().addParser(command.getName());
+    command.configure(subparser);
+
+    ByteArrayOutputStream printed = new ByteArrayOutputStream();
+    PrintStream standardOutput = System.out;
+    System.setOut(new PrintStream(printed, true, "UTF-8"));
+    try {
+      command.run(null, subparser.parseArgs(args));
+    } finally {
+      System.setOut(standardOutput);
+    }
+    return new String(printed.toByteArray(), StandardCharsets.UTF_8);
+  }
+}
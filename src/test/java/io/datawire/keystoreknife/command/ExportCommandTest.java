@@ -0,0 +1,79 @@
+/*
+ * Copyright 2016 Datawire. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.datawire.keystoreknife.command;
+
+
+import io.datawire.util.test.Fixtures;
+import net.sourceforge.argparse4j.ArgumentParsers;
+import net.sourceforge.argparse4j.inf.Subparser;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.PrintStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+
+import static org.assertj.core.api.Assertions.*;
+
+public class ExportCommandTest {
+
+  private static final String PASSWORD = "notasecret";
+
+  @Rule
+  public TemporaryFolder temporaryStorage = new TemporaryFolder();
+
+  private final Fixtures fixtures = new Fixtures();
+
+  @Test
+  public void run_toStdout_PrintsOneLinePerEntry() throws Exception {
+    String printed = run(fixtures.getFixtureFilePath("keystore.jceks"), "--encoding", "base16", PASSWORD);
+
+    assertThat(printed.split(System.lineSeparator())).hasSize(1);
+    assertThat(printed).startsWith("{\"alias\":\"foobar\",\"type\":\"secret\",").contains("\"encoding\":\"base16\"");
+  }
+
+  @Test
+  public void run_unmatchedAliasPatternToFile_WritesAnEmptyFile() throws Exception {
+    File outputFile = new File(temporaryStorage.getRoot(), "entries.ndjson");
+
+    String printed = run(fixtures.getFixtureFilePath("keystore.jceks"), "--alias-pattern", "session-*",
+        "--out", outputFile.getPath(), PASSWORD);
+
+    assertThat(printed).isEmpty();
+    assertThat(Files.readAllBytes(outputFile.toPath())).isEmpty();
+  }
+
+  // runs the command and returns what it printed to standard output
+  private static String run(String... args) throws Exception {
+    ExportCommand command = new ExportCommand();
+    Subparser subparser = ArgumentParsers.newArgumentParser("knife").addSubparsers().addParser(command.getName());
+    command.configure(subparser);
+
+    ByteArrayOutputStream printed = new ByteArrayOutputStream();
+    PrintStream standardOutput = System.out;
+    System.setOut(new PrintStream(printed, true, "UTF-8"));
+    try {
+      command.run(null, subparser.parseArgs(args));
+    } finally {
+      System.setOut(standardOutput);
+    }
+    return new String(printed.toByteArray(), StandardCharsets.UTF_8);
+  }
+}
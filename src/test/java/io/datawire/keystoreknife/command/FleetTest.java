@@ -0,0 +1,148 @@
+/*
+ * Copyright 2016 Datawire. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.datawire.keystoreknife.command;
+
+
+import io.datawire.keystoreknife.KeyStoreKnife;
+import io.datawire.keystoreknife.exception.KeyStoreKnifeException;
+import io.datawire.keystoreknife.util.Json;
+import net.sourceforge.argparse4j.ArgumentParsers;
+import net.sourceforge.argparse4j.inf.Namespace;
+import net.sourceforge.argparse4j.inf.Subparser;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import javax.crypto.spec.SecretKeySpec;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.security.KeyStore;
+import java.util.Arrays;
+import java.util.concurrent.ForkJoinPool;
+
+import static org.assertj.core.api.Assertions.*;
+
+public class FleetTest {
+
+  private static final String PASSWORD = "notasecret";
+
+  @Rule
+  public TemporaryFolder temporaryStorage = new TemporaryFolder();
+
+  @Test
+  public void find_nestedDirectories_ReturnsMatchingKeyStoresInPathOrder() throws Exception {
+    File root = temporaryStorage.getRoot();
+    File first = createKeyStore(new File(root, "pod-b/keystore.jceks"));
+    File second = createKeyStore(new File(root, "pod-a/keystore.jceks"));
+    Files.write(new File(root, "pod-a/keystore.jceks.lock").toPath(), new byte[0]);
+    Files.write(new File(root, "pod-a/.keystore.jceks.123.tmp").toPath(), new byte[0]);
+    Files.write(new File(root, "pod-a/README").toPath(), new byte[0]);
+
+    assertThat(Fleet.find(root, "**")).containsExactly(new File(root, "pod-a/README"), second, first);
+    assertThat(Fleet.find(root, "**.jceks")).containsExactly(second, first);
+    assertThat(Fleet.find(root, "pod-b/*")).containsExactly(first);
+  }
+
+  @Test
+  public void run_oneFileFails_ProcessesTheOthersAndReportsTheFailure() throws Exception {
+    File root = temporaryStorage.getRoot();
+    File good = createKeyStore(new File(root, "a.jceks"));
+    File bad = new File(root, "b.jceks");
+    Files.write(bad.toPath(), "not a keystore".getBytes(StandardCharsets.UTF_8));
+    File alsoGood = createKeyStore(new File(root, "c.jceks"));
+
+    ForkJoinPool pool = new ForkJoinPool(2);
+    Fleet fleet;
+    try {
+      fleet = Fleet.run(root, Arrays.asList(good, bad, alsoGood), pool,
+          file -> KeyStoreKnife.open(file, "JCEKS", PASSWORD).getAliases(null).toString());
+    } finally {
+      pool.shutdown();
+    }
+
+    assertThat(fleet.getFailedCount()).isEqualTo(1);
+    assertThat(fleet.getResults()).extracting(Fleet.Result::getOutput).containsExactly("[key]", null, "[key]");
+    assertThat(fleet.getResults().get(1).getError()).contains("Invalid keystore format");
+    assertThat(fleet.toJson())
+        .contains("\"keystores\":3,\"succeeded\":2,\"failed\":1")
+        .contains("\"keystore\":" + Json.quote(bad.getPath()) + ",\"status\":\"failed\"");
+  }
+
+  @Test
+  public void run_replaceCommandOnDirectory_ReplacesTheSecretInEveryKeyStore() throws Exception {
+    File root = temporaryStorage.newFolder("pods");
+    File first = createKeyStore(new File(root, "pod-a/keystore.jceks"));
+    File second = createKeyStore(new File(root, "pod-b/keystore.jceks"));
+    File output = new File(temporaryStorage.getRoot(), "rotated");
+    File report = new File(temporaryStorage.getRoot(), "report.json");
+
+    ReplaceCommand command = new ReplaceCommand();
+    Subparser subparser = ArgumentParsers.newArgumentParser("knife").addSubparsers().addParser(command.getName());
+    command.configure(subparser);
+    Namespace namespace = subparser.parseArgs(new String[] {
+        root.getPath(), "--out", output.getPath(), "--report", report.getPath(), "--durability", "none",
+        PASSWORD, "key", PASSWORD, "rotated"});
+
+    command.run(null, namespace);
+
+    for (File keyStore : Arrays.asList(first, second)) {
+      File rotated = Fleet.resolveOutput(root, keyStore, output);
+      byte[] secret = KeyStoreKnife.open(rotated, "JCEKS", PASSWORD).getSecretKey("key", PASSWORD).getEncoded();
+      assertThat(new String(secret, StandardCharsets.UTF_8)).isEqualTo("rotated");
+    }
+    assertThat(new String(Files.readAllBytes(report.toPath()), StandardCharsets.UTF_8))
+        .contains("\"keystores\":2,\"succeeded\":2,\"failed\":0");
+  }
+
+  @Test
+  public void run_showCommandOnDirectoryWithBrokenKeyStore_FailsAfterTheOthers() throws Exception {
+    File root = temporaryStorage.getRoot();
+    createKeyStore(new File(root, "a.jceks"));
+    Files.write(new File(root, "b.jceks").toPath(), "not a keystore".getBytes(StandardCharsets.UTF_8));
+    File report = new File(root, "report.json");
+
+    ShowCommand command = new ShowCommand();
+    Subparser subparser = ArgumentParsers.newArgumentParser("knife").addSubparsers().addParser(command.getName());
+    command.configure(subparser);
+    Namespace namespace = subparser.parseArgs(new String[] {
+        root.getPath(), "--glob", "*.jceks", "--report", report.getPath(), PASSWORD, "key", PASSWORD});
+
+    try {
+      command.run(null, namespace);
+      failBecauseExceptionWasNotThrown(KeyStoreKnifeException.class);
+    } catch (KeyStoreKnifeException ex) {
+      assertThat(ex).hasMessageStartingWith("Unable to process 1 of 2 keystores");
+    }
+    assertThat(new String(Files.readAllBytes(report.toPath()), StandardCharsets.UTF_8))
+        .contains("\"succeeded\":1,\"failed\":1");
+  }
+
+  private static File createKeyStore(File file) throws Exception {
+    Files.createDirectories(file.toPath().getParent());
+
+    KeyStore keyStore = KeyStore.getInstance("JCEKS");
+    keyStore.load(null, null);
+    SecretKeySpec key = new SecretKeySpec("secret".getBytes(StandardCharsets.UTF_8), "HmacSHA256");
+    keyStore.setEntry("key", new KeyStore.SecretKeyEntry(key), new KeyStore.PasswordProtection(PASSWORD.toCharArray()));
+    try (FileOutputStream output = new FileOutputStream(file)) {
+      keyStore.store(output, PASSWORD.toCharArray());
+    }
+    return file;
+  }
+}
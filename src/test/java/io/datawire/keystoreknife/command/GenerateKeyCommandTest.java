@@ -0,0 +1,94 @@
+/*
+ * Copyright 2016 Datawire. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.datawire.keystoreknife.command;
+
+
+import io.datawire.keystoreknife.util.Json;
+import net.sourceforge.argparse4j.ArgumentParsers;
+import net.sourceforge.argparse4j.inf.Namespace;
+import net.sourceforge.argparse4j.inf.Subparser;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.assertj.core.api.Assertions.*;
+
+public class GenerateKeyCommandTest {
+
+  @Rule
+  public TemporaryFolder temporaryStorage = new TemporaryFolder();
+
+  @Test
+  public void run_ndjsonIntoOutputFile_WritesOneRecordPerLine() throws Exception {
+    File output = new File(temporaryStorage.getRoot(), "keys.ndjson");
+
+    GenerateKeyCommand command = new GenerateKeyCommand();
+    Subparser subparser = ArgumentParsers.newArgumentParser("knife").addSubparsers().addParser(command.getName());
+    command.configure(subparser);
+    Namespace namespace = subparser.parseArgs(new String[] {
+        "HmacSHA256", "--format", "ndjson", "--count", "3", "--output-file", output.getPath()});
+
+    command.run(null, namespace);
+
+    List<String> lines = Files.readAllLines(output.toPath(), StandardCharsets.UTF_8);
+    assertThat(lines).hasSize(3);
+    for (String line : lines) {
+      assertThat(Json.parseObject(line)).containsKeys("alias", "base16", "base64", "base64_url");
+    }
+  }
+
+  @Test
+  public void run_countWithoutNumberInAliasPattern_Fails() throws Exception {
+    File keyStore = new File(temporaryStorage.getRoot(), "keys.jceks");
+
+    assertThatThrownBy(() -> run("HmacSHA256", "--count", "2", "--alias-pattern", "key",
+        "--into-keystore", keyStore.getPath(), "--keystore-password", "notasecret"))
+        .isInstanceOf(IllegalArgumentException.class);
+    assertThat(keyStore).doesNotExist();
+  }
+
+  @Test
+  public void run_intoKeyStoreWithExistingAliases_FailsUnlessOverwriting() throws Exception {
+    File keyStore = new File(temporaryStorage.getRoot(), "keys.jceks");
+    String[] args = {"HmacSHA256", "--count", "2", "--into-keystore", keyStore.getPath(), "--keystore-password",
+        "notasecret"};
+
+    run(args);
+    byte[] written = Files.readAllBytes(keyStore.toPath());
+
+    assertThatThrownBy(() -> run(args)).isInstanceOf(IllegalArgumentException.class).hasMessageContaining("key-1");
+    assertThat(Files.readAllBytes(keyStore.toPath())).isEqualTo(written);
+
+    String[] overwrite = Arrays.copyOf(args, args.length + 1);
+    overwrite[args.length] = "--overwrite";
+    run(overwrite);
+    assertThat(Files.readAllBytes(keyStore.toPath())).isNotEqualTo(written);
+  }
+
+  private static void run(String... args) throws Exception {
+    GenerateKeyCommand command = new GenerateKeyCommand();
+    Subparser subparser = ArgumentParsers.newArgumentParser("knife").addSubparsers().addParser(command.getName());
+    command.configure(subparser);
+    command.run(null, subparser.parseArgs(args));
+  }
+}
@@ -0,0 +1,90 @@
+/*
+ * Copyright 2016 Datawire. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.datawire.keystoreknife.command;
+
+
+import io.datawire.app.command.Command;
+import io.datawire.keystoreknife.KeyStoreKnife;
+import io.datawire.util.test.Fixtures;
+import net.sourceforge.argparse4j.ArgumentParsers;
+import net.sourceforge.argparse4j.inf.Subparser;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.InputStream;
+import java.io.PrintStream;
+import java.nio.charset.StandardCharsets;
+
+import static org.assertj.core.api.Assertions.*;
+
+public class ImportCommandTest {
+
+  private static final String PASSWORD = "notasecret";
+
+  @Rule
+  public TemporaryFolder temporaryStorage = new TemporaryFolder();
+
+  private final Fixtures fixtures = new Fixtures();
+
+  @Test
+  public void run_exportedEntriesIntoNewKeyStore_CreatesItWithTheSameKeys() throws Exception {
+    File exported = new File(temporaryStorage.getRoot(), "entries.ndjson");
+    run(new ExportCommand(), null, fixtures.getFixtureFilePath("keystore.jceks"), "--out", exported.getPath(), PASSWORD);
+    File keyStoreFile = new File(temporaryStorage.getRoot(), "imported.jceks");
+
+    String printed = run(new ImportCommand(), null, keyStoreFile.getPath(), PASSWORD, exported.getPath());
+
+    assertThat(printed).contains("1 entries imported");
+    byte[] original = KeyStoreKnife.open(new File(fixtures.getFixtureFilePath("keystore.jceks")), "JCEKS", PASSWORD)
+        .getSecretKey("foobar", PASSWORD).getEncoded();
+    assertThat(KeyStoreKnife.open(keyStoreFile, "JCEKS", PASSWORD).getSecretKey("foobar", PASSWORD).getEncoded())
+        .isEqualTo(original);
+  }
+
+  @Test
+  public void run_keyStoreAndEntriesBothFromStdin_ThrowsIllegalArgumentException() throws Exception {
+    try {
+      run(new ImportCommand(), new byte[0], "-", PASSWORD, "-");
+      failBecauseExceptionWasNotThrown(IllegalArgumentException.class);
+    } catch (IllegalArgumentException ex) {
+      assertThat(ex).hasMessage("The keystore and the entries cannot both be read from stdin");
+    }
+  }
+
+  // runs a command with the given standard input and returns what it printed to standard output
+  private static String run(Command command, byte[] input, String... args) throws Exception {
+    Subparser subparser = ArgumentParsers.newArgumentParser("knife").addSubparsers().addParser(command.getName());
+    command.configure(subparser);
+
+    ByteArrayOutputStream printed = new ByteArrayOutputStream();
+    InputStream standardInput = System.in;
+    PrintStream standardOutput = System.out;
+    System.setIn(new ByteArrayInputStream(input != null ? input : new byte[0]));
+    System.setOut(new PrintStream(printed, true, "UTF-8"));
+    try {
+      command.run(null, subparser.parseArgs(args));
+    } finally {
+      System.setIn(standardInput);
+      System.setOut(standardOutput);
+    }
+    return new String(printed.toByteArray(), StandardCharsets.UTF_8);
+  }
+}
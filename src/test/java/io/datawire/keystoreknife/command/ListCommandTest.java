@@ -0,0 +1,123 @@
+/*
+ * Copyright 2016 Datawire. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.datawire.keystoreknife.command;
+
+
+import io.datawire.keystoreknife.KeyStoreKnife;
+import io.datawire.util.test.Fixtures;
+import net.sourceforge.argparse4j.ArgumentParsers;
+import net.sourceforge.argparse4j.inf.Subparser;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import javax.crypto.spec.SecretKeySpec;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.PrintStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.security.KeyStore;
+
+import static org.assertj.core.api.Assertions.*;
+
+public class ListCommandTest {
+
+  private static final String PASSWORD = "notasecret";
+
+  @Rule
+  public TemporaryFolder temporaryStorage = new TemporaryFolder();
+
+  private final Fixtures fixtures = new Fixtures();
+
+  private File keyStoreFile;
+
+  @Before
+  public void setup() throws Exception {
+    keyStoreFile = temporaryStorage.newFile("keystore.jceks");
+    Files.copy(new File(fixtures.getFixtureFilePath("keystore.jceks")).toPath(), keyStoreFile.toPath(),
+        StandardCopyOption.REPLACE_EXISTING);
+
+    // both are newer than the fixture's only entry, which was created in 2016
+    KeyStoreKnife knife = KeyStoreKnife.open(keyStoreFile, "JCEKS", PASSWORD);
+    knife.setSecretKey("alpha", secret("alpha"), PASSWORD);
+    knife.setSecretKey("zeta", secret("zeta"), PASSWORD);
+    knife.save(keyStoreFile, PASSWORD);
+  }
+
+  @Test
+  public void run_defaultSort_ListsEntriesByAlias() throws Exception {
+    String[] lines = run(keyStoreFile.getPath(), "--keystore-password", PASSWORD);
+
+    assertThat(lines).hasSize(3);
+    assertThat(lines[0]).startsWith("alpha ");
+    assertThat(lines[1]).startsWith("foobar ").contains("secret-key").contains("2016-");
+    assertThat(lines[2]).startsWith("zeta ");
+  }
+
+  @Test
+  public void run_sortByDate_ListsTheOldestFirst() throws Exception {
+    String[] lines = run(keyStoreFile.getPath(), "--sort", "date");
+
+    assertThat(lines).hasSize(3);
+    assertThat(lines[0]).startsWith("foobar ");
+  }
+
+  @Test
+  public void run_aliasPatternAsNdjson_PrintsOneObjectPerMatchingEntry() throws Exception {
+    String[] lines = run(keyStoreFile.getPath(), "--alias-pattern", "*a", "--format", "ndjson");
+
+    assertThat(lines).hasSize(2);
+    assertThat(lines[0]).startsWith("{\"alias\":\"alpha\",\"type\":\"secret-key\",\"algorithm\":null,")
+        .endsWith("\"}");
+    assertThat(lines[1]).startsWith("{\"alias\":\"zeta\",");
+  }
+
+  @Test
+  public void run_aliasPatternAndRegex_ThrowsIllegalArgumentException() throws Exception {
+    try {
+      run(keyStoreFile.getPath(), "--alias-pattern", "*", "--alias-regex", ".*");
+      failBecauseExceptionWasNotThrown(IllegalArgumentException.class);
+    } catch (IllegalArgumentException ex) {
+      assertThat(ex).hasMessage("Only one of --alias-pattern and --alias-regex can be given");
+    }
+  }
+
+  private static KeyStore.SecretKeyEntry secret(String value) {
+    return new KeyStore.SecretKeyEntry(new SecretKeySpec(value.getBytes(StandardCharsets.UTF_8), "HmacSHA256"));
+  }
+
+  // runs the command and returns the lines it printed to standard output
+  private static String[] run(String... args) throws Exception {
+    ListCommand command = new ListCommand();
+    Subparser subparser = ArgumentParsers.newArgumentParser("knife").addSubparsers().addParser(command.getName());
+    command.configure(subparser);
+
+    ByteArrayOutputStream printed = new ByteArrayOutputStream();
+    PrintStream standardOutput = System.out;
+    System.setOut(new PrintStream(printed, true, "UTF-8"));
+    try {
+      command.run(null, subparser.parseArgs(args));
+    } finally {
+      System.setOut(standardOutput);
+    }
+    String output = new String(printed.toByteArray(), StandardCharsets.UTF_8);
+    return output.isEmpty() ? new String[0] : output.split(System.lineSeparator());
+  }
+}
@@ -0,0 +1,68 @@
+/*
+ * Copyright 2016 Datawire. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.datawire.keystoreknife.command;
+
+
+import org.junit.Test;
+
+import java.io.StringReader;
+import java.util.List;
+
+import static org.assertj.core.api.Assertions.*;
+
+public class ReplaceSecretsCommandTest {
+
+  @Test
+  public void readManifest_validLines_ReturnsReplacements() throws Exception {
+    String manifest = "# rotation\n" +
+        "foo,notasecret,applesauce\n" +
+        "\n" +
+        "bar,notasecret,YXBwbGVzYXVjZQ==,base64\n" +
+        "baz,\"not,a,secret\",\"say \"\"hi\"\"\"\n";
+
+    List<ReplaceSecretsCommand.Replacement> replacements =
+        ReplaceSecretsCommand.readManifest(new StringReader(manifest));
+
+    assertThat(replacements).hasSize(3);
+    assertThat(replacements.get(0).alias).isEqualTo("foo");
+    assertThat(replacements.get(0).encoding).isNull();
+    assertThat(replacements.get(1).secret).isEqualTo("YXBwbGVzYXVjZQ==");
+    assertThat(replacements.get(1).encoding).isEqualTo("base64");
+    assertThat(replacements.get(2).password).isEqualTo("not,a,secret");
+    assertThat(replacements.get(2).secret).isEqualTo("say \"hi\"");
+  }
+
+  @Test
+  public void readManifest_missingFields_ThrowsIllegalArgumentException() throws Exception {
+    try {
+      ReplaceSecretsCommand.readManifest(new StringReader("foo,notasecret\n"));
+      failBecauseExceptionWasNotThrown(IllegalArgumentException.class);
+    } catch (IllegalArgumentException ex) {
+      assertThat(ex).hasMessage("Invalid manifest line, expected alias,password,new_secret[,encoding] (line: 1)");
+    }
+  }
+
+  @Test
+  public void readManifest_unknownEncoding_ThrowsIllegalArgumentException() throws Exception {
+    try {
+      ReplaceSecretsCommand.readManifest(new StringReader("foo,notasecret,applesauce,plain\nbar,notasecret,YQ==,base46\n"));
+      failBecauseExceptionWasNotThrown(IllegalArgumentException.class);
+    } catch (IllegalArgumentException ex) {
+      assertThat(ex).hasMessage("Unsupported encoding 'base46' (line: 2)");
+    }
+  }
+}
@@ -0,0 +1,129 @@
+/*
+ * Copyright 2016 Datawire. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.datawire.keystoreknife.command;
+
+
+import io.datawire.keystoreknife.KeyStoreKnife;
+import io.datawire.util.test.Fixtures;
+import net.sourceforge.argparse4j.ArgumentParsers;
+import net.sourceforge.argparse4j.inf.Subparser;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.InputStream;
+import java.io.PrintStream;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+
+import static org.assertj.core.api.Assertions.*;
+
+public class RotateCommandTest {
+
+  private static final String PASSWORD = "notasecret";
+
+  @Rule
+  public TemporaryFolder temporaryStorage = new TemporaryFolder();
+
+  private final Fixtures fixtures = new Fixtures();
+
+  private File keyStoreFile;
+  private File policyFile;
+
+  @Before
+  public void setup() throws Exception {
+    keyStoreFile = temporaryStorage.newFile("keystore.jceks");
+    Files.copy(new File(fixtures.getFixtureFilePath("keystore.jceks")).toPath(), keyStoreFile.toPath(),
+        StandardCopyOption.REPLACE_EXISTING);
+    policyFile = temporaryStorage.newFile("policy");
+  }
+
+  @Test
+  public void run_dryRun_ReportsStaleKeysWithoutSaving() throws Exception {
+    writePolicy("* 90d HmacSHA256");
+    byte[] original = Files.readAllBytes(keyStoreFile.toPath());
+
+    String printed = new String(run(null, keyStoreFile.getPath(), "--dry-run", PASSWORD, policyFile.getPath()),
+        StandardCharsets.UTF_8);
+
+    assertThat(printed).contains("would rotate -> foobar").contains("1 would be rotated");
+    assertThat(Files.readAllBytes(keyStoreFile.toPath())).isEqualTo(original);
+  }
+
+  @Test
+  public void run_staleKey_ReplacesIt() throws Exception {
+    writePolicy("* 90d HmacSHA256");
+    byte[] before = KeyStoreKnife.open(keyStoreFile, "JCEKS", PASSWORD).getSecretKey("foobar", PASSWORD).getEncoded();
+
+    String printed = new String(run(null, keyStoreFile.getPath(), PASSWORD, policyFile.getPath()),
+        StandardCharsets.UTF_8);
+
+    assertThat(printed).contains("rotated -> foobar").contains("1 rotated");
+    byte[] after = KeyStoreKnife.open(keyStoreFile, "JCEKS", PASSWORD).getSecretKey("foobar", PASSWORD).getEncoded();
+    assertThat(after).isNotEqualTo(before);
+  }
+
+  @Test
+  public void run_nothingStaleFromStdin_StillWritesTheKeyStoreToStdout() throws Exception {
+    writePolicy("session-* 90d HmacSHA256");
+
+    byte[] written = run(Files.readAllBytes(keyStoreFile.toPath()), "-", PASSWORD, policyFile.getPath());
+
+    KeyStoreKnife knife = KeyStoreKnife.open(ByteBuffer.wrap(written), "JCEKS", PASSWORD);
+    assertThat(knife.getAliases(null)).containsExactly("foobar");
+  }
+
+  @Test
+  public void run_nothingStaleWithSeparateOutput_StillWritesTheOutput() throws Exception {
+    writePolicy("session-* 90d HmacSHA256");
+    File outputFile = new File(temporaryStorage.getRoot(), "rotated.jceks");
+
+    run(null, keyStoreFile.getPath(), "--out", outputFile.getPath(), PASSWORD, policyFile.getPath());
+
+    assertThat(KeyStoreKnife.open(outputFile, "JCEKS", PASSWORD).getAliases(null)).containsExactly("foobar");
+  }
+
+  private void writePolicy(String policy) throws Exception {
+    Files.write(policyFile.toPath(), policy.getBytes(StandardCharsets.UTF_8));
+  }
+
+  // runs the command with the given standard input and returns what it printed to standard output
+  private static byte[] run(byte[] input, String... args) throws Exception {
+    RotateCommand command = new RotateCommand();
+    Subparser subparser = ArgumentParsers.newArgumentParser("knife").addSubparsers().addParser(command.getName());
+    command.configure(subparser);
+
+    ByteArrayOutputStream printed = new ByteArrayOutputStream();
+    InputStream standardInput = System.in;
+    PrintStream standardOutput = System.out;
+    System.setIn(new ByteArrayInputStream(input != null ? input : new byte[0]));
+    System.setOut(new PrintStream(printed, true, "UTF-8"));
+    try {
+      command.run(null, subparser.parseArgs(args));
+    } finally {
+      System.setIn(standardInput);
+      System.setOut(standardOutput);
+    }
+    return printed.toByteArray();
+  }
+}
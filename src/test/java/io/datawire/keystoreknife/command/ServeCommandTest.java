@@ -0,0 +1,67 @@
+/*
+ * Copyright 2016 Datawire. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.datawire.keystoreknife.command;
+
+
+import net.sourceforge.argparse4j.inf.Namespace;
+import org.junit.Test;
+
+import java.io.File;
+import java.nio.charset.StandardCharsets;
+import java.util.HashMap;
+import java.util.Map;
+
+import static org.assertj.core.api.Assertions.*;
+
+public class ServeCommandTest {
+
+  @Test
+  public void parseArguments_nulSeparatedBody_ReturnsArguments() {
+    byte[] body = "show-secret\0/tmp/key store.jceks\0\0ALIAS\0".getBytes(StandardCharsets.UTF_8);
+    assertThat(ServeCommand.parseArguments(body)).containsExactly("show-secret", "/tmp/key store.jceks", "", "ALIAS");
+  }
+
+  @Test
+  public void parseArguments_emptyBody_ReturnsNoArguments() {
+    assertThat(ServeCommand.parseArguments(new byte[0])).isEmpty();
+  }
+
+  @Test
+  public void usesStandardStreams_dashFileArgument_ReturnsTrue() {
+    Map<String, Object> attributes = new HashMap<>();
+    attributes.put("keystore", new File("-"));
+    attributes.put("keystore_password", "notasecret");
+    assertThat(ServeCommand.usesStandardStreams(new Namespace(attributes))).isTrue();
+  }
+
+  @Test
+  public void usesStandardStreams_dashManifest_ReturnsTrue() {
+    Map<String, Object> attributes = new HashMap<>();
+    attributes.put("keystore", new File("keystore.jceks"));
+    attributes.put("manifest", "-");
+    assertThat(ServeCommand.usesStandardStreams(new Namespace(attributes))).isTrue();
+  }
+
+  @Test
+  public void usesStandardStreams_dashPassword_ReturnsFalse() {
+    Map<String, Object> attributes = new HashMap<>();
+    attributes.put("keystore", new File("keystore.jceks"));
+    attributes.put("keystore_password", "-");
+    attributes.put("secret", "-");
+    assertThat(ServeCommand.usesStandardStreams(new Namespace(attributes))).isFalse();
+  }
+}
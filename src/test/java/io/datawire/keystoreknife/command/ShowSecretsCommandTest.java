@@ -0,0 +1,82 @@
+/*
+ * Copyright 2016 Datawire. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.datawire.keystoreknife.command;
+
+
+import io.datawire.util.test.Fixtures;
+import net.sourceforge.argparse4j.ArgumentParsers;
+import net.sourceforge.argparse4j.inf.Namespace;
+import net.sourceforge.argparse4j.inf.Subparser;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import javax.crypto.spec.SecretKeySpec;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.InputStream;
+import java.io.PrintStream;
+import java.nio.charset.StandardCharsets;
+import java.security.KeyStore;
+import java.security.cert.CertificateFactory;
+
+import static org.assertj.core.api.Assertions.*;
+
+public class ShowSecretsCommandTest {
+
+  private static final String PASSWORD = "notasecret";
+
+  @Rule
+  public TemporaryFolder temporaryStorage = new TemporaryFolder();
+
+  @Test
+  public void run_keyStoreWithCertificate_ShowsOnlyTheSecretKeys() throws Exception {
+    KeyStore keyStore = KeyStore.getInstance("JCEKS");
+    keyStore.load(null, null);
+    keyStore.setEntry("key", new KeyStore.SecretKeyEntry(new SecretKeySpec(new byte[] {1, 2}, "HmacSHA256")),
+        new KeyStore.PasswordProtection(PASSWORD.toCharArray()));
+    try (InputStream certificate = new Fixtures().loadFixture("certificate.pem")) {
+      keyStore.setCertificateEntry("trusted",
+          CertificateFactory.getInstance("X.509").generateCertificate(certificate));
+    }
+
+    File keyStoreFile = temporaryStorage.newFile("mixed.jceks");
+    try (FileOutputStream output = new FileOutputStream(keyStoreFile)) {
+      keyStore.store(output, PASSWORD.toCharArray());
+    }
+
+    ShowSecretsCommand command = new ShowSecretsCommand();
+    Subparser subparser = ArgumentParsers.newArgumentParser("knife").addSubparsers().addParser(command.getName());
+    command.configure(subparser);
+    Namespace namespace = subparser.parseArgs(new String[] {keyStoreFile.getPath(), PASSWORD, PASSWORD});
+
+    ByteArrayOutputStream printed = new ByteArrayOutputStream();
+    PrintStream standardOutput = System.out;
+    System.setOut(new PrintStream(printed, true, "UTF-8"));
+    try {
+      command.run(null, namespace);
+    } finally {
+      System.setOut(standardOutput);
+    }
+
+    assertThat(new String(printed.toByteArray(), StandardCharsets.UTF_8))
+        .contains("Key: key")
+        .contains("Hex        -> 0102")
+        .doesNotContain("trusted");
+  }
+}
@@ -0,0 +1,91 @@
+/*
+ * Copyright 2016 Datawire. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.datawire.keystoreknife.command;
+
+
+import io.datawire.keystoreknife.exception.KeyStoreKnifeException;
+import io.datawire.util.test.Fixtures;
+import net.sourceforge.argparse4j.ArgumentParsers;
+import net.sourceforge.argparse4j.inf.Subparser;
+import org.junit.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.PrintStream;
+import java.nio.charset.StandardCharsets;
+
+import static org.assertj.core.api.Assertions.*;
+
+public class VerifyCommandTest {
+
+  private static final String PASSWORD = "notasecret";
+
+  private final Fixtures fixtures = new Fixtures();
+
+  @Test
+  public void run_soundKeyStore_ReportsEveryEntryAsPassed() throws Exception {
+    ByteArrayOutputStream printed = new ByteArrayOutputStream();
+
+    run(printed, fixtures.getFixtureFilePath("keystore.jceks"), PASSWORD);
+
+    assertThat(new String(printed.toByteArray(), StandardCharsets.UTF_8))
+        .contains("ok     -> foobar")
+        .contains("1 passed, 0 failed");
+  }
+
+  @Test
+  public void run_wrongKeyPassword_PrintsTheReportAndThrowsKeyStoreKnifeException() throws Exception {
+    ByteArrayOutputStream printed = new ByteArrayOutputStream();
+    try {
+      run(printed, fixtures.getFixtureFilePath("keystore.jceks"), "--key-password", "wrong", PASSWORD);
+      failBecauseExceptionWasNotThrown(KeyStoreKnifeException.class);
+    } catch (KeyStoreKnifeException ex) {
+      assertThat(ex.getMessage()).startsWith("Keystore failed verification (problems: 1,");
+    }
+
+    assertThat(new String(printed.toByteArray(), StandardCharsets.UTF_8))
+        .contains("failed -> foobar")
+        .contains("0 passed, 1 failed");
+  }
+
+  @Test
+  public void run_wrongKeyStorePasswordAsJson_ReportsTheKeyStoreAsFailed() throws Exception {
+    ByteArrayOutputStream printed = new ByteArrayOutputStream();
+    try {
+      run(printed, fixtures.getFixtureFilePath("keystore.jceks"), "--format", "json", "wrong");
+      failBecauseExceptionWasNotThrown(KeyStoreKnifeException.class);
+    } catch (KeyStoreKnifeException ex) {
+      assertThat(ex.getMessage()).startsWith("Keystore failed verification");
+    }
+
+    assertThat(new String(printed.toByteArray(), StandardCharsets.UTF_8)).contains("\"status\":\"failed\"");
+  }
+
+  // runs the command, capturing what it prints to standard output
+  private static void run(ByteArrayOutputStream printed, String... args) throws Exception {
+    VerifyCommand command = new VerifyCommand();
+    Subparser subparser = ArgumentParsers.newArgumentParser("knife").addSubparsers().addParser(command.getName());
+    command.configure(subparser);
+
+    PrintStream standardOutput = System.out;
+    System.setOut(new PrintStream(printed, true, "UTF-8"));
+    try {
+      command.run(null, subparser.parseArgs(args));
+    } finally {
+      System.setOut(standardOutput);
+    }
+  }
+}
@@ -0,0 +1,84 @@
+/*
+ * Copyright 2016 Datawire. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.datawire.keystoreknife.metrics;
+
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.assertj.core.api.Assertions.*;
+
+public class MetricsTest {
+
+  private final Metrics metrics = Metrics.get();
+
+  @Before
+  public void setup() {
+    metrics.reset();
+    metrics.setEnabled(true);
+  }
+
+  @After
+  public void teardown() {
+    metrics.setEnabled(false);
+    metrics.reset();
+  }
+
+  @Test
+  public void start_disabled_RecordsNothing() {
+    metrics.setEnabled(false);
+    metrics.start("load", "/a.jceks").bytes(100).entries(2).close();
+
+    assertThat(metrics.getOperations()).isEmpty();
+  }
+
+  @Test
+  public void start_closedSamples_AccumulatePerOperationAndKeyStore() {
+    metrics.start("load", "/a.jceks").bytes(100).entries(2).close();
+    metrics.start("load", "/a.jceks").bytes(50).entries(1).close();
+    metrics.start("load", "/b.jceks").bytes(10).close();
+
+    assertThat(metrics.getOperations()).extracting("keyStore").containsExactly("/a.jceks", "/b.jceks");
+
+    Metrics.Operation operation = metrics.getOperations().get(0);
+    assertThat(operation.getCount()).isEqualTo(2);
+    assertThat(operation.getBytes()).isEqualTo(150);
+    assertThat(operation.getEntries()).isEqualTo(3);
+    assertThat(operation.getMaxNanos()).isLessThanOrEqualTo(operation.getTotalNanos());
+  }
+
+  @Test
+  public void toJson_recordedOperation_ReturnsSummary() {
+    metrics.start("store", "/a.jceks").bytes(42).close();
+
+    assertThat(metrics.toJson())
+        .startsWith("{\"operations\":[{\"operation\":\"store\",\"keystore\":\"/a.jceks\",\"count\":1,")
+        .contains("\"bytes\":42,\"entries\":0}");
+  }
+
+  @Test
+  public void toPrometheus_recordedOperation_ReturnsLabelledSamples() {
+    metrics.start("decrypt", "/a.jceks").entries(1).close();
+    metrics.start("command:show", null).close();
+
+    assertThat(metrics.toPrometheus())
+        .contains("# TYPE keystore_knife_operations_total counter\n")
+        .contains("keystore_knife_operations_total{operation=\"decrypt\",keystore=\"/a.jceks\"} 1\n")
+        .contains("keystore_knife_operation_entries_total{operation=\"command:show\"} 0\n");
+  }
+}
@@ -0,0 +1,58 @@
+/*
+ * Copyright 2016 Datawire. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.datawire.keystoreknife.util;
+
+
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Map;
+
+import static org.assertj.core.api.Assertions.*;
+
+public class JsonTest {
+
+  @Test
+  public void parseObject_nestedValues_ReturnsMapsListsAndScalars() {
+    Map<String, Object> parsed = Json.parseObject(
+        " {\"a\":\"x\\\"y\\u0041\",\"b\":[1,-2.5,true,null],\"c\":{\"d\":false},\"e\":{}} ");
+
+    assertThat(parsed).containsKeys("a", "b", "c", "e");
+    assertThat(parsed.get("a")).isEqualTo("x\"yA");
+    assertThat(parsed.get("b")).isEqualTo(Arrays.asList(1L, -2.5, true, null));
+    assertThat(parsed.get("c")).isEqualTo(Collections.singletonMap("d", false));
+    assertThat((Map<?, ?>) parsed.get("e")).isEmpty();
+  }
+
+  @Test
+  public void parseObject_quotedString_RoundTrips() {
+    String value = "tab\there \"quoted\" \\ back\nslash \u0001";
+
+    assertThat(Json.parseObject("{\"v\":" + Json.quote(value) + "}").get("v")).isEqualTo(value);
+  }
+
+  @Test
+  public void parseObject_trailingContent_Throws() {
+    try {
+      Json.parseObject("{\"a\":1} x");
+      failBecauseExceptionWasNotThrown(IllegalArgumentException.class);
+    } catch (IllegalArgumentException ex) {
+      assertThat(ex).hasMessage("Unexpected content after object at index 8");
+    }
+  }
+}